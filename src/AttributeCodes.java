@@ -0,0 +1,161 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Dictionary encoded form of a data set, for learners that treat attributes as categories. Each attribute's distinct
+ * values get an int code, so checking whether two rows share a value is an int comparison instead of a call to
+ * AttributeValue.equals
+ */
+public class AttributeCodes {
+    final int numRows;
+    final int numAttributes;
+    // indexed by [attribute][row]
+    final int[][] codes;
+    final AttributeDictionary[] dictionaries;
+    final int[] classIndices;
+    // for a subset of other data, the row of the original data each row came from
+    final FoldRows rows;
+    // how much each row counts for, null when every row weighs 1
+    final SampleWeights weights;
+
+    /**
+     * Encode a list of points
+     * @param dataPoints The points to encode
+     * @param numAttributes The number of attributes of each point, not including the classification
+     */
+    public AttributeCodes(List<DataPoint> dataPoints, int numAttributes) {
+        this.numRows = dataPoints.size();
+        this.numAttributes = numAttributes;
+        codes = new int[numAttributes][numRows];
+        dictionaries = new AttributeDictionary[numAttributes];
+        classIndices = new int[numRows];
+        rows = null;
+        weights = null;
+        for (int att = 0; att < numAttributes; att++) {
+            dictionaries[att] = new AttributeDictionary();
+        }
+        for (int row = 0; row < numRows; row++) {
+            DataPoint point = dataPoints.get(row);
+            classIndices[row] = point.classificationIndex;
+            for (int att = 0; att < numAttributes; att++) {
+                codes[att][row] = dictionaries[att].codeOf(point.attributes[att]);
+            }
+        }
+    }
+
+    /**
+     * Encode a subset of the rows of data that has already been encoded. The subset gets its own dictionaries holding
+     * only the values that appear in it, in order of first appearance, but each distinct value is only looked up once
+     * rather than once per row
+     * @param original The encoded data
+     * @param rows The rows of the original data that are part of the subset
+     */
+    public AttributeCodes(AttributeCodes original, FoldRows rows) {
+        this.numRows = rows.size();
+        this.numAttributes = original.numAttributes;
+        codes = new int[numAttributes][numRows];
+        dictionaries = new AttributeDictionary[numAttributes];
+        classIndices = new int[numRows];
+        this.rows = rows;
+        weights = original.weights;
+        for (int row = 0; row < numRows; row++) {
+            classIndices[row] = original.classIndices[rows.get(row)];
+        }
+        for (int att = 0; att < numAttributes; att++) {
+            AttributeDictionary originalDictionary = original.dictionaries[att];
+            int[] originalCodes = original.codes[att];
+            int[] codeOf = new int[originalDictionary.size()];
+            Arrays.fill(codeOf, -1);
+            dictionaries[att] = new AttributeDictionary();
+            for (int row = 0; row < numRows; row++) {
+                int originalCode = originalCodes[rows.get(row)];
+                if(codeOf[originalCode] == -1) {
+                    codeOf[originalCode] = dictionaries[att].codeOf(originalDictionary.get(originalCode));
+                }
+                codes[att][row] = codeOf[originalCode];
+            }
+        }
+    }
+
+    /**
+     * Share the codes of other encoded data, but weigh the rows differently
+     * @param other The encoded data
+     * @param weights The weights of the rows of the original data, or null for every row to weigh 1
+     */
+    public AttributeCodes(AttributeCodes other, SampleWeights weights) {
+        this.numRows = other.numRows;
+        this.numAttributes = other.numAttributes;
+        this.codes = other.codes;
+        this.dictionaries = other.dictionaries;
+        this.classIndices = other.classIndices;
+        this.rows = other.rows;
+        this.weights = weights;
+    }
+
+    public int numRows() {
+        return numRows;
+    }
+
+    public int numAttributes() {
+        return numAttributes;
+    }
+
+    public int code(int row, int att) {
+        return codes[att][row];
+    }
+
+    /**
+     * The codes of one attribute, which are shared and must not be modified
+     * @param att The index of the attribute
+     * @return The code of each row's value
+     */
+    public int[] codes(int att) {
+        return codes[att];
+    }
+
+    public int classIndex(int row) {
+        return classIndices[row];
+    }
+
+    public boolean isWeighted() {
+        return weights != null;
+    }
+
+    /**
+     * @param row The row of the data
+     * @return How much the row counts for when learning, 1 unless the data has been weighted
+     */
+    public double weight(int row) {
+        if(weights == null) return 1;
+        return weights.weight(rows == null ? row : rows.get(row), classIndices[row]);
+    }
+
+    /**
+     * @param att The index of the attribute
+     * @return The number of distinct values of the attribute
+     */
+    public int numValues(int att) {
+        return dictionaries[att].size();
+    }
+
+    public AttributeDictionary dictionary(int att) {
+        return dictionaries[att];
+    }
+
+    /**
+     * The distinct values of every attribute, in the form Data.inferPossibleAttributeValues gives them
+     * @return For each attribute, a list of its distinct values indexed by code
+     */
+    public ArrayList<ArrayList<AttributeValue>> possibleValues() {
+        ArrayList<ArrayList<AttributeValue>> possibleValues = new ArrayList<>();
+        for (int att = 0; att < numAttributes; att++) {
+            possibleValues.add(new ArrayList<>(dictionaries[att].values()));
+        }
+        return possibleValues;
+    }
+
+    public String toString() {
+        return "AttributeCodes - " + numRows + " rows, " + numAttributes + " attributes";
+    }
+}
@@ -0,0 +1,88 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The distinct values of one attribute, each given an int code in order of first appearance. Values are found through
+ * a hash index rather than a search of the list, while still treating values as equal exactly when
+ * AttributeValue.equals does (so numbers within its epsilon of each other share a code)
+ */
+class AttributeDictionary {
+    // must match the epsilon used by AttributeValue.equals
+    static final double EPSILON = .000001d;
+    private static final Object WILDCARD = new Object();
+
+    private final ArrayList<AttributeValue> values = new ArrayList<>();
+    // numbers are indexed by which epsilon wide bucket they fall in, anything else by its value
+    private final HashMap<Long, ArrayList<Integer>> numericIndex = new HashMap<>();
+    private final HashMap<Object, Integer> index = new HashMap<>();
+
+    public int size() {
+        return values.size();
+    }
+
+    public AttributeValue get(int code) {
+        return values.get(code);
+    }
+
+    /**
+     * @return The distinct values, indexed by code
+     */
+    public ArrayList<AttributeValue> values() {
+        return values;
+    }
+
+    /**
+     * Find the code of a value without adding it
+     * @param value The value to look up
+     * @return The value's code, or -1 if it isn't in the dictionary
+     */
+    public int indexOf(AttributeValue value) {
+        if(!value.isNumeric()) {
+            Integer code = index.get(value.isWildcard() ? WILDCARD : value.getValue());
+            return code == null ? -1 : code;
+        }
+        // anything within epsilon is in the same bucket or one of its neighbours
+        long bucket = bucketOf(value.getDouble());
+        int firstCode = -1;
+        for (long neighbour = bucket - 1; neighbour <= bucket + 1; neighbour++) {
+            ArrayList<Integer> codes = numericIndex.get(neighbour);
+            if(codes == null) continue;
+            for(int code: codes) {
+                if((firstCode == -1 || code < firstCode) && values.get(code).equals(value)) {
+                    firstCode = code;
+                }
+            }
+        }
+        return firstCode;
+    }
+
+    /**
+     * Find the code of a value, adding it to the dictionary if it hasn't been seen before
+     * @param value The value to look up
+     * @return The value's code
+     */
+    public int codeOf(AttributeValue value) {
+        int code = indexOf(value);
+        if(code != -1) return code;
+
+        code = values.size();
+        values.add(value);
+        if(value.isNumeric()) {
+            long bucket = bucketOf(value.getDouble());
+            ArrayList<Integer> codes = numericIndex.get(bucket);
+            if(codes == null) {
+                codes = new ArrayList<>(1);
+                numericIndex.put(bucket, codes);
+            }
+            codes.add(code);
+        }
+        else {
+            index.put(value.isWildcard() ? WILDCARD : value.getValue(), code);
+        }
+        return code;
+    }
+
+    private static long bucketOf(double value) {
+        return (long) Math.floor(value / EPSILON);
+    }
+}
@@ -82,6 +82,18 @@ class AttributeValue {
         return value.equals(other.getValue());
     }
 
+    /**
+     * Consistent with equals - numbers are only equal to within an epsilon, so they can't be told apart by their
+     * hash and all share one. Hashed collections of values that may be numbers should key on AttributeDictionary
+     * codes instead
+     */
+    @Override
+    public int hashCode() {
+        if(isWildcard()) return 0;
+        if(isNumeric()) return 1;
+        return value.hashCode();
+    }
+
     public Double minus(AttributeValue other) {
         if (this.isNumeric() && other.isNumeric()) {
             return (Double) value - (Double) other.getValue();
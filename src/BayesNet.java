@@ -4,6 +4,10 @@ import java.util.*;
  * Uses the K2 algorithm to determine a Bayesian network structure, then uses that structure to predict point classifications
  */
 public class BayesNet {
+    // the most counts k2Formula keeps for every combination of parent values, past which it only counts combinations
+    // that occur
+    static final int MAX_K2_COUNTS = 1 << 22;
+
     /**
      * Print some output to help guide the user on the correct use of the command line arguments
      */
@@ -13,6 +17,12 @@ public class BayesNet {
                 "Optional Arguments: \n" +
                 "\t-x NUM\n" +
                 "\t\tn-fold cross validation\n" +
+                "\t-stratify\n" +
+                "\t\tGive every fold the same share of each classification\n" +
+                "\t-repeat NUM\n" +
+                "\t\tRepeat the cross validation NUM times with different folds\n" +
+                "\t-threads NUM\n" +
+                "\t\tThe most folds to run at the same time (defaults to the number of processors)\n" +
                 "\t-u NUM\n" +
                 "\t\tUpper bound on number of parents per node (default 2)\n" +
                 "\t-v\n" +
@@ -20,7 +30,9 @@ public class BayesNet {
                 "\t-s NUM\n" +
                 "\t\tShuffle the ordering of the attributes to find the best tree structure (best of NUM orderings)\n" +
                 "\t-balance\n" +
-                "\t\tDuplicate existing data points so that all classifications are equally likely\n";
+                "\t\tWeight the data points so that all classifications are equally likely\n" +
+                "\t-seed NUM\n" +
+                "\t\tThe seed of the random numbers, which makes the results the same however many threads are used\n";
 
         System.out.println(helpString);
         System.exit(1);
@@ -32,12 +44,16 @@ public class BayesNet {
         boolean verbose = false;
         String trainingDataFile = null;
         int crossFoldNumFolds = -1;
+        boolean stratifyFolds = false;
+        int numRepeats = 1;
+        int numThreads = Runtime.getRuntime().availableProcessors();
         String positiveString = "0"; // using 0 as a positive so the values correspond to the indices
         boolean positiveStringSpecified = false;
         boolean shuffleAttributeOrder = false;
         int maxParents = 2;
         int numTriesPerFold = 10;
         boolean balanceClasses = false;
+        RandomStreams streams = RandomStreams.unseeded();
 
         // read in optional arguments
         try {
@@ -56,6 +72,17 @@ public class BayesNet {
                         crossFoldNumFolds = Integer.parseInt(args[argNum + 1]);
                         argNum++;
                         break;
+                    case "-stratify":
+                        stratifyFolds = true;
+                        break;
+                    case "-repeat":
+                        numRepeats = Integer.parseInt(args[argNum + 1]);
+                        argNum++;
+                        break;
+                    case "-threads":
+                        numThreads = Integer.parseInt(args[argNum + 1]);
+                        argNum++;
+                        break;
                     case "-h":
                     case "-help":
                         printHelpString();
@@ -67,6 +94,10 @@ public class BayesNet {
                     case "-balance":
                         balanceClasses = true;
                         break;
+                    case "-seed":
+                        streams = new RandomStreams(Long.parseLong(args[argNum + 1]));
+                        argNum++;
+                        break;
                     case "-s":
                         shuffleAttributeOrder = true;
                         numTriesPerFold = Integer.parseInt(args[argNum + 1]);
@@ -91,57 +122,108 @@ public class BayesNet {
         Data data = new Data();
         data.initializeForBinaryData(positiveString);
         FileIO.readFromFile(trainingDataFile, data);
-        if(balanceClasses) data.bootstrapToBalanceClasses();
-
-        data.initializeDataForCrossFoldValidation(crossFoldNumFolds);
-        double averageAccuracy = 0;
-        for (int i = 0; i < crossFoldNumFolds; i++) {
-            Data trainingData = data.getCrossFoldTrainingData(i);
-            Data testData = data.getCrossFoldTestData(i);
-//            System.out.println("Training data: " + trainingData.toString());
-//            System.out.println("Test data: " + testData.toString());
-
-            ArrayList<ArrayList<Integer>> bestParentIndices = null;
-            double bestTreeScore = -Double.MAX_VALUE;
-
-            if(shuffleAttributeOrder) {
-                for (int orderNumber = 0; orderNumber < numTriesPerFold; orderNumber++) {
-                    ArrayList<Integer> nodeOrdering = new ArrayList<>();
-                    for (int j = 0; j < trainingData.numAttributes; j++) {
-                        nodeOrdering.add(j);
+        if(balanceClasses) data.balanceClasses();
+
+        final int parentLimit = maxParents;
+        final boolean shuffleOrder = shuffleAttributeOrder;
+        final int numOrderings = numTriesPerFold;
+        // one stream splits the folds, and each fold shuffles the attributes with a stream of its own
+        final RandomStreams foldStreams = streams.child(1);
+        CrossValidation.Result<Network> result = new CrossValidation(crossFoldNumFolds)
+                .stratified(stratifyFolds)
+                .repeats(numRepeats)
+                .parallelism(numThreads)
+                .streams(streams.child(0))
+                .run(data, new CrossValidation.Trainer<Network>() {
+                    @Override
+                    public Network train(Data trainingData, Data testData, int foldNumber) {
+                        return new Network(trainingData, learnStructure(trainingData, shuffleOrder, numOrderings,
+                                parentLimit, foldStreams.child(foldNumber).random()));
                     }
-                    Collections.shuffle(nodeOrdering);
-                    ArrayList<ArrayList<Integer>> parentIndicesList = k2Algorithm(trainingData.dataPoints, nodeOrdering, maxParents);
-                    double currentTreeScore = scoreNetwork(trainingData.dataPoints, trainingData.inferPossibleAttributeValues(), parentIndicesList);
-                    if (currentTreeScore > bestTreeScore) {
-                        bestTreeScore = currentTreeScore;
-                        bestParentIndices = parentIndicesList;
+                }, new CrossValidation.Predictor<Network>() {
+                    @Override
+                    public int predict(Network network, Data testData, int row) {
+                        return predictClassification(network.trainingData, network.parentIndices, testData.dataPoints.get(row));
                     }
+                });
+
+        for(CrossValidation.Fold<Network> fold: result.folds()) {
+            System.out.println("fold " + fold.number);
+            if(verbose) {
+                ArrayList<ArrayList<Integer>> bestParentIndices = fold.model().parentIndices;
+                for (int j = 0; j < data.numAttributes; j++) {
+                    System.out.println("Node " + j + ", parents: " + bestParentIndices.get(j).toString());
                 }
+                System.out.println("Confusion matrix: \n" + fold.metrics().toString(data.classifications));
             }
-            else {
+            System.out.println("Accuracy: " + fold.accuracy());
+        }
+        if(verbose) {
+            System.out.println("Confusion matrix of all folds: \n" + result.metrics().toString(data.classifications));
+        }
+        System.out.println("The overall average accuracy is " + result.averageAccuracy());
+    }
+
+    /**
+     * A learned network structure, along with the data its probabilities are drawn from
+     */
+    static class Network {
+        final Data trainingData;
+        final ArrayList<ArrayList<Integer>> parentIndices;
+
+        Network(Data trainingData, ArrayList<ArrayList<Integer>> parentIndices) {
+            this.trainingData = trainingData;
+            this.parentIndices = parentIndices;
+        }
+    }
+
+    /**
+     * Use the K2 algorithm to find the parents of each attribute, shuffling with an unseeded generator
+     */
+    public static ArrayList<ArrayList<Integer>> learnStructure(Data trainingData, boolean shuffleAttributeOrder,
+                                                               int numOrderings, int maxParents) {
+        return learnStructure(trainingData, shuffleAttributeOrder, numOrderings, maxParents, new Random());
+    }
+
+    /**
+     * Use the K2 algorithm to find the parents of each attribute
+     * @param trainingData The data to learn the structure from
+     * @param shuffleAttributeOrder True to try several random orderings of the attributes and keep the best network,
+     *                              false to use the attributes in order
+     * @param numOrderings The number of orderings to try when shuffling
+     * @param maxParents Upper bound on the number of parents of each attribute
+     * @param generator The source of randomness for shuffling the attributes
+     * @return The parents of each attribute
+     */
+    public static ArrayList<ArrayList<Integer>> learnStructure(Data trainingData, boolean shuffleAttributeOrder,
+                                                               int numOrderings, int maxParents, Random generator) {
+        ArrayList<ArrayList<Integer>> bestParentIndices = null;
+        double bestTreeScore = -Double.MAX_VALUE;
+        AttributeCodes trainingCodes = trainingData.attributeCodes();
+
+        if(shuffleAttributeOrder) {
+            for (int orderNumber = 0; orderNumber < numOrderings; orderNumber++) {
                 ArrayList<Integer> nodeOrdering = new ArrayList<>();
                 for (int j = 0; j < trainingData.numAttributes; j++) {
                     nodeOrdering.add(j);
                 }
-                bestParentIndices = k2Algorithm(trainingData.dataPoints, nodeOrdering, maxParents);
-                bestTreeScore = scoreNetwork(trainingData.dataPoints, trainingData.inferPossibleAttributeValues(), bestParentIndices);
-            }
-            System.out.println("fold " + i);
-            int[][] confusionMatrix = new int[2][2];
-            double accuracy = determineAccuracy(trainingData, testData, bestParentIndices, confusionMatrix);
-            if(verbose) {
-                for (int j = 0; j < trainingData.numAttributes; j++) {
-                    System.out.println("Node " + j + ", parents: " + bestParentIndices.get(j).toString());
+                Collections.shuffle(nodeOrdering, generator);
+                ArrayList<ArrayList<Integer>> parentIndicesList = k2Algorithm(trainingCodes, nodeOrdering, maxParents);
+                double currentTreeScore = scoreNetwork(trainingCodes, parentIndicesList);
+                if (currentTreeScore > bestTreeScore) {
+                    bestTreeScore = currentTreeScore;
+                    bestParentIndices = parentIndicesList;
                 }
-//                System.out.println("For a score of " + bestTreeScore);
-                System.out.println("Confusion matrix: \n" + MyTools.confusionMatrixString(trainingData.classifications, confusionMatrix) + "\n");
             }
-            averageAccuracy += accuracy;
-            System.out.println("Accuracy: " + accuracy);
         }
-
-        System.out.println("The overall average accuracy is " + (averageAccuracy / crossFoldNumFolds));
+        else {
+            ArrayList<Integer> nodeOrdering = new ArrayList<>();
+            for (int j = 0; j < trainingData.numAttributes; j++) {
+                nodeOrdering.add(j);
+            }
+            bestParentIndices = k2Algorithm(trainingCodes, nodeOrdering, maxParents);
+        }
+        return bestParentIndices;
     }
 
 
@@ -150,21 +232,16 @@ public class BayesNet {
      * @param trainingData Data to gather the bayesian probabilities from
      * @param testData Data to make predictions about
      * @param parentIndices Immediate parents of attributes, indicating tree structure
-     * @param confusionMatrix A blank matrix to be edited so that it contains info on true/false class predictions
+     * @param metrics Metrics to record each prediction in
      * @return The number of correct predictions divided by the total number of predictions
      */
-    public static double determineAccuracy(Data trainingData, Data testData, ArrayList<ArrayList<Integer>> parentIndices, int[][] confusionMatrix) {
+    public static double determineAccuracy(Data trainingData, Data testData, ArrayList<ArrayList<Integer>> parentIndices, ClassificationMetrics metrics) {
         int numCorrectPredictions = 0;
-        for (int i = 0; i < confusionMatrix.length; i++) {
-            Arrays.fill(confusionMatrix[i], 0);
-        }
         for(DataPoint point: testData.dataPoints) {
-            if(point.classificationIndex == predictClassification(trainingData, parentIndices, point)) {
+            int prediction = predictClassification(trainingData, parentIndices, point);
+            metrics.record(point.classificationIndex, prediction);
+            if(point.classificationIndex == prediction) {
                 numCorrectPredictions++;
-                confusionMatrix[point.classificationIndex][point.classificationIndex]++;
-            }
-            else {
-                confusionMatrix[point.classificationIndex][1-point.classificationIndex]++;
             }
         }
         return (double)numCorrectPredictions / testData.dataPoints.size();
@@ -202,7 +279,9 @@ public class BayesNet {
 //        System.out.println("num classes: " + trainingData.classifications.size());
 //        System.out.println("num attributes: " + trainingData.numAttributes);
 
-        int[][][] fullDataBinCounts = NaiveBayes.findBinCounts(trainingData.dataPoints, trainingData.classifications.size(), trainingData.numAttributes, 2);
+        // counts are weighted if the training data is
+        DataColumns trainingColumns = trainingData.columns();
+        double[][][] fullDataBinCounts = NaiveBayes.findBinCounts(trainingColumns, trainingData.classifications.size(), 2);
         int numClasses = trainingData.classifications.size();
         // using an m-estimator that essentially is putting one data example in every bin
         final int mEstimator = fullDataBinCounts.length * fullDataBinCounts[0].length * fullDataBinCounts[0][0].length;
@@ -216,7 +295,7 @@ public class BayesNet {
             if(currentParents.size() == 0) {
                 // the current dimension has no parents, so using the full data set
                 int currentPointAttributeBin = point.attributes[attNumber].getInt();
-                int totalBetweenAllClasses = 0;
+                double totalBetweenAllClasses = 0;
                 for (int classIndex = 0; classIndex < numClasses; classIndex++) {
                     totalBetweenAllClasses += fullDataBinCounts[classIndex][attNumber][currentPointAttributeBin];
                 }
@@ -224,23 +303,24 @@ public class BayesNet {
 //                    System.out.println("attNumber: " + attNumber + ", class: " + classIndex + ", Multiplying by " + (fullDataBinCounts[classIndex][attNumber][currentPointAttributeBin] + 1) +
 //                    " / " + (totalBetweenAllClasses + mEstimator));
                     classificationProducts[classIndex] *=
-                            (double)(fullDataBinCounts[classIndex][attNumber][currentPointAttributeBin] + 1)
+                            (fullDataBinCounts[classIndex][attNumber][currentPointAttributeBin] + 1)
                             / (totalBetweenAllClasses + mEstimator);
                 }
             }
             else {
                 // the current dimension has parents, so restricting the data set to only those items that match parental values
-                ArrayList<DataPoint> dataSlice = sliceDataToMatchParentValues(trainingData.dataPoints, currentParents, point);
-                int totalBetweenAllClasses = dataSlice.size();
-                int[] classCounts = new int[numClasses];
-                Arrays.fill(classCounts, 0);
-                for(DataPoint trainingPoint: dataSlice) {
-                    classCounts[trainingPoint.classificationIndex]++;
+                double totalBetweenAllClasses = 0;
+                double[] classCounts = new double[numClasses];
+                for (int row = 0; row < trainingColumns.numRows(); row++) {
+                    if(matchesParentValues(trainingData.dataPoints.get(row), currentParents, point)) {
+                        classCounts[trainingColumns.classIndex(row)] += trainingColumns.weight(row);
+                        totalBetweenAllClasses += trainingColumns.weight(row);
+                    }
                 }
                 for (int classIndex = 0; classIndex < numClasses; classIndex++) {
 //                    System.out.println("attNumber: " + attNumber + ", class: " + classIndex + ", Multiplying by " + (classCounts[classIndex] + 1) +
 //                            " / " + (totalBetweenAllClasses + mEstimator));
-                    classificationProducts[classIndex] *= (double)(classCounts[classIndex] + 1) / (totalBetweenAllClasses + mEstimator);
+                    classificationProducts[classIndex] *= (classCounts[classIndex] + 1) / (totalBetweenAllClasses + mEstimator);
                 }
             }
         }
@@ -254,22 +334,33 @@ public class BayesNet {
      * @param matchingPoint the point that has the attributes that must be matched to
      * @return the data points that match on all the parental values
      */
-    public static ArrayList<DataPoint> sliceDataToMatchParentValues(ArrayList<DataPoint> dataPoints, ArrayList<Integer> parentIndices, DataPoint matchingPoint) {
+    public static ArrayList<DataPoint> sliceDataToMatchParentValues(List<DataPoint> dataPoints, ArrayList<Integer> parentIndices, DataPoint matchingPoint) {
         ArrayList<DataPoint> slice = new ArrayList<>();
         for(DataPoint point: dataPoints) {
             // keep data points in the training data that have parental values that match a given point
-            boolean match = true;
-            for(int i = 0; i < parentIndices.size(); i++) {
-                int currentIndex = parentIndices.get(i);
-                match &= point.attributes[currentIndex].equals(matchingPoint.attributes[currentIndex]);
-            }
-            if(match) {
+            if(matchesParentValues(point, parentIndices, matchingPoint)) {
                 slice.add(point);
             }
         }
         return slice;
     }
 
+    /**
+     * Check whether a point has the same values as another point for all of the parents of an attribute
+     * @param point the point being checked
+     * @param parentIndices the indices of the parents of the current attribute in the bayesian network
+     * @param matchingPoint the point that has the attributes that must be matched to
+     * @return true if every parental value matches
+     */
+    public static boolean matchesParentValues(DataPoint point, ArrayList<Integer> parentIndices, DataPoint matchingPoint) {
+        boolean match = true;
+        for(int i = 0; i < parentIndices.size(); i++) {
+            int currentIndex = parentIndices.get(i);
+            match &= point.attributes[currentIndex].equals(matchingPoint.attributes[currentIndex]);
+        }
+        return match;
+    }
+
     /**
      * determine the most likely bayesian network tree structure of a particular ordering by using the k2 algorithm
      * @param dataPoints training data
@@ -277,8 +368,19 @@ public class BayesNet {
      * @param maxParents the maximum number of allowed parents for each node
      * @return immediate parents of each of the nodes
      */
-    public static ArrayList<ArrayList<Integer>> k2Algorithm(ArrayList<DataPoint> dataPoints, ArrayList<Integer> nodeOrdering, int maxParents) {
-        ArrayList<ArrayList<AttributeValue>> possibleValues = Data.inferPossibleAttributeValues(dataPoints);
+    public static ArrayList<ArrayList<Integer>> k2Algorithm(List<DataPoint> dataPoints, ArrayList<Integer> nodeOrdering, int maxParents) {
+        return k2Algorithm(new AttributeCodes(dataPoints, dataPoints.get(0).attributes.length), nodeOrdering, maxParents);
+    }
+
+    /**
+     * determine the most likely bayesian network tree structure of a particular ordering by using the k2 algorithm
+     * @param trainingCodes dictionary encoded training data
+     * @param nodeOrdering the ordering being used
+     * @param maxParents the maximum number of allowed parents for each node
+     * @return immediate parents of each of the nodes
+     */
+    public static ArrayList<ArrayList<Integer>> k2Algorithm(AttributeCodes trainingCodes, ArrayList<Integer> nodeOrdering, int maxParents) {
+        double[] logFactorials = logFactorials(trainingCodes);
         ArrayList<ArrayList<Integer>> parentIndicesList = new ArrayList<>();
         // initialize the parentIndicesList to the correct size
         for (int i = 0; i < nodeOrdering.size(); i++) {
@@ -288,7 +390,7 @@ public class BayesNet {
         for (int i = 0; i < nodeOrdering.size(); i++) {
             int currentIndex = nodeOrdering.get(i);
             ArrayList<Integer> parentIndices = new ArrayList<>();
-            double p_old = k2Formula(dataPoints, possibleValues, currentIndex, parentIndices);
+            double p_old = k2Formula(trainingCodes, logFactorials, currentIndex, parentIndices);
             boolean okToProceed = true;
             while(okToProceed && parentIndices.size() < maxParents) {
                 double p_new = - Double.MAX_VALUE;
@@ -300,7 +402,7 @@ public class BayesNet {
                         ArrayList<Integer> testParents = new ArrayList<>();
                         testParents.addAll(parentIndices);
                         testParents.add(examiningIndex);
-                        double potentialNewP = k2Formula(dataPoints, possibleValues, currentIndex, testParents);
+                        double potentialNewP = k2Formula(trainingCodes, logFactorials, currentIndex, testParents);
                         if(potentialNewP > p_new) {
                             p_new = potentialNewP;
                             bestParentIndex = examiningIndex;
@@ -336,6 +438,23 @@ public class BayesNet {
         return output;
     }
 
+    /**
+     * Build a table of ln(n!) large enough for every count the k2 formula can need on some data
+     * @param trainingCodes the encoded training data
+     * @return ln(n!) indexed by n
+     */
+    public static double[] logFactorials(AttributeCodes trainingCodes) {
+        int maxValues = 0;
+        for (int att = 0; att < trainingCodes.numAttributes(); att++) {
+            maxValues = Math.max(maxValues, trainingCodes.numValues(att));
+        }
+        double[] logFactorials = new double[trainingCodes.numRows() + maxValues + 1];
+        for (int num = 1; num < logFactorials.length; num++) {
+            logFactorials[num] = logFactorials[num - 1] + Math.log(num);
+        }
+        return logFactorials;
+    }
+
     /**
      * find the score of a given bayesian network structure, using logFact
      * @param dataPoints the training data
@@ -343,7 +462,7 @@ public class BayesNet {
      * @param parentIndicesList indices of immediate parents for each of the attributes, indicating the tree structure
      * @return the natural log of the prob that this is the correct tree structure (non normalized)
      */
-    public static Double scoreNetwork(ArrayList<DataPoint> dataPoints, ArrayList<ArrayList<AttributeValue>> possibleValues,
+    public static Double scoreNetwork(List<DataPoint> dataPoints, ArrayList<ArrayList<AttributeValue>> possibleValues,
                                       ArrayList<ArrayList<Integer>> parentIndicesList) {
         double result = 1;
         for (int i = 0; i < possibleValues.size(); i++) {
@@ -352,6 +471,120 @@ public class BayesNet {
         return result;
     }
 
+    /**
+     * find the score of a given bayesian network structure
+     * @param trainingCodes the dictionary encoded training data
+     * @param parentIndicesList indices of immediate parents for each of the attributes, indicating the tree structure
+     * @return the natural log of the prob that this is the correct tree structure (non normalized)
+     */
+    public static double scoreNetwork(AttributeCodes trainingCodes, ArrayList<ArrayList<Integer>> parentIndicesList) {
+        double[] logFactorials = logFactorials(trainingCodes);
+        double result = 1;
+        for (int i = 0; i < trainingCodes.numAttributes(); i++) {
+            result += k2Formula(trainingCodes, logFactorials, i, parentIndicesList.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Look up ln(num!) in a table, falling back on the gamma function for weighted counts that aren't whole numbers
+     * @param logFactorials a table of ln(n!) from logFactorials
+     * @param num the count, which may be weighted
+     * @return ln(num!)
+     */
+    private static double logFactorial(double[] logFactorials, double num) {
+        int wholeNum = (int) num;
+        if(wholeNum == num && wholeNum < logFactorials.length) {
+            return logFactorials[wholeNum];
+        }
+        return MyTools.logGamma(num + 1);
+    }
+
+    /**
+     * Calculate the value of the 'g' function used in the k2 algorithm from dictionary encoded data. Rather than
+     * scanning the data once for every parent instantiation and value, a single pass counts the rows of every
+     * combination of parent values and current value. If the data is weighted, each row counts for its weight.
+     * Combinations of parent values that no row has add nothing, so when there are too many combinations to count
+     * them all (such as with a parent that is an id), only those that occur are counted
+     * @param trainingCodes the dictionary encoded training data
+     * @param logFactorials a table of ln(n!) from logFactorials
+     * @param currentIndex the index being evaluated - 'i' in the k2 algorithm
+     * @param parentIndices the indices of the current parental instantiation
+     * @return the value of the current parental instantiation
+     */
+    public static double k2Formula(AttributeCodes trainingCodes, double[] logFactorials, int currentIndex, ArrayList<Integer> parentIndices) {
+        if(trainingCodes.numRows() == 0) return 0;
+        int numValues = trainingCodes.numValues(currentIndex);
+        // every combination of parent values is a parent instantiation, numbered like the digits of a mixed radix number
+        long numAllInstantiations = 1;
+        for(int parentIndex: parentIndices) {
+            numAllInstantiations = Math.min(numAllInstantiations * trainingCodes.numValues(parentIndex), Integer.MAX_VALUE);
+        }
+        int[] instantiations;
+        int numInstantiations;
+        if(numAllInstantiations * numValues <= MAX_K2_COUNTS) {
+            numInstantiations = (int) numAllInstantiations;
+            instantiations = new int[trainingCodes.numRows()];
+            for (int row = 0; row < trainingCodes.numRows(); row++) {
+                int instantiation = 0;
+                for(int parentIndex: parentIndices) {
+                    instantiation = instantiation * trainingCodes.numValues(parentIndex) + trainingCodes.code(row, parentIndex);
+                }
+                instantiations[row] = instantiation;
+            }
+        }
+        else {
+            instantiations = observedInstantiations(trainingCodes, parentIndices);
+            numInstantiations = 0;
+            for(int instantiation: instantiations) {
+                numInstantiations = Math.max(numInstantiations, instantiation + 1);
+            }
+        }
+        double[] counts = new double[numInstantiations * numValues];
+        int[] currentCodes = trainingCodes.codes(currentIndex);
+        for (int row = 0; row < trainingCodes.numRows(); row++) {
+            counts[instantiations[row] * numValues + currentCodes[row]] += trainingCodes.weight(row);
+        }
+
+        double result = 0;
+        for (int instantiation = 0; instantiation < numInstantiations; instantiation++) {
+            double numWithParentValues = 0;
+            for (int k = 0; k < numValues; k++) {
+                double count = counts[instantiation * numValues + k];
+                numWithParentValues += count;
+                result += logFactorial(logFactorials, count);
+            }
+            result += logFactorials[numValues - 1];
+            result -= logFactorial(logFactorials, numWithParentValues + numValues - 1);
+        }
+        return result;
+    }
+
+    /**
+     * Number the combinations of parent values that occur in the data, in order of first appearance, adding one parent
+     * at a time so the numbers never grow past the number of rows
+     * @param trainingCodes the dictionary encoded training data
+     * @param parentIndices the indices of the parents
+     * @return the number of each row's combination of parent values
+     */
+    private static int[] observedInstantiations(AttributeCodes trainingCodes, ArrayList<Integer> parentIndices) {
+        int[] instantiations = new int[trainingCodes.numRows()];
+        for(int parentIndex: parentIndices) {
+            HashMap<Long, Integer> numbers = new HashMap<>();
+            long numParentValues = trainingCodes.numValues(parentIndex);
+            for (int row = 0; row < instantiations.length; row++) {
+                long combination = instantiations[row] * numParentValues + trainingCodes.code(row, parentIndex);
+                Integer number = numbers.get(combination);
+                if(number == null) {
+                    number = numbers.size();
+                    numbers.put(combination, number);
+                }
+                instantiations[row] = number;
+            }
+        }
+        return instantiations;
+    }
+
     /**
      * Calculate the value of the 'g' function used in the k2 algorithm
      * @param dataPoints the training data
@@ -360,7 +593,7 @@ public class BayesNet {
      * @param parentIndices the indices of the current parental instantiation
      * @return the value of the current parental instantiation
      */
-    public static Double k2Formula(ArrayList<DataPoint> dataPoints, ArrayList<ArrayList<AttributeValue>> possibleValues, int currentIndex, ArrayList<Integer> parentIndices) {
+    public static Double k2Formula(List<DataPoint> dataPoints, ArrayList<ArrayList<AttributeValue>> possibleValues, int currentIndex, ArrayList<Integer> parentIndices) {
         Set<ArrayList<AttributeValue>> phi_i = Sets.cartesianProduct(Sets.generateSets(possibleValues, parentIndices));
         ArrayList<AttributeValue> V_i = possibleValues.get(currentIndex);
         if(parentIndices.size() == 0) {
@@ -389,7 +622,7 @@ public class BayesNet {
      * @param parentValues
      * @return
      */
-    public static int numDataPointsWithCondition(ArrayList<DataPoint> dataPoints, int attributeIndex, AttributeValue attributeValue,
+    public static int numDataPointsWithCondition(List<DataPoint> dataPoints, int attributeIndex, AttributeValue attributeValue,
                                                  ArrayList<Integer> parentIndices, ArrayList<AttributeValue> parentValues) {
         if(parentIndices.size() != parentValues.size()) {
             System.out.println("Error in numDataPointsWithCondition - arrayLists must have the same size");
@@ -408,7 +641,7 @@ public class BayesNet {
         return count;
     }
 
-    public static int numDataPointsWithCondition(ArrayList<DataPoint> dataPoints, ArrayList<Integer> parentIndices, ArrayList<AttributeValue> parentValues) {
+    public static int numDataPointsWithCondition(List<DataPoint> dataPoints, ArrayList<Integer> parentIndices, ArrayList<AttributeValue> parentValues) {
         if(parentIndices.size() != parentValues.size()) {
             System.out.println("Error in numDataPointsWithCondition - arrayLists must have the same size");
         }
@@ -0,0 +1,346 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+/**
+ * Reads and writes data sets in a compact binary format, so that large training sets can be opened without parsing
+ *
+ * file layout (all numbers big-endian):
+ * magic number, version, offset of the column blocks
+ * number of rows, number of attributes
+ * attribute names (including the name of the classification column)
+ * number of classifications, classification names
+ * for each attribute: its type, and for categorical attributes the dictionary of its distinct values
+ * padding up to the offset of the column blocks, then one block per attribute followed by the classification block:
+ *   numeric attributes are one 8 byte double per row
+ *   categorical attributes and the classification are one 4 byte dictionary index per row, padded to 8 bytes.
+ *   A wildcard (a value of null) has the index WILDCARD_CODE rather than an entry in the dictionary
+ */
+public class BinaryDataFile {
+    public static final String EXTENSION = ".bin";
+    static final int MAGIC_NUMBER = 0x4C414453;
+    static final int VERSION = 1;
+    static final byte NUMERIC = 0;
+    static final byte CATEGORICAL = 1;
+    static final int WILDCARD_CODE = -1;
+    // enough to read the magic number, version and offset of the column blocks
+    static final int PREAMBLE_SIZE = 16;
+
+    public static void main(String[] args) {
+        if(args.length < 2) {
+            System.out.println("Usage: java BinaryDataFile data.csv data" + EXTENSION);
+            System.out.println("Converts a csv data file into the binary format, which loads much faster");
+            System.exit(0);
+        }
+        long startTime = System.currentTimeMillis();
+        convertCsvToBinary(args[0], args[1]);
+        System.out.println("Converted " + args[0] + " to " + args[1] + " in " + (System.currentTimeMillis() - startTime) + "ms");
+    }
+
+    /**
+     * Read a csv file in the usual layout (attribute names on the first line, classification in the last column) and
+     * write it out in the binary format
+     * @param csvFileName The file to be converted
+     * @param binaryFileName The file to be written
+     */
+    public static void convertCsvToBinary(String csvFileName, String binaryFileName) {
+        Data data = new Data();
+        FileIO.readFromFile(csvFileName, data);
+        writeToFile(binaryFileName, data);
+    }
+
+    /**
+     * Write data to a file in the binary format
+     * @param fileName The file to be written
+     * @param data The data to write
+     */
+    public static void writeToFile(String fileName, Data data) {
+        int numRows = data.numRows();
+        int numAttributes = data.attributeNames.length - 1;
+
+        // numeric attributes are stored as doubles, anything else is dictionary encoded
+        byte[] types = new byte[numAttributes];
+        ArrayList<LinkedHashMap<String, Integer>> dictionaries = new ArrayList<>();
+        for (int att = 0; att < numAttributes; att++) {
+            types[att] = NUMERIC;
+            for(DataPoint point: data.dataPoints) {
+                if(!point.attributes[att].isNumeric()) {
+                    types[att] = CATEGORICAL;
+                    break;
+                }
+            }
+            LinkedHashMap<String, Integer> dictionary = null;
+            if(types[att] == CATEGORICAL) {
+                dictionary = new LinkedHashMap<>();
+                for(DataPoint point: data.dataPoints) {
+                    if(point.attributes[att].isWildcard()) continue;
+                    String value = point.attributes[att].toString();
+                    if(!dictionary.containsKey(value)) {
+                        dictionary.put(value, dictionary.size());
+                    }
+                }
+            }
+            dictionaries.add(dictionary);
+        }
+
+        try {
+            // the header is built first so that the offset of the column blocks is known
+            ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(headerBytes);
+            header.writeInt(numRows);
+            header.writeInt(numAttributes);
+            for(String attributeName: data.attributeNames) {
+                writeString(header, attributeName);
+            }
+            header.writeInt(data.classifications.size());
+            for(String classification: data.classifications) {
+                writeString(header, classification);
+            }
+            for (int att = 0; att < numAttributes; att++) {
+                header.writeByte(types[att]);
+                if(types[att] == CATEGORICAL) {
+                    header.writeInt(dictionaries.get(att).size());
+                    for(String value: dictionaries.get(att).keySet()) {
+                        writeString(header, value);
+                    }
+                }
+            }
+            header.flush();
+            long dataOffset = padTo8(PREAMBLE_SIZE + headerBytes.size());
+
+            DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+            writer.writeInt(MAGIC_NUMBER);
+            writer.writeInt(VERSION);
+            writer.writeLong(dataOffset);
+            headerBytes.writeTo(writer);
+            writePadding(writer, dataOffset - PREAMBLE_SIZE - headerBytes.size());
+
+            DataColumns columns = data.columns();
+            for (int att = 0; att < numAttributes; att++) {
+                if(types[att] == NUMERIC) {
+                    for (int row = 0; row < numRows; row++) {
+                        writer.writeDouble(columns.value(row, att));
+                    }
+                }
+                else {
+                    LinkedHashMap<String, Integer> dictionary = dictionaries.get(att);
+                    for (int row = 0; row < numRows; row++) {
+                        AttributeValue value = data.dataPoints.get(row).attributes[att];
+                        writer.writeInt(value.isWildcard() ? WILDCARD_CODE : dictionary.get(value.toString()));
+                    }
+                    writePadding(writer, padTo8(4L * numRows) - 4L * numRows);
+                }
+            }
+            for (int row = 0; row < numRows; row++) {
+                writer.writeInt(columns.classIndex(row));
+            }
+            writePadding(writer, padTo8(4L * numRows) - 4L * numRows);
+            writer.close();
+        }
+        catch (Exception e) {
+            System.out.println("Error writing file - " + fileName);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Load a binary data file by mapping it into memory, reading all of the attributes
+     * @param fileName The file to read
+     * @param data The data to add the file's contents to
+     * @return True if the file was read successfully
+     */
+    public static boolean readFromFile(String fileName, Data data) {
+        return readFromFile(fileName, data, null);
+    }
+
+    /**
+     * Load a binary data file by mapping it into memory. Only the blocks of the requested attributes are touched. If
+     * the data is kept off the heap, the numeric blocks are used straight from the mapped file rather than copied
+     * @param fileName The file to read
+     * @param data The data to add the file's contents to - if it already has classifications, the file's
+     *             classifications are matched up with them
+     * @param attributeIndices The attributes to load, in the order they should appear, or null to load all of them
+     * @return True if the file was read successfully
+     */
+    public static boolean readFromFile(String fileName, Data data, int[] attributeIndices) {
+        try {
+            RandomAccessFile file = new RandomAccessFile(fileName, "r");
+            FileChannel channel = file.getChannel();
+
+            ByteBuffer preamble = channel.map(FileChannel.MapMode.READ_ONLY, 0, PREAMBLE_SIZE);
+            if(preamble.getInt() != MAGIC_NUMBER || preamble.getInt() != VERSION) {
+                System.out.println("Not a binary data file (or an unsupported version) - " + fileName);
+                System.exit(0);
+            }
+            long dataOffset = preamble.getLong();
+
+            // read the header
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, PREAMBLE_SIZE, dataOffset - PREAMBLE_SIZE);
+            int numRows = header.getInt();
+            int numAttributes = header.getInt();
+            String[] fileAttributeNames = new String[numAttributes + 1];
+            for (int i = 0; i < fileAttributeNames.length; i++) {
+                fileAttributeNames[i] = readString(header);
+            }
+            String[] fileClassifications = new String[header.getInt()];
+            for (int i = 0; i < fileClassifications.length; i++) {
+                fileClassifications[i] = readString(header);
+            }
+            byte[] types = new byte[numAttributes];
+            Object[][] fileDictionaries = new Object[numAttributes][];
+            long[] blockOffsets = new long[numAttributes + 1];
+            long blockOffset = dataOffset;
+            for (int att = 0; att < numAttributes; att++) {
+                types[att] = header.get();
+                blockOffsets[att] = blockOffset;
+                if(types[att] == CATEGORICAL) {
+                    fileDictionaries[att] = new Object[header.getInt()];
+                    for (int i = 0; i < fileDictionaries[att].length; i++) {
+                        fileDictionaries[att][i] = parseValue(readString(header));
+                    }
+                    blockOffset += padTo8(4L * numRows);
+                }
+                else {
+                    blockOffset += 8L * numRows;
+                }
+            }
+            blockOffsets[numAttributes] = blockOffset;
+
+            if(attributeIndices == null) {
+                attributeIndices = new int[numAttributes];
+                for (int att = 0; att < numAttributes; att++) {
+                    attributeIndices[att] = att;
+                }
+            }
+            String[] attributeNames = new String[attributeIndices.length + 1];
+            for (int i = 0; i < attributeIndices.length; i++) {
+                attributeNames[i] = fileAttributeNames[attributeIndices[i]];
+            }
+            attributeNames[attributeIndices.length] = fileAttributeNames[numAttributes];
+            data.setAttributeNames(attributeNames);
+            System.out.println("attribute names: " + Arrays.toString(attributeNames));
+
+            // match the file's classifications up with any the data already knows about
+            int[] classIndexOf = new int[fileClassifications.length];
+            for (int i = 0; i < fileClassifications.length; i++) {
+                classIndexOf[i] = data.classifications.indexOf(fileClassifications[i]);
+                if(classIndexOf[i] == -1) {
+                    data.classifications.add(fileClassifications[i]);
+                    classIndexOf[i] = data.classifications.size() - 1;
+                }
+            }
+
+            // copy the requested blocks out of the mapped file, or just keep the mapped blocks if the data is off heap
+            boolean offHeap = data.isOffHeap();
+            double[][] columns = new double[attributeIndices.length][];
+            DoubleBuffer[] buffers = new DoubleBuffer[attributeIndices.length];
+            Object[][] dictionaries = new Object[attributeIndices.length][];
+            int[][] codes = new int[attributeIndices.length][];
+            for (int i = 0; i < attributeIndices.length; i++) {
+                int att = attributeIndices[i];
+                if(types[att] == NUMERIC && offHeap) {
+                    // the mapping stays valid after the file is closed
+                    buffers[i] = mapBlock(channel, blockOffsets[att], 8L * numRows).asDoubleBuffer();
+                }
+                else if(types[att] == NUMERIC) {
+                    columns[i] = new double[numRows];
+                    mapBlock(channel, blockOffsets[att], 8L * numRows).asDoubleBuffer().get(columns[i]);
+                }
+                else {
+                    dictionaries[i] = fileDictionaries[att];
+                    codes[i] = new int[numRows];
+                    mapBlock(channel, blockOffsets[att], 4L * numRows).asIntBuffer().get(codes[i]);
+                    // wildcards get an entry of their own at the end of the dictionary, holding null
+                    for (int row = 0; row < numRows; row++) {
+                        if(codes[i][row] == WILDCARD_CODE) {
+                            if(dictionaries[i] == fileDictionaries[att]) {
+                                dictionaries[i] = Arrays.copyOf(fileDictionaries[att], fileDictionaries[att].length + 1);
+                            }
+                            codes[i][row] = fileDictionaries[att].length;
+                        }
+                    }
+                    // the numeric view of a categorical attribute uses the dictionary's numbers, NaN for anything else
+                    double[] numericValues = new double[dictionaries[i].length];
+                    for (int code = 0; code < numericValues.length; code++) {
+                        numericValues[code] = DataColumns.toPrimitive(new AttributeValue(dictionaries[i][code]));
+                    }
+                    if(offHeap) {
+                        buffers[i] = OffHeapColumns.allocate(numRows);
+                        for (int row = 0; row < numRows; row++) {
+                            buffers[i].put(row, numericValues[codes[i][row]]);
+                        }
+                    }
+                    else {
+                        columns[i] = new double[numRows];
+                        for (int row = 0; row < numRows; row++) {
+                            columns[i][row] = numericValues[codes[i][row]];
+                        }
+                    }
+                }
+            }
+            int[] classIndices = new int[numRows];
+            mapBlock(channel, blockOffsets[numAttributes], 4L * numRows).asIntBuffer().get(classIndices);
+            for (int row = 0; row < numRows; row++) {
+                classIndices[row] = classIndexOf[classIndices[row]];
+            }
+            file.close();
+
+            DataColumns loadedColumns = offHeap ? new OffHeapColumns(buffers, classIndices)
+                    : DataColumns.compact(new DataColumns(columns, classIndices));
+            data.addColumns(loadedColumns, new ColumnPoints(loadedColumns, dictionaries, codes), null);
+            return true;
+        }
+        catch (Exception e) {
+            System.out.println("Error reading file - " + fileName);
+            e.printStackTrace();
+        }
+        System.exit(0);
+        return false;
+    }
+
+    private static MappedByteBuffer mapBlock(FileChannel channel, long offset, long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+    }
+
+    /**
+     * Interpret a stored categorical value the same way the csv reader would have
+     * @param value The stored string
+     * @return A Double if the string is a number, otherwise the string itself
+     */
+    private static Object parseValue(String value) {
+        try {
+            return Double.parseDouble(value);
+        }
+        catch(NumberFormatException e) {
+            return value;
+        }
+    }
+
+    private static long padTo8(long size) {
+        return (size + 7) / 8 * 8;
+    }
+
+    private static void writePadding(DataOutputStream writer, long numBytes) throws IOException {
+        for (long i = 0; i < numBytes; i++) {
+            writer.writeByte(0);
+        }
+    }
+
+    private static void writeString(DataOutputStream writer, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writer.writeInt(bytes.length);
+        writer.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
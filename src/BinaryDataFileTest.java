@@ -0,0 +1,110 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that data written to the binary format and loaded back matches the data loaded from the original csv file
+ */
+public class BinaryDataFileTest {
+
+    /**
+     * Write a csv file with a numeric, a text and a mixed column
+     */
+    private static File createCsvFile(int numRows, long seed) throws Exception {
+        File file = File.createTempFile("BinaryDataFileTest", ".csv");
+        file.deleteOnExit();
+        Random random = new Random(seed);
+        String[] colors = {"red", "green", "yellow"};
+        PrintWriter writer = new PrintWriter(file, "US-ASCII");
+        writer.println("Mass,Color,Size,Class");
+        for (int row = 0; row < numRows; row++) {
+            String size = random.nextInt(10) == 0 ? "large" : "" + random.nextInt(5);
+            writer.println(random.nextGaussian() * 50 + "," + colors[random.nextInt(colors.length)] + "," + size + ","
+                    + (random.nextBoolean() ? "apple" : "peach"));
+        }
+        writer.close();
+        return file;
+    }
+
+    private static File binaryFileFor(File csvFile) {
+        File binaryFile = new File(csvFile.getPath() + BinaryDataFile.EXTENSION);
+        binaryFile.deleteOnExit();
+        return binaryFile;
+    }
+
+    /**
+     * @param attributeIndices The attributes of the expected data that the actual data holds, in its order
+     */
+    private static void assertSameData(Data expected, Data actual, int[] attributeIndices) {
+        assertEquals(expected.classifications, actual.classifications);
+        assertEquals(expected.numRows(), actual.numRows());
+        assertEquals(expected.attributeNames[expected.attributeNames.length - 1],
+                actual.attributeNames[actual.attributeNames.length - 1]);
+        DataColumns expectedColumns = expected.columns();
+        DataColumns actualColumns = actual.columns();
+        assertEquals(attributeIndices.length, actualColumns.numAttributes());
+        for (int i = 0; i < attributeIndices.length; i++) {
+            int att = attributeIndices[i];
+            assertEquals(expected.attributeNames[att], actual.attributeNames[i]);
+            for (int row = 0; row < expected.numRows(); row++) {
+                assertEquals(Double.doubleToLongBits(expectedColumns.value(row, att)),
+                        Double.doubleToLongBits(actualColumns.value(row, i)));
+                assertEquals(expected.dataPoints.get(row).attributes[att].getValue(),
+                        actual.dataPoints.get(row).attributes[i].getValue());
+            }
+        }
+        for (int row = 0; row < expected.numRows(); row++) {
+            assertEquals(expectedColumns.classIndex(row), actualColumns.classIndex(row));
+            assertEquals(expected.dataPoints.get(row).classificationIndex,
+                    actual.dataPoints.get(row).classificationIndex);
+        }
+    }
+
+    @Test
+    public void testCsvRoundTrip() throws Exception {
+        File csvFile = createCsvFile(500, 1);
+        File binaryFile = binaryFileFor(csvFile);
+        BinaryDataFile.convertCsvToBinary(csvFile.getPath(), binaryFile.getPath());
+        Data expected = new Data();
+        FileIO.readFromFile(csvFile.getPath(), expected);
+
+        Data actual = new Data();
+        assertTrue(FileIO.readFromFile(binaryFile.getPath(), actual));
+        assertSameData(expected, actual, new int[]{0, 1, 2});
+
+        Data offHeap = new Data();
+        offHeap.setOffHeap(true);
+        assertTrue(BinaryDataFile.readFromFile(binaryFile.getPath(), offHeap));
+        assertTrue(offHeap.columns().isOffHeap());
+        assertSameData(expected, offHeap, new int[]{0, 1, 2});
+
+        Data someAttributes = new Data();
+        assertTrue(BinaryDataFile.readFromFile(binaryFile.getPath(), someAttributes, new int[]{2, 0}));
+        assertSameData(expected, someAttributes, new int[]{2, 0});
+    }
+
+    @Test
+    public void testWildcardsRoundTrip() throws Exception {
+        Data expected = new Data(new String[]{"Sky", "Wind", "Enjoy Sport"}, new ArrayList<String>());
+        Object[][] rows = {{"Sunny", "Strong"}, {null, "Weak"}, {"Rainy", null}, {"null", "Strong"}, {null, null}};
+        for (int row = 0; row < rows.length; row++) {
+            expected.addDataPoint(new DataPoint(rows[row]), row % 2 == 0 ? "Yes" : "No");
+        }
+        File binaryFile = File.createTempFile("BinaryDataFileTest", BinaryDataFile.EXTENSION);
+        binaryFile.deleteOnExit();
+        BinaryDataFile.writeToFile(binaryFile.getPath(), expected);
+
+        Data actual = new Data();
+        assertTrue(BinaryDataFile.readFromFile(binaryFile.getPath(), actual));
+        assertSameData(expected, actual, new int[]{0, 1});
+        // a wildcard isn't confused with text that happens to say null
+        assertTrue(actual.dataPoints.get(1).attributes[0].isWildcard());
+        assertFalse(actual.dataPoints.get(3).attributes[0].isWildcard());
+        assertEquals("null", actual.dataPoints.get(3).attributes[0].getValue());
+    }
+}
@@ -0,0 +1,79 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Gives each distinct sequence of bytes a code, numbered from 0 in order of first appearance. Used while parsing so
+ * that text values are looked up by their bytes, and only turned into Strings once per distinct value
+ */
+class ByteDictionary {
+    private byte[][] keys = new byte[16][];
+    private int[] hashes = new int[16];
+    // open addressing table of codes + 1, 0 marks an empty slot
+    private int[] table = new int[32];
+    private int size = 0;
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Find the code of a value, adding it if it hasn't been seen before
+     * @param bytes Holds the value in its first length bytes
+     * @param length The length of the value
+     * @return The value's code
+     */
+    public int codeOf(byte[] bytes, int length) {
+        int hash = 1;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        int mask = table.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while(table[slot] != 0) {
+            int code = table[slot] - 1;
+            if(hashes[code] == hash && equals(keys[code], bytes, length)) {
+                return code;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if(size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        keys[size] = Arrays.copyOf(bytes, length);
+        hashes[size] = hash;
+        table[slot] = ++size;
+        if(size * 2 > table.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    /**
+     * @param code The code of a value
+     * @return The value, decoded as UTF-8
+     */
+    public String getString(int code) {
+        return new String(keys[code], StandardCharsets.UTF_8);
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int code = 0; code < size; code++) {
+            int slot = (hashes[code] ^ (hashes[code] >>> 16)) & mask;
+            while(table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = code + 1;
+        }
+    }
+
+    private static boolean equals(byte[] key, byte[] bytes, int length) {
+        if(key.length != length) return false;
+        for (int i = 0; i < length; i++) {
+            if(key[i] != bytes[i]) return false;
+        }
+        return true;
+    }
+}
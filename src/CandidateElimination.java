@@ -1,5 +1,7 @@
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 
 public class CandidateElimination {
 
@@ -10,8 +12,12 @@ public class CandidateElimination {
         String trainingDataFile = null;
         String testDataFile = null;
         int crossFoldNumFolds = -1;
+        boolean stratifyFolds = false;
+        int numRepeats = 1;
+        int numThreads = Runtime.getRuntime().availableProcessors();
         String positiveString = "1";
         boolean positiveStringSpecified = false;
+        RandomStreams streams = RandomStreams.unseeded();
 
         // read in optional arguments
         try {
@@ -34,6 +40,21 @@ public class CandidateElimination {
                         crossFoldNumFolds = Integer.parseInt(args[argNum + 1]);
                         argNum++;
                         break;
+                    case "-stratify":
+                        stratifyFolds = true;
+                        break;
+                    case "-repeat":
+                        numRepeats = Integer.parseInt(args[argNum + 1]);
+                        argNum++;
+                        break;
+                    case "-threads":
+                        numThreads = Integer.parseInt(args[argNum + 1]);
+                        argNum++;
+                        break;
+                    case "-seed":
+                        streams = new RandomStreams(Long.parseLong(args[argNum + 1]));
+                        argNum++;
+                        break;
                     case "-h":
                     case "-help":
                         printHelpString();
@@ -84,24 +105,38 @@ public class CandidateElimination {
         FileIO.readFromFile(trainingDataFile, data);
         final int numAttributes = data.numAttributes;
 
-        ArrayList<ArrayList<AttributeValue>> possibleValues = data.inferPossibleAttributeValues();
+        final ArrayList<ArrayList<AttributeValue>> possibleValues = data.inferPossibleAttributeValues();
 
         if(crossFoldNumFolds > 0) {
-            double overallAccuracy = 0;
-            data.initializeDataForCrossFoldValidation(crossFoldNumFolds);
-            for (int foldNumber = 0; foldNumber < crossFoldNumFolds; foldNumber++) {
-                ArrayList<DataPoint> trainingPoints = data.getCrossFoldTrainingDataPoints(foldNumber);
-                ArrayList<Expression> testRules = generateTestRules(trainingPoints, possibleValues, numAttributes);
-                System.out.println("Iteration: " + foldNumber);
-                double accuracyOfCurrentRules = 100 * determineAccuracy(data.getCrossFoldTestDataPoints(foldNumber), testRules, verbose);
-                System.out.println("Accuracy: " + MyTools.roundTo(accuracyOfCurrentRules, 2));
+            CrossValidation.Result<ArrayList<Expression>> result = new CrossValidation(crossFoldNumFolds)
+                    .stratified(stratifyFolds)
+                    .repeats(numRepeats)
+                    .parallelism(numThreads)
+                    .streams(streams.child(0))
+                    .run(data, new CrossValidation.Trainer<ArrayList<Expression>>() {
+                        @Override
+                        public ArrayList<Expression> train(Data trainingData, Data testData, int foldNumber) {
+                            return generateTestRules(trainingData.dataPoints, possibleValues, numAttributes);
+                        }
+                    }, new CrossValidation.Predictor<ArrayList<Expression>>() {
+                        @Override
+                        public int predict(ArrayList<Expression> rules, Data testData, int row) {
+                            // the positive classification is index 0
+                            return Expression.atLeastOneSatisfies(rules, testData.dataPoints.get(row)) ? 0 : 1;
+                        }
+                    });
+            for(CrossValidation.Fold<ArrayList<Expression>> fold: result.folds()) {
+                System.out.println("Iteration: " + fold.number);
                 if(verbose) {
-                    System.out.println("Version space: " + testRules + "\n");
+                    // list the misclassified points of the fold
+                    determineAccuracy(fold.testData.dataPoints, fold.model(), true);
+                }
+                System.out.println("Accuracy: " + MyTools.roundTo(100 * fold.accuracy(), 2));
+                if(verbose) {
+                    System.out.println("Version space: " + fold.model() + "\n");
                 }
-                overallAccuracy += accuracyOfCurrentRules;
             }
-            overallAccuracy /= crossFoldNumFolds;
-            System.out.println("Overall accuracy: " + MyTools.roundTo(overallAccuracy, 2));
+            System.out.println("Overall accuracy: " + MyTools.roundTo(100 * result.averageAccuracy(), 2));
         }
         else { // a specific testing file has been specified
             Data testData = new Data();
@@ -125,7 +160,7 @@ public class CandidateElimination {
      * @param numAttributes The total number of attributes
      * @return The list of expressions generated after running the algorithm
      */
-    public static ArrayList<Expression> generateTestRules(ArrayList<DataPoint> trainingData, ArrayList<ArrayList<AttributeValue>> possibleValues,
+    public static ArrayList<Expression> generateTestRules(List<DataPoint> trainingData, ArrayList<ArrayList<AttributeValue>> possibleValues,
                                                              int numAttributes) {
         ArrayList<Expression> generalBoundary = Expression.initialGeneralBoundary(numAttributes);
         ArrayList<Expression> specificBoundary = Expression.initialSpecificBoundary();
@@ -154,7 +189,7 @@ public class CandidateElimination {
      * @param verbose True to output missed classifications to the console
      * @return Number of correct predictions divided by number of total predictions - in the interval [0,1]
      */
-    public static double determineAccuracy(ArrayList<DataPoint> testPoints, ArrayList<Expression> rules, boolean verbose) {
+    public static double determineAccuracy(List<DataPoint> testPoints, ArrayList<Expression> rules, boolean verbose) {
         int truePositives = 0, falsePositives = 0, trueNegatives = 0, falseNegatives = 0;
         int numPointsTested = 0;
         int numPointsCorrect = 0;
@@ -201,6 +236,14 @@ public class CandidateElimination {
                 "\t\tSpecify which data to use as a test set\n" +
                 "\t-x NUM\n" +
                 "\t\tNUM-fold cross validation\n" +
+                "\t-stratify\n" +
+                "\t\tGive every fold the same share of each classification\n" +
+                "\t-repeat NUM\n" +
+                "\t\tRepeat the cross validation NUM times with different folds\n" +
+                "\t-threads NUM\n" +
+                "\t\tThe most folds to run at the same time (defaults to the number of processors)\n" +
+                "\t-seed NUM\n" +
+                "\t\tThe seed of the random numbers, which makes the folds the same every run\n" +
                 "\t-v\n" +
                 "\t\tVerbose - show expressions";
 
@@ -517,6 +560,12 @@ class Expression {
         return true;
     }
 
+    @Override
+    public int hashCode() {
+        if(nullExpression || values == null) return 0;
+        return Arrays.hashCode(values);
+    }
+
     /**
      * Remove all expressions from a list that are not satisfied by the given point
      * @param boundary The list of expressions
@@ -622,8 +671,22 @@ class Expression {
                                                              ArrayList<Expression> generalBoundary,
                                                              ArrayList<ArrayList<AttributeValue>> possibleValues) {
         ArrayList<Expression> expressionQueue = new ArrayList<>(), versionSpace = new ArrayList<>();
+        // the codes of the expressions already in the version space, so membership can be checked without searching
+        // the list. Numbers are only equal to within an epsilon, so an expression's values can't be hashed directly,
+        // but the dictionary gives values that are equal the same code
+        AttributeDictionary[] dictionaries = new AttributeDictionary[possibleValues.size()];
+        for (int attIndex = 0; attIndex < dictionaries.length; attIndex++) {
+            dictionaries[attIndex] = new AttributeDictionary();
+            for(AttributeValue possibleValue: possibleValues.get(attIndex)) {
+                dictionaries[attIndex].codeOf(possibleValue);
+            }
+        }
+        HashSet<ArrayList<Integer>> seenExpressions = new HashSet<>();
         // working from the general side to the specific side
         versionSpace.addAll(specificBoundary);
+        for(Expression expression: specificBoundary) {
+            seenExpressions.add(codesOf(expression, dictionaries));
+        }
         expressionQueue.addAll(generalBoundary);
         // work through each of the expressions, and examine all of the possible values for each wildcard
 
@@ -636,7 +699,7 @@ class Expression {
                 break;
             }
             // if we've already seen this expression, there's no reason to go any further
-            if(!versionSpace.contains(currentExpression)) {
+            if(seenExpressions.add(codesOf(currentExpression, dictionaries))) {
                 // add this expression to the version space, and put all of its children that are general than at
                 // least one expression on the specific boundary on the queue
                 versionSpace.add(currentExpression);
@@ -655,4 +718,19 @@ class Expression {
         }
         return versionSpace;
     }
+
+    /**
+     * @param expression An expression with a value for each attribute
+     * @param dictionaries The values of each attribute, which grow if the expression has a value not seen before
+     * @return The code of each of the expression's values, equal for two expressions exactly when their values are,
+     * or null for the null expression
+     */
+    private static ArrayList<Integer> codesOf(Expression expression, AttributeDictionary[] dictionaries) {
+        if(expression.values == null) return null;
+        ArrayList<Integer> codes = new ArrayList<>(dictionaries.length);
+        for (int attIndex = 0; attIndex < dictionaries.length; attIndex++) {
+            codes.add(dictionaries[attIndex].codeOf(expression.values[attIndex]));
+        }
+        return codes;
+    }
 }
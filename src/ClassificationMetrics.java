@@ -0,0 +1,215 @@
+import java.util.ArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates the outcome of predictions - a confusion matrix, from which accuracy and the precision, recall and F1 of
+ * each class (and their macro averages) are found. Every cell is a striped counter, so any number of threads can record
+ * predictions at the same time without locking or losing counts, and the totals are ready as soon as they finish.
+ * Metrics of separate folds or batches can be merged
+ */
+public class ClassificationMetrics {
+    final int numClasses;
+    // indexed by [actualClassification][predictedClassification]
+    private final LongAdder[][] counts;
+    // for each actual classification, the number of times no prediction could be made at all
+    private final LongAdder[] numUnpredicted;
+
+    /**
+     * @param numClasses The number of possible classifications
+     */
+    public ClassificationMetrics(int numClasses) {
+        this.numClasses = numClasses;
+        counts = new LongAdder[numClasses][numClasses];
+        numUnpredicted = new LongAdder[numClasses];
+        for (int actual = 0; actual < numClasses; actual++) {
+            for (int predicted = 0; predicted < numClasses; predicted++) {
+                counts[actual][predicted] = new LongAdder();
+            }
+            numUnpredicted[actual] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record a single prediction. Safe to call from many threads at once
+     * @param actual The real classification index
+     * @param predicted The predicted classification index, or -1 if no prediction could be made (which counts as wrong)
+     */
+    public void record(int actual, int predicted) {
+        if(predicted < 0) {
+            numUnpredicted[actual].increment();
+        }
+        else {
+            counts[actual][predicted].increment();
+        }
+    }
+
+    /**
+     * Add the predictions recorded by other metrics to these
+     * @param other Metrics with the same number of classifications
+     */
+    public void merge(ClassificationMetrics other) {
+        if(other.numClasses != numClasses) {
+            System.out.println("Error in ClassificationMetrics: can't merge metrics of " + other.numClasses +
+                    " classes into metrics of " + numClasses + " classes");
+            System.exit(0);
+        }
+        for (int actual = 0; actual < numClasses; actual++) {
+            for (int predicted = 0; predicted < numClasses; predicted++) {
+                counts[actual][predicted].add(other.counts[actual][predicted].sum());
+            }
+            numUnpredicted[actual].add(other.numUnpredicted[actual].sum());
+        }
+    }
+
+    public long count(int actual, int predicted) {
+        return counts[actual][predicted].sum();
+    }
+
+    /**
+     * A copy of the current counts, in the form MyTools.confusionMatrixString shows
+     * @return A matrix indexed by [actualClassification][predictedClassification]
+     */
+    public int[][] confusionMatrix() {
+        int[][] matrix = new int[numClasses][numClasses];
+        for (int actual = 0; actual < numClasses; actual++) {
+            for (int predicted = 0; predicted < numClasses; predicted++) {
+                matrix[actual][predicted] = (int) counts[actual][predicted].sum();
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * @param classIndex A classification index
+     * @return The number of predictions recorded for points that really are of the class
+     */
+    public long numActual(int classIndex) {
+        long total = numUnpredicted[classIndex].sum();
+        for (int predicted = 0; predicted < numClasses; predicted++) {
+            total += counts[classIndex][predicted].sum();
+        }
+        return total;
+    }
+
+    /**
+     * @param classIndex A classification index
+     * @return The number of times the class was predicted
+     */
+    public long numPredicted(int classIndex) {
+        long total = 0;
+        for (int actual = 0; actual < numClasses; actual++) {
+            total += counts[actual][classIndex].sum();
+        }
+        return total;
+    }
+
+    public long numTested() {
+        long total = 0;
+        for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+            total += numActual(classIndex);
+        }
+        return total;
+    }
+
+    public long numCorrect() {
+        long total = 0;
+        for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+            total += counts[classIndex][classIndex].sum();
+        }
+        return total;
+    }
+
+    /**
+     * @return The number of correct predictions divided by the number of predictions
+     */
+    public double accuracy() {
+        return (double) numCorrect() / numTested();
+    }
+
+    /**
+     * @param classIndex A classification index
+     * @return The fraction of the predictions of the class that were right, 0 if it was never predicted
+     */
+    public double precision(int classIndex) {
+        long numPredicted = numPredicted(classIndex);
+        return numPredicted == 0 ? 0 : (double) count(classIndex, classIndex) / numPredicted;
+    }
+
+    /**
+     * @param classIndex A classification index
+     * @return The fraction of the points of the class that were predicted to be of it, 0 if there were none
+     */
+    public double recall(int classIndex) {
+        long numActual = numActual(classIndex);
+        return numActual == 0 ? 0 : (double) count(classIndex, classIndex) / numActual;
+    }
+
+    /**
+     * @param classIndex A classification index
+     * @return The harmonic mean of the precision and recall of the class, 0 if both are 0
+     */
+    public double f1(int classIndex) {
+        double precision = precision(classIndex);
+        double recall = recall(classIndex);
+        return precision + recall == 0 ? 0 : 2 * precision * recall / (precision + recall);
+    }
+
+    /**
+     * @return The mean of the precisions of the classes, each class counting equally
+     */
+    public double macroPrecision() {
+        double sum = 0;
+        for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+            sum += precision(classIndex);
+        }
+        return sum / numClasses;
+    }
+
+    /**
+     * @return The mean of the recalls of the classes, each class counting equally
+     */
+    public double macroRecall() {
+        double sum = 0;
+        for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+            sum += recall(classIndex);
+        }
+        return sum / numClasses;
+    }
+
+    /**
+     * @return The mean of the F1 scores of the classes, each class counting equally
+     */
+    public double macroF1() {
+        double sum = 0;
+        for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+            sum += f1(classIndex);
+        }
+        return sum / numClasses;
+    }
+
+    /**
+     * Create a human readable report - the confusion matrix followed by the metrics of each class
+     * @param classLabels used for the row and column titles
+     * @return The report
+     */
+    public String toString(ArrayList<String> classLabels) {
+        String output = MyTools.confusionMatrixString(classLabels, confusionMatrix()) + "\n";
+        output += MyTools.leftPad("", 12) + MyTools.leftPad("Precision", 11) + MyTools.leftPad("Recall", 11) +
+                MyTools.leftPad("F1", 11) + "\n";
+        for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+            output += MyTools.leftPad("\"" + classLabels.get(classIndex) + "\"", 12) +
+                    MyTools.leftPad("" + MyTools.roundTo(precision(classIndex), 4), 11) +
+                    MyTools.leftPad("" + MyTools.roundTo(recall(classIndex), 4), 11) +
+                    MyTools.leftPad("" + MyTools.roundTo(f1(classIndex), 4), 11) + "\n";
+        }
+        output += MyTools.leftPad("Macro avg", 12) +
+                MyTools.leftPad("" + MyTools.roundTo(macroPrecision(), 4), 11) +
+                MyTools.leftPad("" + MyTools.roundTo(macroRecall(), 4), 11) +
+                MyTools.leftPad("" + MyTools.roundTo(macroF1(), 4), 11) + "\n";
+        return output;
+    }
+
+    public String toString() {
+        return "ClassificationMetrics - " + numTested() + " predictions, accuracy " + accuracy();
+    }
+}
@@ -0,0 +1,161 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that predictions recorded from many threads at once, or recorded separately and merged, give exactly the
+ * counts and scores of the same predictions recorded one after another
+ */
+public class ClassificationMetricsTest {
+    public static final int NUM_CLASSIFICATIONS = 4;
+    public static final int NUM_THREADS = 8;
+
+    /**
+     * Actual and predicted classifications, where the last class is never predicted and some points get no
+     * prediction at all
+     * @return An array of the actual classifications followed by an array of the predictions
+     */
+    private static int[][] createPredictions(int numPredictions, long seed) {
+        Random random = new Random(seed);
+        int[] actual = new int[numPredictions];
+        int[] predicted = new int[numPredictions];
+        for (int i = 0; i < numPredictions; i++) {
+            actual[i] = random.nextInt(NUM_CLASSIFICATIONS);
+            if(random.nextInt(50) == 0) {
+                predicted[i] = -1;
+            }
+            else if(random.nextInt(3) > 0 && actual[i] < NUM_CLASSIFICATIONS - 1) {
+                predicted[i] = actual[i];
+            }
+            else {
+                predicted[i] = random.nextInt(NUM_CLASSIFICATIONS - 1);
+            }
+        }
+        return new int[][]{actual, predicted};
+    }
+
+    /**
+     * Record the predictions from several threads at once, each taking every NUM_THREADS'th prediction so that the
+     * threads keep hitting the same cells
+     */
+    private static ClassificationMetrics recordInParallel(final int[] actual, final int[] predicted)
+            throws InterruptedException {
+        final ClassificationMetrics metrics = new ClassificationMetrics(NUM_CLASSIFICATIONS);
+        Thread[] threads = new Thread[NUM_THREADS];
+        for (int t = 0; t < NUM_THREADS; t++) {
+            final int firstPrediction = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = firstPrediction; i < actual.length; i += NUM_THREADS) {
+                        metrics.record(actual[i], predicted[i]);
+                    }
+                }
+            });
+        }
+        for(Thread thread: threads) {
+            thread.start();
+        }
+        for(Thread thread: threads) {
+            thread.join();
+        }
+        return metrics;
+    }
+
+    /**
+     * Compare the metrics with counts and scores worked out directly from the predictions
+     */
+    private static void assertMatchesPredictions(int[] actual, int[] predicted, ClassificationMetrics metrics) {
+        int[][] matrix = new int[NUM_CLASSIFICATIONS][NUM_CLASSIFICATIONS];
+        int[] numActual = new int[NUM_CLASSIFICATIONS];
+        int numCorrect = 0;
+        for (int i = 0; i < actual.length; i++) {
+            numActual[actual[i]]++;
+            if(predicted[i] >= 0) {
+                matrix[actual[i]][predicted[i]]++;
+            }
+            if(actual[i] == predicted[i]) {
+                numCorrect++;
+            }
+        }
+        int[][] metricsMatrix = metrics.confusionMatrix();
+        for (int classIndex = 0; classIndex < NUM_CLASSIFICATIONS; classIndex++) {
+            assertArrayEquals(matrix[classIndex], metricsMatrix[classIndex]);
+        }
+        assertEquals(actual.length, metrics.numTested());
+        assertEquals(numCorrect, metrics.numCorrect());
+        assertEquals((double) numCorrect / actual.length, metrics.accuracy(), 0);
+
+        double sumF1 = 0;
+        for (int classIndex = 0; classIndex < NUM_CLASSIFICATIONS; classIndex++) {
+            int numPredicted = 0;
+            for (int actualClass = 0; actualClass < NUM_CLASSIFICATIONS; actualClass++) {
+                numPredicted += matrix[actualClass][classIndex];
+            }
+            int truePositives = matrix[classIndex][classIndex];
+            double precision = numPredicted == 0 ? 0 : (double) truePositives / numPredicted;
+            double recall = (double) truePositives / numActual[classIndex];
+            double f1 = precision + recall == 0 ? 0 : 2 * precision * recall / (precision + recall);
+            assertEquals(numActual[classIndex], metrics.numActual(classIndex));
+            assertEquals(numPredicted, metrics.numPredicted(classIndex));
+            assertEquals(precision, metrics.precision(classIndex), 0);
+            assertEquals(recall, metrics.recall(classIndex), 0);
+            assertEquals(f1, metrics.f1(classIndex), 0);
+            sumF1 += f1;
+        }
+        assertEquals(sumF1 / NUM_CLASSIFICATIONS, metrics.macroF1(), 1e-12);
+    }
+
+    @Test
+    public void testSequentialMatchesPredictions() throws Exception {
+        int[][] predictions = createPredictions(5000, 1);
+        ClassificationMetrics metrics = new ClassificationMetrics(NUM_CLASSIFICATIONS);
+        for (int i = 0; i < predictions[0].length; i++) {
+            metrics.record(predictions[0][i], predictions[1][i]);
+        }
+        assertMatchesPredictions(predictions[0], predictions[1], metrics);
+        // the class that is never predicted has no precision, and so no F1
+        assertEquals(0, metrics.numPredicted(NUM_CLASSIFICATIONS - 1));
+        assertEquals(0, metrics.f1(NUM_CLASSIFICATIONS - 1), 0);
+    }
+
+    @Test
+    public void testParallelRecordingLosesNoCounts() throws Exception {
+        int[][] predictions = createPredictions(400000, 2);
+        for (int attempt = 0; attempt < 3; attempt++) {
+            assertMatchesPredictions(predictions[0], predictions[1],
+                    recordInParallel(predictions[0], predictions[1]));
+        }
+    }
+
+    @Test
+    public void testMergeMatchesRecordingTogether() throws Exception {
+        int[][] predictions = createPredictions(20000, 3);
+        int[] actual = predictions[0];
+        int[] predicted = predictions[1];
+        // metrics of uneven batches, one of them filled from several threads, merged into metrics already in use
+        ClassificationMetrics merged = new ClassificationMetrics(NUM_CLASSIFICATIONS);
+        ClassificationMetrics second = new ClassificationMetrics(NUM_CLASSIFICATIONS);
+        for (int i = 0; i < actual.length; i++) {
+            if(i < 3000) {
+                merged.record(actual[i], predicted[i]);
+            }
+            else if(i < 11000) {
+                second.record(actual[i], predicted[i]);
+            }
+        }
+        int[] lastActual = new int[actual.length - 11000];
+        int[] lastPredicted = new int[lastActual.length];
+        System.arraycopy(actual, 11000, lastActual, 0, lastActual.length);
+        System.arraycopy(predicted, 11000, lastPredicted, 0, lastPredicted.length);
+        ClassificationMetrics third = recordInParallel(lastActual, lastPredicted);
+        merged.merge(second);
+        merged.merge(third);
+        assertMatchesPredictions(actual, predicted, merged);
+        // merging leaves the other metrics as they were
+        assertEquals(8000, second.numTested());
+        assertEquals(lastActual.length, third.numTested());
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.RandomAccess;
+
+/**
+ * The points of data that was loaded straight into columns. Learners that only scan the columns never need the
+ * points, so they aren't created until something asks for them. From then on the list behaves like an ordinary
+ * ArrayList of points
+ */
+class ColumnPoints extends AbstractList<DataPoint> implements RandomAccess {
+    private final DataColumns columns;
+    // for each attribute, the possible values and which of them each row has - both null for numeric attributes
+    private final Object[][] dictionaries;
+    private final int[][] codes;
+    // volatile so that folds running at the same time can share the points once one of them has created them
+    private volatile ArrayList<DataPoint> points;
+
+    /**
+     * @param columns The loaded columns
+     * @param dictionaries The distinct values of each non-numeric attribute, null for numeric attributes
+     * @param codes For each non-numeric attribute, the index into its dictionary of every row's value, or -1 for
+     *              rows whose value is a number (in which case it is read from the columns)
+     */
+    public ColumnPoints(DataColumns columns, Object[][] dictionaries, int[][] codes) {
+        this.columns = columns;
+        this.dictionaries = dictionaries;
+        this.codes = codes;
+    }
+
+    /**
+     * Create a single point from the columns without creating any of the others
+     * @param row The row to create the point from
+     * @return A new point with the values of the row
+     */
+    public DataPoint createPoint(int row) {
+        Object[] values = new Object[columns.numAttributes()];
+        for (int att = 0; att < values.length; att++) {
+            if(dictionaries[att] == null || codes[att][row] < 0) {
+                values[att] = columns.value(row, att);
+            }
+            else {
+                values[att] = dictionaries[att][codes[att][row]];
+            }
+        }
+        DataPoint point = new DataPoint(values, columns.classIndex(row));
+        if(columns.isSparse()) {
+            point.sparse = columns.sparseRow(row);
+        }
+        return point;
+    }
+
+    /**
+     * Create the points of the same rows from another copy of the columns, such as one stored elsewhere
+     * @param otherColumns Columns with the same values as these points' columns
+     * @return Points that read from the other columns
+     */
+    public ColumnPoints withColumns(DataColumns otherColumns) {
+        return new ColumnPoints(otherColumns, dictionaries, codes);
+    }
+
+    public boolean isMaterialized() {
+        return points != null;
+    }
+
+    private ArrayList<DataPoint> materialize() {
+        ArrayList<DataPoint> currentPoints = points;
+        if(currentPoints == null) {
+            synchronized (this) {
+                currentPoints = points;
+                if(currentPoints == null) {
+                    currentPoints = new ArrayList<>(columns.numRows());
+                    for (int row = 0; row < columns.numRows(); row++) {
+                        currentPoints.add(createPoint(row));
+                    }
+                    points = currentPoints;
+                }
+            }
+        }
+        return currentPoints;
+    }
+
+    @Override
+    public DataPoint get(int index) {
+        return materialize().get(index);
+    }
+
+    @Override
+    public int size() {
+        return points == null ? columns.numRows() : points.size();
+    }
+
+    @Override
+    public DataPoint set(int index, DataPoint point) {
+        return materialize().set(index, point);
+    }
+
+    @Override
+    public void add(int index, DataPoint point) {
+        materialize().add(index, point);
+    }
+
+    @Override
+    public DataPoint remove(int index) {
+        return materialize().remove(index);
+    }
+}
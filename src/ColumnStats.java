@@ -0,0 +1,227 @@
+import java.util.Arrays;
+
+/**
+ * Summary statistics of each attribute (min, max, mean, variance and the number of missing values) and the number of
+ * rows of each class, collected one row at a time as data is added so no separate pass over the data is needed.
+ * Means and variances are updated with Welford's method, and two sets of statistics can be merged, so chunks of a
+ * file read in parallel can each keep their own and combine them at the end
+ *
+ * Values that aren't numbers (text or wildcards, which the columns store as NaN) count as missing
+ */
+public class ColumnStats {
+    final int numAttributes;
+    int numRows = 0;
+    // number of values that were numbers, for each attribute
+    final long[] counts;
+    final long[] missingCounts;
+    final double[] mins;
+    final double[] maxes;
+    final double[] means;
+    // sum of squared differences from the mean
+    final double[] squaredDeviations;
+    int[] classCounts = new int[0];
+
+    public ColumnStats(int numAttributes) {
+        this.numAttributes = numAttributes;
+        counts = new long[numAttributes];
+        missingCounts = new long[numAttributes];
+        mins = new double[numAttributes];
+        maxes = new double[numAttributes];
+        means = new double[numAttributes];
+        squaredDeviations = new double[numAttributes];
+        Arrays.fill(mins, Double.POSITIVE_INFINITY);
+        Arrays.fill(maxes, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * @return An independent copy of these statistics, which can be merged into without changing these
+     */
+    public ColumnStats copy() {
+        ColumnStats copy = new ColumnStats(numAttributes);
+        copy.numRows = numRows;
+        System.arraycopy(counts, 0, copy.counts, 0, numAttributes);
+        System.arraycopy(missingCounts, 0, copy.missingCounts, 0, numAttributes);
+        System.arraycopy(mins, 0, copy.mins, 0, numAttributes);
+        System.arraycopy(maxes, 0, copy.maxes, 0, numAttributes);
+        System.arraycopy(means, 0, copy.means, 0, numAttributes);
+        System.arraycopy(squaredDeviations, 0, copy.squaredDeviations, 0, numAttributes);
+        copy.classCounts = classCounts.clone();
+        return copy;
+    }
+
+    /**
+     * Collect the statistics of data that is already in columns
+     * @param columns The data
+     * @return The statistics of every row of the columns
+     */
+    public static ColumnStats of(DataColumns columns) {
+        ColumnStats stats = new ColumnStats(columns.numAttributes());
+        double[] block = null;
+        for (int att = 0; att < columns.numAttributes(); att++) {
+            for (int fromRow = 0; fromRow < columns.numRows(); fromRow += DataColumns.BLOCK_SIZE) {
+                int toRow = Math.min(fromRow + DataColumns.BLOCK_SIZE, columns.numRows());
+                block = columns.columnBlock(att, fromRow, toRow, block);
+                for (int row = fromRow; row < toRow; row++) {
+                    stats.addValue(att, block[row - fromRow]);
+                }
+            }
+        }
+        for (int row = 0; row < columns.numRows(); row++) {
+            stats.addClass(columns.classIndex(row));
+        }
+        return stats;
+    }
+
+    /**
+     * Add a whole row
+     * @param values The row's value of each attribute, NaN for missing values
+     * @param classIndex The row's classification index
+     */
+    public void add(double[] values, int classIndex) {
+        for (int att = 0; att < numAttributes; att++) {
+            addValue(att, values[att]);
+        }
+        addClass(classIndex);
+    }
+
+    /**
+     * Add a single value of one attribute. Code that adds values an attribute at a time must also call addClass once
+     * for every row
+     * @param att The index of the attribute
+     * @param value The value, NaN if it is missing
+     */
+    public void addValue(int att, double value) {
+        if(value != value) {
+            missingCounts[att]++;
+            return;
+        }
+        long count = ++counts[att];
+        if(value < mins[att]) mins[att] = value;
+        if(value > maxes[att]) maxes[att] = value;
+        double difference = value - means[att];
+        means[att] += difference / count;
+        squaredDeviations[att] += difference * (value - means[att]);
+    }
+
+    /**
+     * Count a row of a class
+     * @param classIndex The row's classification index
+     */
+    public void addClass(int classIndex) {
+        numRows++;
+        if(classIndex >= classCounts.length) {
+            classCounts = Arrays.copyOf(classCounts, classIndex + 1);
+        }
+        classCounts[classIndex]++;
+    }
+
+    /**
+     * Combine the statistics of other rows into these
+     * @param other The statistics of the other rows
+     */
+    public void merge(ColumnStats other) {
+        merge(other, null);
+    }
+
+    /**
+     * Combine the statistics of other rows into these, when the other rows number their classes differently
+     * @param other The statistics of the other rows
+     * @param classIndexOf The class index here of each of the other statistics' class indices, or null if they are
+     *                     the same
+     */
+    public void merge(ColumnStats other, int[] classIndexOf) {
+        for (int att = 0; att < numAttributes; att++) {
+            missingCounts[att] += other.missingCounts[att];
+            if(other.counts[att] == 0) continue;
+            if(counts[att] == 0) {
+                // taken as they are, so merging into empty statistics doesn't round the mean
+                counts[att] = other.counts[att];
+                means[att] = other.means[att];
+                squaredDeviations[att] = other.squaredDeviations[att];
+                mins[att] = other.mins[att];
+                maxes[att] = other.maxes[att];
+                continue;
+            }
+            long count = counts[att] + other.counts[att];
+            double difference = other.means[att] - means[att];
+            means[att] += difference * other.counts[att] / count;
+            squaredDeviations[att] += other.squaredDeviations[att]
+                    + difference * difference * counts[att] * other.counts[att] / count;
+            counts[att] = count;
+            mins[att] = Math.min(mins[att], other.mins[att]);
+            maxes[att] = Math.max(maxes[att], other.maxes[att]);
+        }
+        for (int otherIndex = 0; otherIndex < other.classCounts.length; otherIndex++) {
+            int classIndex = classIndexOf == null ? otherIndex : classIndexOf[otherIndex];
+            if(classIndex >= classCounts.length) {
+                classCounts = Arrays.copyOf(classCounts, classIndex + 1);
+            }
+            classCounts[classIndex] += other.classCounts[otherIndex];
+        }
+        numRows += other.numRows;
+    }
+
+    public int numRows() {
+        return numRows;
+    }
+
+    public long count(int att) {
+        return counts[att];
+    }
+
+    public long missingCount(int att) {
+        return missingCounts[att];
+    }
+
+    /**
+     * @param att The index of the attribute
+     * @return The smallest value of the attribute, or positive infinity if it has no numeric values
+     */
+    public double min(int att) {
+        return mins[att];
+    }
+
+    /**
+     * @param att The index of the attribute
+     * @return The largest value of the attribute, or negative infinity if it has no numeric values
+     */
+    public double max(int att) {
+        return maxes[att];
+    }
+
+    /**
+     * @param att The index of the attribute
+     * @return The mean of the attribute's numeric values, or NaN if there are none
+     */
+    public double mean(int att) {
+        return counts[att] == 0 ? Double.NaN : means[att];
+    }
+
+    /**
+     * @param att The index of the attribute
+     * @return The population variance of the attribute's numeric values, or NaN if there are none
+     */
+    public double variance(int att) {
+        return counts[att] == 0 ? Double.NaN : squaredDeviations[att] / counts[att];
+    }
+
+    /**
+     * @param att The index of the attribute
+     * @return The population standard deviation of the attribute's numeric values
+     */
+    public double standardDeviation(int att) {
+        return Math.sqrt(variance(att));
+    }
+
+    /**
+     * @param classIndex The index of the classification
+     * @return The number of rows of the class
+     */
+    public int classCount(int classIndex) {
+        return classIndex < classCounts.length ? classCounts[classIndex] : 0;
+    }
+
+    public String toString() {
+        return "ColumnStats - " + numRows + " rows, " + numAttributes + " attributes";
+    }
+}
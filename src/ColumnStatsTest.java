@@ -0,0 +1,141 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that statistics collected in pieces and merged agree with those collected in a single pass
+ */
+public class ColumnStatsTest {
+    // merging rounds the mean and variance differently from adding the values one at a time
+    public static final double EPSILON = Math.pow(10, -9);
+
+    /**
+     * @return Rows of values on very different scales, with some missing
+     */
+    private static double[][] createRows(int numRows, int numAttributes, long seed) {
+        Random random = new Random(seed);
+        double[][] rows = new double[numRows][numAttributes];
+        for (int row = 0; row < numRows; row++) {
+            for (int att = 0; att < numAttributes; att++) {
+                rows[row][att] = random.nextInt(10) == 0 ? Double.NaN : 1000 * att + random.nextGaussian() * (att + 1);
+            }
+        }
+        return rows;
+    }
+
+    private static void assertSameStats(ColumnStats expected, ColumnStats actual) {
+        assertEquals(expected.numRows(), actual.numRows());
+        for (int att = 0; att < expected.numAttributes; att++) {
+            assertEquals(expected.count(att), actual.count(att));
+            assertEquals(expected.missingCount(att), actual.missingCount(att));
+            assertEquals(expected.min(att), actual.min(att), 0);
+            assertEquals(expected.max(att), actual.max(att), 0);
+            assertEquals(expected.mean(att), actual.mean(att), EPSILON * (1 + Math.abs(expected.mean(att))));
+            assertEquals(expected.variance(att), actual.variance(att), EPSILON * (1 + expected.variance(att)));
+        }
+        for (int classIndex = 0; classIndex < 5; classIndex++) {
+            assertEquals(expected.classCount(classIndex), actual.classCount(classIndex));
+        }
+    }
+
+    @Test
+    public void testMergeMatchesSinglePass() throws Exception {
+        double[][] rows = createRows(1000, 4, 1);
+        ColumnStats singlePass = new ColumnStats(4);
+        for (int row = 0; row < rows.length; row++) {
+            singlePass.add(rows[row], row % 3);
+        }
+
+        // chunks of uneven sizes, including an empty one
+        int[] chunkEnds = {0, 1, 250, 251, 700, 1000};
+        ColumnStats merged = new ColumnStats(4);
+        int fromRow = 0;
+        for(int toRow: chunkEnds) {
+            ColumnStats chunk = new ColumnStats(4);
+            for (int row = fromRow; row < toRow; row++) {
+                chunk.add(rows[row], row % 3);
+            }
+            merged.merge(chunk);
+            fromRow = toRow;
+        }
+        assertSameStats(singlePass, merged);
+
+        // the mean and variance also agree with a direct two pass calculation
+        for (int att = 0; att < 4; att++) {
+            double sum = 0;
+            int count = 0;
+            for(double[] row: rows) {
+                if(!Double.isNaN(row[att])) {
+                    sum += row[att];
+                    count++;
+                }
+            }
+            double mean = sum / count;
+            double squaredDeviations = 0;
+            for(double[] row: rows) {
+                if(!Double.isNaN(row[att])) {
+                    squaredDeviations += (row[att] - mean) * (row[att] - mean);
+                }
+            }
+            assertEquals(mean, merged.mean(att), EPSILON * (1 + Math.abs(mean)));
+            assertEquals(squaredDeviations / count, merged.variance(att), EPSILON * (1 + squaredDeviations / count));
+        }
+    }
+
+    @Test
+    public void testMergeTranslatesClasses() throws Exception {
+        double[][] rows = createRows(100, 2, 2);
+        ColumnStats singlePass = new ColumnStats(2);
+        ColumnStats first = new ColumnStats(2);
+        ColumnStats second = new ColumnStats(2);
+        // the second half numbers the classes in reverse
+        for (int row = 0; row < rows.length; row++) {
+            int classIndex = row % 3;
+            singlePass.add(rows[row], classIndex);
+            if(row < 50) {
+                first.add(rows[row], classIndex);
+            }
+            else {
+                second.add(rows[row], 2 - classIndex);
+            }
+        }
+        first.merge(second, new int[]{2, 1, 0});
+        assertSameStats(singlePass, first);
+    }
+
+    @Test
+    public void testMergeIntoCopyLeavesOriginal() throws Exception {
+        double[][] rows = createRows(20, 3, 3);
+        ColumnStats original = new ColumnStats(3);
+        for (int row = 0; row < 10; row++) {
+            original.add(rows[row], 0);
+        }
+        ColumnStats unchanged = original.copy();
+        ColumnStats other = new ColumnStats(3);
+        for (int row = 10; row < 20; row++) {
+            other.add(rows[row], 1);
+        }
+        ColumnStats merged = original.copy();
+        merged.merge(other);
+        assertEquals(20, merged.numRows());
+        assertSameStats(unchanged, original);
+    }
+
+    @Test
+    public void testColumnsMatchRows() throws Exception {
+        double[][] rows = createRows(300, 3, 4);
+        double[][] columns = new double[3][300];
+        int[] classIndices = new int[300];
+        ColumnStats byRow = new ColumnStats(3);
+        for (int row = 0; row < rows.length; row++) {
+            for (int att = 0; att < 3; att++) {
+                columns[att][row] = rows[row][att];
+            }
+            classIndices[row] = row % 2;
+            byRow.add(rows[row], row % 2);
+        }
+        assertSameStats(byRow, ColumnStats.of(new DataColumns(columns, classIndices)));
+    }
+}
@@ -0,0 +1,347 @@
+import java.util.Arrays;
+
+/**
+ * Columnar storage that compresses each attribute with whichever of a few lightweight codecs suits it best, chosen
+ * when the columns are built:
+ * - bit packing with a frame of reference, for whole numbers in a small range (ratings from 1 to 10, binary flags and
+ *   so on) - each value is stored as its difference from the smallest value, in as few bits as the range needs
+ * - run length encoding, for attributes that keep the same value for long stretches of rows
+ * - plain doubles, for anything else
+ * Every codec stores values exactly, so learners see the same numbers as they would from dense columns. Reading a
+ * single value only takes a few shifts (or a binary search over the runs), and scans decode a block of rows at a time
+ * into a buffer (see columnBlock), so the compressed form is what stays in memory and cache
+ */
+class CompressedColumns extends DataColumns {
+    // the largest size, as a fraction of the size of dense columns, for which compress switches to compressed columns
+    static final double MAX_COMPRESSED_RATIO = .5;
+
+    /**
+     * How one attribute's values are stored
+     */
+    abstract static class Codec {
+        /**
+         * @param row A row of the shared arrays
+         * @return The value of the row
+         */
+        abstract double get(int row);
+
+        /**
+         * Decode consecutive rows into a buffer
+         * @param fromRow The first row of the shared arrays to decode (inclusive)
+         * @param toRow The last row to decode (exclusive)
+         * @param buffer Where to put the values, starting at index 0
+         */
+        void decode(int fromRow, int toRow, double[] buffer) {
+            for (int row = fromRow; row < toRow; row++) {
+                buffer[row - fromRow] = get(row);
+            }
+        }
+
+        /**
+         * @return The approximate memory taken by the values
+         */
+        abstract long numBytes();
+    }
+
+    /**
+     * Values stored as they are
+     */
+    static class PlainCodec extends Codec {
+        final double[] values;
+
+        PlainCodec(double[] values) {
+            this.values = values;
+        }
+
+        @Override
+        double get(int row) {
+            return values[row];
+        }
+
+        @Override
+        void decode(int fromRow, int toRow, double[] buffer) {
+            System.arraycopy(values, fromRow, buffer, 0, toRow - fromRow);
+        }
+
+        @Override
+        long numBytes() {
+            return 8L * values.length;
+        }
+    }
+
+    /**
+     * Whole numbers stored as their difference from the smallest of them (the frame of reference), packed into
+     * bitsPerValue bits each. Missing values (NaN) get the code one past the largest difference
+     */
+    static class BitPackedCodec extends Codec {
+        final long reference;
+        final int bitsPerValue;
+        final long mask;
+        // -1 when there are no missing values
+        final long missingCode;
+        // values are packed from the lowest bit up, and may straddle two words. One extra word at the end means a
+        // value never has to check whether it is in the last word
+        final long[] words;
+
+        BitPackedCodec(double[] values, long reference, long maxCode, boolean hasMissing) {
+            this.reference = reference;
+            this.missingCode = hasMissing ? maxCode + 1 : -1;
+            long largestCode = hasMissing ? maxCode + 1 : maxCode;
+            this.bitsPerValue = 64 - Long.numberOfLeadingZeros(largestCode);
+            this.mask = bitsPerValue == 64 ? -1 : (1L << bitsPerValue) - 1;
+            words = new long[(int) (((long) values.length * bitsPerValue + 63) / 64) + 1];
+            for (int row = 0; row < values.length; row++) {
+                double value = values[row];
+                long code = value != value ? missingCode : (long) value - reference;
+                long bitIndex = (long) row * bitsPerValue;
+                int word = (int) (bitIndex >>> 6);
+                int shift = (int) (bitIndex & 63);
+                words[word] |= code << shift;
+                if(shift + bitsPerValue > 64) {
+                    words[word + 1] |= code >>> (64 - shift);
+                }
+            }
+        }
+
+        @Override
+        double get(int row) {
+            long bitIndex = (long) row * bitsPerValue;
+            int word = (int) (bitIndex >>> 6);
+            int shift = (int) (bitIndex & 63);
+            long code = words[word] >>> shift;
+            if(shift + bitsPerValue > 64) {
+                code |= words[word + 1] << (64 - shift);
+            }
+            code &= mask;
+            return code == missingCode ? Double.NaN : reference + code;
+        }
+
+        @Override
+        long numBytes() {
+            return 8L * words.length;
+        }
+    }
+
+    /**
+     * Runs of equal values, each stored once along with the row after the end of the run
+     */
+    static class RunLengthCodec extends Codec {
+        final int[] runEnds;
+        final double[] runValues;
+
+        RunLengthCodec(double[] values, int numRuns) {
+            runEnds = new int[numRuns];
+            runValues = new double[numRuns];
+            int run = -1;
+            for (int row = 0; row < values.length; row++) {
+                if(run < 0 || !sameValue(values[row], runValues[run])) {
+                    runValues[++run] = values[row];
+                }
+                runEnds[run] = row + 1;
+            }
+        }
+
+        private int runOf(int row) {
+            // the first run that ends after the row
+            int run = Arrays.binarySearch(runEnds, row + 1);
+            return run >= 0 ? run : -run - 1;
+        }
+
+        @Override
+        double get(int row) {
+            return runValues[runOf(row)];
+        }
+
+        @Override
+        void decode(int fromRow, int toRow, double[] buffer) {
+            int run = runOf(fromRow);
+            for (int row = fromRow; row < toRow; row++) {
+                if(row >= runEnds[run]) run++;
+                buffer[row - fromRow] = runValues[run];
+            }
+        }
+
+        @Override
+        long numBytes() {
+            return 12L * runEnds.length;
+        }
+    }
+
+    // one codec per attribute
+    final Codec[] codecs;
+
+    private CompressedColumns(int numAttributes, int[] classIndices, FoldRows rows, SampleWeights weights,
+                              Codec[] codecs) {
+        super(numAttributes, classIndices, rows, weights);
+        this.codecs = codecs;
+    }
+
+    /**
+     * Compress dense columns, if that would take at most MAX_COMPRESSED_RATIO of the memory they take now
+     * @param columns Dense columns that aren't a view or weighted
+     * @return The compressed columns, or null if they wouldn't be small enough
+     */
+    static CompressedColumns compress(DataColumns columns) {
+        Codec[] codecs = new Codec[columns.numAttributes];
+        long numBytes = 0;
+        for (int att = 0; att < columns.numAttributes; att++) {
+            codecs[att] = chooseCodec(columns.columns[att]);
+            numBytes += codecs[att].numBytes();
+        }
+        if(numBytes > MAX_COMPRESSED_RATIO * 8 * columns.numRows * columns.numAttributes) {
+            return null;
+        }
+        return new CompressedColumns(columns.numAttributes, columns.classIndices, null, null, codecs);
+    }
+
+    /**
+     * Pick the codec that stores a column in the least memory
+     * @param values The column's values
+     * @return The codec holding the values
+     */
+    static Codec chooseCodec(double[] values) {
+        int numRuns = 0;
+        boolean wholeNumbers = true;
+        boolean hasMissing = false;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int row = 0; row < values.length; row++) {
+            double value = values[row];
+            if(row == 0 || !sameValue(value, values[row - 1])) numRuns++;
+            if(value != value) {
+                hasMissing = true;
+            }
+            else if(wholeNumbers) {
+                // whole numbers that come back out of a long bit for bit (so not -0.0), small enough to subtract
+                long whole = (long) value;
+                if(Math.abs(value) > 1L << 52
+                        || Double.doubleToRawLongBits(value) != Double.doubleToRawLongBits((double) whole)) {
+                    wholeNumbers = false;
+                }
+                else {
+                    min = Math.min(min, whole);
+                    max = Math.max(max, whole);
+                }
+            }
+        }
+        long plainBytes = 8L * values.length;
+        long runLengthBytes = 12L * numRuns;
+        long bitPackedBytes = Long.MAX_VALUE;
+        if(wholeNumbers && min <= max) {
+            long largestCode = max - min + (hasMissing ? 1 : 0);
+            int bitsPerValue = 64 - Long.numberOfLeadingZeros(largestCode);
+            bitPackedBytes = 8 * (((long) values.length * bitsPerValue + 63) / 64 + 1);
+        }
+        if(bitPackedBytes <= runLengthBytes && bitPackedBytes < plainBytes) {
+            return new BitPackedCodec(values, min, max - min, hasMissing);
+        }
+        if(runLengthBytes < plainBytes) {
+            return new RunLengthCodec(values, numRuns);
+        }
+        return new PlainCodec(values);
+    }
+
+    /**
+     * @return True if the values are bit for bit the same (so NaN matches NaN, but 0.0 doesn't match -0.0)
+     */
+    private static boolean sameValue(double first, double second) {
+        return Double.doubleToRawLongBits(first) == Double.doubleToRawLongBits(second);
+    }
+
+    @Override
+    public DataColumns view(FoldRows rows) {
+        return new CompressedColumns(numAttributes, classIndices, rows, weights, codecs);
+    }
+
+    @Override
+    public DataColumns weighted(SampleWeights weights) {
+        return new CompressedColumns(numAttributes, classIndices, rows, weights, codecs);
+    }
+
+    /**
+     * @return The approximate memory taken by the values of every attribute
+     */
+    public long numBytes() {
+        long numBytes = 0;
+        for(Codec codec: codecs) {
+            numBytes += codec.numBytes();
+        }
+        return numBytes;
+    }
+
+    @Override
+    public double value(int row, int att) {
+        return codecs[att].get(physicalRow(row));
+    }
+
+    @Override
+    public double[] column(int att) {
+        return columnBlock(att, 0, numRows, new double[numRows]);
+    }
+
+    @Override
+    public double[] columnBlock(int att, int fromRow, int toRow, double[] buffer) {
+        if(buffer == null || buffer.length < toRow - fromRow) {
+            buffer = new double[toRow - fromRow];
+        }
+        if(rows == null) {
+            codecs[att].decode(fromRow, toRow, buffer);
+            return buffer;
+        }
+        for (int row = fromRow; row < toRow; row++) {
+            buffer[row - fromRow] = codecs[att].get(rows.get(row));
+        }
+        return buffer;
+    }
+
+    @Override
+    public double[] copyRow(int row, double[] buffer) {
+        if(buffer == null || buffer.length < numAttributes) {
+            buffer = new double[numAttributes];
+        }
+        int physicalRow = physicalRow(row);
+        for (int att = 0; att < numAttributes; att++) {
+            buffer[att] = codecs[att].get(physicalRow);
+        }
+        return buffer;
+    }
+
+    @Override
+    public double distanceSquared(int row, double[] values) {
+        int physicalRow = physicalRow(row);
+        double distanceSquared = 0;
+        for (int att = 0; att < numAttributes; att++) {
+            double difference = codecs[att].get(physicalRow) - values[att];
+            distanceSquared += difference * difference;
+        }
+        return distanceSquared;
+    }
+
+    @Override
+    public double[] distancesSquared(double[] values, double[] distances) {
+        if(distances == null || distances.length < numRows) {
+            distances = new double[numRows];
+        }
+        // one attribute at a time, decoding a block of rows at a time. Each row still adds up its attributes in
+        // order, so the distances are the same as distanceSquared gives
+        Arrays.fill(distances, 0, numRows, 0);
+        double[] block = new double[Math.min(BLOCK_SIZE, numRows)];
+        for (int att = 0; att < numAttributes; att++) {
+            double value = values[att];
+            for (int fromRow = 0; fromRow < numRows; fromRow += BLOCK_SIZE) {
+                int toRow = Math.min(fromRow + BLOCK_SIZE, numRows);
+                columnBlock(att, fromRow, toRow, block);
+                for (int row = fromRow; row < toRow; row++) {
+                    double difference = block[row - fromRow] - value;
+                    distances[row] += difference * difference;
+                }
+            }
+        }
+        return distances;
+    }
+
+    public String toString() {
+        return "CompressedColumns - " + numRows + " rows, " + numAttributes + " attributes, " + numBytes()
+                + " bytes of values";
+    }
+}
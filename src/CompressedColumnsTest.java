@@ -0,0 +1,109 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that each codec, and the compressed columns built from them, give back exactly the dense values
+ */
+public class CompressedColumnsTest {
+
+    /**
+     * @return Columns of small whole numbers (with missing values), long runs, wide whole numbers and a run of
+     * values that fit no codec but plain
+     */
+    private static DataColumns createColumns(int numRows, long seed) {
+        Random random = new Random(seed);
+        double[][] columns = new double[5][numRows];
+        int[] classIndices = new int[numRows];
+        double runValue = 0;
+        for (int row = 0; row < numRows; row++) {
+            columns[0][row] = random.nextInt(25) == 0 ? Double.NaN : 1 + random.nextInt(10);
+            if(row % 100 == 0) runValue = random.nextGaussian();
+            columns[1][row] = runValue;
+            columns[2][row] = random.nextInt(2);
+            columns[3][row] = (random.nextInt(1 << 20) - (1 << 19)) * 1000L;
+            columns[4][row] = row < 50 ? random.nextGaussian() : -0.0;
+            classIndices[row] = random.nextInt(3);
+        }
+        return new DataColumns(columns, classIndices);
+    }
+
+    /**
+     * @return True if the values are bit for bit the same, as the codecs promise
+     */
+    private static boolean sameBits(double first, double second) {
+        return Double.doubleToRawLongBits(first) == Double.doubleToRawLongBits(second);
+    }
+
+    @Test
+    public void testCodecsChosen() throws Exception {
+        DataColumns dense = createColumns(1000, 1);
+        assertTrue(CompressedColumns.chooseCodec(dense.columns[0]) instanceof CompressedColumns.BitPackedCodec);
+        assertTrue(CompressedColumns.chooseCodec(dense.columns[1]) instanceof CompressedColumns.RunLengthCodec);
+        assertTrue(CompressedColumns.chooseCodec(dense.columns[2]) instanceof CompressedColumns.BitPackedCodec);
+        assertTrue(CompressedColumns.chooseCodec(dense.columns[3]) instanceof CompressedColumns.BitPackedCodec);
+        double[] noise = new double[1000];
+        Random random = new Random(2);
+        for (int row = 0; row < noise.length; row++) {
+            noise[row] = random.nextGaussian();
+        }
+        assertTrue(CompressedColumns.chooseCodec(noise) instanceof CompressedColumns.PlainCodec);
+    }
+
+    @Test
+    public void testCodecsRoundTrip() throws Exception {
+        DataColumns dense = createColumns(1000, 3);
+        for (int att = 0; att < dense.numAttributes(); att++) {
+            double[] values = dense.columns[att];
+            CompressedColumns.Codec codec = CompressedColumns.chooseCodec(values);
+            for (int row = 0; row < values.length; row++) {
+                assertTrue(sameBits(values[row], codec.get(row)));
+            }
+            // decoding a block that doesn't start or end on a run or word boundary
+            double[] block = new double[617];
+            codec.decode(123, 740, block);
+            for (int row = 123; row < 740; row++) {
+                assertTrue(sameBits(values[row], block[row - 123]));
+            }
+        }
+    }
+
+    @Test
+    public void testColumnsMatchDense() throws Exception {
+        DataColumns dense = createColumns(3000, 4);
+        DataColumns compressed = DataColumns.compact(dense);
+        assertTrue(compressed instanceof CompressedColumns);
+        assertTrue(((CompressedColumns) compressed).numBytes() < 8L * 3000 * 5 / 2);
+
+        FoldRows rows = new FoldRows(TestColumns.shuffledOrder(dense.numRows(), 5), 0, 1000, 2000, 3000);
+        DataColumns[] denseColumns = {dense, dense.view(rows)};
+        DataColumns[] compressedColumns = {compressed, compressed.view(rows)};
+        for (int i = 0; i < denseColumns.length; i++) {
+            DataColumns expected = denseColumns[i];
+            DataColumns actual = compressedColumns[i];
+            assertEquals(expected.numRows(), actual.numRows());
+            for (int att = 0; att < expected.numAttributes(); att++) {
+                double[] expectedColumn = expected.column(att);
+                double[] column = actual.column(att);
+                double[] block = actual.columnBlock(att, 700, 1900, null);
+                for (int row = 0; row < expected.numRows(); row++) {
+                    assertTrue(sameBits(expectedColumn[row], column[row]));
+                    assertTrue(sameBits(expectedColumn[row], actual.value(row, att)));
+                    if(row >= 700 && row < 1900) {
+                        assertTrue(sameBits(expectedColumn[row], block[row - 700]));
+                    }
+                }
+            }
+            double[] point = {5, .5, 1, 1000, 0};
+            double[] expectedDistances = expected.distancesSquared(point, null);
+            double[] distances = actual.distancesSquared(point, null);
+            for (int row = 0; row < expected.numRows(); row++) {
+                assertEquals(expected.classIndex(row), actual.classIndex(row));
+                assertTrue(sameBits(expectedDistances[row], distances[row]));
+                assertTrue(sameBits(expected.distanceSquared(row, point), actual.distanceSquared(row, point)));
+            }
+        }
+    }
+}
@@ -0,0 +1,349 @@
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Cross validation of any learner. The learner is given as a trainer, which builds a model from the training data of
+ * a fold, and a predictor, which uses the model to classify the rows of the fold's test data. Folds don't depend on
+ * each other, so they are trained and tested at the same time on a ForkJoinPool.
+ *
+ * The folds can be stratified, so that each fold gets close to the same share of every class, and the whole k-fold
+ * split can be repeated with a different shuffle each time. Every fold records its predictions both in its own metrics
+ * and in metrics shared by all of the folds, so the overall results are complete as soon as the last fold finishes.
+ *
+ * Each repeat shuffles with its own stream of random numbers, and trainers that need random numbers should take a
+ * child of their own streams numbered by fold, so that a seeded run gives the same results with any parallelism
+ */
+public class CrossValidation {
+
+    /**
+     * Builds a model from the training data of one fold. Folds are trained at the same time, so a trainer must not
+     * modify anything shared between folds (including the fold's data, which is a read only view)
+     * @param <Model> Whatever the learner needs to make predictions
+     */
+    public interface Trainer<Model> {
+        /**
+         * @param trainingData The fold's training data
+         * @param testData The fold's test data, only for reporting progress during training - it must not influence
+         *                 the model
+         * @param foldNumber The fold's number, counting from 0 across all of the repeats
+         * @return The trained model
+         */
+        Model train(Data trainingData, Data testData, int foldNumber);
+    }
+
+    /**
+     * Classifies a single row of the test data of a fold
+     * @param <Model> Whatever the learner needs to make predictions
+     */
+    public interface Predictor<Model> {
+        /**
+         * @param model The model trained on the fold's training data
+         * @param testData The fold's test data
+         * @param row The row of the test data to classify
+         * @return The predicted classification index, or -1 if no prediction could be made (which counts as wrong)
+         */
+        int predict(Model model, Data testData, int row);
+    }
+
+    final int numFolds;
+    int numRepeats = 1;
+    boolean stratified = false;
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    RandomStreams streams = RandomStreams.unseeded();
+
+    /**
+     * @param numFolds The number of folds to split the data into
+     */
+    public CrossValidation(int numFolds) {
+        if(numFolds < 2) {
+            System.out.println("Error in CrossValidation: there must be at least 2 folds, not " + numFolds);
+            System.exit(0);
+        }
+        this.numFolds = numFolds;
+    }
+
+    /**
+     * @param stratified True to give each fold close to the same share of every class
+     * @return This cross validation
+     */
+    public CrossValidation stratified(boolean stratified) {
+        this.stratified = stratified;
+        return this;
+    }
+
+    /**
+     * @param numRepeats The number of times to split the data into folds, with a different shuffle each time
+     * @return This cross validation
+     */
+    public CrossValidation repeats(int numRepeats) {
+        if(numRepeats < 1) {
+            System.out.println("Error in CrossValidation: the number of repeats can't be " + numRepeats);
+            System.exit(0);
+        }
+        this.numRepeats = numRepeats;
+        return this;
+    }
+
+    /**
+     * @param parallelism The most folds to run at the same time, 1 to run them one after another
+     * @return This cross validation
+     */
+    public CrossValidation parallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * @param streams The source of randomness used to shuffle the rows into folds, a child stream for each repeat
+     * @return This cross validation
+     */
+    public CrossValidation streams(RandomStreams streams) {
+        this.streams = streams;
+        return this;
+    }
+
+    /**
+     * Train and test every fold
+     * @param data The data to split into folds
+     * @param trainer Builds a model from the training data of a fold
+     * @param predictor Classifies the test rows of a fold using its model
+     * @param <Model> Whatever the learner needs to make predictions
+     * @return Every fold's model and confusion matrix, in order of fold number
+     */
+    public <Model> Result<Model> run(Data data, Trainer<Model> trainer, Predictor<Model> predictor) {
+        int numRows = data.numRows();
+        if(numRows < numFolds) {
+            System.out.println("Error in CrossValidation: can't split " + numRows + " points into " + numFolds + " folds");
+            System.exit(0);
+        }
+        int numClasses = data.classifications.size();
+        // the folds share the columns, so build them before the folds start
+        DataColumns columns = data.columns();
+
+        ClassificationMetrics overallMetrics = new ClassificationMetrics(numClasses);
+        ArrayList<FoldTask<Model>> tasks = new ArrayList<>();
+        for (int repeat = 0; repeat < numRepeats; repeat++) {
+            int[] order = new int[numRows];
+            int[] foldStarts = new int[numFolds + 1];
+            Random generator = streams.child(repeat).random();
+            if(stratified) {
+                stratifiedOrder(data, columns, numClasses, order, foldStarts, generator);
+            }
+            else {
+                for (int row = 0; row < numRows; row++) {
+                    order[row] = data.originalRow(row);
+                }
+                Data.shuffle(order, generator);
+                for (int fold = 0; fold <= numFolds; fold++) {
+                    foldStarts[fold] = (int) ((long) fold * numRows / numFolds);
+                }
+            }
+            // one pass collects the statistics of every fold, rather than one pass over each fold's training rows
+            FoldStats foldStats = data.foldStats(order, foldStarts);
+            for (int fold = 0; fold < numFolds; fold++) {
+                int testFrom = foldStarts[fold];
+                int testTo = foldStarts[fold + 1];
+                // the rows before and after the test rows make up the training set
+                Data trainingData = data.subset(new FoldRows(order, 0, testFrom, testTo, numRows),
+                        foldStats.trainingStats(fold));
+                Data testData = data.subset(new FoldRows(order, testFrom, testTo, 0, 0), foldStats.blockStats(fold));
+                Fold<Model> currentFold = new Fold<>(repeat * numFolds + fold, repeat, trainingData, testData, numClasses);
+                tasks.add(new FoldTask<>(currentFold, trainer, predictor, overallMetrics));
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, tasks.size()));
+        ArrayList<Fold<Model>> folds = new ArrayList<>(tasks.size());
+        try {
+            for(FoldTask<Model> task: tasks) {
+                pool.execute(task);
+            }
+            for(FoldTask<Model> task: tasks) {
+                folds.add(task.join());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return new Result<>(folds, overallMetrics);
+    }
+
+    /**
+     * Order the rows so that consecutive ranges of the ordering are stratified folds. The rows of each class are
+     * shuffled, then the rows are dealt out to the folds in turn one class after another
+     * @param data The data being split
+     * @param columns The columns of the data, for the class of each row
+     * @param numClasses The number of classifications
+     * @param order Filled with the rows of the original data, fold by fold
+     * @param foldStarts Filled with the position in the ordering where each fold starts, plus the end of the last fold
+     * @param generator The source of randomness
+     */
+    private void stratifiedOrder(Data data, DataColumns columns, int numClasses, int[] order, int[] foldStarts,
+                                 Random generator) {
+        int numRows = order.length;
+        int[] shuffled = new int[numRows];
+        for (int row = 0; row < numRows; row++) {
+            shuffled[row] = row;
+        }
+        Data.shuffle(shuffled, generator);
+
+        // group the shuffled rows by class, keeping the shuffled order within each class
+        int[] classStarts = new int[numClasses + 1];
+        for (int row = 0; row < numRows; row++) {
+            classStarts[columns.classIndex(row) + 1]++;
+        }
+        for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+            classStarts[classIndex + 1] += classStarts[classIndex];
+        }
+        int[] byClass = new int[numRows];
+        for(int row: shuffled) {
+            byClass[classStarts[columns.classIndex(row)]++] = row;
+        }
+
+        // deal the grouped rows out to the folds, so every fold gets an equal share of each class
+        for (int position = 0; position < numRows; position++) {
+            foldStarts[position % numFolds + 1]++;
+        }
+        for (int fold = 0; fold < numFolds; fold++) {
+            foldStarts[fold + 1] += foldStarts[fold];
+        }
+        int[] nextPosition = new int[numFolds];
+        for (int fold = 0; fold < numFolds; fold++) {
+            nextPosition[fold] = foldStarts[fold];
+        }
+        for (int position = 0; position < numRows; position++) {
+            order[nextPosition[position % numFolds]++] = data.originalRow(byClass[position]);
+        }
+    }
+
+    /**
+     * Trains and tests a single fold
+     */
+    private static class FoldTask<Model> extends RecursiveTask<Fold<Model>> {
+        private static final long serialVersionUID = 1L;
+        final Fold<Model> fold;
+        final Trainer<Model> trainer;
+        final Predictor<Model> predictor;
+        // shared by all of the folds, which record into it at the same time
+        final ClassificationMetrics overallMetrics;
+
+        FoldTask(Fold<Model> fold, Trainer<Model> trainer, Predictor<Model> predictor,
+                 ClassificationMetrics overallMetrics) {
+            this.fold = fold;
+            this.trainer = trainer;
+            this.predictor = predictor;
+            this.overallMetrics = overallMetrics;
+        }
+
+        @Override
+        protected Fold<Model> compute() {
+            fold.model = trainer.train(fold.trainingData, fold.testData, fold.number);
+            DataColumns testColumns = fold.testData.columns();
+            for (int row = 0; row < testColumns.numRows(); row++) {
+                int actual = testColumns.classIndex(row);
+                int predicted = predictor.predict(fold.model, fold.testData, row);
+                fold.metrics.record(actual, predicted);
+                overallMetrics.record(actual, predicted);
+            }
+            return fold;
+        }
+    }
+
+    /**
+     * The outcome of training and testing one fold
+     */
+    public static class Fold<Model> {
+        // numbered from 0 across all of the repeats
+        public final int number;
+        public final int repeat;
+        public final Data trainingData;
+        public final Data testData;
+        Model model;
+        final ClassificationMetrics metrics;
+
+        Fold(int number, int repeat, Data trainingData, Data testData, int numClasses) {
+            this.number = number;
+            this.repeat = repeat;
+            this.trainingData = trainingData;
+            this.testData = testData;
+            this.metrics = new ClassificationMetrics(numClasses);
+        }
+
+        public Model model() {
+            return model;
+        }
+
+        public ClassificationMetrics metrics() {
+            return metrics;
+        }
+
+        /**
+         * @return A matrix indexed by [actualClassification][predictedClassification]
+         */
+        public int[][] confusionMatrix() {
+            return metrics.confusionMatrix();
+        }
+
+        /**
+         * @return The number of correct predictions divided by the number of test points
+         */
+        public double accuracy() {
+            return metrics.accuracy();
+        }
+    }
+
+    /**
+     * The outcome of every fold
+     */
+    public static class Result<Model> {
+        final ArrayList<Fold<Model>> folds;
+        // every fold's predictions, recorded as the folds ran
+        final ClassificationMetrics metrics;
+
+        Result(ArrayList<Fold<Model>> folds, ClassificationMetrics metrics) {
+            this.folds = folds;
+            this.metrics = metrics;
+        }
+
+        /**
+         * @return Every fold, in order of fold number
+         */
+        public ArrayList<Fold<Model>> folds() {
+            return folds;
+        }
+
+        /**
+         * @return The metrics of the predictions of all of the folds together
+         */
+        public ClassificationMetrics metrics() {
+            return metrics;
+        }
+
+        /**
+         * The sum of the confusion matrices of every fold
+         * @return A matrix indexed by [actualClassification][predictedClassification]
+         */
+        public int[][] confusionMatrix() {
+            return metrics.confusionMatrix();
+        }
+
+        /**
+         * @return The number of correct predictions over all folds divided by the number of points tested
+         */
+        public double accuracy() {
+            return metrics.accuracy();
+        }
+
+        /**
+         * @return The mean of the accuracies of the folds
+         */
+        public double averageAccuracy() {
+            double sum = 0;
+            for(Fold<Model> fold: folds) {
+                sum += fold.accuracy();
+            }
+            return sum / folds.size();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks how cross validation splits the rows into folds, and that its results don't depend on how many folds run at
+ * the same time
+ */
+public class CrossValidationTest {
+    public static final int NUM_CLASSIFICATIONS = 3;
+    public static final int NUM_NEIGHBORS = 3;
+
+    /**
+     * @return Rows of gaussian attributes whose classes are far from balanced, with a class too small to share out
+     * evenly between the folds
+     */
+    private static Data createData(int numRows, long seed) {
+        ArrayList<String> classifications = new ArrayList<>();
+        Data data = new Data(new String[]{"x", "y", "Class"}, classifications);
+        Random random = new Random(seed);
+        for (int row = 0; row < numRows; row++) {
+            int classIndex = row % 10 < 6 ? 0 : row % 10 < 9 ? 1 : 2;
+            Object[] attributes = {random.nextGaussian() + classIndex, random.nextGaussian() - classIndex};
+            data.addDataPoint(new DataPoint(attributes), "c" + classIndex);
+        }
+        return data;
+    }
+
+    /**
+     * A nearest neighbor learner that guesses at random for some of the rows, so the results depend on the random
+     * numbers of every fold
+     */
+    private static class GuessingModel {
+        final DataColumns trainingColumns;
+        final Random random;
+
+        GuessingModel(DataColumns trainingColumns, Random random) {
+            this.trainingColumns = trainingColumns;
+            this.random = random;
+        }
+    }
+
+    private static CrossValidation.Result<GuessingModel> run(CrossValidation crossValidation, Data data,
+                                                             final RandomStreams trainerStreams) {
+        return crossValidation.run(data, new CrossValidation.Trainer<GuessingModel>() {
+            @Override
+            public GuessingModel train(Data trainingData, Data testData, int foldNumber) {
+                return new GuessingModel(trainingData.columns(), trainerStreams.child(foldNumber).random());
+            }
+        }, new CrossValidation.Predictor<GuessingModel>() {
+            @Override
+            public int predict(GuessingModel model, Data testData, int row) {
+                if(model.random.nextInt(4) == 0) {
+                    return model.random.nextInt(NUM_CLASSIFICATIONS);
+                }
+                int[] neighbors = KNN.nearestNeighbors(model.trainingColumns,
+                        testData.columns().copyRow(row, null), NUM_NEIGHBORS);
+                return KNN.unweightedPrediction(model.trainingColumns, neighbors, NUM_CLASSIFICATIONS, NUM_NEIGHBORS);
+            }
+        });
+    }
+
+    private static void assertEachRowTestedOncePerRepeat(CrossValidation.Result<?> result, int numRows,
+                                                         int numRepeats) {
+        int[][] timesTested = new int[numRepeats][numRows];
+        for(CrossValidation.Fold<?> fold: result.folds()) {
+            boolean[] inTest = new boolean[numRows];
+            for (int row = 0; row < fold.testData.numRows(); row++) {
+                int originalRow = fold.testData.originalRow(row);
+                inTest[originalRow] = true;
+                timesTested[fold.repeat][originalRow]++;
+            }
+            // the rest of the rows make up the training data
+            assertEquals(numRows, fold.trainingData.numRows() + fold.testData.numRows());
+            for (int row = 0; row < fold.trainingData.numRows(); row++) {
+                assertFalse(inTest[fold.trainingData.originalRow(row)]);
+            }
+        }
+        for (int repeat = 0; repeat < numRepeats; repeat++) {
+            for (int row = 0; row < numRows; row++) {
+                assertEquals(1, timesTested[repeat][row]);
+            }
+        }
+    }
+
+    private static void assertOverallIsSumOfFolds(CrossValidation.Result<?> result) {
+        int[][] sum = new int[NUM_CLASSIFICATIONS][NUM_CLASSIFICATIONS];
+        for(CrossValidation.Fold<?> fold: result.folds()) {
+            int[][] foldMatrix = fold.confusionMatrix();
+            for (int actual = 0; actual < NUM_CLASSIFICATIONS; actual++) {
+                for (int predicted = 0; predicted < NUM_CLASSIFICATIONS; predicted++) {
+                    sum[actual][predicted] += foldMatrix[actual][predicted];
+                }
+            }
+        }
+        int[][] overall = result.confusionMatrix();
+        for (int actual = 0; actual < NUM_CLASSIFICATIONS; actual++) {
+            assertArrayEquals(sum[actual], overall[actual]);
+        }
+    }
+
+    @Test
+    public void testEachRowTestedOncePerRepeat() throws Exception {
+        // a number of rows that doesn't split evenly into the folds
+        Data data = createData(253, 1);
+        CrossValidation crossValidation = new CrossValidation(7).repeats(3).streams(new RandomStreams(2));
+        CrossValidation.Result<GuessingModel> result = run(crossValidation, data, new RandomStreams(3));
+        assertEquals(21, result.folds().size());
+        for (int i = 0; i < result.folds().size(); i++) {
+            assertEquals(i, result.folds().get(i).number);
+            assertEquals(i / 7, result.folds().get(i).repeat);
+        }
+        assertEachRowTestedOncePerRepeat(result, data.numRows(), 3);
+        assertEquals(3L * data.numRows(), result.metrics().numTested());
+        assertOverallIsSumOfFolds(result);
+    }
+
+    @Test
+    public void testStratifiedFoldsShareEachClass() throws Exception {
+        Data data = createData(253, 4);
+        CrossValidation crossValidation = new CrossValidation(10).stratified(true).repeats(2)
+                .streams(new RandomStreams(5));
+        CrossValidation.Result<GuessingModel> result = run(crossValidation, data, new RandomStreams(6));
+        assertEachRowTestedOncePerRepeat(result, data.numRows(), 2);
+        assertOverallIsSumOfFolds(result);
+        for (int repeat = 0; repeat < 2; repeat++) {
+            int[] minCounts = new int[NUM_CLASSIFICATIONS];
+            int[] maxCounts = new int[NUM_CLASSIFICATIONS];
+            Arrays.fill(minCounts, Integer.MAX_VALUE);
+            for(CrossValidation.Fold<GuessingModel> fold: result.folds()) {
+                if(fold.repeat != repeat) continue;
+                int[] classCounts = new int[NUM_CLASSIFICATIONS];
+                DataColumns testColumns = fold.testData.columns();
+                for (int row = 0; row < testColumns.numRows(); row++) {
+                    classCounts[testColumns.classIndex(row)]++;
+                }
+                for (int classIndex = 0; classIndex < NUM_CLASSIFICATIONS; classIndex++) {
+                    minCounts[classIndex] = Math.min(minCounts[classIndex], classCounts[classIndex]);
+                    maxCounts[classIndex] = Math.max(maxCounts[classIndex], classCounts[classIndex]);
+                }
+            }
+            for (int classIndex = 0; classIndex < NUM_CLASSIFICATIONS; classIndex++) {
+                assertTrue(maxCounts[classIndex] - minCounts[classIndex] <= 1);
+            }
+        }
+    }
+
+    @Test
+    public void testSameResultsWithAnyParallelism() throws Exception {
+        Data data = createData(400, 7);
+        boolean[] stratified = {false, true};
+        for(boolean stratify: stratified) {
+            CrossValidation.Result<GuessingModel> sequential = run(new CrossValidation(8).stratified(stratify)
+                    .repeats(2).parallelism(1).streams(new RandomStreams(8)), data, new RandomStreams(9));
+            CrossValidation.Result<GuessingModel> parallel = run(new CrossValidation(8).stratified(stratify)
+                    .repeats(2).parallelism(8).streams(new RandomStreams(8)), data, new RandomStreams(9));
+            assertEquals(sequential.folds().size(), parallel.folds().size());
+            for (int i = 0; i < sequential.folds().size(); i++) {
+                CrossValidation.Fold<GuessingModel> expected = sequential.folds().get(i);
+                CrossValidation.Fold<GuessingModel> actual = parallel.folds().get(i);
+                assertEquals(expected.testData.numRows(), actual.testData.numRows());
+                for (int row = 0; row < expected.testData.numRows(); row++) {
+                    assertEquals(expected.testData.originalRow(row), actual.testData.originalRow(row));
+                }
+                int[][] expectedMatrix = expected.confusionMatrix();
+                int[][] actualMatrix = actual.confusionMatrix();
+                for (int actualClass = 0; actualClass < NUM_CLASSIFICATIONS; actualClass++) {
+                    assertArrayEquals(expectedMatrix[actualClass], actualMatrix[actualClass]);
+                }
+            }
+            assertEquals(sequential.accuracy(), parallel.accuracy(), 0);
+            assertEquals(sequential.metrics().macroF1(), parallel.metrics().macroF1(), 0);
+        }
+    }
+}
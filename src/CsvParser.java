@@ -0,0 +1,519 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads csv data files straight from the bytes of the file into columns. Numbers are parsed from the bytes without
+ * creating a String for each field or relying on exceptions, and text values are dictionary encoded so each distinct
+ * value only becomes a String once. Large files are split into chunks at line boundaries and the chunks are parsed
+ * on several threads
+ *
+ * The layout is the same one FileIO.readFromFile expects - attribute names on the first line and the classification
+ * in the last column. Quoted fields are supported, but not quoted fields that contain line breaks
+ */
+public class CsvParser {
+    // files smaller than this aren't worth splitting up
+    static final long MIN_CHUNK_SIZE = 1 << 20;
+    // keeps each mapped chunk well under the 2GB limit of a single mapping
+    static final long MAX_CHUNK_SIZE = 1 << 28;
+    static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    public static boolean readFromFile(String fileName, Data data) {
+        return readFromFile(fileName, data, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Parse a csv file and add its rows to the data
+     * @param fileName The file to read
+     * @param data The data to add the file's contents to - if it already has classifications, the file's
+     *             classifications are matched up with them
+     * @param numThreads The number of threads to parse with
+     * @return True if the file was read successfully
+     */
+    public static boolean readFromFile(String fileName, Data data, int numThreads) {
+        try {
+            RandomAccessFile file = new RandomAccessFile(fileName, "r");
+            FileChannel channel = file.getChannel();
+            long fileSize = channel.size();
+
+            // the header is small, so it is read on its own
+            long headerEnd = findLineStart(channel, 0, fileSize);
+            ChunkParser headerParser = new ChunkParser(channel.map(FileChannel.MapMode.READ_ONLY, 0, headerEnd), -1);
+            String[] attributeNames = headerParser.readHeader();
+            data.setAttributeNames(attributeNames);
+            System.out.println("attribute names: " + Arrays.toString(attributeNames));
+            final int numAttributes = attributeNames.length - 1;
+
+            // split the rest of the file at line boundaries
+            long bodySize = fileSize - headerEnd;
+            int numChunks = (int) Math.max(1, Math.min(bodySize / MIN_CHUNK_SIZE, 4L * numThreads));
+            numChunks = (int) Math.max(numChunks, (bodySize + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+            long[] chunkStarts = new long[numChunks + 1];
+            chunkStarts[0] = headerEnd;
+            for (int i = 1; i < numChunks; i++) {
+                chunkStarts[i] = findLineStart(channel, Math.max(chunkStarts[i - 1], headerEnd + bodySize * i / numChunks), fileSize);
+            }
+            chunkStarts[numChunks] = fileSize;
+
+            ArrayList<Callable<ChunkParser>> tasks = new ArrayList<>();
+            for (int i = 0; i < numChunks; i++) {
+                final ChunkParser parser = new ChunkParser(
+                        channel.map(FileChannel.MapMode.READ_ONLY, chunkStarts[i], chunkStarts[i + 1] - chunkStarts[i]),
+                        numAttributes);
+                tasks.add(new Callable<ChunkParser>() {
+                    @Override
+                    public ChunkParser call() {
+                        parser.parseRows();
+                        return parser;
+                    }
+                });
+            }
+            ArrayList<ChunkParser> chunks = new ArrayList<>();
+            if(numChunks == 1 || numThreads <= 1) {
+                for(Callable<ChunkParser> task: tasks) {
+                    chunks.add(task.call());
+                }
+            }
+            else {
+                ExecutorService pool = Executors.newFixedThreadPool(Math.min(numThreads, numChunks));
+                for(Future<ChunkParser> result: pool.invokeAll(tasks)) {
+                    chunks.add(result.get());
+                }
+                pool.shutdown();
+            }
+            file.close();
+
+            mergeChunks(chunks, numAttributes, data);
+            return true;
+        }
+        catch (Exception e) {
+            System.out.println("Error reading file - " + fileName);
+            e.printStackTrace();
+        }
+        System.exit(0);
+        return false;
+    }
+
+    /**
+     * Combine the parsed chunks (and the statistics each collected while parsing) into a single set of columns, in
+     * file order, and hand them to the data
+     */
+    private static void mergeChunks(ArrayList<ChunkParser> chunks, int numAttributes, Data data) {
+        int numRows = 0;
+        boolean[] hasText = new boolean[numAttributes];
+        for(ChunkParser chunk: chunks) {
+            numRows += chunk.numRows;
+            for (int att = 0; att < numAttributes; att++) {
+                hasText[att] |= chunk.codes[att] != null;
+            }
+        }
+
+        double[][] columns = new double[numAttributes][numRows];
+        int[] classIndices = new int[numRows];
+        int[][] codes = new int[numAttributes][];
+        ArrayList<ArrayList<String>> dictionaries = new ArrayList<>();
+        // the position of each value in its dictionary, so each of a chunk's values is found without a search
+        ArrayList<HashMap<String, Integer>> dictionaryIndices = new ArrayList<>();
+        for (int att = 0; att < numAttributes; att++) {
+            if(hasText[att]) {
+                codes[att] = new int[numRows];
+                Arrays.fill(codes[att], -1);
+            }
+            dictionaries.add(new ArrayList<String>());
+            dictionaryIndices.add(new HashMap<String, Integer>());
+        }
+        // the data may already know some classifications, such as test data given those of the training data
+        HashMap<String, Integer> classificationIndices = new HashMap<>();
+        for (int i = 0; i < data.classifications.size(); i++) {
+            if(!classificationIndices.containsKey(data.classifications.get(i))) {
+                classificationIndices.put(data.classifications.get(i), i);
+            }
+        }
+
+        ColumnStats stats = new ColumnStats(numAttributes);
+        int firstRow = 0;
+        for(ChunkParser chunk: chunks) {
+            // translate the chunk's own codes into codes shared by the whole file, in order of first appearance
+            int[] classIndexOf = translateCodes(chunk.classifications, data.classifications,
+                    classificationIndices);
+            stats.merge(chunk.stats, classIndexOf);
+            for (int row = 0; row < chunk.numRows; row++) {
+                classIndices[firstRow + row] = classIndexOf[chunk.classCodes[row]];
+            }
+            for (int att = 0; att < numAttributes; att++) {
+                System.arraycopy(chunk.values[att], 0, columns[att], firstRow, chunk.numRows);
+                if(chunk.codes[att] != null) {
+                    int[] codeOf = translateCodes(chunk.dictionaries[att], dictionaries.get(att),
+                            dictionaryIndices.get(att));
+                    for (int row = 0; row < chunk.numRows; row++) {
+                        int code = chunk.codes[att][row];
+                        codes[att][firstRow + row] = code < 0 ? -1 : codeOf[code];
+                    }
+                }
+            }
+            firstRow += chunk.numRows;
+        }
+
+        Object[][] dictionaryArrays = new Object[numAttributes][];
+        for (int att = 0; att < numAttributes; att++) {
+            if(hasText[att]) {
+                dictionaryArrays[att] = dictionaries.get(att).toArray();
+            }
+        }
+        DataColumns loadedColumns = DataColumns.compact(new DataColumns(columns, classIndices));
+        data.addColumns(loadedColumns, new ColumnPoints(loadedColumns, dictionaryArrays, codes), stats);
+    }
+
+    /**
+     * Find the position of each of a chunk's distinct values in a shared list, adding any that are new
+     * @param chunkValues The chunk's values, indexed by the chunk's codes
+     * @param sharedValues The values seen so far, which may grow
+     * @param sharedIndices The position of each value in sharedValues, which grows with it
+     * @return The shared index of each of the chunk's codes
+     */
+    private static int[] translateCodes(ByteDictionary chunkValues, ArrayList<String> sharedValues,
+                                        HashMap<String, Integer> sharedIndices) {
+        int[] sharedIndexOf = new int[chunkValues.size()];
+        for (int code = 0; code < sharedIndexOf.length; code++) {
+            String value = chunkValues.getString(code);
+            Integer index = sharedIndices.get(value);
+            if(index == null) {
+                index = sharedValues.size();
+                sharedValues.add(value);
+                sharedIndices.put(value, index);
+            }
+            sharedIndexOf[code] = index;
+        }
+        return sharedIndexOf;
+    }
+
+    /**
+     * Find the start of the first line that begins at or after a position
+     * @param channel The file
+     * @param position Where to start looking
+     * @param fileSize The size of the file
+     * @return The position just past the next line break, or the end of the file if there isn't one
+     */
+    private static long findLineStart(FileChannel channel, long position, long fileSize) throws IOException {
+        if(position >= fileSize) {
+            return fileSize;
+        }
+        if(position > 0) {
+            // a line starts here if the previous byte was a line break
+            position--;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while(position < fileSize) {
+            buffer.clear();
+            int numRead = channel.read(buffer, position);
+            if(numRead <= 0) break;
+            for (int i = 0; i < numRead; i++) {
+                if(buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += numRead;
+        }
+        return fileSize;
+    }
+
+    /**
+     * Parses the rows of one chunk of the file into its own growable columns
+     */
+    static class ChunkParser {
+        final MappedByteBuffer buffer;
+        final int numAttributes;
+        int numRows = 0;
+        double[][] values;
+        // text values of each attribute, null until the attribute has text in this chunk, -1 for numeric values
+        int[][] codes;
+        ByteDictionary[] dictionaries;
+        int[] classCodes;
+        final ByteDictionary classifications = new ByteDictionary();
+        // statistics of the chunk, by the chunk's own class codes
+        ColumnStats stats;
+
+        private int position = 0;
+        private byte[] field = new byte[64];
+        private int fieldLength;
+        private boolean endOfLine;
+
+        ChunkParser(MappedByteBuffer buffer, int numAttributes) {
+            this.buffer = buffer;
+            this.numAttributes = numAttributes;
+        }
+
+        String[] readHeader() {
+            ArrayList<String> names = new ArrayList<>();
+            endOfLine = false;
+            while(!endOfLine) {
+                readField();
+                names.add(new String(field, 0, fieldLength, StandardCharsets.UTF_8));
+            }
+            return names.toArray(new String[names.size()]);
+        }
+
+        void parseRows() {
+            int capacity = 1024;
+            values = new double[numAttributes][capacity];
+            codes = new int[numAttributes][];
+            dictionaries = new ByteDictionary[numAttributes];
+            classCodes = new int[capacity];
+            stats = new ColumnStats(numAttributes);
+
+            int limit = buffer.limit();
+            while(position < limit) {
+                if(isBlankLine()) continue;
+                if(numRows == capacity) {
+                    capacity *= 2;
+                    for (int att = 0; att < numAttributes; att++) {
+                        values[att] = Arrays.copyOf(values[att], capacity);
+                        if(codes[att] != null) codes[att] = Arrays.copyOf(codes[att], capacity);
+                    }
+                    classCodes = Arrays.copyOf(classCodes, capacity);
+                }
+                endOfLine = false;
+                for (int att = 0; att <= numAttributes; att++) {
+                    if(endOfLine) wrongNumberOfEntries();
+                    readField();
+                    if(att == numAttributes) {
+                        classCodes[numRows] = classifications.codeOf(field, fieldLength);
+                        stats.addClass(classCodes[numRows]);
+                    }
+                    else {
+                        double value = parseNumber(field, fieldLength);
+                        if(value == value || isNaNLiteral(field, fieldLength)) {
+                            values[att][numRows] = value;
+                            stats.addValue(att, value);
+                            if(codes[att] != null) codes[att][numRows] = -1;
+                        }
+                        else {
+                            // not a number, so it is stored as text
+                            values[att][numRows] = Double.NaN;
+                            stats.addValue(att, Double.NaN);
+                            if(codes[att] == null) {
+                                codes[att] = new int[capacity];
+                                Arrays.fill(codes[att], 0, numRows, -1);
+                                dictionaries[att] = new ByteDictionary();
+                            }
+                            codes[att][numRows] = dictionaries[att].codeOf(field, fieldLength);
+                        }
+                    }
+                }
+                if(!endOfLine) wrongNumberOfEntries();
+                numRows++;
+            }
+        }
+
+        private void wrongNumberOfEntries() {
+            System.out.println("Read a line with the wrong number of entries");
+            System.exit(0);
+        }
+
+        /**
+         * Skip over an empty line if there is one at the current position
+         * @return True if a line was skipped
+         */
+        private boolean isBlankLine() {
+            byte b = buffer.get(position);
+            if(b == '\n') {
+                position++;
+                return true;
+            }
+            if(b == '\r' && (position + 1 == buffer.limit() || buffer.get(position + 1) == '\n')) {
+                position += 2;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Copy the next field into the field buffer (without any quotes) and move past its delimiter
+         */
+        private void readField() {
+            int limit = buffer.limit();
+            fieldLength = 0;
+            boolean quoted = position < limit && buffer.get(position) == '"';
+            if(quoted) position++;
+            while(position < limit) {
+                byte b = buffer.get(position);
+                if(quoted) {
+                    if(b == '"') {
+                        if(position + 1 < limit && buffer.get(position + 1) == '"') {
+                            // an escaped quote
+                            appendToField(b);
+                            position += 2;
+                            continue;
+                        }
+                        quoted = false;
+                        position++;
+                        continue;
+                    }
+                    appendToField(b);
+                    position++;
+                    continue;
+                }
+                if(b == ',') {
+                    position++;
+                    return;
+                }
+                if(b == '\n' || b == '\r') {
+                    position++;
+                    if(b == '\r' && position < limit && buffer.get(position) == '\n') position++;
+                    endOfLine = true;
+                    return;
+                }
+                appendToField(b);
+                position++;
+            }
+            endOfLine = true;
+        }
+
+        private void appendToField(byte b) {
+            if(fieldLength == field.length) {
+                field = Arrays.copyOf(field, field.length * 2);
+            }
+            field[fieldLength++] = b;
+        }
+    }
+
+    /**
+     * Parse a number written as ASCII digits - the forms Double.parseDouble accepts for decimal numbers, including
+     * NaN, Infinity and a trailing d or f, but not hexadecimal. Fields that aren't numbers give NaN without an
+     * exception ever being thrown, which matters for text columns where every field fails
+     * @param bytes The characters of the field
+     * @param length The number of characters
+     * @return The value, or NaN if the field isn't a number
+     */
+    static double parseNumber(byte[] bytes, int length) {
+        int from = 0, to = length;
+        // surrounding whitespace is ignored, as Double.parseDouble does
+        while(from < to && bytes[from] <= ' ') from++;
+        while(to > from && bytes[to - 1] <= ' ') to--;
+        if(from == to) return Double.NaN;
+
+        int i = from;
+        boolean negative = false;
+        if(bytes[i] == '-' || bytes[i] == '+') {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int numDigits = 0;
+        int exponent = 0;
+        boolean sawDigit = false;
+        boolean exact = true;
+        while(i < to && bytes[i] >= '0' && bytes[i] <= '9') {
+            sawDigit = true;
+            if(numDigits < 18) {
+                mantissa = mantissa * 10 + (bytes[i] - '0');
+                if(mantissa != 0) numDigits++;
+            }
+            else {
+                exponent++;
+                if(bytes[i] != '0') exact = false;
+            }
+            i++;
+        }
+        if(i < to && bytes[i] == '.') {
+            i++;
+            while(i < to && bytes[i] >= '0' && bytes[i] <= '9') {
+                sawDigit = true;
+                if(numDigits < 18) {
+                    mantissa = mantissa * 10 + (bytes[i] - '0');
+                    if(mantissa != 0) numDigits++;
+                    exponent--;
+                }
+                else if(bytes[i] != '0') {
+                    exact = false;
+                }
+                i++;
+            }
+        }
+        if(!sawDigit) return parseSpecialValue(bytes, from, to);
+        if(i < to && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if(i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            if(i == to || bytes[i] < '0' || bytes[i] > '9') return Double.NaN;
+            int writtenExponent = 0;
+            while(i < to && bytes[i] >= '0' && bytes[i] <= '9') {
+                if(writtenExponent < 100000) writtenExponent = writtenExponent * 10 + (bytes[i] - '0');
+                i++;
+            }
+            exponent += negativeExponent ? -writtenExponent : writtenExponent;
+        }
+        // a type suffix, as in 1.5d or 2f
+        if(i == to - 1 && (bytes[i] == 'd' || bytes[i] == 'D' || bytes[i] == 'f' || bytes[i] == 'F')) {
+            to--;
+        }
+        if(i != to) return Double.NaN;
+
+        double value;
+        if(mantissa == 0) {
+            value = 0;
+        }
+        else if(exact && mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+            // both the mantissa and the power of ten are exact doubles, so a single rounding gives the correct result
+            value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        }
+        else {
+            // too many digits to do exactly, so fall back on the library (the field is known to be a valid number)
+            return Double.parseDouble(new String(bytes, from, to - from, StandardCharsets.US_ASCII));
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse the numbers that have no digits - Infinity, and NaN, which gives NaN like any other field that isn't a
+     * number (isNaNLiteral tells them apart)
+     * @param bytes The characters of the field
+     * @param from The first character, after any whitespace
+     * @param to The end of the field, before any whitespace
+     * @return The value, NaN if the field isn't Infinity
+     */
+    private static double parseSpecialValue(byte[] bytes, int from, int to) {
+        boolean negative = bytes[from] == '-';
+        if(bytes[from] == '-' || bytes[from] == '+') from++;
+        if(!matches(bytes, from, to, "Infinity")) return Double.NaN;
+        return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+    }
+
+    private static boolean matches(byte[] bytes, int from, int to, String word) {
+        if(to - from != word.length()) return false;
+        for (int i = 0; i < word.length(); i++) {
+            if(bytes[from + i] != word.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Whether a field is the number NaN written out, rather than text that isn't a number
+     */
+    static boolean isNaNLiteral(byte[] bytes, int length) {
+        int from = 0, to = length;
+        while(from < to && bytes[from] <= ' ') from++;
+        while(to > from && bytes[to - 1] <= ' ') to--;
+        if(to - from > 0 && (bytes[from] == '+' || bytes[from] == '-')) from++;
+        return to - from == 3 && bytes[from] == 'N' && bytes[from + 1] == 'a' && bytes[from + 2] == 'N';
+    }
+}
@@ -0,0 +1,122 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the hand written number parsing, and that splitting a file into chunks loads the same rows as opencsv
+ */
+public class CsvParserTest {
+
+    private static double parse(String field) {
+        byte[] bytes = field.getBytes(StandardCharsets.US_ASCII);
+        return CsvParser.parseNumber(bytes, bytes.length);
+    }
+
+    @Test
+    public void testParseNumberMatchesLibrary() throws Exception {
+        String[] fields = {"0", "12", "-3.5", "+2.25", "007", ".5", "5.", "-0", "1e3", "+2E3", "1.5E-2", "-4.2e+10",
+                "123456789012345678901234", "0.000000000000000000000012345", "3.141592653589793238", "1e308",
+                "4.9e-324", "1e-400", " 42 ", "NaN", "-NaN", "Infinity", "+Infinity", "-Infinity", "1.5d", "2f", "-3e2D",
+                "1234567890123456789012F", ".5f"};
+        for(String field: fields) {
+            double expected = Double.parseDouble(field);
+            double parsed = parse(field);
+            assertEquals(field, Double.doubleToLongBits(expected), Double.doubleToLongBits(parsed));
+        }
+    }
+
+    @Test
+    public void testParseNumberRandomValues() throws Exception {
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            double value = (random.nextDouble() - .5) * Math.pow(10, random.nextInt(40) - 20);
+            String field = i % 2 == 0 ? Double.toString(value) : String.format("%.6f", value);
+            assertEquals(field, Double.parseDouble(field), parse(field), 0);
+        }
+    }
+
+    @Test
+    public void testParseNumberRejectsText() throws Exception {
+        String[] fields = {"", "   ", "?", "-", "+", ".", "e5", "1e", "1e+", "1ed", "1e+f", "1.2.3", "12abc", "abc",
+                "--1", "Nan", "Inf", "Infinityd", "apple", "0x10", "1st", "2016-04-10", "3 cups", "1.5dd", "d", "-f"};
+        for(String field: fields) {
+            assertTrue(field, Double.isNaN(parse(field)));
+        }
+    }
+
+    /**
+     * Write a file several times MIN_CHUNK_SIZE long, so it is split up, with a numeric, a text and a mixed column
+     */
+    private static File createFile(int numRows, long seed) throws Exception {
+        File file = File.createTempFile("CsvParserTest", ".csv");
+        file.deleteOnExit();
+        Random random = new Random(seed);
+        String[] fruit = {"apple", "peach", "pear"};
+        PrintWriter writer = new PrintWriter(file, "US-ASCII");
+        writer.println("Redness,Mass,Color,Volume,Class");
+        for (int row = 0; row < numRows; row++) {
+            String mixed = random.nextInt(20) == 0 ? "color" + random.nextInt(5) : "" + random.nextInt(100);
+            String volume = random.nextInt(50) == 0 ? "" + random.nextInt(1000) : "" + random.nextGaussian() * 30;
+            writer.println(random.nextDouble() * 10 + "," + (random.nextInt(20000) - 10000) / 100.0 + "," + mixed
+                    + "," + volume + "," + fruit[random.nextInt(fruit.length)]);
+        }
+        writer.close();
+        return file;
+    }
+
+    private static void assertSameRows(ArrayList<DataPoint> expectedRows, Data data) {
+        assertEquals(expectedRows.size(), data.dataPoints.size());
+        for (int row = 0; row < expectedRows.size(); row++) {
+            AttributeValue[] expected = expectedRows.get(row).attributes;
+            DataPoint point = data.dataPoints.get(row);
+            assertEquals(expected.length - 1, point.attributes.length);
+            for (int att = 0; att < point.attributes.length; att++) {
+                Object expectedValue = expected[att].getValue();
+                Object value = point.attributes[att].getValue();
+                if(expectedValue instanceof Double) {
+                    assertTrue(point.attributes[att].isNumeric());
+                    assertEquals((Double) expectedValue, point.attributes[att].getDouble(), 0);
+                }
+                else {
+                    assertEquals(expectedValue, value);
+                }
+            }
+            assertEquals(expected[expected.length - 1].getValue(),
+                    data.classifications.get(point.classificationIndex));
+        }
+    }
+
+    @Test
+    public void testChunkedParsingMatchesOpenCsv() throws Exception {
+        File file = createFile(60000, 2);
+        assertTrue(file.length() > 2 * CsvParser.MIN_CHUNK_SIZE);
+        ArrayList<DataPoint> expectedRows = FileIO.readRawPoints(file.getPath());
+
+        Data singleThreaded = new Data();
+        assertTrue(CsvParser.readFromFile(file.getPath(), singleThreaded, 1));
+        assertSameRows(expectedRows, singleThreaded);
+
+        Data multiThreaded = new Data();
+        assertTrue(CsvParser.readFromFile(file.getPath(), multiThreaded, 4));
+        assertSameRows(expectedRows, multiThreaded);
+        assertEquals(singleThreaded.classifications, multiThreaded.classifications);
+    }
+
+    @Test
+    public void testKnownClassificationsKeepTheirIndices() throws Exception {
+        File file = createFile(1000, 3);
+        Data data = new Data();
+        data.classifications.add("pear");
+        data.classifications.add("plum");
+        assertTrue(CsvParser.readFromFile(file.getPath(), data, 1));
+        assertEquals("pear", data.classifications.get(0));
+        assertEquals("plum", data.classifications.get(1));
+        assertSameRows(FileIO.readRawPoints(file.getPath()), data);
+    }
+}
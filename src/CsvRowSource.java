@@ -0,0 +1,171 @@
+import com.opencsv.CSVReader;
+
+import java.io.Closeable;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a csv data file one row at a time instead of loading the whole file, so learners that only need a single
+ * pass over the data can handle files far larger than memory. The same Row object is reused for every row, so its
+ * contents are only valid until the next call to next()
+ *
+ * The file layout is the same one FileIO.readFromFile expects - attribute names on the first line and the
+ * classification in the last column
+ */
+public class CsvRowSource implements Iterator<CsvRowSource.Row>, Iterable<CsvRowSource.Row>, Closeable {
+    private final String fileName;
+    private final CSVReader reader;
+    public final String[] attributeNames;
+    final ArrayList<String> classifications;
+    private final Row row;
+    private String[] nextLine;
+    // the characters of the field being parsed, as CsvParser.parseNumber reads them
+    private byte[] fieldBytes = new byte[64];
+
+    /**
+     * A single row of the file
+     */
+    public static class Row {
+        // numeric value of each attribute, NaN for values that aren't numbers
+        public final double[] values;
+        // whether each attribute is a number, which tells a NaN written in the file apart from text
+        final boolean[] numeric;
+        // the text of each attribute, as it appeared in the file
+        public String[] fields;
+        public int classificationIndex;
+
+        Row(int numAttributes) {
+            values = new double[numAttributes];
+            numeric = new boolean[numAttributes];
+        }
+
+        /**
+         * Create a standalone point from the row, for code that needs to keep it after moving on to the next row
+         * @return A new point with the values of this row
+         */
+        public DataPoint toDataPoint() {
+            Object[] attributes = new Object[values.length];
+            for (int i = 0; i < values.length; i++) {
+                attributes[i] = numeric[i] ? (Object) values[i] : fields[i];
+            }
+            return new DataPoint(attributes, classificationIndex);
+        }
+    }
+
+    /**
+     * Open a file for streaming
+     * @param fileName The csv file to read
+     * @param classifications Known classifications, used to give each row its classification index. Classifications
+     *                        that haven't been seen before are added to the end of the list
+     */
+    public CsvRowSource(String fileName, ArrayList<String> classifications) throws IOException {
+        this.fileName = fileName;
+        this.classifications = classifications;
+        reader = new CSVReader(new FileReader(fileName));
+        attributeNames = reader.readNext();
+        if(attributeNames == null) {
+            throw new IOException("Empty data file - " + fileName);
+        }
+        row = new Row(attributeNames.length - 1);
+        nextLine = readNonBlankLine();
+    }
+
+    private String[] readNonBlankLine() throws IOException {
+        String[] line;
+        do {
+            line = reader.readNext();
+        } while(line != null && line.length == 0);
+        if(line != null && line.length != attributeNames.length) {
+            System.out.println("Read a line with the wrong number of entries - " + fileName);
+            System.exit(0);
+        }
+        return line;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextLine != null;
+    }
+
+    @Override
+    public Row next() {
+        if(nextLine == null) {
+            throw new NoSuchElementException();
+        }
+        int numAttributes = row.values.length;
+        row.fields = nextLine;
+        for (int i = 0; i < numAttributes; i++) {
+            int length = copyField(nextLine[i]);
+            row.values[i] = CsvParser.parseNumber(fieldBytes, length);
+            row.numeric[i] = row.values[i] == row.values[i] || CsvParser.isNaNLiteral(fieldBytes, length);
+        }
+        String classification = nextLine[numAttributes];
+        row.classificationIndex = classifications.indexOf(classification);
+        if(row.classificationIndex == -1) {
+            classifications.add(classification);
+            row.classificationIndex = classifications.size() - 1;
+        }
+        try {
+            nextLine = readNonBlankLine();
+        }
+        catch(IOException e) {
+            System.out.println("Error reading file - " + fileName);
+            e.printStackTrace();
+            System.exit(0);
+        }
+        return row;
+    }
+
+    /**
+     * Copy a field into fieldBytes, so it is parsed the same way as by CsvParser. Characters outside ASCII can't be
+     * part of a number, so they are all copied as DEL
+     * @param field The text of the field
+     * @return The number of characters
+     */
+    private int copyField(String field) {
+        int length = field.length();
+        if(length > fieldBytes.length) {
+            fieldBytes = new byte[Math.max(length, 2 * fieldBytes.length)];
+        }
+        for (int i = 0; i < length; i++) {
+            char c = field.charAt(i);
+            fieldBytes[i] = c < 127 ? (byte) c : 127;
+        }
+        return length;
+    }
+
+    /**
+     * The rows can only be iterated over once
+     * @return This source
+     */
+    @Override
+    public Iterator<Row> iterator() {
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Open a file for streaming, exiting with an error message if it can't be opened (as FileIO does)
+     * @param fileName The csv file to read
+     * @param classifications Known classifications - see the constructor
+     * @return The opened source
+     */
+    public static CsvRowSource open(String fileName, ArrayList<String> classifications) {
+        try {
+            return new CsvRowSource(fileName, classifications);
+        }
+        catch (Exception e) {
+            System.out.println("Error reading file - " + fileName);
+            e.printStackTrace();
+        }
+        System.exit(0);
+        return null;
+    }
+}
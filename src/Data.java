@@ -1,88 +1,407 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
 
 /**
  * A class to store all the information regarding the data
  */
 public class Data {
-    public final ArrayList<DataPoint> dataPoints = new ArrayList<>();
+    public List<DataPoint> dataPoints;
     Double[] minValues;
     Double[] maxValues;
     int numAttributes;
 
     public String [] attributeNames;
     ArrayList<String> classifications = new ArrayList<>();
-    ArrayList<Integer> classificationCounts = new ArrayList<>();
 
     private int crossFoldTestSize = 0;
     private int crossFoldNumFolds;
+    // shuffled row indices of the original data, the folds are consecutive ranges of this ordering
+    private int[] crossFoldOrder = new int[0];
+    // statistics of each block of the cross fold ordering, collected when the first fold is requested
+    private FoldStats crossFoldStats;
+
+    // primitive copy of dataPoints, built when first requested and discarded whenever the points change
+    private DataColumns columns;
+    // dictionary encoded copy of dataPoints, built and discarded along with the columns
+    private AttributeCodes attributeCodes;
+    // statistics of the attributes and classes, kept up to date as points are added
+    private ColumnStats stats;
+    // how much each point counts for when learning, null when every point weighs 1. Folds use their original's
+    private SampleWeights weights;
+    // true to keep the columns in single precision. Folds use their original's
+    private boolean singlePrecision = false;
+    // true to keep the columns outside the Java heap, which takes precedence over single precision
+    private boolean offHeap = false;
+
+    // when this is a fold of other data, the data holding the points and which of its rows belong to this fold
+    private Data original;
+    private FoldRows rows;
 
     public void initializeDataForCrossFoldValidation(int numFolds) {
+        initializeDataForCrossFoldValidation(numFolds, new Random());
+    }
+
+    /**
+     * Shuffle the rows into folds, which getCrossFoldTrainingData and getCrossFoldTestData then return
+     * @param numFolds The number of folds
+     * @param generator The source of randomness for the shuffle
+     */
+    public void initializeDataForCrossFoldValidation(int numFolds, Random generator) {
         crossFoldNumFolds = numFolds;
         crossFoldTestSize = dataPoints.size() / numFolds;
-        Collections.shuffle(dataPoints);
+        crossFoldOrder = new int[dataPoints.size()];
+        for (int i = 0; i < crossFoldOrder.length; i++) {
+            crossFoldOrder[i] = originalRow(i);
+        }
+        shuffle(crossFoldOrder, generator);
+        crossFoldStats = null;
+    }
+
+    /**
+     * Get the columnar form of the data, which the learners use for their scans over the data points. It is rebuilt
+     * if points have been added or changed since the last call. Folds being trained at the same time share their
+     * original data's columns, so building them is synchronized
+     * @return The data stored by attribute
+     */
+    public synchronized DataColumns columns() {
+        if(rows != null) {
+            // a fold shares the columns (and weights) of the original data
+            if(columns == null || columns.weights != original.weights) {
+                columns = original.columns().view(rows);
+            }
+            return columns;
+        }
+        if(columns == null || columns.numRows != dataPoints.size()) {
+            columns = DataColumns.compact(new DataColumns(dataPoints, attributeNames.length - 1));
+        }
+        if(!columns.isSparse() && !columns.isOffHeap() && !columns.isSinglePrecision()) {
+            // sparse data is left as it is, its zeros already take no space
+            if(offHeap) {
+                columns = OffHeapColumns.of(columns);
+            }
+            else if(singlePrecision) {
+                columns = FloatColumns.of(columns);
+            }
+        }
+        if(columns.weights != weights) {
+            columns = columns.weighted(weights);
+        }
+        return columns;
+    }
+
+    /**
+     * Choose whether the columns keep their values in single precision, which halves the memory they take and the
+     * memory bandwidth of scanning them at the cost of precision. The points themselves are unaffected
+     * @param singlePrecision True for float columns, false for double columns
+     */
+    public synchronized void setSinglePrecision(boolean singlePrecision) {
+        if(original != null) {
+            System.out.println("Error in setSinglePrecision: a fold shares the columns of its original data");
+            System.exit(0);
+        }
+        if(this.singlePrecision && !singlePrecision) {
+            // rebuilt in double precision from the points when next requested
+            columns = null;
+        }
+        this.singlePrecision = singlePrecision;
     }
 
+    public boolean isSinglePrecision() {
+        return original == null ? singlePrecision : original.singlePrecision;
+    }
+
+    /**
+     * Choose whether the columns are kept outside the Java heap, so that data far bigger than the heap can be used
+     * without the garbage collector ever scanning it. Binary data files loaded afterwards are mapped straight from
+     * the file rather than copied. The points are only created if something asks for them
+     * @param offHeap True to keep the columns off the heap
+     */
+    public synchronized void setOffHeap(boolean offHeap) {
+        if(original != null) {
+            System.out.println("Error in setOffHeap: a fold shares the columns of its original data");
+            System.exit(0);
+        }
+        if(this.offHeap && !offHeap) {
+            // rebuilt on the heap from the points when next requested
+            columns = null;
+        }
+        this.offHeap = offHeap;
+    }
+
+    public boolean isOffHeap() {
+        return original == null ? offHeap : original.offHeap;
+    }
+
+    /**
+     * Get the dictionary encoded form of the data, which learners that treat attributes as categories use to compare
+     * values as ints. It is rebuilt if points have been added or changed since the last call
+     * @return The data with each attribute's values replaced by codes
+     */
+    public synchronized AttributeCodes attributeCodes() {
+        if(rows != null) {
+            if(attributeCodes == null || attributeCodes.weights != original.weights) {
+                attributeCodes = new AttributeCodes(original.attributeCodes(), rows);
+            }
+            return attributeCodes;
+        }
+        if(attributeCodes == null || attributeCodes.numRows != dataPoints.size()) {
+            attributeCodes = new AttributeCodes(dataPoints, attributeNames.length - 1);
+        }
+        if(attributeCodes.weights != weights) {
+            attributeCodes = new AttributeCodes(attributeCodes, weights);
+        }
+        return attributeCodes;
+    }
+
+    /**
+     * @return How much each point counts for when learning, or null if every point weighs 1
+     */
+    public SampleWeights weights() {
+        return original == null ? weights : original.weights;
+    }
+
+    /**
+     * Give each point its own weight, which learners treat as the number of times the point appears. Points added
+     * afterwards weigh 1
+     * @param rowWeights The weight of each point, or null to go back to every point weighing 1
+     */
+    public synchronized void setRowWeights(double[] rowWeights) {
+        if(original != null) {
+            System.out.println("Error in setRowWeights: a fold shares the weights of its original data, so it can't be weighted");
+            System.exit(0);
+        }
+        weights = new SampleWeights(rowWeights, weights == null ? null : weights.classWeights);
+    }
+
+    /**
+     * Merge points that are exact duplicates of each other - the same values and the same classification - into a
+     * single point, weighted by the number of copies (the sum of their weights if they were already weighted). Every
+     * learner that supports weights then gets the same counts from far fewer rows. The first copy of each point is
+     * kept, in the order the points were added. Points are only duplicates if their values are identical, not merely
+     * within the epsilon of AttributeValue.equals
+     * @return The number of points removed
+     */
+    public synchronized int collapseDuplicates() {
+        if(original != null) {
+            System.out.println("Error in collapseDuplicates: a fold shares the points of its original data");
+            System.exit(0);
+        }
+        // each distinct row is found by hashing its values and classification
+        HashMap<List<Object>, Integer> uniqueIndices = new HashMap<>();
+        ArrayList<DataPoint> uniquePoints = new ArrayList<>();
+        double[] uniqueWeights = new double[dataPoints.size()];
+        for (int row = 0; row < dataPoints.size(); row++) {
+            DataPoint point = dataPoints.get(row);
+            ArrayList<Object> key = new ArrayList<>(point.attributes.length + 1);
+            for(AttributeValue value: point.attributes) {
+                key.add(value.getValue());
+            }
+            key.add(point.classificationIndex);
+            double rowWeight = weights == null || weights.rowWeights == null || row >= weights.rowWeights.length ? 1
+                    : weights.rowWeights[row];
+            Integer uniqueIndex = uniqueIndices.get(key);
+            if(uniqueIndex == null) {
+                uniqueIndex = uniquePoints.size();
+                uniqueIndices.put(key, uniqueIndex);
+                uniquePoints.add(point);
+            }
+            uniqueWeights[uniqueIndex] += rowWeight;
+        }
+        int numRemoved = dataPoints.size() - uniquePoints.size();
+        if(numRemoved == 0) return 0;
+        dataPoints = uniquePoints;
+        columns = null;
+        attributeCodes = null;
+        stats = null;
+        setRowWeights(Arrays.copyOf(uniqueWeights, uniquePoints.size()));
+        return numRemoved;
+    }
+
+    /**
+     * Give each classification a weight, which multiplies the weights of all of the points in the class
+     * @param classWeights The weight of each classification, or null to go back to every class weighing 1
+     */
+    public synchronized void setClassWeights(double[] classWeights) {
+        if(original != null) {
+            System.out.println("Error in setClassWeights: a fold shares the weights of its original data, so it can't be weighted");
+            System.exit(0);
+        }
+        weights = new SampleWeights(weights == null ? null : weights.rowWeights, classWeights);
+    }
+
+    /**
+     * Get the statistics of each attribute and the number of points in each class. These are collected as the data
+     * is loaded and points are added, so they are normally available without another pass over the data
+     * @return The statistics of the data
+     */
+    public synchronized ColumnStats stats() {
+        if(stats == null || stats.numRows != dataPoints.size()) {
+            stats = ColumnStats.of(columns());
+        }
+        return stats;
+    }
+
+    /**
+     * @param classIndex The index of a classification
+     * @return The number of points with the classification
+     */
+    public int classificationCount(int classIndex) {
+        return stats().classCount(classIndex);
+    }
+
+    public int numRows() {
+        return dataPoints.size();
+    }
+
+    /**
+     * The training data of one fold is a view of this data - the points are shared rather than copied, so the points
+     * of a fold should not be modified
+     * @param foldNumber The fold to get the training data of
+     * @return Everything except the test data of the fold
+     */
     public Data getCrossFoldTrainingData(int foldNumber) {
-        Data trainingData = new Data();
-        trainingData.numAttributes = this.numAttributes;
-        trainingData.attributeNames = Arrays.copyOf(attributeNames, attributeNames.length);
-        trainingData.classifications.addAll(classifications);
-        trainingData.addDataPoints(getCrossFoldTrainingDataPoints(foldNumber));
-        trainingData.determineExtremes();
-        return trainingData;
+        if(foldNumber >= crossFoldNumFolds) return new Data(this, crossFoldTrainingRows(foldNumber));
+        return subset(crossFoldTrainingRows(foldNumber), crossFoldStats().trainingStats(foldNumber));
     }
     public Data getCrossFoldTestData(int foldNumber) {
-        Data testData = new Data();
-        testData.numAttributes = this.numAttributes;
-        testData.attributeNames = Arrays.copyOf(attributeNames, attributeNames.length);
-        testData.classifications.addAll(classifications);
-        testData.addDataPoints(getCrossFoldTestDataPoints(foldNumber));
-        testData.determineExtremes();
-        return testData;
+        if(foldNumber >= crossFoldNumFolds) return new Data(this, crossFoldTestRows(foldNumber));
+        return subset(crossFoldTestRows(foldNumber), crossFoldStats().blockStats(foldNumber));
+    }
+
+    /**
+     * The statistics of the blocks of the cross fold ordering - one block per fold, then the rows left over when the
+     * data doesn't divide evenly, which are always training data
+     */
+    private synchronized FoldStats crossFoldStats() {
+        if(crossFoldStats == null) {
+            int[] blockStarts = new int[crossFoldNumFolds + 2];
+            for (int fold = 0; fold <= crossFoldNumFolds; fold++) {
+                blockStarts[fold] = fold * crossFoldTestSize;
+            }
+            blockStarts[crossFoldNumFolds + 1] = crossFoldOrder.length;
+            crossFoldStats = foldStats(crossFoldOrder, blockStarts);
+        }
+        return crossFoldStats;
+    }
+
+    public List<DataPoint> getCrossFoldTestDataPoints(int foldNumber) {
+        return crossFoldTestRows(foldNumber).pointsOf(originalPoints());
+    }
+
+    public List<DataPoint> getCrossFoldTrainingDataPoints(int foldNumber) {
+        return crossFoldTrainingRows(foldNumber).pointsOf(originalPoints());
     }
 
-    public ArrayList<DataPoint> getCrossFoldTestDataPoints(int foldNumber) {
-        ArrayList<DataPoint> testData = new ArrayList<>();
-        if(foldNumber >= crossFoldNumFolds) return testData;
+    /**
+     * Create a read only view of some rows, sharing the points of this data as the cross fold data does
+     * @param rows Which rows of the original data are in the view (see originalRow)
+     * @return The view
+     */
+    Data subset(FoldRows rows) {
+        return new Data(this, rows);
+    }
+
+    /**
+     * Create a read only view of some rows whose statistics are already known, so the view never has to scan its rows
+     * to find them
+     * @param rows Which rows of the original data are in the view (see originalRow)
+     * @param rowStats The statistics of those rows
+     * @return The view
+     */
+    Data subset(FoldRows rows, ColumnStats rowStats) {
+        Data subset = new Data(this, rows);
+        subset.stats = rowStats;
+        return subset;
+    }
+
+    /**
+     * Collect the statistics of every block of an ordering of the rows, from which the statistics of any fold made
+     * from the ordering can be put together without another pass over the data
+     * @param order An ordering of rows of the original data (see originalRow)
+     * @param blockStarts The position in the ordering where each block starts, plus the end of the last block
+     * @return The statistics of the blocks
+     */
+    FoldStats foldStats(int[] order, int[] blockStarts) {
+        return new FoldStats((original == null ? this : original).columns(), order, blockStarts);
+    }
+
+    /**
+     * @param row A row of this data
+     * @return The index of the row among the points of the data this was created from, which is just the row if this
+     * wasn't created from other data
+     */
+    int originalRow(int row) {
+        return rows == null ? row : rows.get(row);
+    }
+
+    private FoldRows crossFoldTestRows(int foldNumber) {
+        if(foldNumber >= crossFoldNumFolds) return new FoldRows(crossFoldOrder, 0, 0, 0, 0);
 
         int testDataFrom = foldNumber * crossFoldTestSize;
         int testDataTo = (foldNumber + 1) * crossFoldTestSize;
-        for(int i = testDataFrom; i < testDataTo; i++) {
-            testData.add(dataPoints.get(i).copyOf());
-        }
-        return testData;
+        return new FoldRows(crossFoldOrder, testDataFrom, testDataTo, 0, 0);
     }
 
-    public ArrayList<DataPoint> getCrossFoldTrainingDataPoints(int foldNumber) {
-        ArrayList<DataPoint> trainingData = new ArrayList<>();
-        if(foldNumber >= crossFoldNumFolds) return trainingData;
+    private FoldRows crossFoldTrainingRows(int foldNumber) {
+        if(foldNumber >= crossFoldNumFolds) return new FoldRows(crossFoldOrder, 0, 0, 0, 0);
 
         int testDataFrom = foldNumber * crossFoldTestSize;
         int testDataTo = (foldNumber + 1) * crossFoldTestSize;
-        // add the data before and after the test data to the training set
-        for (int i = 0; i < testDataFrom; i++) {
-            trainingData.add(dataPoints.get(i).copyOf());
-        }
-        for(int i = testDataTo; i < dataPoints.size(); i++) {
-            trainingData.add(dataPoints.get(i).copyOf());
+        // the data before and after the test data make up the training set
+        return new FoldRows(crossFoldOrder, 0, testDataFrom, testDataTo, crossFoldOrder.length);
+    }
+
+    /**
+     * The points that row indices of the cross fold ordering refer to
+     * @return The points of the data this was created from, or this data's points if it wasn't created from a fold
+     */
+    private List<DataPoint> originalPoints() {
+        return original == null ? dataPoints : original.dataPoints;
+    }
+
+    /**
+     * Randomly reorder an array in place (Fisher-Yates)
+     * @param values The array to be shuffled
+     * @param generator The source of randomness
+     */
+    public static void shuffle(int[] values, Random generator) {
+        for (int i = values.length - 1; i > 0; i--) {
+            int swapIndex = generator.nextInt(i + 1);
+            int temp = values[i];
+            values[i] = values[swapIndex];
+            values[swapIndex] = temp;
         }
-        return trainingData;
     }
 
     public Data() {
+        dataPoints = new ArrayList<>();
     }
     public Data(String[] attributeNames, ArrayList<String> classifications) {
+        dataPoints = new ArrayList<>();
         this.attributeNames = attributeNames;
+        this.numAttributes = attributeNames.length - 1;
         this.classifications = classifications;
-        while(classificationCounts.size() < classifications.size()) {
-            classificationCounts.add(0);
-        }
+    }
+
+    /**
+     * Create a read only view of some of the rows of other data
+     * @param parent The data the view is being taken from
+     * @param rows Which rows of the original data are in the view
+     */
+    private Data(Data parent, FoldRows rows) {
+        this.original = parent.original == null ? parent : parent.original;
+        this.rows = rows;
+        this.dataPoints = rows.pointsOf(original.dataPoints);
+        this.numAttributes = parent.numAttributes;
+        this.attributeNames = parent.attributeNames;
+        this.classifications.addAll(parent.classifications);
     }
     public void initializeForBinaryData(String positiveString) { // index zero is always the positive example
         classifications.add(positiveString);
-        classificationCounts.add(0);
     }
 
     public void setAttributeNames(String[] attributeNames) {
@@ -90,33 +409,21 @@ public class Data {
         this.numAttributes = attributeNames.length - 1;
     }
 
-
-    private void addDataPoints(ArrayList<DataPoint> newDataPoints) {
-        classificationCounts = new ArrayList<>();
-        for (int i = 0; i < classifications.size(); i++) {
-            classificationCounts.add(0);
-        }
-        // requires classification indices to already be correct
-        for(DataPoint point: newDataPoints) {
-            dataPoints.add(point);
-            incrementClassificationCount(point.classificationIndex);
-        }
-    }
-    private void incrementClassificationCount(int index) {
-        classificationCounts.set(index, classificationCounts.get(index) + 1);
-    }
-
     /**
      * Introduce new dataPoints to the collection
      * @param dataPoint The point to be introduced
      */
     public void addDataPoint(DataPoint dataPoint, String classification) {
+        if(original != null) {
+            System.out.println("Error in addDataPoint: a fold shares the points of its original data");
+            System.exit(0);
+        }
         dataPoints.add(dataPoint);
+        columns = null;
+        attributeCodes = null;
         boolean categoryAlreadySeen = false;
         for (int i = 0; i < classifications.size(); i++) {
             if(classifications.get(i).equals(classification)) {
-                // increment the number of times this category was encountered
-                incrementClassificationCount(i);
                 dataPoint.classificationIndex = i;
                 categoryAlreadySeen = true;
             }
@@ -124,26 +431,122 @@ public class Data {
         if(!categoryAlreadySeen) {
             // if the classification hasn't been seen, add it to the list
             classifications.add(classification);
-            classificationCounts.add(1);
             dataPoint.classificationIndex = classifications.size() - 1;
         }
+        addToStats(dataPoint);
     }
     public void addDataPoint(DataPoint dataPoint) {
+        if(original != null) {
+            System.out.println("Error in addDataPoint: a fold shares the points of its original data");
+            System.exit(0);
+        }
         dataPoints.add(dataPoint);
-        incrementClassificationCount(dataPoint.classificationIndex);
+        columns = null;
+        attributeCodes = null;
+        addToStats(dataPoint);
     }
 
+    /**
+     * Update the statistics with a point that was just added, so they never need to be recomputed from scratch
+     * @param dataPoint The new point
+     */
+    private void addToStats(DataPoint dataPoint) {
+        if(stats == null && dataPoints.size() == 1) {
+            stats = new ColumnStats(dataPoint.attributes.length);
+        }
+        if(stats != null && stats.numRows == dataPoints.size() - 1) {
+            stats.add(DataColumns.toPrimitive(dataPoint.attributes), dataPoint.classificationIndex);
+        }
+        else {
+            // the statistics are out of date, they'll be recomputed if they're needed
+            stats = null;
+        }
+    }
+
+    /**
+     * Use columns that were loaded directly (without creating points) as the contents of this data. If there are
+     * already points, the loaded points are added to them instead
+     * @param loadedColumns The loaded values, whose class indices must already refer to this data's classifications
+     * @param loadedPoints The points corresponding to the columns
+     * @param loadedStats The statistics of the columns if the loader collected them, otherwise null
+     */
+    void addColumns(DataColumns loadedColumns, ColumnPoints loadedPoints, ColumnStats loadedStats) {
+        if(loadedStats == null) {
+            loadedStats = ColumnStats.of(loadedColumns);
+        }
+        if(offHeap && !loadedColumns.isOffHeap() && !loadedColumns.isSparse()) {
+            // move the values off the heap now, so nothing keeps the loaded arrays alive
+            loadedColumns = OffHeapColumns.of(loadedColumns);
+            loadedPoints = loadedPoints.withColumns(loadedColumns);
+        }
+        if(dataPoints.isEmpty()) {
+            dataPoints = loadedPoints;
+            columns = loadedColumns;
+            stats = loadedStats;
+        }
+        else {
+            boolean statsUpToDate = stats != null && stats.numRows == dataPoints.size();
+            dataPoints.addAll(loadedPoints);
+            columns = null;
+            attributeCodes = null;
+            if(statsUpToDate) {
+                stats.merge(loadedStats);
+            }
+            else {
+                stats = null;
+            }
+        }
+    }
+
+    /**
+     * Weigh the classifications so that every class has the same total weight as the heaviest one, as if the points
+     * of the smaller classes had been duplicated. Only one weight per class is stored, so unlike
+     * bootstrapToBalanceClasses the data doesn't grow
+     */
+    public void balanceClasses() {
+        int numClasses = classifications.size();
+        // the totals before any class weights, which are replaced
+        SampleWeights rowWeightsOnly = weights == null ? null : new SampleWeights(weights.rowWeights, null);
+        double[] classTotals = columns().weighted(rowWeightsOnly).classWeights(numClasses);
+        double maxClassTotal = 0;
+        for(double classTotal: classTotals) {
+            maxClassTotal = Math.max(maxClassTotal, classTotal);
+        }
+        double[] classWeights = new double[numClasses];
+        for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+            classWeights[classIndex] = classTotals[classIndex] > 0 ? maxClassTotal / classTotals[classIndex] : 1;
+        }
+        setClassWeights(classWeights);
+    }
+
+    /**
+     * Balance the classifications by duplicating points of the smaller classes until every class has as many points
+     * as the biggest. This is only needed for learners that don't support weights - otherwise balanceClasses gives
+     * the same effect without growing the data
+     */
     public void bootstrapToBalanceClasses() {
+        bootstrapToBalanceClasses(new Random());
+    }
+
+    /**
+     * Balance the classifications by duplicating points, as bootstrapToBalanceClasses does
+     * @param generator The source of randomness for choosing which points are duplicated
+     */
+    public void bootstrapToBalanceClasses(Random generator) {
+        if(original != null) {
+            System.out.println("Error in bootstrapToBalanceClasses: a fold shares the points of its original data");
+            System.exit(0);
+        }
 //        System.out.println("DataPoints before balancing: " + dataPoints.size());
         int numClasses = classifications.size();
         int maxClassCount = 0;
         // determine the number of items to increase to
         for (int classIndex = 0; classIndex < numClasses; classIndex++) {
-            if(classificationCounts.get(classIndex) > maxClassCount)
-                maxClassCount = classificationCounts.get(classIndex);
+            if(classificationCount(classIndex) > maxClassCount)
+                maxClassCount = classificationCount(classIndex);
         }
         for (int classIndex = 0; classIndex < numClasses; classIndex++) {
-            if(classificationCounts.get(classIndex) < maxClassCount) {
+            if(classificationCount(classIndex) < maxClassCount) {
                 // add items until there are enough points in the class to match the biggest
                 ArrayList<DataPoint> listOfPointsToAdd = new ArrayList<>();
                 // first creating a list of existing points, so they can be duplicated
@@ -152,8 +555,8 @@ public class Data {
                         listOfPointsToAdd.add(point.copyOf());
                     }
                 }
-                Collections.shuffle(listOfPointsToAdd);
-                for (int i = 0; classificationCounts.get(classIndex) < maxClassCount; i++, i = i % listOfPointsToAdd.size()) {
+                Collections.shuffle(listOfPointsToAdd, generator);
+                for (int i = 0; classificationCount(classIndex) < maxClassCount; i++, i = i % listOfPointsToAdd.size()) {
                     addDataPoint(listOfPointsToAdd.get(i));
                 }
             }
@@ -174,43 +577,40 @@ public class Data {
     }
 
     public ArrayList<ArrayList<AttributeValue>> inferPossibleAttributeValues() {
-        return inferPossibleAttributeValues(this.dataPoints);
+        return attributeCodes().possibleValues();
     }
-    public static ArrayList<ArrayList<AttributeValue>> inferPossibleAttributeValues(ArrayList<DataPoint> dataPoints) {
+
+    /**
+     * Find the distinct values of each attribute, in order of first appearance
+     * @param dataPoints The points to look through
+     * @return For each attribute, a list of its distinct values
+     */
+    public static ArrayList<ArrayList<AttributeValue>> inferPossibleAttributeValues(List<DataPoint> dataPoints) {
         ArrayList<ArrayList<AttributeValue>> possibleValues = new ArrayList<>();
         int numAttributes = dataPoints.get(0).attributes.length;
         for (int i = 0; i < numAttributes; i++) {
-            ArrayList<AttributeValue> currentAttributeValues = new ArrayList<>();
+            AttributeDictionary currentAttributeValues = new AttributeDictionary();
             for(DataPoint point: dataPoints) {
-                AttributeValue currentValue = point.attributes[i];
-                if(!currentAttributeValues.contains(currentValue)) {
-                    currentAttributeValues.add(currentValue);
-                }
+                currentAttributeValues.codeOf(point.attributes[i]);
             }
-            possibleValues.add(currentAttributeValues);
+            possibleValues.add(currentAttributeValues.values());
         }
         return possibleValues;
     }
 
     /**
-     * Compute and store the min and max value of the data for each attribute
+     * Compute and store the min and max value of the data for each attribute, using the statistics collected as the
+     * data was added rather than another pass over the data
      */
     public void determineExtremes() {
         minValues = new Double[attributeNames.length - 1];
         maxValues = new Double[attributeNames.length - 1];
-        Arrays.fill(minValues, Double.MAX_VALUE);
-        Arrays.fill(maxValues, Double.MIN_VALUE);
-
-        // first loop through all of the data to find the min and max values of each attribute
-        for (DataPoint dataPoint : dataPoints) {
-            for (int i = 0; i < attributeNames.length - 1; i++) {
-                if (dataPoint.attributes[i].isLessThan(minValues[i])) {
-                    minValues[i] = (Double)dataPoint.attributes[i].getValue();
-                }
-                if (dataPoint.attributes[i].isGreaterThan(maxValues[i])) {
-                    maxValues[i] = (Double)dataPoint.attributes[i].getValue();
-                }
-            }
+
+        // the extremes start from MAX_VALUE and MIN_VALUE, and non-numeric values are skipped
+        ColumnStats stats = stats();
+        for (int i = 0; i < attributeNames.length - 1; i++) {
+            minValues[i] = Math.min(Double.MAX_VALUE, stats.min(i));
+            maxValues[i] = Math.max(Double.MIN_VALUE, stats.max(i));
         }
     }
 
@@ -224,6 +624,10 @@ public class Data {
         this.maxValues = maxValues;
     }
     public void normalizeData() {
+        if(original != null) {
+            System.out.println("Error in normalizeData: a fold shares the points of its original data");
+            System.exit(0);
+        }
 
         // now normalize the data to be from 0 to 1
         for(DataPoint dataPoint: dataPoints) {
@@ -234,7 +638,12 @@ public class Data {
                             minValues[i], maxValues[i]));
                 }
             }
+            // rescaled zeros are no longer zero
+            dataPoint.sparse = null;
         }
+        columns = null;
+        attributeCodes = null;
+        stats = null;
     }
 
     /**
@@ -255,6 +664,8 @@ public class Data {
 class DataPoint {
     int classificationIndex;
     public final AttributeValue[] attributes;
+    // the non-zero values, kept for points of sparse data so that distances can skip the zeros - null otherwise
+    SparseRow sparse;
 
     public DataPoint(Object[] doubleAttributes) {
         this.attributes = AttributeValue.createArray(doubleAttributes);
@@ -298,13 +709,26 @@ class DataPoint {
         for (int i = 0; i < attributes.length; i++) {
             copiedValues[i] = attributes[i].copyOf();
         }
-        return new DataPoint(copiedValues, classificationIndex);
+        DataPoint copy = new DataPoint(copiedValues, classificationIndex);
+        copy.sparse = sparse;
+        return copy;
     }
 
+    /**
+     * Squared euclidean distance between two points. If both points come from sparse data, only their non-zero values
+     * are visited
+     * @param first One of the points
+     * @param second The other point
+     * @return The squared distance
+     */
     public static Double distanceSquared(DataPoint first, DataPoint second) {
-        Double distanceSquared = 0d;
+        if(first.sparse != null && second.sparse != null) {
+            return first.sparse.distanceSquared(second.sparse);
+        }
+        double distanceSquared = 0;
         for (int i = 0; i < first.attributes.length; i++) {
-            distanceSquared += Math.pow(first.attributes[i].minus(second.attributes[i]), 2);
+            double difference = first.attributes[i].getDouble() - second.attributes[i].getDouble();
+            distanceSquared += difference * difference;
         }
         return distanceSquared;
     }
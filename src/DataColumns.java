@@ -0,0 +1,385 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Columnar storage of a data set. Each attribute is kept in its own contiguous double array and the classifications
+ * are kept in an int array, so scans over the data don't need to unbox values or check types for every cell. Data
+ * that is mostly zeros can instead be kept as sparse rows, and data whose values compress well (small whole numbers,
+ * long runs of the same value) in compressed columns (see compact)
+ */
+public class DataColumns {
+    // the largest fraction of non-zero values for which compact switches to sparse rows
+    static final double MAX_SPARSE_DENSITY = .25;
+    // the number of rows scans read at a time with columnBlock, small enough for a block to stay in cache
+    static final int BLOCK_SIZE = 1024;
+
+    final int numRows;
+    final int numAttributes;
+    // indexed by [attribute][row], values that aren't numeric (strings or wildcards) are stored as NaN
+    final double[][] columns;
+    final int[] classIndices;
+    // when this is a view of a subset of other columns, maps each row to its position in the shared arrays
+    final FoldRows rows;
+    // how much each row counts for, indexed by position in the shared arrays - null when every row weighs 1
+    final SampleWeights weights;
+
+    /**
+     * Copy a list of points into columns
+     * @param dataPoints The points to copy
+     * @param numAttributes The number of attributes of each point, not including the classification
+     */
+    public DataColumns(List<DataPoint> dataPoints, int numAttributes) {
+        this.numRows = dataPoints.size();
+        this.numAttributes = numAttributes;
+        columns = new double[numAttributes][numRows];
+        classIndices = new int[numRows];
+        rows = null;
+        weights = null;
+        for (int row = 0; row < numRows; row++) {
+            DataPoint point = dataPoints.get(row);
+            classIndices[row] = point.classificationIndex;
+            for (int att = 0; att < numAttributes; att++) {
+                columns[att][row] = toPrimitive(point.attributes[att]);
+            }
+        }
+    }
+
+    /**
+     * Wrap columns that have already been filled
+     * @param columns The values of each attribute, indexed by [attribute][row]
+     * @param classIndices The classification index of each row
+     */
+    public DataColumns(double[][] columns, int[] classIndices) {
+        this.numRows = classIndices.length;
+        this.numAttributes = columns.length;
+        this.columns = columns;
+        this.classIndices = classIndices;
+        this.rows = null;
+        this.weights = null;
+    }
+
+    /**
+     * Create a view of a subset of the rows of other columns, sharing their arrays
+     * @param original The columns holding the values
+     * @param rows The rows of the original columns that are part of the view
+     */
+    public DataColumns(DataColumns original, FoldRows rows) {
+        this.numRows = rows.size();
+        this.numAttributes = original.numAttributes;
+        this.columns = original.columns;
+        this.classIndices = original.classIndices;
+        this.rows = rows;
+        this.weights = original.weights;
+    }
+
+    /**
+     * Share the arrays (and rows, for a view) of other columns, but weigh the rows differently
+     * @param other The columns holding the values
+     * @param weights The weights of the rows, indexed by position in the shared arrays, or null for every row to
+     *                weigh 1
+     */
+    public DataColumns(DataColumns other, SampleWeights weights) {
+        this.numRows = other.numRows;
+        this.numAttributes = other.numAttributes;
+        this.columns = other.columns;
+        this.classIndices = other.classIndices;
+        this.rows = other.rows;
+        this.weights = weights;
+    }
+
+    /**
+     * For subclasses that keep the values some other way than one array per attribute
+     * @param numAttributes The number of attributes
+     * @param classIndices The classification index of each row of the shared arrays
+     * @param rows The rows that are part of this view, or null for all of them
+     * @param weights The weights of the rows, or null for every row to weigh 1
+     */
+    protected DataColumns(int numAttributes, int[] classIndices, FoldRows rows, SampleWeights weights) {
+        this.numRows = rows == null ? classIndices.length : rows.size();
+        this.numAttributes = numAttributes;
+        this.columns = null;
+        this.classIndices = classIndices;
+        this.rows = rows;
+        this.weights = weights;
+    }
+
+    /**
+     * Share the arrays (and rows, for a view) of other columns, for subclasses that present the values differently
+     * @param other The columns holding the values
+     */
+    protected DataColumns(DataColumns other) {
+        this.numRows = other.numRows;
+        this.numAttributes = other.numAttributes;
+        this.columns = other.columns;
+        this.classIndices = other.classIndices;
+        this.rows = other.rows;
+        this.weights = other.weights;
+    }
+
+    /**
+     * Convert a single attribute value to a primitive double
+     * @param value The value to convert
+     * @return The numeric value, or NaN if the value is a string or a wildcard
+     */
+    public static double toPrimitive(AttributeValue value) {
+        if(value == null || !value.isNumeric()) return Double.NaN;
+        return value.getDouble();
+    }
+
+    /**
+     * Convert the attribute values of a single point to primitive doubles
+     * @param values The values to convert
+     * @return The numeric values, with NaN for values that are strings or wildcards
+     */
+    public static double[] toPrimitive(AttributeValue[] values) {
+        double[] primitives = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            primitives[i] = toPrimitive(values[i]);
+        }
+        return primitives;
+    }
+
+    /**
+     * Switch columns to sparse rows if few enough of their values are non-zero, which saves memory and lets scans
+     * skip the zeros. Sparse distances expand |a - b|^2 around the point's norm, which can be NaN where the dense
+     * sum isn't once a value is missing or infinite, so columns with such a value stay dense. Otherwise compress each column with the codec that suits it, if that at least halves the memory
+     * the columns take
+     * @param columns Dense columns that aren't a view or weighted
+     * @return Sparse or compressed columns with the same values, or the columns themselves if neither saves enough
+     */
+    public static DataColumns compact(DataColumns columns) {
+        if(columns.isSparse() || columns.rows != null || columns.weights != null || columns.columns == null) {
+            return columns;
+        }
+        long numNonZero = 0;
+        boolean allFinite = true;
+        for (int att = 0; att < columns.numAttributes; att++) {
+            double[] column = columns.columns[att];
+            for (int row = 0; row < columns.numRows; row++) {
+                if(column[row] != 0) numNonZero++;
+                allFinite &= Double.isFinite(column[row]);
+            }
+        }
+        if(!allFinite || numNonZero > MAX_SPARSE_DENSITY * columns.numRows * columns.numAttributes) {
+            CompressedColumns compressed = CompressedColumns.compress(columns);
+            return compressed == null ? columns : compressed;
+        }
+        return SparseColumns.of(columns.columns, columns.classIndices, (int) numNonZero);
+    }
+
+    /**
+     * Create a view of a subset of the rows, sharing the values. Subclasses keep their own form of storage
+     * @param rows The rows of these columns that are part of the view
+     * @return The view
+     */
+    public DataColumns view(FoldRows rows) {
+        return new DataColumns(this, rows);
+    }
+
+    /**
+     * Share the values (and rows, for a view) but weigh the rows differently. Subclasses keep their own form of
+     * storage
+     * @param weights The weights of the rows, indexed by position in the shared arrays, or null for every row to
+     *                weigh 1
+     * @return Columns with the new weights
+     */
+    public DataColumns weighted(SampleWeights weights) {
+        return new DataColumns(this, weights);
+    }
+
+    /**
+     * @return True if the values are kept as sparse rows, in which case sparseRow is cheap
+     */
+    public boolean isSparse() {
+        return false;
+    }
+
+    /**
+     * @return True if the values are kept in single precision
+     */
+    public boolean isSinglePrecision() {
+        return false;
+    }
+
+    /**
+     * @return True if the values are kept outside the Java heap
+     */
+    public boolean isOffHeap() {
+        return false;
+    }
+
+    public int numRows() {
+        return numRows;
+    }
+
+    public int numAttributes() {
+        return numAttributes;
+    }
+
+    /**
+     * Translate a row of this view into the index used by the shared arrays
+     * @param row The row of this view
+     * @return The index of the row in the arrays
+     */
+    int physicalRow(int row) {
+        return rows == null ? row : rows.get(row);
+    }
+
+    public double value(int row, int att) {
+        return columns[att][physicalRow(row)];
+    }
+
+    /**
+     * The values of one attribute as a contiguous array. When this isn't a view the array is shared, so it must not
+     * be modified; a view gathers its rows into a new array
+     * @param att The index of the attribute
+     * @return The values of the attribute, indexed by row
+     */
+    public double[] column(int att) {
+        if(rows == null) return columns[att];
+        double[] column = new double[numRows];
+        for (int row = 0; row < numRows; row++) {
+            column[row] = columns[att][rows.get(row)];
+        }
+        return column;
+    }
+
+    /**
+     * Copy the values of one attribute for a block of consecutive rows into a buffer, so that a scan can work through
+     * an attribute a block at a time without reading the values one by one (compressed columns decode the whole
+     * block at once)
+     * @param att The index of the attribute
+     * @param fromRow The first row of the block (inclusive)
+     * @param toRow The end of the block (exclusive)
+     * @param buffer An array of at least toRow - fromRow length, or null to allocate a new one
+     * @return The buffer, holding the value of row fromRow + i at index i
+     */
+    public double[] columnBlock(int att, int fromRow, int toRow, double[] buffer) {
+        if(buffer == null || buffer.length < toRow - fromRow) {
+            buffer = new double[toRow - fromRow];
+        }
+        if(columns != null && rows == null) {
+            System.arraycopy(columns[att], fromRow, buffer, 0, toRow - fromRow);
+            return buffer;
+        }
+        for (int row = fromRow; row < toRow; row++) {
+            buffer[row - fromRow] = value(row, att);
+        }
+        return buffer;
+    }
+
+    public int classIndex(int row) {
+        return classIndices[physicalRow(row)];
+    }
+
+    public boolean isWeighted() {
+        return weights != null;
+    }
+
+    /**
+     * @param row The row of the data
+     * @return How much the row counts for when learning, 1 unless the data has been weighted
+     */
+    public double weight(int row) {
+        if(weights == null) return 1;
+        int physicalRow = physicalRow(row);
+        return weights.weight(physicalRow, classIndices[physicalRow]);
+    }
+
+    /**
+     * Copy one row of the data into a buffer, allowing the caller to reuse the buffer between rows
+     * @param row The row to copy
+     * @param buffer An array of at least numAttributes length, or null to allocate a new one
+     * @return The buffer holding the row's values
+     */
+    public double[] copyRow(int row, double[] buffer) {
+        if(buffer == null || buffer.length < numAttributes) {
+            buffer = new double[numAttributes];
+        }
+        int physicalRow = physicalRow(row);
+        for (int att = 0; att < numAttributes; att++) {
+            buffer[att] = columns[att][physicalRow];
+        }
+        return buffer;
+    }
+
+    /**
+     * Squared euclidean distance between a row of the data and a point given by its values
+     * @param row The row of the data
+     * @param values The values of the other point, one for each attribute
+     * @return The squared distance
+     */
+    public double distanceSquared(int row, double[] values) {
+        int physicalRow = physicalRow(row);
+        double distanceSquared = 0;
+        for (int att = 0; att < numAttributes; att++) {
+            double difference = columns[att][physicalRow] - values[att];
+            distanceSquared += difference * difference;
+        }
+        return distanceSquared;
+    }
+
+    /**
+     * The non-zero values of one row
+     * @param row The row
+     * @return The row in sparse form
+     */
+    public SparseRow sparseRow(int row) {
+        return SparseRow.of(copyRow(row, null), numAttributes);
+    }
+
+    /**
+     * Squared euclidean distance between every row of the data and a point given by its values
+     * @param values The values of the point, one for each attribute
+     * @param distances An array of at least numRows length to put the distances in, or null to allocate a new one
+     * @return The distances, indexed by row
+     */
+    public double[] distancesSquared(double[] values, double[] distances) {
+        if(distances == null || distances.length < numRows) {
+            distances = new double[numRows];
+        }
+        if(columns != null && rows == null) {
+            // one attribute at a time over every row, which vectorizes, and gives the same sums as distanceSquared
+            Arrays.fill(distances, 0, numRows, 0);
+            for (int att = 0; att < numAttributes; att++) {
+                VectorKernels.addSquaredDifferences(columns[att], values[att], distances, numRows);
+            }
+            return distances;
+        }
+        for (int row = 0; row < numRows; row++) {
+            distances[row] = distanceSquared(row, values);
+        }
+        return distances;
+    }
+
+    /**
+     * Count the rows belonging to each of the classifications
+     * @param numClassifications The number of possible classifications
+     * @return The number of rows of each class
+     */
+    public int[] classCounts(int numClassifications) {
+        int[] counts = new int[numClassifications];
+        for (int row = 0; row < numRows; row++) {
+            counts[classIndex(row)]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Total the weights of the rows belonging to each of the classifications, which are the class counts when the
+     * data isn't weighted
+     * @param numClassifications The number of possible classifications
+     * @return The total weight of the rows of each class
+     */
+    public double[] classWeights(int numClassifications) {
+        double[] totals = new double[numClassifications];
+        for (int row = 0; row < numRows; row++) {
+            totals[classIndex(row)] += weight(row);
+        }
+        return totals;
+    }
+
+    public String toString() {
+        return "DataColumns - " + numRows + " rows, " + numAttributes + " attributes";
+    }
+}
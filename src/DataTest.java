@@ -0,0 +1,120 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that collapsing duplicate points leaves data that learners treat exactly as they treat the duplicates
+ */
+public class DataTest {
+    public static final int NUM_ATTRIBUTES = 3;
+    public static final int NUM_VALUES = 3;
+    public static final String[] CLASSES = {"yes", "no", "maybe"};
+
+    /**
+     * @return Every distinct point on a small grid, with a classification that mostly follows the first two
+     * attributes. Some points are given two classifications, since those must not be collapsed together
+     */
+    private static ArrayList<Object[]> createDistinctRows(long seed) {
+        Random random = new Random(seed);
+        ArrayList<Object[]> rows = new ArrayList<>();
+        int numPoints = (int) Math.pow(NUM_VALUES, NUM_ATTRIBUTES);
+        for (int i = 0; i < numPoints; i++) {
+            Object[] attributes = new Object[NUM_ATTRIBUTES];
+            int code = i;
+            for (int att = 0; att < NUM_ATTRIBUTES; att++) {
+                attributes[att] = (double) (code % NUM_VALUES);
+                code /= NUM_VALUES;
+            }
+            int classIndex = random.nextInt(4) == 0 ? random.nextInt(CLASSES.length)
+                    : ((int) (double) (Double) attributes[0] + (int) (double) (Double) attributes[1]) % CLASSES.length;
+            rows.add(new Object[]{attributes, CLASSES[classIndex]});
+            if(random.nextInt(5) == 0) {
+                rows.add(new Object[]{attributes.clone(), CLASSES[(classIndex + 1) % CLASSES.length]});
+            }
+        }
+        return rows;
+    }
+
+    private static Data createData(ArrayList<Object[]> rows) {
+        Data data = new Data(new String[]{"a0", "a1", "a2", "Class"}, new ArrayList<String>());
+        for(Object[] row: rows) {
+            data.addDataPoint(new DataPoint((Object[]) ((Object[]) row[0]).clone()), (String) row[1]);
+        }
+        return data;
+    }
+
+    /**
+     * @return The tree without the class counts of its nodes, which are counts of rows rather than of weights
+     */
+    private static String treeShape(DecisionTree.Node tree, Data data) {
+        return tree.displayTree(data.classifications, data.attributeNames).replaceAll("\\w+:\\d+, ", "");
+    }
+
+    @Test
+    public void testCollapsedRowsWeightedByCount() throws Exception {
+        ArrayList<Object[]> distinctRows = createDistinctRows(1);
+        Random random = new Random(2);
+        int[] numCopies = new int[distinctRows.size()];
+        // the first copy of each row comes in the distinct order, so the collapsed rows keep that order, and the
+        // other copies come after in a random order
+        ArrayList<Object[]> laterCopies = new ArrayList<>();
+        for (int i = 0; i < distinctRows.size(); i++) {
+            numCopies[i] = 1 + random.nextInt(5);
+            for (int copy = 1; copy < numCopies[i]; copy++) {
+                laterCopies.add(distinctRows.get(i));
+            }
+        }
+        Collections.shuffle(laterCopies, random);
+        ArrayList<Object[]> duplicatedRows = new ArrayList<>(distinctRows);
+        duplicatedRows.addAll(laterCopies);
+
+        Data duplicated = createData(duplicatedRows);
+        Data collapsed = createData(duplicatedRows);
+        assertEquals(duplicatedRows.size() - distinctRows.size(), collapsed.collapseDuplicates());
+        assertEquals(distinctRows.size(), collapsed.numRows());
+        SampleWeights weights = collapsed.weights();
+        for (int row = 0; row < distinctRows.size(); row++) {
+            DataPoint point = collapsed.dataPoints.get(row);
+            Object[] expected = distinctRows.get(row);
+            assertArrayEquals((Object[]) expected[0], new Object[]{point.attributes[0].getValue(),
+                    point.attributes[1].getValue(), point.attributes[2].getValue()});
+            assertEquals(expected[1], collapsed.classifications.get(point.classificationIndex));
+            assertEquals(numCopies[row], weights.rowWeights[row], 0);
+        }
+        // nothing is left to collapse
+        assertEquals(0, collapsed.collapseDuplicates());
+
+        // a tree grown on the collapsed rows splits and predicts just as one grown on every copy
+        DecisionTree.Node duplicatedTree = new DecisionTree.Node(duplicated, 0);
+        DecisionTree.Node collapsedTree = new DecisionTree.Node(collapsed, 0);
+        assertEquals(duplicated.numRows(), collapsedTree.totalWeight(), 0);
+        assertEquals(treeShape(duplicatedTree, duplicated), treeShape(collapsedTree, collapsed));
+        for(DataPoint point: duplicated.dataPoints) {
+            assertEquals(duplicatedTree.predictClassIndex(point), collapsedTree.predictClassIndex(point));
+        }
+        // including points with values the trees never saw
+        DataPoint unseen = new DataPoint(new Object[]{1.0, 7.0, 0.0});
+        assertEquals(duplicatedTree.predictClassIndex(unseen), collapsedTree.predictClassIndex(unseen));
+    }
+
+    @Test
+    public void testWeightsOfCopiesAdded() throws Exception {
+        ArrayList<Object[]> rows = createDistinctRows(3);
+        ArrayList<Object[]> twice = new ArrayList<>(rows);
+        twice.addAll(rows);
+        Data data = createData(twice);
+        double[] rowWeights = new double[twice.size()];
+        for (int row = 0; row < rowWeights.length; row++) {
+            rowWeights[row] = .5 + row;
+        }
+        data.setRowWeights(rowWeights);
+        assertEquals(rows.size(), data.collapseDuplicates());
+        for (int row = 0; row < rows.size(); row++) {
+            assertEquals(rowWeights[row] + rowWeights[row + rows.size()], data.weights().rowWeights[row], 0);
+        }
+    }
+}
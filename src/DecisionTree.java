@@ -1,5 +1,7 @@
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 
 /**
  * Creates a decision tree using the ID3 algorithm - a greedy algorithm that maximizes
@@ -29,6 +31,10 @@ public class DecisionTree {
         boolean verbose = false;
         boolean showDecisionTree = false;
         float sufficientEntropy = 0;
+        int sampleSize = 0;
+        boolean stratifiedSample = false;
+        boolean collapseDuplicates = false;
+        RandomStreams streams = RandomStreams.unseeded();
         final String helpString = "\nUsage: ./DecisionTree.sh trainingData.csv testData.csv <optional arguments>\n\n" +
                 "Decision Tree implementation: Uses ID3, a greedy algorithm that prefers questions that maximize" +
                 "information gain.\n\n" +
@@ -40,7 +46,15 @@ public class DecisionTree {
                 "\t-e FLOAT" +
                 "\t\tspecify a sufficient entropyOf, range 0 - 1 (Default 0: Completely homogeneous data)\n" +
                 "\t-p STRING\n" +
-                "\t\tspecify which string is a positive class";
+                "\t\tspecify which string is a positive class\n" +
+                "\t-sample NUM\n" +
+                "\t\ttrain on a random sample of NUM rows of the training data, read in a single pass\n" +
+                "\t-stratifiedSample NUM\n" +
+                "\t\tlike -sample, but keeping the proportions of the classes\n" +
+                "\t-collapse\n" +
+                "\t\tmerge duplicate training rows into one row weighted by its number of copies\n" +
+                "\t-seed NUM\n" +
+                "\t\tthe seed of the random numbers, so that -sample takes the same rows every run";
         if (args.length < 2) {
             System.out.println(helpString);
             System.exit(1);
@@ -61,6 +75,19 @@ public class DecisionTree {
                         sufficientEntropy = Float.parseFloat(args[argNum + 1]);
                         argNum++;
                         break;
+                    case "-sample":
+                    case "-stratifiedSample":
+                        stratifiedSample = args[argNum].equals("-stratifiedSample");
+                        sampleSize = Integer.parseInt(args[argNum + 1]);
+                        argNum++;
+                        break;
+                    case "-collapse":
+                        collapseDuplicates = true;
+                        break;
+                    case "-seed":
+                        streams = new RandomStreams(Long.parseLong(args[argNum + 1]));
+                        argNum++;
+                        break;
                     case "-h":
                     case "-help":
                         System.out.println(helpString);
@@ -78,7 +105,16 @@ public class DecisionTree {
 
         // read in training data from file
         Data trainingData = new Data();
-        FileIO.readFromFile(args[0], trainingData);
+        if(sampleSize > 0) {
+            ReservoirSampler.readSample(args[0], trainingData, sampleSize, stratifiedSample, streams.random());
+        }
+        else {
+            FileIO.readFromFile(args[0], trainingData);
+        }
+        if(collapseDuplicates) {
+            int numRemoved = trainingData.collapseDuplicates();
+            System.out.println("Collapsed " + numRemoved + " duplicate rows, leaving " + trainingData.numRows() + " unique rows");
+        }
 
         // build the decision tree
         Node rootNode = new Node(trainingData, sufficientEntropy);
@@ -113,7 +149,7 @@ public class DecisionTree {
      * @param dataPoints the set of points to look through
      * @return an integer array of the number of dataPoints in each of the classes
      */
-    public static Integer[] tallyClasses(ArrayList<DataPoint> dataPoints, int numClasses) {
+    public static Integer[] tallyClasses(List<DataPoint> dataPoints, int numClasses) {
         Integer[] classCounts = new Integer[numClasses];
         Arrays.fill(classCounts, 0);
         for(DataPoint dataPoint: dataPoints) {
@@ -126,6 +162,8 @@ public class DecisionTree {
     static class Node {
         private ArrayList<Node> childNodes;
         private Integer[] numPointsPerClass;
+        // the total weight of the points in each class, which is numPointsPerClass unless the data is weighted
+        private double[] weightPerClass;
         private String[] classValues;
         final double entropy;
         int splitAttribute = -1;
@@ -136,12 +174,14 @@ public class DecisionTree {
          * @param data dataset to build the decision tree from
          */
         public Node(Data data, double sufficientEntropy) {
-            this.entropy = entropyOf(data.dataPoints, data.classifications.size());
+            DataColumns columns = data.columns();
+            weightPerClass = columns.classWeights(data.classifications.size());
+            this.entropy = entropyOf(weightPerClass);
 
             // copy the number of points in each class from the original data set
-            numPointsPerClass = new Integer[data.classificationCounts.size()];
-            for (int i = 0; i < data.classificationCounts.size(); i++) {
-                numPointsPerClass[i] = data.classificationCounts.get(i);
+            numPointsPerClass = new Integer[data.classifications.size()];
+            for (int i = 0; i < data.classifications.size(); i++) {
+                numPointsPerClass[i] = data.classificationCount(i);
 //                System.out.println("adding " + numPointsPerClass[i] + " points");
             }
             classValues = new String[data.classifications.size()];
@@ -152,7 +192,11 @@ public class DecisionTree {
             for (int i = 0; i < data.numAttributes; i++) {
                 remainingAttributes.add(i);
             }
-            generateChildNodes(data.dataPoints, remainingAttributes, sufficientEntropy);
+            int[] rows = new int[columns.numRows()];
+            for (int row = 0; row < rows.length; row++) {
+                rows[row] = row;
+            }
+            generateChildNodes(new EncodedData(columns), rows, remainingAttributes, sufficientEntropy);
 
 
         }
@@ -160,35 +204,72 @@ public class DecisionTree {
         /**
          * Constructor for child nodes
          */
-        public Node(ArrayList<DataPoint> dataPoints, String[] classValues) {
+        public Node(List<DataPoint> dataPoints, String[] classValues) {
             this.classValues = classValues;
             this.numPointsPerClass = tallyClasses(dataPoints, classValues.length);
+            this.weightPerClass = new double[classValues.length];
+            for (int i = 0; i < weightPerClass.length; i++) {
+                weightPerClass[i] = numPointsPerClass[i];
+            }
             this.entropy = entropyOf(dataPoints, classValues.length);
         }
 
+        /**
+         * Constructor for child nodes built from encoded rows
+         */
+        private Node(int[] numPointsPerClass, double[] weightPerClass, String[] classValues) {
+            this.classValues = classValues;
+            this.numPointsPerClass = new Integer[numPointsPerClass.length];
+            for (int i = 0; i < numPointsPerClass.length; i++) {
+                this.numPointsPerClass[i] = numPointsPerClass[i];
+            }
+            this.weightPerClass = weightPerClass;
+            this.entropy = entropyOf(weightPerClass);
+        }
+
         /**
          * Calculate entropy of a set of points
          * @param dataPoints the datapoints in the current set
          * @return the entropy of a given set of dataPoints
          */
-        public static double entropyOf(ArrayList<DataPoint> dataPoints, int numClasses) {
+        public static double entropyOf(List<DataPoint> dataPoints, int numClasses) {
             Integer[] classCounts = tallyClasses(dataPoints, numClasses);
             return entropyOf(classCounts);
         }
         public static double entropyOf(Integer[] numPointsPerClass) {
+            int[] classCounts = new int[numPointsPerClass.length];
+            for (int i = 0; i < classCounts.length; i++) {
+                classCounts[i] = numPointsPerClass[i];
+            }
+            return entropyOf(classCounts);
+        }
+        public static double entropyOf(int[] numPointsPerClass) {
+            double[] classWeights = new double[numPointsPerClass.length];
+            for (int i = 0; i < classWeights.length; i++) {
+                classWeights[i] = numPointsPerClass[i];
+            }
+            return entropyOf(classWeights);
+        }
+
+        /**
+         * Calculate the entropy of a set of weighted points, where each point counts for its weight
+         * @param weightPerClass the total weight of the points in each class
+         * @return the entropy, from 0 (a single class) to 1 (evenly spread over the classes)
+         */
+        public static double entropyOf(double[] weightPerClass) {
             double entropy = 0;
-            // determine the total number of points to use for probabilities
-            int totalPoints = 0;
-            for(int numPoints: numPointsPerClass) {
-                totalPoints += numPoints;
+            // determine the total weight of the points to use for probabilities
+            double totalWeight = 0;
+            for(double weight: weightPerClass) {
+                totalWeight += weight;
             }
-            if(totalPoints == 0) {
+            if(totalWeight == 0) {
                 // no points to judge from means highest entropyOf
                 return 1;
             }
-            int numClasses = numPointsPerClass.length;
-            for(int numInClass: numPointsPerClass) {
-                double probabilityOfClass = (double)numInClass / totalPoints;
+            int numClasses = weightPerClass.length;
+            for(double weightInClass: weightPerClass) {
+                double probabilityOfClass = weightInClass / totalWeight;
                 // entropyOf is the opposite of the sum of the probabilities * the log of the probabilities
                 if(probabilityOfClass != 0)
                     entropy += - probabilityOfClass * Math.log(probabilityOfClass);
@@ -211,59 +292,61 @@ public class DecisionTree {
         /**
          * Looks through all of the remaining attributes and chooses the one that results in the lowest weighted
          * average of entropies of it's child nodes - this is equivalent to the largest information gain
-         * @param dataPoints The datapoints of the current node
+         * @param data The encoded training data
+         * @param rows The rows of the training data in the current node
          * @param remainingAttributes The attributes that haven't yet been selected on
          * @param sufficientEntropy
          */
-        public void generateChildNodes(ArrayList<DataPoint> dataPoints, ArrayList<Integer> remainingAttributes, double sufficientEntropy) {
-            if(dataPoints == null || dataPoints.size() == 0 || remainingAttributes.size() == 0 || entropy <= sufficientEntropy) return;
+        private void generateChildNodes(EncodedData data, int[] rows, ArrayList<Integer> remainingAttributes, double sufficientEntropy) {
+            if(rows.length == 0 || remainingAttributes.size() == 0 || entropy <= sufficientEntropy) return;
             double lowestEntropy = 2; // the lowest entropy of a split corresponds to the highest information gain
             int bestAttribute = -1;
             ArrayList<Integer> bestChildRemainingAttributes = new ArrayList<>();
-            ArrayList<ArrayList<DataPoint>> bestDataSplit = new ArrayList<>();
+            RowSplit bestDataSplit = null;
             for (int i = 0; i < remainingAttributes.size(); i++) {
                 // first create a copy of the arrayList, then remove the attribute we're about to split on from it
                 ArrayList<Integer> childRemainingAttributes = MyTools.copyOf(remainingAttributes);
                 int splitAttribute = childRemainingAttributes.get(i);
                 childRemainingAttributes.remove(i);
 
-                // now actually perform the split of data points based on their value in this particular attribute
-                ArrayList<ArrayList<DataPoint>> dataPointsAfterSplit = splitOnAttribute(dataPoints, splitAttribute);
-                double childEntropy = weightedAverageOfEntropies(dataPointsAfterSplit, classValues.length);
+                // now actually perform the split of the rows based on their value in this particular attribute
+                RowSplit rowsAfterSplit = data.splitOnAttribute(rows, splitAttribute, classValues.length);
+                double childEntropy = rowsAfterSplit.weightedAverageOfEntropies();
                 // if this split results in a better entropy, remember it
                 if(childEntropy < lowestEntropy) {
                     lowestEntropy = childEntropy;
                     bestAttribute = splitAttribute;
                     bestChildRemainingAttributes = childRemainingAttributes;
-                    bestDataSplit = dataPointsAfterSplit;
+                    bestDataSplit = rowsAfterSplit;
                 }
             }
 
             splitAttribute = bestAttribute;
             childNodes = new ArrayList<>();
             splitAttributeValue = new ArrayList<>();
+            if(bestDataSplit == null) return;
 
-            for(ArrayList<DataPoint> childDataPoints: bestDataSplit) {
+            for (int group = 0; group < bestDataSplit.rows.length; group++) {
                 // remember the attribute value for each of the groups of data
-                splitAttributeValue.add(childDataPoints.get(0).attributes[splitAttribute].getDouble());
+                splitAttributeValue.add(data.distinctValues.get(splitAttribute).get(bestDataSplit.codes[group]));
 
                 // continue splitting up the data in the resulting nodes
-                Node childNode = new Node(childDataPoints, classValues);
-                childNode.generateChildNodes(childDataPoints, bestChildRemainingAttributes, sufficientEntropy);
+                Node childNode = new Node(bestDataSplit.classCounts[group], bestDataSplit.classWeights[group], classValues);
+                childNode.generateChildNodes(data, bestDataSplit.rows[group], bestChildRemainingAttributes, sufficientEntropy);
                 childNodes.add(childNode);
             }
         }
 
-        public static ArrayList<ArrayList<DataPoint>> splitOnAttribute(ArrayList<DataPoint> dataPoints, int splitAttribute) {
-            ArrayList<Double> splitAttributeValue = new ArrayList<>();
+        public static ArrayList<ArrayList<DataPoint>> splitOnAttribute(List<DataPoint> dataPoints, int splitAttribute) {
+            HashMap<Double, Integer> indexOfSplitAttributeValue = new HashMap<>();
             ArrayList<ArrayList<DataPoint>> dataPointsAfterSplit = new ArrayList<>();
             // survey the current dataPoints and separate them based on the value of the given attribute
             for(DataPoint dataPoint: dataPoints) {
-                int indexOfValue = splitAttributeValue.indexOf(dataPoint.attributes[splitAttribute].getDouble());
-                if(indexOfValue == -1) {
+                Integer indexOfValue = indexOfSplitAttributeValue.get(dataPoint.attributes[splitAttribute].getDouble());
+                if(indexOfValue == null) {
                     // the value hasn't been seen yet
-                    splitAttributeValue.add(dataPoint.attributes[splitAttribute].getDouble());
-                    indexOfValue = splitAttributeValue.size() - 1;
+                    indexOfValue = dataPointsAfterSplit.size();
+                    indexOfSplitAttributeValue.put(dataPoint.attributes[splitAttribute].getDouble(), indexOfValue);
                     dataPointsAfterSplit.add(new ArrayList<DataPoint>());
                 }
                 // add the dataPoint to the appropriate arrayList
@@ -320,6 +403,19 @@ public class DecisionTree {
             return totalPoints;
         }
 
+        /**
+         * Total the weights of the points that created this node
+         * @return the total weight, the same as the number of points unless the data is weighted
+         */
+        public double totalWeight() {
+            if(weightPerClass == null) return 0;
+            double totalWeight = 0;
+            for(double weight: weightPerClass) {
+                totalWeight += weight;
+            }
+            return totalWeight;
+        }
+
         /**
          *
          * @param listOfLists
@@ -341,14 +437,14 @@ public class DecisionTree {
         public static double weightedAverageOfChildNodes(ArrayList<Node> nodes) {
             if(nodes == null || nodes.size() == 0) return 1;
             double totalEntropy = 0;
-            int numPointsTotal = 0;
+            double totalWeight = 0;
             for(Node node: nodes) {
-                int numPointsInNode = node.totalClassifiedPoints();
-                totalEntropy += entropyOf(node.numPointsPerClass) * numPointsInNode;
-                numPointsTotal += numPointsInNode;
+                double weightInNode = node.totalWeight();
+                totalEntropy += entropyOf(node.weightPerClass) * weightInNode;
+                totalWeight += weightInNode;
             }
-            if(numPointsTotal == 0) return 1;
-            return totalEntropy / numPointsTotal;
+            if(totalWeight == 0) return 1;
+            return totalEntropy / totalWeight;
         }
 
         public String displayTree(ArrayList<String> classificationNames, String[] attributeNames) {
@@ -402,10 +498,10 @@ public class DecisionTree {
          */
         public int voteByCount() {
             int predictedClassIndex = 0;
-            int numVotes = 0;
-            for(int i = 0; i < numPointsPerClass.length; i++) {
-                if(numPointsPerClass[i] > numVotes) {
-                    numVotes = numPointsPerClass[i];
+            double numVotes = 0;
+            for(int i = 0; i < weightPerClass.length; i++) {
+                if(weightPerClass[i] > numVotes) {
+                    numVotes = weightPerClass[i];
                     predictedClassIndex = i;
                 }
             }
@@ -415,4 +511,136 @@ public class DecisionTree {
     }
 
 
+
+    /**
+     * The training data with each attribute's values replaced by int codes, so the tree can be grown by splitting
+     * arrays of row indices rather than lists of points. Values are compared exactly (as Doubles), the same way
+     * predictClassIndex matches them, and values that aren't numbers all share one code
+     */
+    static class EncodedData {
+        // indexed by [attribute][row]
+        final int[][] codes;
+        final int[] classIndices;
+        // the weight of each row, null when every row weighs 1
+        final double[] weights;
+        // for each attribute, the value of each code
+        final ArrayList<ArrayList<Double>> distinctValues = new ArrayList<>();
+        // for each attribute, the group a code has been given by the split in progress, -1 when it has none
+        private final int[][] groupOfCode;
+
+        EncodedData(DataColumns columns) {
+            int numRows = columns.numRows();
+            codes = new int[columns.numAttributes()][numRows];
+            classIndices = new int[numRows];
+            groupOfCode = new int[columns.numAttributes()][];
+            for (int row = 0; row < numRows; row++) {
+                classIndices[row] = columns.classIndex(row);
+            }
+            if(columns.isWeighted()) {
+                weights = new double[numRows];
+                for (int row = 0; row < numRows; row++) {
+                    weights[row] = columns.weight(row);
+                }
+            }
+            else {
+                weights = null;
+            }
+            double[] block = null;
+            for (int att = 0; att < columns.numAttributes(); att++) {
+                HashMap<Double, Integer> codeOfValue = new HashMap<>();
+                ArrayList<Double> values = new ArrayList<>();
+                for (int row = 0; row < numRows; row++) {
+                    if(row % DataColumns.BLOCK_SIZE == 0) {
+                        block = columns.columnBlock(att, row, Math.min(row + DataColumns.BLOCK_SIZE, numRows), block);
+                    }
+                    double primitiveValue = block[row % DataColumns.BLOCK_SIZE];
+                    Double value = Double.isNaN(primitiveValue) ? null : primitiveValue;
+                    Integer code = codeOfValue.get(value);
+                    if(code == null) {
+                        code = values.size();
+                        codeOfValue.put(value, code);
+                        values.add(value);
+                    }
+                    codes[att][row] = code;
+                }
+                distinctValues.add(values);
+                groupOfCode[att] = new int[values.size()];
+                Arrays.fill(groupOfCode[att], -1);
+            }
+        }
+
+        /**
+         * Separate rows into groups that share a value of an attribute, in order of first appearance
+         * @param rows The rows to split
+         * @param splitAttribute The attribute to split on
+         * @param numClasses The number of classifications
+         * @return The groups of rows, and the class counts and weights of each
+         */
+        RowSplit splitOnAttribute(int[] rows, int splitAttribute, int numClasses) {
+            int[] attributeCodes = codes[splitAttribute];
+            int[] groupOf = groupOfCode[splitAttribute];
+            int[] groupCodes = new int[rows.length];
+            int[] groupSizes = new int[rows.length];
+            int numGroups = 0;
+            for(int row: rows) {
+                int code = attributeCodes[row];
+                if(groupOf[code] == -1) {
+                    groupCodes[numGroups] = code;
+                    groupOf[code] = numGroups++;
+                }
+                groupSizes[groupOf[code]]++;
+            }
+            RowSplit split = new RowSplit(numGroups, numClasses);
+            for (int group = 0; group < numGroups; group++) {
+                split.codes[group] = groupCodes[group];
+                split.rows[group] = new int[groupSizes[group]];
+                groupSizes[group] = 0;
+            }
+            for(int row: rows) {
+                int group = groupOf[attributeCodes[row]];
+                split.rows[group][groupSizes[group]++] = row;
+                split.classCounts[group][classIndices[row]]++;
+                split.classWeights[group][classIndices[row]] += weights == null ? 1 : weights[row];
+            }
+            // leave the scratch array ready for the next split
+            for (int group = 0; group < numGroups; group++) {
+                groupOf[groupCodes[group]] = -1;
+            }
+            return split;
+        }
+    }
+
+    /**
+     * The result of splitting rows on an attribute
+     */
+    static class RowSplit {
+        final int[][] rows;
+        // the code of the attribute value shared by each group
+        final int[] codes;
+        final int[][] classCounts;
+        // the total weight of the rows of each class, the same as classCounts unless the data is weighted
+        final double[][] classWeights;
+
+        RowSplit(int numGroups, int numClasses) {
+            rows = new int[numGroups][];
+            codes = new int[numGroups];
+            classCounts = new int[numGroups][numClasses];
+            classWeights = new double[numGroups][numClasses];
+        }
+
+        double weightedAverageOfEntropies() {
+            double totalEntropy = 0;
+            double totalWeight = 0;
+            for (int group = 0; group < rows.length; group++) {
+                double weightInNode = 0;
+                for(double weight: classWeights[group]) {
+                    weightInNode += weight;
+                }
+                totalEntropy += Node.entropyOf(classWeights[group]) * weightInNode;
+                totalWeight += weightInNode;
+            }
+            if(totalWeight == 0) return 1;
+            return totalEntropy / totalWeight;
+        }
+    }
 }
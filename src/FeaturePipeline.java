@@ -0,0 +1,352 @@
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A sequence of transforms applied to each attribute - min-max rescaling, z-score standardization and binning. Each
+ * step is fitted when it is added, from the statistics of the training data as they come out of the steps before it,
+ * and the fitted pipeline can then be applied in exactly the same way to the training data, test data or a single
+ * row. The data the pipeline is applied to is never modified: columns are either read through the pipeline as they
+ * are scanned, or copied into new columns
+ */
+public class FeaturePipeline {
+    static final int MIN_MAX = 0;
+    static final int Z_SCORE = 1;
+    static final int BINNING = 2;
+
+    final int numAttributes;
+    private final ArrayList<Step> steps = new ArrayList<>();
+    // statistics of the data as it comes out of the steps added so far, used to fit the next step
+    private final double[] mins;
+    private final double[] maxes;
+    private final double[] means;
+    private final double[] standardDeviations;
+
+    /**
+     * One fitted transform. Rescaling steps compute (value - offset) / scale, leaving attributes with a scale of 0
+     * alone, and binning gives the index of the bin of width scale starting from offset
+     */
+    private static class Step {
+        final int type;
+        final double[] offsets;
+        final double[] scales;
+        final int numBins;
+
+        Step(int type, double[] offsets, double[] scales, int numBins) {
+            this.type = type;
+            this.offsets = offsets;
+            this.scales = scales;
+            this.numBins = numBins;
+        }
+
+        double apply(int att, double value) {
+            if(type == BINNING) {
+                int binIndex = (int) ((value - offsets[att]) / scales[att]);
+                // ensure the index is in the correct range
+                if(binIndex < 0) {
+                    binIndex = 0;
+                }
+                else if(binIndex > numBins - 1) {
+                    binIndex = numBins - 1;
+                }
+                return binIndex;
+            }
+            if(scales[att] == 0) return value;
+            return (value - offsets[att]) / scales[att];
+        }
+    }
+
+    /**
+     * Start an empty pipeline, to be fitted to data with the given statistics
+     * @param stats The statistics of the training data
+     */
+    public FeaturePipeline(ColumnStats stats) {
+        numAttributes = stats.numAttributes;
+        mins = new double[numAttributes];
+        maxes = new double[numAttributes];
+        means = new double[numAttributes];
+        standardDeviations = new double[numAttributes];
+        for (int att = 0; att < numAttributes; att++) {
+            mins[att] = stats.min(att);
+            maxes[att] = stats.max(att);
+            means[att] = stats.mean(att);
+            standardDeviations[att] = stats.standardDeviation(att);
+        }
+    }
+
+    /**
+     * Start an empty pipeline, to be fitted to data of which only the extremes are known (z-scores can't be used)
+     * @param minValues The min value of each attribute
+     * @param maxValues The max value of each attribute
+     */
+    public FeaturePipeline(Double[] minValues, Double[] maxValues) {
+        numAttributes = minValues.length;
+        mins = new double[numAttributes];
+        maxes = new double[numAttributes];
+        means = new double[numAttributes];
+        standardDeviations = new double[numAttributes];
+        for (int att = 0; att < numAttributes; att++) {
+            mins[att] = minValues[att];
+            maxes[att] = maxValues[att];
+            means[att] = Double.NaN;
+            standardDeviations[att] = Double.NaN;
+        }
+    }
+
+    /**
+     * Add a step that rescales each attribute so that its min is 0 and its max is 1
+     * @return This pipeline
+     */
+    public FeaturePipeline minMax() {
+        double[] offsets = mins.clone();
+        double[] scales = new double[numAttributes];
+        for (int att = 0; att < numAttributes; att++) {
+            // attributes with a single value (or no numeric values) are left alone to avoid dividing by zero
+            scales[att] = maxes[att] > mins[att] ? maxes[att] - mins[att] : 0;
+        }
+        return addRescaling(MIN_MAX, offsets, scales);
+    }
+
+    /**
+     * Add a step that standardizes each attribute to have a mean of 0 and a standard deviation of 1
+     * @return This pipeline
+     */
+    public FeaturePipeline zScore() {
+        double[] offsets = means.clone();
+        double[] scales = new double[numAttributes];
+        for (int att = 0; att < numAttributes; att++) {
+            // the mean is unknown if the pipeline was started from the extremes alone (an attribute without any
+            // numeric values has no mean either, but then there is nothing to standardize)
+            if(Double.isNaN(means[att]) && maxes[att] >= mins[att]) {
+                System.out.println("Error in FeaturePipeline: z-scores need the mean and standard deviation of the data");
+                System.exit(0);
+            }
+            scales[att] = standardDeviations[att] > 0 ? standardDeviations[att] : 0;
+        }
+        return addRescaling(Z_SCORE, offsets, scales);
+    }
+
+    /**
+     * Add a step that replaces each value with the index of the bin it falls in, with the range between the min and
+     * max split into equal width bins. Values outside the range go in the first or last bin
+     * @param numBins The number of bins for each attribute
+     * @return This pipeline
+     */
+    public FeaturePipeline bin(int numBins) {
+        if(numBins <= 0) {
+            System.out.println("Error in FeaturePipeline: numBins can't be " + numBins);
+            System.exit(0);
+        }
+        double[] offsets = mins.clone();
+        double[] binSizes = new double[numAttributes];
+        for (int att = 0; att < numAttributes; att++) {
+            binSizes[att] = (maxes[att] - mins[att]) / numBins;
+            mins[att] = 0;
+            maxes[att] = numBins - 1;
+            means[att] = Double.NaN;
+            standardDeviations[att] = Double.NaN;
+        }
+        steps.add(new Step(BINNING, offsets, binSizes, numBins));
+        return this;
+    }
+
+    private FeaturePipeline addRescaling(int type, double[] offsets, double[] scales) {
+        // the next step is fitted to the rescaled data
+        for (int att = 0; att < numAttributes; att++) {
+            if(scales[att] != 0) {
+                mins[att] = (mins[att] - offsets[att]) / scales[att];
+                maxes[att] = (maxes[att] - offsets[att]) / scales[att];
+                means[att] = (means[att] - offsets[att]) / scales[att];
+                standardDeviations[att] = standardDeviations[att] / scales[att];
+            }
+        }
+        steps.add(new Step(type, offsets, scales, 0));
+        return this;
+    }
+
+    /**
+     * Transform a single value
+     * @param att The attribute the value belongs to
+     * @param value The original value
+     * @return The value after every step of the pipeline
+     */
+    public double apply(int att, double value) {
+        for (int i = 0; i < steps.size(); i++) {
+            value = steps.get(i).apply(att, value);
+        }
+        return value;
+    }
+
+    /**
+     * Transform a whole row
+     * @param values The original values of each attribute
+     * @param buffer Where to put the transformed values, which may be the values array itself, or null to allocate
+     *               a new array
+     * @return The buffer holding the transformed values
+     */
+    public double[] apply(double[] values, double[] buffer) {
+        if(buffer == null || buffer.length < numAttributes) {
+            buffer = new double[numAttributes];
+        }
+        for (int att = 0; att < numAttributes; att++) {
+            buffer[att] = apply(att, values[att]);
+        }
+        return buffer;
+    }
+
+    /**
+     * View columns through the pipeline. Nothing is copied - every value is transformed as it is read, so this suits
+     * data that is only scanned once or twice
+     * @param columns The original columns
+     * @return Columns that give the transformed values
+     */
+    public DataColumns transform(DataColumns columns) {
+        return new TransformedColumns(columns, this);
+    }
+
+    /**
+     * Copy columns through the pipeline, for data that will be scanned many times. The original columns are left
+     * as they are
+     * @param columns The original columns
+     * @return New columns holding the transformed values
+     */
+    public DataColumns transformCopy(DataColumns columns) {
+        int[] classIndices = new int[columns.numRows()];
+        for (int row = 0; row < classIndices.length; row++) {
+            classIndices[row] = columns.classIndex(row);
+        }
+        DataColumns copy;
+        if(columns.isSinglePrecision()) {
+            // the copy is kept in single precision too
+            float[][] values = new float[numAttributes][classIndices.length];
+            double[] block = null;
+            for (int att = 0; att < numAttributes; att++) {
+                for (int fromRow = 0; fromRow < classIndices.length; fromRow += DataColumns.BLOCK_SIZE) {
+                    int toRow = Math.min(fromRow + DataColumns.BLOCK_SIZE, classIndices.length);
+                    block = columns.columnBlock(att, fromRow, toRow, block);
+                    for (int row = fromRow; row < toRow; row++) {
+                        values[att][row] = (float) apply(att, block[row - fromRow]);
+                    }
+                }
+            }
+            copy = new FloatColumns(values, classIndices);
+        }
+        else if(columns.isOffHeap()) {
+            // the copy is kept off the heap too
+            DoubleBuffer[] buffers = new DoubleBuffer[numAttributes];
+            double[] block = null;
+            for (int att = 0; att < numAttributes; att++) {
+                buffers[att] = OffHeapColumns.allocate(classIndices.length);
+                for (int fromRow = 0; fromRow < classIndices.length; fromRow += DataColumns.BLOCK_SIZE) {
+                    int toRow = Math.min(fromRow + DataColumns.BLOCK_SIZE, classIndices.length);
+                    block = columns.columnBlock(att, fromRow, toRow, block);
+                    for (int row = fromRow; row < toRow; row++) {
+                        buffers[att].put(row, apply(att, block[row - fromRow]));
+                    }
+                }
+            }
+            copy = new OffHeapColumns(buffers, classIndices);
+        }
+        else {
+            double[][] values = new double[numAttributes][classIndices.length];
+            double[] block = null;
+            for (int att = 0; att < numAttributes; att++) {
+                for (int fromRow = 0; fromRow < classIndices.length; fromRow += DataColumns.BLOCK_SIZE) {
+                    int toRow = Math.min(fromRow + DataColumns.BLOCK_SIZE, classIndices.length);
+                    block = columns.columnBlock(att, fromRow, toRow, block);
+                    for (int row = fromRow; row < toRow; row++) {
+                        values[att][row] = apply(att, block[row - fromRow]);
+                    }
+                }
+            }
+            // rescaling can keep zeros as zeros, so sparse data may stay sparse
+            copy = DataColumns.compact(new DataColumns(values, classIndices));
+        }
+        if(columns.isWeighted()) {
+            // the copy numbers its rows from 0, so the weights are gathered into that order
+            double[] rowWeights = new double[classIndices.length];
+            for (int row = 0; row < rowWeights.length; row++) {
+                rowWeights[row] = columns.weight(row);
+            }
+            copy = copy.weighted(new SampleWeights(rowWeights, null));
+        }
+        return copy;
+    }
+
+    /**
+     * Columns read through a pipeline, with the transform fused into each of the scans
+     */
+    private static class TransformedColumns extends DataColumns {
+        // read through rather than relying on the shared arrays, since the original may not store values as columns
+        private final DataColumns original;
+        private final FeaturePipeline pipeline;
+
+        TransformedColumns(DataColumns original, FeaturePipeline pipeline) {
+            super(original);
+            this.original = original;
+            this.pipeline = pipeline;
+        }
+
+        @Override
+        public double value(int row, int att) {
+            return pipeline.apply(att, original.value(row, att));
+        }
+
+        @Override
+        public double[] column(int att) {
+            double[] column = new double[numRows];
+            for (int row = 0; row < numRows; row++) {
+                column[row] = value(row, att);
+            }
+            return column;
+        }
+
+        @Override
+        public double[] columnBlock(int att, int fromRow, int toRow, double[] buffer) {
+            buffer = original.columnBlock(att, fromRow, toRow, buffer);
+            for (int i = 0; i < toRow - fromRow; i++) {
+                buffer[i] = pipeline.apply(att, buffer[i]);
+            }
+            return buffer;
+        }
+
+        @Override
+        public double[] copyRow(int row, double[] buffer) {
+            buffer = original.copyRow(row, buffer);
+            return pipeline.apply(buffer, buffer);
+        }
+
+        @Override
+        public double distanceSquared(int row, double[] values) {
+            double distanceSquared = 0;
+            for (int att = 0; att < numAttributes; att++) {
+                double difference = value(row, att) - values[att];
+                distanceSquared += difference * difference;
+            }
+            return distanceSquared;
+        }
+
+        @Override
+        public double[] distancesSquared(double[] values, double[] distances) {
+            if(distances == null || distances.length < numRows) {
+                distances = new double[numRows];
+            }
+            // the shared arrays hold the untransformed values, so this reads a block of transformed rows at a time
+            // rather than taking the scan over the arrays. Each row still adds up its attributes in order
+            Arrays.fill(distances, 0, numRows, 0);
+            double[] block = new double[Math.min(BLOCK_SIZE, numRows)];
+            for (int att = 0; att < numAttributes; att++) {
+                double value = values[att];
+                for (int fromRow = 0; fromRow < numRows; fromRow += BLOCK_SIZE) {
+                    int toRow = Math.min(fromRow + BLOCK_SIZE, numRows);
+                    columnBlock(att, fromRow, toRow, block);
+                    for (int row = fromRow; row < toRow; row++) {
+                        double difference = block[row - fromRow] - value;
+                        distances[row] += difference * difference;
+                    }
+                }
+            }
+            return distances;
+        }
+    }
+}
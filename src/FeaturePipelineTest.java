@@ -0,0 +1,109 @@
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a fitted pipeline transforms columns, copies of columns and single rows in exactly the same way, and
+ * that each step is fitted to the output of the steps before it
+ */
+public class FeaturePipelineTest {
+
+    /**
+     * @return True if the values are bit for bit the same
+     */
+    private static boolean sameBits(double first, double second) {
+        return Double.doubleToRawLongBits(first) == Double.doubleToRawLongBits(second);
+    }
+
+    private static double[][] copyOf(DataColumns columns) {
+        double[][] copy = new double[columns.numAttributes()][];
+        for (int att = 0; att < copy.length; att++) {
+            copy[att] = columns.column(att).clone();
+        }
+        return copy;
+    }
+
+    private static void assertSameTransforms(FeaturePipeline pipeline, DataColumns columns) {
+        double[][] before = copyOf(columns);
+        DataColumns view = pipeline.transform(columns);
+        DataColumns copy = pipeline.transformCopy(columns);
+        assertEquals(columns.numRows(), view.numRows());
+        assertEquals(columns.numRows(), copy.numRows());
+        double[] values = null;
+        double[] transformed = null;
+        for (int row = 0; row < columns.numRows(); row++) {
+            values = columns.copyRow(row, values);
+            transformed = pipeline.apply(values, transformed);
+            double[] viewRow = view.copyRow(row, null);
+            double[] copyRow = copy.copyRow(row, null);
+            for (int att = 0; att < columns.numAttributes(); att++) {
+                // the view transforms each value as it is read, while a copy of single precision columns is
+                // stored in single precision too
+                double copied = columns.isSinglePrecision() ? (float) transformed[att] : transformed[att];
+                assertTrue(sameBits(transformed[att], view.value(row, att)));
+                assertTrue(sameBits(transformed[att], viewRow[att]));
+                assertTrue(sameBits(copied, copy.value(row, att)));
+                assertTrue(sameBits(copied, copyRow[att]));
+                assertTrue(sameBits(transformed[att], pipeline.apply(att, values[att])));
+            }
+            assertEquals(columns.classIndex(row), view.classIndex(row));
+            assertEquals(columns.classIndex(row), copy.classIndex(row));
+        }
+        // the columns the pipeline was applied to are left as they were
+        double[][] after = copyOf(columns);
+        for (int att = 0; att < before.length; att++) {
+            for (int row = 0; row < before[att].length; row++) {
+                assertTrue(sameBits(before[att][row], after[att][row]));
+            }
+        }
+    }
+
+    @Test
+    public void testTransformsMatchApply() throws Exception {
+        // enough rows for several blocks, with missing values that every step must pass through
+        DataColumns columns = TestColumns.withMissing(TestColumns.gaussian(3000, 4, 2, 1), 20, 2);
+        FeaturePipeline[] pipelines = {
+                new FeaturePipeline(ColumnStats.of(columns)).minMax(),
+                new FeaturePipeline(ColumnStats.of(columns)).zScore(),
+                new FeaturePipeline(ColumnStats.of(columns)).zScore().minMax().bin(7)
+        };
+        for(FeaturePipeline pipeline: pipelines) {
+            assertSameTransforms(pipeline, columns);
+            assertSameTransforms(pipeline, FloatColumns.of(columns));
+        }
+    }
+
+    @Test
+    public void testRowTransformedInPlace() throws Exception {
+        DataColumns columns = TestColumns.gaussian(100, 3, 2, 3);
+        FeaturePipeline pipeline = new FeaturePipeline(ColumnStats.of(columns)).minMax().bin(4);
+        double[] values = columns.copyRow(17, null);
+        double[] expected = pipeline.apply(values, null);
+        assertArrayEquals(expected, pipeline.apply(values, values), 0);
+    }
+
+    @Test
+    public void testBinningAfterMinMaxUsesRescaledExtremes() throws Exception {
+        double[][] values = {{-10, -5, 0, 5, 10}, {100, 200, 300, 400, 500}};
+        DataColumns columns = new DataColumns(values, new int[5]);
+        FeaturePipeline pipeline = new FeaturePipeline(ColumnStats.of(columns)).minMax().bin(4);
+        // were the bins fitted to the original extremes, every rescaled value would fall in a single bin
+        double[][] expected = {{0, 1, 2, 3, 3}, {0, 1, 2, 3, 3}};
+        DataColumns transformed = pipeline.transformCopy(columns);
+        for (int att = 0; att < values.length; att++) {
+            assertArrayEquals(expected[att], transformed.column(att), 0);
+        }
+        // values outside the fitted range go in the first or last bin
+        assertEquals(0, pipeline.apply(0, -20), 0);
+        assertEquals(3, pipeline.apply(1, 900), 0);
+
+        // the same holds for a pipeline started from the extremes alone
+        FeaturePipeline fromExtremes = new FeaturePipeline(new Double[]{-10.0, 100.0}, new Double[]{10.0, 500.0})
+                .minMax().bin(4);
+        for (int att = 0; att < values.length; att++) {
+            for (int row = 0; row < values[att].length; row++) {
+                assertEquals(expected[att][row], fromExtremes.apply(att, values[att][row]), 0);
+            }
+        }
+    }
+}
@@ -18,40 +18,16 @@ public class FileIO {
      * Redness,Yellowness,Mass,Volume,Class
      * 4.81647192,2.347954131,125.5081887,25.01441448,apple
      * 4.327248484,3.322961013,118.4265761,19.07534923,peach
+     *
+     * Csv files are parsed by CsvParser, which splits large files up and parses them on several threads. Files ending
+     * in BinaryDataFile.EXTENSION are loaded from the binary format instead
      */
     public static boolean readFromFile(String fileName, Data data) {
-
-        try {
-            CSVReader reader = new CSVReader(new FileReader(fileName));
-            // begin by reading in the attribute names
-            String [] attributeNames = reader.readNext();
-            data.setAttributeNames(attributeNames);
-
-            // now read the file in a line at a time and add the entry
-            String [] line;
-            System.out.println("attribute names: " + Arrays.toString(attributeNames));
-            // keep reading until we reach the end of the file
-            while((line = reader.readNext()) != null) {
-                // ignore blank lines
-                if(line.length != 0) {
-                    if(line.length != attributeNames.length) {
-                        System.out.println("Read a line with the wrong number of entries");
-                        System.exit(0);
-                    }
-                    data.addDataPoint(parseAttributes(line, line.length - 1), line[line.length - 1]);
-                }
-
-            }
-            return true;
-            
-
+        if(fileName.endsWith(BinaryDataFile.EXTENSION)) {
+            return BinaryDataFile.readFromFile(fileName, data);
         }
-        catch (Exception e) {
-            System.out.println("Error reading file - " + fileName);
-            e.printStackTrace();
-        }
-        System.exit(0);
-        return false;
+
+        return CsvParser.readFromFile(fileName, data);
     }
 
     public static ArrayList<DataPoint> readRawPoints(String fileName) {
@@ -0,0 +1,126 @@
+/**
+ * Columnar storage that keeps each attribute in a float array rather than a double array, halving the memory the
+ * values take and the memory bandwidth used to scan them. Values are read back as doubles, but distances are computed
+ * in single precision throughout, so this is only meant for data (sensor readings, for instance) whose precision
+ * doesn't need more than about 7 significant digits
+ */
+class FloatColumns extends DataColumns {
+    // indexed by [attribute][row of the shared arrays]
+    final float[][] floatColumns;
+
+    private FloatColumns(int numAttributes, int[] classIndices, FoldRows rows, SampleWeights weights,
+                         float[][] floatColumns) {
+        super(numAttributes, classIndices, rows, weights);
+        this.floatColumns = floatColumns;
+    }
+
+    /**
+     * Wrap float columns that have already been filled
+     * @param floatColumns The values of each attribute, indexed by [attribute][row]
+     * @param classIndices The classification index of each row
+     */
+    FloatColumns(float[][] floatColumns, int[] classIndices) {
+        this(floatColumns.length, classIndices, null, null, floatColumns);
+    }
+
+    /**
+     * Copy columns into single precision, keeping their weights
+     * @param columns Columns that aren't a view
+     * @return The columns in single precision
+     */
+    static FloatColumns of(DataColumns columns) {
+        if(columns.rows != null) {
+            System.out.println("Error in FloatColumns: only whole columns can be converted, not a view of them");
+            System.exit(0);
+        }
+        float[][] floatColumns = new float[columns.numAttributes][columns.numRows];
+        for (int att = 0; att < columns.numAttributes; att++) {
+            for (int row = 0; row < columns.numRows; row++) {
+                floatColumns[att][row] = (float) columns.value(row, att);
+            }
+        }
+        return new FloatColumns(columns.numAttributes, columns.classIndices, null, columns.weights, floatColumns);
+    }
+
+    @Override
+    public DataColumns view(FoldRows rows) {
+        return new FloatColumns(numAttributes, classIndices, rows, weights, floatColumns);
+    }
+
+    @Override
+    public DataColumns weighted(SampleWeights weights) {
+        return new FloatColumns(numAttributes, classIndices, rows, weights, floatColumns);
+    }
+
+    @Override
+    public boolean isSinglePrecision() {
+        return true;
+    }
+
+    @Override
+    public double value(int row, int att) {
+        return floatColumns[att][physicalRow(row)];
+    }
+
+    @Override
+    public double[] column(int att) {
+        double[] column = new double[numRows];
+        for (int row = 0; row < numRows; row++) {
+            column[row] = floatColumns[att][physicalRow(row)];
+        }
+        return column;
+    }
+
+    @Override
+    public double[] copyRow(int row, double[] buffer) {
+        if(buffer == null || buffer.length < numAttributes) {
+            buffer = new double[numAttributes];
+        }
+        int physicalRow = physicalRow(row);
+        for (int att = 0; att < numAttributes; att++) {
+            buffer[att] = floatColumns[att][physicalRow];
+        }
+        return buffer;
+    }
+
+    @Override
+    public double distanceSquared(int row, double[] values) {
+        int physicalRow = physicalRow(row);
+        float distanceSquared = 0;
+        for (int att = 0; att < numAttributes; att++) {
+            float difference = floatColumns[att][physicalRow] - (float) values[att];
+            distanceSquared += difference * difference;
+        }
+        return distanceSquared;
+    }
+
+    @Override
+    public double[] distancesSquared(double[] values, double[] distances) {
+        if(distances == null || distances.length < numRows) {
+            distances = new double[numRows];
+        }
+        // one attribute at a time, so each float array is read straight through. Each row still adds up its
+        // attributes in order, so the distances are the same as distanceSquared gives
+        float[] sums = new float[numRows];
+        for (int att = 0; att < numAttributes; att++) {
+            float[] column = floatColumns[att];
+            float value = (float) values[att];
+            if(rows == null) {
+                VectorKernels.addSquaredDifferences(column, value, sums, numRows);
+                continue;
+            }
+            for (int row = 0; row < numRows; row++) {
+                float difference = column[physicalRow(row)] - value;
+                sums[row] += difference * difference;
+            }
+        }
+        for (int row = 0; row < numRows; row++) {
+            distances[row] = sums[row];
+        }
+        return distances;
+    }
+
+    public String toString() {
+        return "FloatColumns - " + numRows + " rows, " + numAttributes + " attributes";
+    }
+}
@@ -0,0 +1,71 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that single precision columns hold the dense values rounded to floats, and measure distances in floats
+ */
+public class FloatColumnsTest {
+    // float distances against the double precision distances of the same points
+    public static final double RELATIVE_EPSILON = Math.pow(10, -5);
+
+    @Test
+    public void testValuesAreRoundedToFloats() throws Exception {
+        DataColumns dense = TestColumns.gaussian(200, 5, 3, 1);
+        DataColumns floats = FloatColumns.of(dense);
+        assertTrue(floats.isSinglePrecision());
+        assertEquals(dense.numRows(), floats.numRows());
+        assertEquals(dense.numAttributes(), floats.numAttributes());
+        double[] row = null;
+        for (int r = 0; r < dense.numRows(); r++) {
+            assertEquals(dense.classIndex(r), floats.classIndex(r));
+            row = floats.copyRow(r, row);
+            for (int att = 0; att < dense.numAttributes(); att++) {
+                double expected = (float) dense.value(r, att);
+                assertEquals(expected, floats.value(r, att), 0);
+                assertEquals(expected, row[att], 0);
+                assertEquals(expected, floats.column(att)[r], 0);
+            }
+        }
+    }
+
+    @Test
+    public void testDistancesMatchDense() throws Exception {
+        DataColumns dense = TestColumns.gaussian(300, 5, 3, 2);
+        DataColumns floats = FloatColumns.of(dense);
+        Random random = new Random(3);
+        for (int test = 0; test < 10; test++) {
+            double[] point = dense.copyRow(random.nextInt(dense.numRows()), null);
+            point[test % point.length] += random.nextGaussian();
+            double[] denseDistances = dense.distancesSquared(point, null);
+            double[] floatDistances = floats.distancesSquared(point, null);
+            for (int row = 0; row < dense.numRows(); row++) {
+                // the scan gives exactly the distance of a single row, and close to the double precision distance
+                assertEquals(floats.distanceSquared(row, point), floatDistances[row], 0);
+                assertEquals(denseDistances[row], floatDistances[row], RELATIVE_EPSILON * (1 + denseDistances[row]));
+            }
+        }
+    }
+
+    @Test
+    public void testViewsKeepSinglePrecision() throws Exception {
+        DataColumns dense = TestColumns.gaussian(100, 3, 3, 4);
+        DataColumns floats = FloatColumns.of(dense);
+        FoldRows rows = new FoldRows(TestColumns.shuffledOrder(dense.numRows(), 5), 0, 30, 60, 100);
+        DataColumns denseView = dense.view(rows);
+        DataColumns floatView = floats.view(rows);
+        assertTrue(floatView.isSinglePrecision());
+        assertEquals(70, floatView.numRows());
+        double[] point = dense.copyRow(0, null);
+        double[] viewDistances = floatView.distancesSquared(point, null);
+        for (int row = 0; row < floatView.numRows(); row++) {
+            assertEquals(denseView.classIndex(row), floatView.classIndex(row));
+            for (int att = 0; att < dense.numAttributes(); att++) {
+                assertEquals((float) denseView.value(row, att), floatView.value(row, att), 0);
+            }
+            assertEquals(floatView.distanceSquared(row, point), viewDistances[row], 0);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+import java.util.Arrays;
+
+/**
+ * A neural node that keeps its weights in single precision, halving the memory they take and the bandwidth of reading
+ * them. Its weighted sums and output are also single precision, while the values passed between layers stay doubles
+ */
+public class FloatNeuralNode extends NeuralNode {
+    private static final long serialVersionUID = 1L;
+
+    // the bias weight comes at the end
+    final float[] floatWeights;
+
+    /**
+     * @param inputWeights The starting weights, rounded to single precision. The last weight is the bias weight
+     */
+    public FloatNeuralNode(double[] inputWeights) {
+        super(inputWeights.length - 1);
+        floatWeights = new float[inputWeights.length];
+        for (int i = 0; i < inputWeights.length; i++) {
+            floatWeights[i] = (float) inputWeights[i];
+        }
+    }
+
+    @Override
+    public double evaluate(double[] inputValues) {
+        lastInputs = inputValues;
+        lastSparseInputs = null;
+        float sum = 0;
+        for (int i = 0; i < numInputs; i++) {
+            sum += floatWeights[i] * (float) inputValues[i];
+        }
+        sum += floatWeights[numInputs]; // the bias weight
+        lastOutput = (float) sigmoid(sum);
+        return lastOutput;
+    }
+
+    @Override
+    public double evaluate(SparseRow inputValues) {
+        lastInputs = null;
+        lastSparseInputs = inputValues;
+        float sum = 0;
+        for (int i = 0; i < inputValues.indices.length; i++) {
+            sum += floatWeights[inputValues.indices[i]] * (float) inputValues.values[i];
+        }
+        sum += floatWeights[numInputs]; // the bias weight
+        lastOutput = (float) sigmoid(sum);
+        return lastOutput;
+    }
+
+    @Override
+    double[] propagatedErrors() {
+        double[] propagatedErrors = new double[numInputs];
+        for (int i = 0; i < numInputs; i++) {
+            propagatedErrors[i] = floatWeights[i] * lastError;
+        }
+        return propagatedErrors;
+    }
+
+    @Override
+    public void updateWeights(double learningRate) {
+        float step = (float) (learningRate * lastError);
+        if(lastSparseInputs != null) {
+            // a zero input leaves its weight unchanged
+            for (int i = 0; i < lastSparseInputs.indices.length; i++) {
+                floatWeights[lastSparseInputs.indices[i]] += step * (float) lastSparseInputs.values[i];
+            }
+        }
+        else {
+            for (int i = 0; i < numInputs; i++) {
+                floatWeights[i] += step * (float) lastInputs[i];
+            }
+        }
+        // updating the bias also
+        floatWeights[numInputs] += step;
+    }
+
+    public String toString() {
+        return "Node - " + numInputs + " inputs: " + Arrays.toString(floatWeights);
+    }
+}
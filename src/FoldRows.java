@@ -0,0 +1,78 @@
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The rows belonging to a subset of some data (typically one side of a cross fold), described as up to two ranges of
+ * an ordering of the original rows. Nothing is copied, so creating the subset costs the same no matter how many rows
+ * there are
+ */
+class FoldRows {
+    // indices into the original data, shared between all of the folds made from the same ordering
+    final int[] order;
+    final int firstFrom;
+    final int firstLength;
+    final int secondFrom;
+    final int size;
+
+    /**
+     * @param order An ordering of row indices of the original data
+     * @param firstFrom Start of the first range of the ordering (inclusive)
+     * @param firstTo End of the first range of the ordering (exclusive)
+     * @param secondFrom Start of the second range of the ordering (inclusive)
+     * @param secondTo End of the second range of the ordering (exclusive)
+     */
+    public FoldRows(int[] order, int firstFrom, int firstTo, int secondFrom, int secondTo) {
+        this.order = order;
+        this.firstFrom = firstFrom;
+        this.firstLength = firstTo - firstFrom;
+        this.secondFrom = secondFrom;
+        this.size = firstLength + secondTo - secondFrom;
+    }
+
+    /**
+     * Translate a row of the subset into a row of the original data
+     * @param row The index of the row within the subset
+     * @return The index of the same row in the original data
+     */
+    public int get(int row) {
+        if(row < firstLength) {
+            return order[firstFrom + row];
+        }
+        return order[secondFrom + row - firstLength];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * A read only list of the points in the subset, backed by the original list of points
+     * @param originalPoints The points of the original data
+     * @return The points of the subset
+     */
+    public List<DataPoint> pointsOf(List<DataPoint> originalPoints) {
+        return new Points(originalPoints);
+    }
+
+    private class Points extends AbstractList<DataPoint> implements RandomAccess {
+        final List<DataPoint> originalPoints;
+
+        Points(List<DataPoint> originalPoints) {
+            this.originalPoints = originalPoints;
+        }
+
+        @Override
+        public DataPoint get(int index) {
+            if(index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return originalPoints.get(FoldRows.this.get(index));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * The statistics of every fold of a cross fold split, collected with a single pass over the data. A split is an
+ * ordering of the rows cut into consecutive blocks, each fold testing on one block and training on all of the others.
+ * The statistics of each block are collected once, along with running totals of the blocks before each block (prefix)
+ * and from each block on (suffix), so the training statistics of a fold are the prefix before its block merged with
+ * the suffix after it - a merge per fold rather than another pass over the fold's training rows
+ */
+class FoldStats {
+    // blockStats[i] covers block i, prefixStats[i] the blocks before block i and suffixStats[i] block i onwards
+    private final ColumnStats[] blockStats;
+    private final ColumnStats[] prefixStats;
+    private final ColumnStats[] suffixStats;
+
+    /**
+     * @param columns The columns of the original data, which the ordering refers to
+     * @param order An ordering of row indices of the original data
+     * @param blockStarts The position in the ordering where each block starts, plus the end of the last block
+     */
+    FoldStats(DataColumns columns, int[] order, int[] blockStarts) {
+        int numBlocks = blockStarts.length - 1;
+        int numAttributes = columns.numAttributes();
+        blockStats = new ColumnStats[numBlocks];
+        double[] values = null;
+        for (int block = 0; block < numBlocks; block++) {
+            blockStats[block] = new ColumnStats(numAttributes);
+            for (int position = blockStarts[block]; position < blockStarts[block + 1]; position++) {
+                values = columns.copyRow(order[position], values);
+                blockStats[block].add(values, columns.classIndex(order[position]));
+            }
+        }
+        prefixStats = new ColumnStats[numBlocks + 1];
+        prefixStats[0] = new ColumnStats(numAttributes);
+        for (int block = 0; block < numBlocks; block++) {
+            prefixStats[block + 1] = prefixStats[block].copy();
+            prefixStats[block + 1].merge(blockStats[block]);
+        }
+        suffixStats = new ColumnStats[numBlocks + 1];
+        suffixStats[numBlocks] = new ColumnStats(numAttributes);
+        for (int block = numBlocks - 1; block >= 0; block--) {
+            suffixStats[block] = blockStats[block].copy();
+            suffixStats[block].merge(suffixStats[block + 1]);
+        }
+    }
+
+    /**
+     * @param block The index of a block
+     * @return The statistics of the rows of the block (the test rows of its fold)
+     */
+    ColumnStats blockStats(int block) {
+        return blockStats[block].copy();
+    }
+
+    /**
+     * @param block The index of a block
+     * @return The statistics of the rows of every other block (the training rows of its fold)
+     */
+    ColumnStats trainingStats(int block) {
+        ColumnStats stats = prefixStats[block].copy();
+        stats.merge(suffixStats[block + 1]);
+        return stats;
+    }
+}
@@ -0,0 +1,72 @@
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the statistics of each fold built from prefix and suffix totals agree with collecting them again from
+ * the fold's own rows
+ */
+public class FoldStatsTest {
+    // the totals are merged in a different order than the rows are added, which rounds differently
+    public static final double EPSILON = Math.pow(10, -9);
+
+    /**
+     * @return The statistics of the rows at positions [from, to) of the order, skipping [skipFrom, skipTo)
+     */
+    private static ColumnStats recompute(DataColumns columns, int[] order, int from, int to, int skipFrom, int skipTo) {
+        ColumnStats stats = new ColumnStats(columns.numAttributes());
+        double[] values = null;
+        for (int position = from; position < to; position++) {
+            if(position >= skipFrom && position < skipTo) continue;
+            values = columns.copyRow(order[position], values);
+            stats.add(values, columns.classIndex(order[position]));
+        }
+        return stats;
+    }
+
+    private static void assertSameStats(ColumnStats expected, ColumnStats actual) {
+        assertEquals(expected.numRows(), actual.numRows());
+        for (int att = 0; att < expected.numAttributes; att++) {
+            assertEquals(expected.count(att), actual.count(att));
+            assertEquals(expected.missingCount(att), actual.missingCount(att));
+            assertEquals(expected.min(att), actual.min(att), 0);
+            assertEquals(expected.max(att), actual.max(att), 0);
+            assertEquals(expected.mean(att), actual.mean(att), EPSILON * (1 + Math.abs(expected.mean(att))));
+            assertEquals(expected.variance(att), actual.variance(att), EPSILON * (1 + expected.variance(att)));
+        }
+        for (int classIndex = 0; classIndex < 3; classIndex++) {
+            assertEquals(expected.classCount(classIndex), actual.classCount(classIndex));
+        }
+    }
+
+    @Test
+    public void testFoldsMatchRecomputation() throws Exception {
+        DataColumns columns = TestColumns.withMissing(TestColumns.gaussian(503, 4, 3, 1), 20, 1);
+        int[] order = TestColumns.shuffledOrder(columns.numRows(), 2);
+        // blocks of uneven sizes, including an empty one
+        int[] blockStarts = {0, 100, 100, 250, 251, 503};
+        FoldStats foldStats = new FoldStats(columns, order, blockStarts);
+        for (int block = 0; block < blockStarts.length - 1; block++) {
+            int from = blockStarts[block], to = blockStarts[block + 1];
+            assertSameStats(recompute(columns, order, from, to, 0, 0), foldStats.blockStats(block));
+            assertSameStats(recompute(columns, order, 0, order.length, from, to), foldStats.trainingStats(block));
+        }
+    }
+
+    @Test
+    public void testFoldStatsAreIndependent() throws Exception {
+        DataColumns columns = TestColumns.gaussian(60, 2, 3, 3);
+        int[] order = new int[columns.numRows()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        FoldStats foldStats = new FoldStats(columns, order, new int[]{0, 20, 40, 60});
+        // changing the statistics handed out for one fold must not change those of the others
+        ColumnStats training = foldStats.trainingStats(0);
+        training.merge(foldStats.blockStats(0));
+        assertEquals(60, training.numRows());
+        assertSameStats(recompute(columns, order, 0, 60, 0, 20), foldStats.trainingStats(0));
+        assertSameStats(recompute(columns, order, 0, 60, 20, 40), foldStats.trainingStats(1));
+        assertSameStats(recompute(columns, order, 40, 60, 0, 0), foldStats.blockStats(2));
+    }
+}
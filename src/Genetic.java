@@ -65,6 +65,9 @@ public class Genetic {
                 case "-repair":
                     repair = true;
                     break;
+                case "-seed":
+                    random = new RandomStreams(Long.parseLong(args[++argNum])).random();
+                    break;
                 case "-greedy":
                     greedy();
                     System.exit(0);
@@ -131,6 +134,8 @@ public class Genetic {
                 "\tPrint the logged results to the screen\n" +
                 "-repair\n" +
                 "\tRandomly set members of the bit vector to 0 when it's overweight\n" +
+                "-seed NUM\n" +
+                "\tThe seed of the random numbers, which makes a run repeatable\n" +
                 "-help\n" +
                 "\tPrint this help text");
     }
@@ -0,0 +1,622 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A hierarchical navigable small world graph over the rows of training data, for finding nearest neighbors in
+ * training sets too large for even a tree to search quickly. Every row is a node of the bottom layer of the graph, and
+ * each layer above holds a random 1/M of the nodes of the layer below, so there are about log(rows) / log(M) layers.
+ * On each of its layers a node is linked to up to M nodes near it (2M on the bottom layer), picked so that the links
+ * point in different directions rather than all into the same cluster. A search walks greedily from the single node of
+ * the top layer down to the bottom layer, then keeps the efSearch closest nodes it has seen, following their links
+ * until none of them leads anywhere closer.
+ *
+ * Unlike the other indexes the search is approximate: some of the closest rows may be missed. A larger efSearch finds
+ * more of them for a slower search, and a larger M or efConstruction (how many nodes a new node's links are picked
+ * from) builds a better linked graph, more slowly. The rows found are ordered as a scan would order them, with squared
+ * distances added up the same way as DataColumns.distanceSquared. printRecall measures recall and speed against a scan.
+ *
+ * The graph is built on several threads, with each node's links guarded by a lock on the node. The levels of the nodes
+ * come from the generator, but the links can depend on the order the threads get to the nodes, so only a graph built
+ * on one thread is the same every run for the same generator. Rows with a missing or infinite value are left out
+ */
+public class HNSW implements NeighborIndex {
+    static final int DEFAULT_M = 16;
+    static final int DEFAULT_EF_CONSTRUCTION = 200;
+    static final int DEFAULT_EF_SEARCH = 50;
+    // the number of test rows searched for before printRecall starts timing
+    static final int WARM_UP_ROWS = 200;
+
+    private final int numAttributes;
+    private final int m;
+    private final int efConstruction;
+    private int efSearch = DEFAULT_EF_SEARCH;
+    // the row index in the original columns, and the values, of each node
+    private final int[] rowOf;
+    private final double[][] points;
+    // links[node][layer] holds the node's links on each layer up to its level, of which the first
+    // numLinks[node][layer] are in use. Both are only changed while holding the lock on links[node]
+    private final int[][][] links;
+    private final int[][] numLinks;
+    // the node searches start from, which is on the top layer. Only changed while holding the lock on this graph
+    private int entryPoint = -1;
+    private int topLevel = -1;
+    // per thread scratch space, so any number of threads can search at once
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch(rowOf.length, maxLinks(0));
+        }
+    };
+
+    /**
+     * @param columns The training data. The graph holds a copy, so it is unaffected by later changes to the columns
+     * @param m The number of links of each node on each layer above the bottom one, which has twice as many
+     * @param efConstruction The number of close nodes a new node's links are picked from
+     * @param numThreads The number of threads to build the graph on
+     * @param generator The generator of the nodes' levels
+     */
+    HNSW(DataColumns columns, int m, int efConstruction, int numThreads, Random generator) {
+        if(m < 2 || efConstruction < 1) {
+            System.out.println("Error in HNSW: M must be at least 2 and efConstruction at least 1, not " + m + " and "
+                    + efConstruction);
+            System.exit(0);
+        }
+        this.m = m;
+        this.efConstruction = efConstruction;
+        numAttributes = columns.numAttributes();
+        int[] rows = new int[columns.numRows()];
+        double[][] rowValues = new double[columns.numRows()][];
+        int numRows = 0;
+        for (int row = 0; row < columns.numRows(); row++) {
+            double[] values = columns.copyRow(row, null);
+            if(allFinite(values)) {
+                rows[numRows] = row;
+                rowValues[numRows++] = values;
+            }
+        }
+        rowOf = Arrays.copyOf(rows, numRows);
+        points = Arrays.copyOf(rowValues, numRows);
+        // each layer up has 1/m of the nodes of the layer below
+        double levelScale = 1 / Math.log(m);
+        links = new int[numRows][][];
+        numLinks = new int[numRows][];
+        for (int node = 0; node < numRows; node++) {
+            int level = (int) (-Math.log(1 - generator.nextDouble()) * levelScale);
+            links[node] = new int[level + 1][];
+            numLinks[node] = new int[level + 1];
+            for (int layer = 0; layer <= level; layer++) {
+                links[node][layer] = new int[maxLinks(layer)];
+            }
+        }
+        build(numThreads);
+    }
+
+    /**
+     * @param efSearch The number of close nodes a search keeps while following links, at least the number of
+     *                 neighbors searched for
+     * @return This graph
+     */
+    HNSW efSearch(int efSearch) {
+        this.efSearch = Math.max(1, efSearch);
+        return this;
+    }
+
+    private boolean allFinite(double[] values) {
+        for (int att = 0; att < numAttributes; att++) {
+            if(!Double.isFinite(values[att])) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of rows in the graph
+     */
+    int numRows() {
+        return rowOf.length;
+    }
+
+    private int maxLinks(int layer) {
+        return layer == 0 ? 2 * m : m;
+    }
+
+    private double distanceSquared(double[] values, int node) {
+        return VectorKernels.distanceSquared(points[node], values, numAttributes);
+    }
+
+    /**
+     * Insert every node, the first on the calling thread and the rest on a pool of threads that each take the next
+     * node not yet inserted
+     */
+    private void build(int numThreads) {
+        int numRows = rowOf.length;
+        if(numRows == 0) return;
+        insert(0);
+        if(numThreads <= 1) {
+            for (int node = 1; node < numRows; node++) {
+                insert(node);
+            }
+            return;
+        }
+        AtomicInteger nextNode = new AtomicInteger(1);
+        ArrayList<InsertTask> tasks = new ArrayList<>();
+        for (int thread = 0; thread < numThreads; thread++) {
+            tasks.add(new InsertTask(nextNode));
+        }
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            for(InsertTask task: tasks) {
+                pool.execute(task);
+            }
+            for(InsertTask task: tasks) {
+                task.join();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Inserts nodes until there are none left, taking the next node not yet inserted each time
+     */
+    private class InsertTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        // shared by the tasks of one build
+        final AtomicInteger nextNode;
+
+        InsertTask(AtomicInteger nextNode) {
+            this.nextNode = nextNode;
+        }
+
+        @Override
+        protected void compute() {
+            for (int node = nextNode.getAndIncrement(); node < rowOf.length; node = nextNode.getAndIncrement()) {
+                insert(node);
+            }
+        }
+    }
+
+    /**
+     * Link a node to the graph on each of its layers, and make it the entry point if it is the first node on a new
+     * top layer
+     * @param node The node
+     */
+    private void insert(int node) {
+        int level = links[node].length - 1;
+        int start;
+        int startLevel;
+        synchronized (this) {
+            if(entryPoint < 0) {
+                entryPoint = node;
+                topLevel = level;
+                return;
+            }
+            start = entryPoint;
+            startLevel = topLevel;
+        }
+        Scratch scratch = this.scratch.get();
+        double[] values = points[node];
+        int closest = start;
+        double closestDistance = distanceSquared(values, start);
+        for (int layer = startLevel; layer > level; layer--) {
+            closest = greedySearch(values, closest, closestDistance, layer, true, scratch);
+            closestDistance = distanceSquared(values, closest);
+        }
+        for (int layer = Math.min(level, startLevel); layer >= 0; layer--) {
+            DistanceHeap found = searchLayer(values, closest, closestDistance, efConstruction, layer, true, scratch);
+            int numFound = found.size();
+            int[] nodes = new int[numFound];
+            double[] distances = new double[numFound];
+            // the heap is furthest first, so fill in from the end to have the closest first
+            for (int i = numFound - 1; i >= 0; i--) {
+                nodes[i] = found.topNode();
+                distances[i] = -found.topKey();
+                found.pop();
+            }
+            closest = nodes[0];
+            closestDistance = distances[0];
+            // a new node gets m links on every layer, leaving room on the bottom layer for links from later nodes
+            int[] selected = new int[m];
+            int numSelected = selectLinks(node, nodes, distances, numFound, m, selected);
+            synchronized (links[node]) {
+                // another thread may already have linked this node on this layer, after finding it through a link
+                // on a layer above, and those links are replaced (as they were picked from fewer nodes)
+                System.arraycopy(selected, 0, links[node][layer], 0, numSelected);
+                numLinks[node][layer] = numSelected;
+            }
+            for (int i = 0; i < numSelected; i++) {
+                addLink(selected[i], node, layer);
+            }
+        }
+        synchronized (this) {
+            if(level > topLevel) {
+                entryPoint = node;
+                topLevel = level;
+            }
+        }
+    }
+
+    /**
+     * Pick the links of a node from candidates near it, closest first, skipping any candidate that is closer to a
+     * link already picked than to the node, since the search can reach it through that link
+     * @param node The node the links are for, which can turn up among the candidates when other threads have linked it
+     * @param candidates The candidate nodes, closest first
+     * @param distances The squared distance of each candidate from the node
+     * @param numCandidates The number of candidates
+     * @param maxLinks The most links to pick
+     * @param selected Where to put the links picked
+     * @return The number of links picked
+     */
+    private int selectLinks(int node, int[] candidates, double[] distances, int numCandidates, int maxLinks,
+                            int[] selected) {
+        int numSelected = 0;
+        for (int i = 0; i < numCandidates && numSelected < maxLinks; i++) {
+            int candidate = candidates[i];
+            if(candidate == node) continue;
+            boolean diverse = true;
+            for (int j = 0; j < numSelected; j++) {
+                if(VectorKernels.distanceSquared(points[candidate], points[selected[j]], numAttributes) < distances[i]) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if(diverse) {
+                selected[numSelected++] = candidate;
+            }
+        }
+        return numSelected;
+    }
+
+    /**
+     * Link one node to another, picking the node's links again if it already has as many as it can hold
+     * @param node The node to add the link to
+     * @param newLink The node to link to
+     * @param layer The layer of the link
+     */
+    private void addLink(int node, int newLink, int layer) {
+        synchronized (links[node]) {
+            int[] nodeLinks = links[node][layer];
+            int numNodeLinks = numLinks[node][layer];
+            for (int i = 0; i < numNodeLinks; i++) {
+                if(nodeLinks[i] == newLink) return;
+            }
+            if(numNodeLinks < nodeLinks.length) {
+                nodeLinks[numNodeLinks] = newLink;
+                numLinks[node][layer] = numNodeLinks + 1;
+                return;
+            }
+            int numCandidates = numNodeLinks + 1;
+            int[] candidates = Arrays.copyOf(nodeLinks, numCandidates);
+            candidates[numNodeLinks] = newLink;
+            double[] distances = new double[numCandidates];
+            for (int i = 0; i < numCandidates; i++) {
+                distances[i] = distanceSquared(points[node], candidates[i]);
+            }
+            sortByDistance(candidates, distances, numCandidates);
+            numLinks[node][layer] = selectLinks(node, candidates, distances, numCandidates, nodeLinks.length, nodeLinks);
+        }
+    }
+
+    /**
+     * Sort nodes closest first, by insertion as there are only a few of them
+     */
+    private static void sortByDistance(int[] nodes, double[] distances, int numNodes) {
+        for (int i = 1; i < numNodes; i++) {
+            int node = nodes[i];
+            double distance = distances[i];
+            int j = i - 1;
+            for (; j >= 0 && distances[j] > distance; j--) {
+                nodes[j + 1] = nodes[j];
+                distances[j + 1] = distances[j];
+            }
+            nodes[j + 1] = node;
+            distances[j + 1] = distance;
+        }
+    }
+
+    /**
+     * Copy the links of a node on a layer into the scratch space
+     * @param locked True while the graph is being built, when other threads may be changing the links
+     * @return The number of links
+     */
+    private int copyLinks(int node, int layer, boolean locked, Scratch scratch) {
+        if(locked) {
+            synchronized (links[node]) {
+                int numNodeLinks = numLinks[node][layer];
+                System.arraycopy(links[node][layer], 0, scratch.links, 0, numNodeLinks);
+                return numNodeLinks;
+            }
+        }
+        int numNodeLinks = numLinks[node][layer];
+        System.arraycopy(links[node][layer], 0, scratch.links, 0, numNodeLinks);
+        return numNodeLinks;
+    }
+
+    /**
+     * Follow links on one layer to whichever linked node is closest to the point, until no link leads closer
+     * @return The closest node found
+     */
+    private int greedySearch(double[] values, int start, double startDistance, int layer, boolean locked,
+                             Scratch scratch) {
+        int closest = start;
+        double closestDistance = startDistance;
+        boolean moved = true;
+        while(moved) {
+            moved = false;
+            int numNodeLinks = copyLinks(closest, layer, locked, scratch);
+            for (int i = 0; i < numNodeLinks; i++) {
+                int link = scratch.links[i];
+                double distance = distanceSquared(values, link);
+                if(distance < closestDistance) {
+                    closest = link;
+                    closestDistance = distance;
+                    moved = true;
+                }
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * Find the nodes of one layer closest to the point, following links from a start node while they lead to a node
+     * closer than the furthest of the ef closest found so far
+     * @return The ef closest nodes found, in a heap with the furthest (the most negative key) at the top
+     */
+    private DistanceHeap searchLayer(double[] values, int start, double startDistance, int ef, int layer,
+                                     boolean locked, Scratch scratch) {
+        int visitMark = scratch.nextVisitMark();
+        DistanceHeap candidates = scratch.candidates;
+        DistanceHeap found = scratch.found;
+        candidates.clear();
+        found.clear();
+        scratch.visited[start] = visitMark;
+        candidates.push(start, startDistance);
+        found.push(start, -startDistance);
+        while(candidates.size() > 0) {
+            int candidate = candidates.topNode();
+            double candidateDistance = candidates.topKey();
+            if(candidateDistance > -found.topKey()) break;
+            candidates.pop();
+            int numNodeLinks = copyLinks(candidate, layer, locked, scratch);
+            for (int i = 0; i < numNodeLinks; i++) {
+                int link = scratch.links[i];
+                if(scratch.visited[link] == visitMark) continue;
+                scratch.visited[link] = visitMark;
+                double distance = distanceSquared(values, link);
+                if(found.size() < ef || distance < -found.topKey()) {
+                    candidates.push(link, distance);
+                    found.push(link, -distance);
+                    if(found.size() > ef) {
+                        found.pop();
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Search the bottom layer for the ef nodes closest to a point, after walking down from the top layer
+     * @return The nodes found, with the furthest at the top
+     */
+    private DistanceHeap search(double[] values, int ef, Scratch scratch) {
+        int closest = entryPoint;
+        double closestDistance = distanceSquared(values, closest);
+        for (int layer = topLevel; layer > 0; layer--) {
+            closest = greedySearch(values, closest, closestDistance, layer, false, scratch);
+            closestDistance = distanceSquared(values, closest);
+        }
+        return searchLayer(values, closest, closestDistance, ef, 0, false, scratch);
+    }
+
+    @Override
+    public int[] nearest(double[] values, int numNeighbors) {
+        if(rowOf.length == 0 || numNeighbors <= 0) return new int[0];
+        DistanceHeap found = search(values, Math.max(efSearch, numNeighbors), scratch.get());
+        NeighborList neighbors = NeighborList.nearestBySquaredDistance(Math.min(numNeighbors, found.size()));
+        for (int i = 0; i < found.size(); i++) {
+            neighbors.offer(rowOf[found.node(i)], -found.key(i));
+        }
+        return neighbors.rows();
+    }
+
+    /**
+     * Searches for efSearch nodes, then twice as many each time every node found is within the radius, as there may
+     * be more. Like nearest, rows within the radius may be missed
+     */
+    @Override
+    public int[] withinRadius(double[] values, double radius) {
+        NeighborList neighbors = NeighborList.withinRadius(radius);
+        if(rowOf.length == 0) return neighbors.rows();
+        Scratch scratch = this.scratch.get();
+        for (int ef = efSearch; ; ef = (int) Math.min(2L * ef, rowOf.length)) {
+            neighbors = NeighborList.withinRadius(radius);
+            DistanceHeap found = search(values, ef, scratch);
+            for (int i = 0; i < found.size(); i++) {
+                neighbors.offerSquared(rowOf[found.node(i)], -found.key(i));
+            }
+            if(neighbors.size() < found.size() || ef >= rowOf.length) {
+                return neighbors.rows();
+            }
+        }
+    }
+
+    /**
+     * Print the recall of the graph's searches (the fraction of the nearest neighbors found by a scan that a search
+     * also finds), the time a search takes and how often its prediction matches the scan's, for each efSearch, and
+     * the same for the scan. Searches run one at a time on the calling thread, and each timing follows an untimed
+     * pass over some of the test rows, so the code has been compiled by the time it is timed
+     * @param trainingColumns The normalized training data the graph was built from
+     * @param testColumns The normalized test data
+     * @param numNeighbors The number of neighbors of each test point
+     * @param efSearches The values of efSearch to measure
+     * @param numClassifications The number of possible classifications
+     */
+    void printRecall(DataColumns trainingColumns, DataColumns testColumns, int numNeighbors, int[] efSearches,
+                     int numClassifications) {
+        int numTestRows = testColumns.numRows();
+        int[][] exactNeighbors = new int[numTestRows][];
+        int[] exactPredictions = new int[numTestRows];
+        double[] testValues = null;
+        int numCorrect = 0;
+        int numWarmUpRows = Math.min(numTestRows, WARM_UP_ROWS);
+        for (int testRow = 0; testRow < numWarmUpRows; testRow++) {
+            testValues = testColumns.copyRow(testRow, testValues);
+            KNN.nearestNeighbors(trainingColumns, null, testValues, numNeighbors);
+        }
+        long start = System.nanoTime();
+        for (int testRow = 0; testRow < numTestRows; testRow++) {
+            testValues = testColumns.copyRow(testRow, testValues);
+            exactNeighbors[testRow] = KNN.nearestNeighbors(trainingColumns, null, testValues, numNeighbors);
+            exactPredictions[testRow] = KNN.unweightedPrediction(trainingColumns, exactNeighbors[testRow],
+                    numClassifications, numNeighbors);
+        }
+        double scanMicros = (System.nanoTime() - start) / 1000.0 / Math.max(1, numTestRows);
+        for (int testRow = 0; testRow < numTestRows; testRow++) {
+            if(exactPredictions[testRow] == testColumns.classIndex(testRow)) numCorrect++;
+        }
+        System.out.println("scan: " + String.format("%.1f", scanMicros) + " microseconds per query, accuracy "
+                + String.format("%.2f", 100.0 * numCorrect / Math.max(1, numTestRows)) + "%");
+        int originalEfSearch = efSearch;
+        for(int ef: efSearches) {
+            efSearch(ef);
+            int[][] approximateNeighbors = new int[numTestRows][];
+            for (int testRow = 0; testRow < numWarmUpRows; testRow++) {
+                testValues = testColumns.copyRow(testRow, testValues);
+                KNN.nearestNeighbors(trainingColumns, this, testValues, numNeighbors);
+            }
+            start = System.nanoTime();
+            for (int testRow = 0; testRow < numTestRows; testRow++) {
+                testValues = testColumns.copyRow(testRow, testValues);
+                approximateNeighbors[testRow] = KNN.nearestNeighbors(trainingColumns, this, testValues, numNeighbors);
+            }
+            double micros = (System.nanoTime() - start) / 1000.0 / Math.max(1, numTestRows);
+            long numFound = 0;
+            long numExact = 0;
+            int numSamePredictions = 0;
+            numCorrect = 0;
+            for (int testRow = 0; testRow < numTestRows; testRow++) {
+                HashSet<Integer> exact = new HashSet<>();
+                for(int row: exactNeighbors[testRow]) {
+                    exact.add(row);
+                }
+                numExact += exact.size();
+                for(int row: approximateNeighbors[testRow]) {
+                    if(exact.contains(row)) numFound++;
+                }
+                int prediction = KNN.unweightedPrediction(trainingColumns, approximateNeighbors[testRow],
+                        numClassifications, numNeighbors);
+                if(prediction == exactPredictions[testRow]) numSamePredictions++;
+                if(prediction == testColumns.classIndex(testRow)) numCorrect++;
+            }
+            System.out.println("efSearch " + ef + ": recall " + String.format("%.4f", (double) numFound / Math.max(1, numExact))
+                    + ", " + String.format("%.1f", micros) + " microseconds per query ("
+                    + String.format("%.1f", scanMicros / Math.max(micros, 1e-9)) + " times as fast as the scan), predictions match the scan for "
+                    + String.format("%.2f", 100.0 * numSamePredictions / Math.max(1, numTestRows)) + "%, accuracy "
+                    + String.format("%.2f", 100.0 * numCorrect / Math.max(1, numTestRows)) + "%");
+        }
+        efSearch(originalEfSearch);
+    }
+
+    /**
+     * Scratch space for searches on one thread
+     */
+    private static final class Scratch {
+        // the mark of each node visited by the current search, so nothing needs clearing between searches
+        final int[] visited;
+        int visitMark = 0;
+        final DistanceHeap candidates = new DistanceHeap();
+        final DistanceHeap found = new DistanceHeap();
+        // a copy of the links being followed
+        final int[] links;
+
+        Scratch(int numNodes, int maxLinks) {
+            visited = new int[numNodes];
+            links = new int[maxLinks];
+        }
+
+        int nextVisitMark() {
+            if(++visitMark == Integer.MAX_VALUE) {
+                Arrays.fill(visited, 0);
+                visitMark = 1;
+            }
+            return visitMark;
+        }
+    }
+
+    /**
+     * A min-heap of nodes by key. A heap with the furthest node at the top is kept by using negated distances as keys
+     */
+    private static final class DistanceHeap {
+        private int[] nodes = new int[64];
+        private double[] keys = new double[64];
+        private int size = 0;
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        int topNode() {
+            return nodes[0];
+        }
+
+        double topKey() {
+            return keys[0];
+        }
+
+        int node(int i) {
+            return nodes[i];
+        }
+
+        double key(int i) {
+            return keys[i];
+        }
+
+        void push(int node, double key) {
+            if(size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * size);
+                keys = Arrays.copyOf(keys, 2 * size);
+            }
+            int position = size++;
+            while(position > 0) {
+                int parent = (position - 1) >>> 1;
+                if(keys[parent] <= key) break;
+                nodes[position] = nodes[parent];
+                keys[position] = keys[parent];
+                position = parent;
+            }
+            nodes[position] = node;
+            keys[position] = key;
+        }
+
+        void pop() {
+            int node = nodes[--size];
+            double key = keys[size];
+            int position = 0;
+            while(true) {
+                int child = 2 * position + 1;
+                if(child >= size) break;
+                if(child + 1 < size && keys[child + 1] < keys[child]) child++;
+                if(keys[child] >= key) break;
+                nodes[position] = nodes[child];
+                keys[position] = keys[child];
+                position = child;
+            }
+            nodes[position] = node;
+            keys[position] = key;
+        }
+    }
+
+    public String toString() {
+        return "HNSW - " + rowOf.length + " rows, " + numAttributes + " attributes, M " + m + ", efConstruction "
+                + efConstruction + ", efSearch " + efSearch + ", " + (topLevel + 1) + " layers";
+    }
+}
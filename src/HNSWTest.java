@@ -0,0 +1,126 @@
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the approximate searches of an HNSW graph find nearly all of the neighbors a scan finds, and only rows a
+ * scan would find, in the scan's order
+ */
+public class HNSWTest {
+    // the fraction of a scan's nearest neighbors the default efSearch must find on clustered data
+    public static final double MIN_RECALL = .9;
+    public static final int NUM_NEIGHBORS = 10;
+
+    /**
+     * @return Rows in gaussian clusters around random centers, the kind of data the graph is meant for
+     */
+    private static DataColumns createClusteredColumns(int numRows, int numAttributes, int numClusters, long seed) {
+        Random random = new Random(seed);
+        double[][] centers = new double[numClusters][numAttributes];
+        for(double[] center: centers) {
+            for (int att = 0; att < numAttributes; att++) {
+                center[att] = random.nextGaussian() * 5;
+            }
+        }
+        double[][] columns = new double[numAttributes][numRows];
+        int[] classIndices = new int[numRows];
+        for (int row = 0; row < numRows; row++) {
+            int cluster = random.nextInt(numClusters);
+            for (int att = 0; att < numAttributes; att++) {
+                columns[att][row] = centers[cluster][att] + random.nextGaussian();
+            }
+            classIndices[row] = cluster % 3;
+        }
+        return new DataColumns(columns, classIndices);
+    }
+
+    /**
+     * @return The fraction of the scan's nearest neighbors of the test rows that the graph also finds
+     */
+    private static double recall(DataColumns training, HNSW graph, DataColumns test) {
+        int numFound = 0;
+        int numExpected = 0;
+        double[] values = null;
+        for (int row = 0; row < test.numRows(); row++) {
+            values = test.copyRow(row, values);
+            int[] expected = KNN.nearestNeighbors(training, null, values, NUM_NEIGHBORS);
+            int[] found = graph.nearest(values, NUM_NEIGHBORS);
+            assertEquals(expected.length, found.length);
+            assertFoundInScanOrder(training, values, found);
+            HashSet<Integer> foundRows = new HashSet<>();
+            for(int foundRow: found) {
+                foundRows.add(foundRow);
+            }
+            for(int expectedRow: expected) {
+                if(foundRows.contains(expectedRow)) numFound++;
+            }
+            numExpected += expected.length;
+        }
+        return (double) numFound / numExpected;
+    }
+
+    /**
+     * The rows must be distinct, and ordered by distance with ties broken by row index, as a scan orders them
+     */
+    private static void assertFoundInScanOrder(DataColumns training, double[] values, int[] found) {
+        for (int i = 1; i < found.length; i++) {
+            double previous = training.distanceSquared(found[i - 1], values);
+            double distance = training.distanceSquared(found[i], values);
+            assertTrue(previous < distance || (previous == distance && found[i - 1] < found[i]));
+        }
+    }
+
+    @Test
+    public void testRecall() throws Exception {
+        DataColumns training = createClusteredColumns(5000, 10, 20, 1);
+        DataColumns test = createClusteredColumns(200, 10, 20, 1);
+        int[] threadCounts = {1, 4};
+        for(int numThreads: threadCounts) {
+            HNSW graph = new HNSW(training, HNSW.DEFAULT_M, HNSW.DEFAULT_EF_CONSTRUCTION, numThreads, new Random(2));
+            double recall = recall(training, graph, test);
+            assertTrue("recall " + recall + " on " + numThreads + " threads", recall >= MIN_RECALL);
+            // a larger efSearch searches more of the graph, so it shouldn't find fewer
+            assertTrue(recall(training, graph.efSearch(200), test) >= recall);
+        }
+    }
+
+    @Test
+    public void testWithinRadiusOnlyFindsRowsInRadius() throws Exception {
+        DataColumns training = createClusteredColumns(2000, 5, 10, 3);
+        HNSW graph = new HNSW(training, 8, 100, 1, new Random(4));
+        Random random = new Random(5);
+        for (int i = 0; i < 50; i++) {
+            double[] values = training.copyRow(random.nextInt(training.numRows()), null);
+            int[] expected = KNN.neighborsWithinRadius(training, null, values, 1);
+            int[] found = graph.withinRadius(values, 1);
+            HashSet<Integer> expectedRows = new HashSet<>();
+            for(int row: expected) {
+                expectedRows.add(row);
+            }
+            for(int row: found) {
+                assertTrue(expectedRows.contains(row));
+            }
+            assertFoundInScanOrder(training, values, found);
+            // most of the rows within the radius are found
+            assertTrue(found.length >= MIN_RECALL * expected.length);
+        }
+    }
+
+    @Test
+    public void testSingleThreadedBuildIsReproducible() throws Exception {
+        DataColumns training = createClusteredColumns(1000, 4, 5, 6);
+        HNSW first = new HNSW(training, 8, 50, 1, new Random(7));
+        HNSW second = new HNSW(training, 8, 50, 1, new Random(7));
+        Random random = new Random(8);
+        for (int i = 0; i < 50; i++) {
+            double[] values = new double[training.numAttributes()];
+            for (int att = 0; att < values.length; att++) {
+                values[att] = random.nextGaussian() * 5;
+            }
+            assertArrayEquals(first.nearest(values, NUM_NEIGHBORS), second.nearest(values, NUM_NEIGHBORS));
+        }
+    }
+}
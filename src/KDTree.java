@@ -0,0 +1,228 @@
+import java.util.Arrays;
+
+/**
+ * A k-d tree over the rows of training data, for finding the nearest neighbors of a point without measuring the
+ * distance to every row. Each node splits its rows at the median of the attribute they are most spread out along, and
+ * a search goes down the side of each split the point is on first, only visiting the other side if the split is closer
+ * than the furthest neighbor found so far. With a handful of attributes (fruit.csv has 4) a search visits a few leaves
+ * rather than the whole training set, but with many attributes most of the tree gets visited anyway.
+ *
+ * The rows are copied into the tree, a row at a time in the order the tree visits them, and distances are added up
+ * attribute by attribute in the same way as DataColumns.distanceSquared, so the neighbors (and their order, with ties
+ * going to the lower row index) are exactly those a scan of double precision dense columns finds. As a row's values
+ * are next to each other, a row stops adding up its squared distance as soon as it passes the furthest neighbor found
+ * so far. Rows with a missing or infinite value are left out, as their distance is never a number a scan would pick
+ */
+class KDTree implements NeighborIndex {
+    // the most rows a node holds without being split
+    static final int LEAF_SIZE = 8;
+    // searches only skip much of the tree when there are many more rows than corners of the space (2 to the number of
+    // attributes). On random data with 10 attributes a search of 20000 rows is still slower than a scan
+    static final int MIN_ROWS_PER_CORNER = 32;
+
+    private final int numAttributes;
+    // the row index in the original columns of each position in the tree
+    private final int[] rowOf;
+    // the values of the row at each position, one row after another
+    private final double[] points;
+    // nodes are numbered as a binary heap (children of node n are 2n + 1 and 2n + 2), and a node's rows are an even
+    // split of its parent's. -1 marks a leaf
+    private int[] splitAttributes = new int[0];
+    private double[] splitValues = new double[0];
+
+    /**
+     * @param columns The training data. The tree holds a copy, so it is unaffected by later changes to the columns
+     */
+    KDTree(DataColumns columns) {
+        numAttributes = columns.numAttributes();
+        int[] rows = new int[columns.numRows()];
+        int numRows = 0;
+        double[] values = null;
+        for (int row = 0; row < columns.numRows(); row++) {
+            values = columns.copyRow(row, values);
+            if(allFinite(values)) {
+                rows[numRows++] = row;
+            }
+        }
+        rowOf = Arrays.copyOf(rows, numRows);
+        points = new double[numRows * numAttributes];
+        for (int position = 0; position < numRows; position++) {
+            values = columns.copyRow(rowOf[position], values);
+            System.arraycopy(values, 0, points, position * numAttributes, numAttributes);
+        }
+        build(0, 0, numRows);
+    }
+
+    /**
+     * @param columns Training data
+     * @return True if a search of a tree of the data is likely to be quicker than a scan of it
+     */
+    static boolean worthBuilding(DataColumns columns) {
+        return columns.numAttributes() < 31
+                && columns.numRows() >= (long) MIN_ROWS_PER_CORNER << columns.numAttributes();
+    }
+
+    private boolean allFinite(double[] values) {
+        for (int att = 0; att < numAttributes; att++) {
+            if(!Double.isFinite(values[att])) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of rows in the tree
+     */
+    int numRows() {
+        return rowOf.length;
+    }
+
+    /**
+     * Split a node's rows at the median of the attribute with the widest range, and then split each half
+     * @param node The number of the node
+     * @param from The node's first position (inclusive)
+     * @param to The node's last position (exclusive)
+     */
+    private void build(int node, int from, int to) {
+        if(node >= splitAttributes.length) {
+            int length = Math.max(2 * node + 1, 16);
+            splitAttributes = Arrays.copyOf(splitAttributes, length);
+            splitValues = Arrays.copyOf(splitValues, length);
+        }
+        splitAttributes[node] = -1;
+        if(to - from <= LEAF_SIZE) return;
+        int splitAttribute = -1;
+        double widestRange = 0;
+        for (int att = 0; att < numAttributes; att++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int position = from; position < to; position++) {
+                double value = points[position * numAttributes + att];
+                if(value < min) min = value;
+                if(value > max) max = value;
+            }
+            if(max - min > widestRange) {
+                widestRange = max - min;
+                splitAttribute = att;
+            }
+        }
+        // every row is the same point
+        if(splitAttribute < 0) return;
+        int middle = (from + to) >>> 1;
+        select(from, to, middle, splitAttribute);
+        splitAttributes[node] = splitAttribute;
+        splitValues[node] = points[middle * numAttributes + splitAttribute];
+        build(2 * node + 1, from, middle);
+        build(2 * node + 2, middle, to);
+    }
+
+    /**
+     * Reorder positions so that the one at target has the value it would have if they were sorted by an attribute,
+     * with values no larger before it and values no smaller after it (quickselect)
+     */
+    private void select(int from, int to, int target, int att) {
+        int low = from;
+        int high = to - 1;
+        while(low < high) {
+            double pivot = points[((low + high) >>> 1) * numAttributes + att];
+            int i = low;
+            int j = high;
+            while(i <= j) {
+                while(points[i * numAttributes + att] < pivot) i++;
+                while(points[j * numAttributes + att] > pivot) j--;
+                if(i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if(target <= j) {
+                high = j;
+            }
+            else if(target >= i) {
+                low = i;
+            }
+            else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int first, int second) {
+        int row = rowOf[first];
+        rowOf[first] = rowOf[second];
+        rowOf[second] = row;
+        int firstStart = first * numAttributes;
+        int secondStart = second * numAttributes;
+        for (int att = 0; att < numAttributes; att++) {
+            double value = points[firstStart + att];
+            points[firstStart + att] = points[secondStart + att];
+            points[secondStart + att] = value;
+        }
+    }
+
+    @Override
+    public int[] nearest(double[] values, int numNeighbors) {
+        NeighborList neighbors = NeighborList.nearestBySquaredDistance(Math.min(numNeighbors, rowOf.length));
+        if(rowOf.length > 0) {
+            visit(0, 0, rowOf.length, values, neighbors);
+        }
+        return neighbors.rows();
+    }
+
+    @Override
+    public int[] withinRadius(double[] values, double radius) {
+        NeighborList neighbors = NeighborList.withinRadius(radius);
+        if(rowOf.length > 0) {
+            visit(0, 0, rowOf.length, values, neighbors);
+        }
+        return neighbors.rows();
+    }
+
+    /**
+     * Offer the rows of a node to the neighbors, nearer side of each split first
+     * @param node The number of the node
+     * @param from The node's first position (inclusive)
+     * @param to The node's last position (exclusive)
+     * @param values The attribute values of the point being searched for
+     * @param neighbors The rows found so far
+     */
+    private void visit(int node, int from, int to, double[] values, NeighborList neighbors) {
+        int splitAttribute = node < splitAttributes.length ? splitAttributes[node] : -1;
+        if(splitAttribute < 0) {
+            double limit = neighbors.squaredLimit();
+            for (int position = from; position < to; position++) {
+                double distanceSquared = 0;
+                int start = position * numAttributes;
+                int att = 0;
+                while(att < numAttributes && distanceSquared <= limit) {
+                    double difference = points[start + att] - values[att];
+                    distanceSquared += difference * difference;
+                    att++;
+                }
+                if(distanceSquared > limit) continue;
+                neighbors.offerSquared(rowOf[position], distanceSquared);
+                limit = neighbors.squaredLimit();
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        double difference = values[splitAttribute] - splitValues[node];
+        boolean leftFirst = difference < 0;
+        if(leftFirst) {
+            visit(2 * node + 1, from, middle, values, neighbors);
+        }
+        else {
+            visit(2 * node + 2, middle, to, values, neighbors);
+        }
+        // every row on the far side is at least this far away
+        if(neighbors.canSkipSquared(difference * difference)) return;
+        if(leftFirst) {
+            visit(2 * node + 2, middle, to, values, neighbors);
+        }
+        else {
+            visit(2 * node + 1, from, middle, values, neighbors);
+        }
+    }
+
+    public String toString() {
+        return "KDTree - " + rowOf.length + " rows, " + numAttributes + " attributes";
+    }
+}
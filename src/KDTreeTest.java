@@ -0,0 +1,35 @@
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that searches of a k-d tree find exactly the rows a scan of the columns finds, in the same order
+ */
+public class KDTreeTest {
+
+    @Test
+    public void testNearestMatchesScan() throws Exception {
+        for (int numAttributes = 1; numAttributes <= 4; numAttributes++) {
+            DataColumns columns = TestColumns.gaussian(2000, numAttributes, 2, numAttributes);
+            KDTree tree = new KDTree(columns);
+            assertEquals(columns.numRows(), tree.numRows());
+            TestColumns.assertSameAsScan(columns, tree, TestColumns.queries(columns, 60, 10 + numAttributes));
+        }
+    }
+
+    @Test
+    public void testTiesMatchScan() throws Exception {
+        // rows on a grid are at equal distances, which must be broken by row index as the scan does
+        DataColumns columns = TestColumns.grid(1500, 3, 5, 2, 5);
+        TestColumns.assertSameAsScan(columns, new KDTree(columns), TestColumns.queries(columns, 60, 6));
+    }
+
+    @Test
+    public void testSmallTrees() throws Exception {
+        for (int numRows = 1; numRows <= 20; numRows++) {
+            DataColumns columns = numRows % 2 == 0 ? TestColumns.grid(numRows, 2, 5, 2, numRows)
+                    : TestColumns.gaussian(numRows, 2, 2, numRows);
+            TestColumns.assertSameAsScan(columns, new KDTree(columns), TestColumns.queries(columns, 6, numRows));
+        }
+    }
+}
@@ -1,5 +1,7 @@
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 /**
  * Runs the K nearest neighbor algorithm and returns the prediction accuracy
@@ -9,69 +11,351 @@ public class KNN {
         if(args.length < 3) {
             System.out.println("Usage: java KNN trainingData.csv testData.csv numNeighbors");
             System.out.println("Use -v for verbose");
+            System.out.println("Use -stream to read the test data a row at a time instead of loading it all");
+            System.out.println("Use -float to keep the data and compute distances in single precision");
+            System.out.println("Use -offHeap to keep the data outside the Java heap (binary data files are mapped rather than copied)");
+            System.out.println("Use -sample NUM to train on a random sample of NUM rows, read in a single pass");
+            System.out.println("Use -stratifiedSample NUM for a sample that keeps the proportions of the classes");
+            System.out.println("Use -collapse to merge duplicate training rows into one row weighted by its number of copies");
+            System.out.println("Use -seed NUM to take the same sample, and build the same -index hnsw graph (on one thread), every run");
+            System.out.println("Use -index kd, vp or scan to find neighbors with a k-d tree, a vantage point tree or by measuring the distance to every training point");
+            System.out.println("\tor -index hnsw for a graph that finds most of the nearest neighbors much faster for large training data");
+            System.out.println("\t(by default a k-d tree for few attributes, a vantage point tree for many, and a scan for little data)");
+            System.out.println("Use -threads NUM to find the neighbors of the test points on NUM threads (not with -stream)");
+            System.out.println("Use -M NUM, -efConstruction NUM and -efSearch NUM to set the links per node, and the nodes searched while building and searching, of -index hnsw");
+            System.out.println("Use -recall EF,EF,... with -index hnsw to report the recall and speed of searches at each efSearch against a scan");
             System.exit(0);
         }
         boolean verbose = false;
-        if(args.length > 3 && args[3].equals("-v")) {
-            verbose = true;
+        boolean streamTestData = false;
+        boolean singlePrecision = false;
+        boolean offHeap = false;
+        int sampleSize = 0;
+        boolean stratifiedSample = false;
+        boolean collapseDuplicates = false;
+        String indexType = "auto";
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        int m = HNSW.DEFAULT_M;
+        int efConstruction = HNSW.DEFAULT_EF_CONSTRUCTION;
+        int efSearch = HNSW.DEFAULT_EF_SEARCH;
+        int[] recallEfSearches = null;
+        RandomStreams streams = RandomStreams.unseeded();
+        boolean seeded = false;
+        for (int argNum = 3; argNum < args.length; argNum++) {
+            if(args[argNum].equals("-v")) {
+                verbose = true;
+            }
+            else if(args[argNum].equals("-stream")) {
+                streamTestData = true;
+            }
+            else if(args[argNum].equals("-float")) {
+                singlePrecision = true;
+            }
+            else if(args[argNum].equals("-offHeap")) {
+                offHeap = true;
+            }
+            else if(args[argNum].equals("-sample") || args[argNum].equals("-stratifiedSample")) {
+                stratifiedSample = args[argNum].equals("-stratifiedSample");
+                sampleSize = Integer.parseInt(args[++argNum]);
+            }
+            else if(args[argNum].equals("-collapse")) {
+                collapseDuplicates = true;
+            }
+            else if(args[argNum].equals("-seed")) {
+                streams = new RandomStreams(Long.parseLong(args[++argNum]));
+                seeded = true;
+            }
+            else if(args[argNum].equals("-index")) {
+                indexType = args[++argNum];
+            }
+            else if(args[argNum].equals("-threads")) {
+                numThreads = Integer.parseInt(args[++argNum]);
+            }
+            else if(args[argNum].equals("-M")) {
+                m = Integer.parseInt(args[++argNum]);
+            }
+            else if(args[argNum].equals("-efConstruction")) {
+                efConstruction = Integer.parseInt(args[++argNum]);
+            }
+            else if(args[argNum].equals("-efSearch")) {
+                efSearch = Integer.parseInt(args[++argNum]);
+            }
+            else if(args[argNum].equals("-recall")) {
+                String[] values = args[++argNum].split(",");
+                recallEfSearches = new int[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    recallEfSearches[i] = Integer.parseInt(values[i]);
+                }
+            }
         }
 
         Data trainingData = new Data();
-        FileIO.readFromFile(args[0], trainingData);
-        trainingData.determineExtremes();
-        trainingData.normalizeData();
+        trainingData.setOffHeap(offHeap);
+        if(sampleSize > 0) {
+            ReservoirSampler.readSample(args[0], trainingData, sampleSize, stratifiedSample, streams.random());
+        }
+        else {
+            FileIO.readFromFile(args[0], trainingData);
+        }
+        if(collapseDuplicates) {
+            int numRemoved = trainingData.collapseDuplicates();
+            System.out.println("Collapsed " + numRemoved + " duplicate rows, leaving " + trainingData.numRows() + " unique rows");
+        }
+        // the rescaled copy of the training data is kept in the same precision
+        trainingData.setSinglePrecision(singlePrecision);
+        // rescale every attribute to [0, 1] based on the training data, test points are rescaled the same way
+        FeaturePipeline normalization = new FeaturePipeline(trainingData.stats()).minMax();
+        // every test point scans the whole training set, so the rescaled training data is worth keeping
+        DataColumns trainingColumns = normalization.transformCopy(trainingData.columns());
+        NeighborIndex index = null;
+        if(Integer.parseInt(args[2]) > 0) {
+            long start = System.currentTimeMillis();
+            // an HNSW graph built on more than one thread depends on the timing of the threads, so a seeded run
+            // builds it on one thread to get the same graph every time
+            index = createIndex(trainingColumns, indexType, m, efConstruction, efSearch, seeded ? 1 : numThreads,
+                    streams.child(1).random());
+            if(verbose && index != null) {
+                System.out.println("Built " + index + " in " + (System.currentTimeMillis() - start) + " ms");
+            }
+        }
+
+        if(streamTestData) {
+            scoreStreamedTestData(trainingColumns, index, trainingData.classifications, normalization, args[1],
+                    Integer.parseInt(args[2]), verbose);
+            return;
+        }
 
         Data testData = new Data(trainingData.attributeNames, trainingData.classifications);
+        testData.setOffHeap(offHeap);
         FileIO.readFromFile(args[1], testData);
-        testData.setExtremes(trainingData.minValues, trainingData.maxValues);
-        testData.normalizeData();
+        testData.setSinglePrecision(singlePrecision);
+        // each test point is only read once, so it is rescaled as it is read
+        DataColumns testColumns = normalization.transform(testData.columns());
 
         int numNeighbors = Integer.parseInt(args[2]);
-        
-        
-        int numPointsTested = 0, numPredictionsCorrect = 0;
-        if(numNeighbors > 0) {
-            if(verbose) System.out.println("Performing unweighted voting on " + numNeighbors + " DataPoints");
-            // allow unweighted voting of the k nearest neighbors
-            for (DataPoint testPoint : testData.dataPoints) {
-                ArrayList<DataPoint> nearestNeighbors = nearestNeighbors(trainingData.dataPoints, testPoint, numNeighbors);
-                int predictedClassIndex = unweightedPrediction(nearestNeighbors, trainingData.classifications.size());
-                numPointsTested++;
-                if (predictedClassIndex == testPoint.classificationIndex) {
-                    numPredictionsCorrect++;
-                }
-                else if(verbose) {
-                    System.out.println("Item wrongly classified as " + trainingData.classifications.get(predictedClassIndex)
-                            + " (" + testPoint.toString() + ": " + trainingData.classifications.get(testPoint.classificationIndex) + ")");
+        if(recallEfSearches != null) {
+            if(index instanceof HNSW && numNeighbors > 0) {
+                ((HNSW) index).printRecall(trainingColumns, testColumns, numNeighbors, recallEfSearches,
+                        trainingData.classifications.size());
+            }
+            else {
+                System.out.println("-recall needs -index hnsw and a number of neighbors");
+            }
+        }
 
-//                    System.out.println("Item wrongly classified as " + predictedClassification + " (" + testPoint.toString() + ")");
-                }
+        if(verbose) {
+            if(numNeighbors > 0) System.out.println("Performing unweighted voting on " + numNeighbors + " DataPoints");
+            else System.out.println("Performing weighted voting on all DataPoints");
+        }
+        // unweighted voting of the k nearest neighbors, or with no k, weighted voting of all points
+        int[] predictions = new KNNBatch(trainingColumns).numNeighbors(numNeighbors).index(index)
+                .parallelism(numThreads).predictions(testColumns, trainingData.classifications.size());
+        int numPointsTested = 0, numPredictionsCorrect = 0;
+        for (int testRow = 0; testRow < testColumns.numRows(); testRow++) {
+            int predictedClassIndex = predictions[testRow];
+            numPointsTested++;
+            if (predictedClassIndex == testColumns.classIndex(testRow)) {
+                numPredictionsCorrect++;
+            }
+            else if(verbose) {
+                DataPoint testPoint = testData.dataPoints.get(testRow);
+                System.out.println("Item wrongly classified as " + trainingData.classifications.get(predictedClassIndex)
+                        + " (" + testPoint.toString() + ": " + trainingData.classifications.get(testPoint.classificationIndex) + ")");
             }
         }
-        else {
-            if(verbose) System.out.println("Performing weighted voting on all DataPoints");
-            // weighted voting of all points
-            for(DataPoint testPoint : testData.dataPoints) {
-                int predictedClassIndex = weightedPrediction(
-                        trainingData.dataPoints, testPoint, testData.classifications.size());
-                numPointsTested++;
-                if (predictedClassIndex == testPoint.classificationIndex) {
-                    numPredictionsCorrect++;
-                }
-                else if(verbose) {
-                    System.out.println("Item wrongly classified as " + trainingData.classifications.get(predictedClassIndex)
-                            + " (" + testPoint.toString() + ": " + trainingData.classifications.get(testPoint.classificationIndex) + ")");
-//                    System.out.println("Item wrongly classified as " + predictedClassification + " (" + testPoint.toString() + ")");
+        double percentCorrect = ((double)numPredictionsCorrect) / numPointsTested * 100;
+        System.out.println("Correct predictions: " + numPredictionsCorrect + " out of " + numPointsTested + " for an accuracy of " + percentCorrect + "%");
+
+    }
+
+    /**
+     * Build an index of the training data for finding nearest neighbors. The trees find the same neighbors as a scan
+     * as long as the scan adds up distances in double precision, so there is no index of sparse or single precision
+     * data
+     * @param trainingColumns The normalized training data
+     * @param indexType kd for a k-d tree, vp for a vantage point tree, hnsw for an HNSW graph with its default
+     *                  settings, scan for no index, or auto to pick a tree or a scan by the size of the data
+     * @return The index, or null to scan the training data
+     */
+    public static NeighborIndex createIndex(DataColumns trainingColumns, String indexType) {
+        return createIndex(trainingColumns, indexType, HNSW.DEFAULT_M, HNSW.DEFAULT_EF_CONSTRUCTION,
+                HNSW.DEFAULT_EF_SEARCH, Runtime.getRuntime().availableProcessors(), new Random());
+    }
+
+    /**
+     * Build an index of the training data for finding nearest neighbors. auto never picks an HNSW graph, since it
+     * can miss some of the nearest neighbors
+     * @param trainingColumns The normalized training data
+     * @param indexType kd for a k-d tree, vp for a vantage point tree, hnsw for an HNSW graph, scan for no index, or
+     *                  auto to pick a tree or a scan by the size of the data
+     * @param m The number of links of each node of an HNSW graph
+     * @param efConstruction The number of nodes an HNSW graph picks a new node's links from
+     * @param efSearch The number of nodes an HNSW graph keeps while searching
+     * @param numThreads The number of threads to build an HNSW graph on
+     * @param generator The generator of the levels of an HNSW graph's nodes
+     * @return The index, or null to scan the training data
+     */
+    public static NeighborIndex createIndex(DataColumns trainingColumns, String indexType, int m, int efConstruction,
+                                            int efSearch, int numThreads, Random generator) {
+        if(trainingColumns.isSinglePrecision() || trainingColumns.isSparse()) {
+            return null;
+        }
+        switch (indexType) {
+            case "kd":
+                return new KDTree(trainingColumns);
+            case "vp":
+                return new VPTree(trainingColumns, Metric.EUCLIDEAN);
+            case "hnsw":
+                return new HNSW(trainingColumns, m, efConstruction, numThreads, generator).efSearch(efSearch);
+            case "scan":
+                return null;
+            case "auto":
+                if(KDTree.worthBuilding(trainingColumns)) {
+                    return new KDTree(trainingColumns);
                 }
+                return VPTree.worthBuilding(trainingColumns) ? new VPTree(trainingColumns, Metric.EUCLIDEAN) : null;
+            default:
+                System.out.println("Unknown index type " + indexType + ", use kd, vp, hnsw or scan");
+                System.exit(0);
+                return null;
+        }
+    }
 
+    /**
+     * Classify the points of a test file one row at a time, so the test file never has to fit in memory
+     * @param trainingColumns The normalized training data
+     * @param index An index of the training data, or null to scan all of it for each test point
+     * @param classifications The classifications of the training data
+     * @param normalization The pipeline the training data was normalized with, which is applied to each test point
+     * @param testFileName The csv file of test points
+     * @param numNeighbors The number of neighbors that vote, or 0 for weighted voting of all points
+     * @param verbose True to output each incorrect prediction
+     */
+    public static void scoreStreamedTestData(DataColumns trainingColumns, NeighborIndex index, ArrayList<String> classifications,
+                                             FeaturePipeline normalization, String testFileName, int numNeighbors,
+                                             boolean verbose) {
+        int numPointsTested = 0, numPredictionsCorrect = 0;
+        double[] testValues = null;
+        CsvRowSource testRows = CsvRowSource.open(testFileName, classifications);
+        for(CsvRowSource.Row row: testRows) {
+            // rescale the test point the same way the training data was
+            testValues = normalization.apply(row.values, testValues);
+            int predictedClassIndex;
+            if(numNeighbors > 0) {
+                int[] nearestNeighbors = nearestNeighbors(trainingColumns, index, testValues, numNeighbors);
+                predictedClassIndex = unweightedPrediction(trainingColumns, nearestNeighbors, classifications.size(),
+                        numNeighbors);
             }
+            else {
+                predictedClassIndex = weightedPrediction(trainingColumns, testValues, classifications.size());
+            }
+            numPointsTested++;
+            if(predictedClassIndex == row.classificationIndex) {
+                numPredictionsCorrect++;
+            }
+            else if(verbose) {
+                System.out.println("Item wrongly classified as " + classifications.get(predictedClassIndex)
+                        + " (" + row.toDataPoint().toString() + ": " + classifications.get(row.classificationIndex) + ")");
+            }
+        }
+        try {
+            testRows.close();
+        }
+        catch (Exception e) {
+            e.printStackTrace();
         }
         double percentCorrect = ((double)numPredictionsCorrect) / numPointsTested * 100;
         System.out.println("Correct predictions: " + numPredictionsCorrect + " out of " + numPointsTested + " for an accuracy of " + percentCorrect + "%");
+    }
+
+    /**
+     * Find the rows of the training data closest to a test point. If the training data is weighted (such as when
+     * duplicate rows have been collapsed), each row counts as its weight's worth of neighbors, so rows are taken until
+     * their weights add up to numNeighbors
+     * @param trainingColumns The training data in columnar form
+     * @param testValues The attribute values of the test point
+     * @param numNeighbors The number of neighbors to find
+     * @return The row indices of the closest training points, closest first
+     */
+    public static int[] nearestNeighbors(DataColumns trainingColumns, double[] testValues, int numNeighbors) {
+        int numRows = trainingColumns.numRows();
+        if(numNeighbors >= numRows && !trainingColumns.isWeighted()) {
+            int[] allRows = new int[numRows];
+            for (int i = 0; i < numRows; i++) {
+                allRows[i] = i;
+            }
+            return allRows;
+        }
+        // the distances are still found a column at a time, which vectorizes, and then the closest rows are kept with
+        // furthest on top, compared by squared distance so there are no square roots
+        double[] distances = trainingColumns.distancesSquared(testValues, null);
+        NeighborList neighbors = NeighborList.nearestBySquaredDistance(Math.min(numNeighbors, numRows));
+        for (int row = 0; row < numRows; row++) {
+            neighbors.offer(row, distances[row]);
+        }
+        return takeByWeight(trainingColumns, neighbors.rows(), numNeighbors);
+    }
+
+    /**
+     * @param trainingColumns The training data in columnar form
+     * @param closestRows The closest numNeighbors rows, closest first
+     * @param numNeighbors The number of neighbors to find
+     * @return The closest rows, or if the training data is weighted, as many of the closest rows as it takes for
+     * their weights to add up to numNeighbors
+     */
+    static int[] takeByWeight(DataColumns trainingColumns, int[] closestRows, int numNeighbors) {
+        if(!trainingColumns.isWeighted()) {
+            return closestRows;
+        }
+        double totalWeight = 0;
+        int numClosest = 0;
+        while(numClosest < closestRows.length && totalWeight < numNeighbors) {
+            totalWeight += trainingColumns.weight(closestRows[numClosest++]);
+        }
+        return numClosest == closestRows.length ? closestRows : Arrays.copyOf(closestRows, numClosest);
+    }
 
+    /**
+     * Find the rows of the training data closest to a test point with an index of the training data. The trees give
+     * the same rows as the scan of nearestNeighbors(trainingColumns, testValues, numNeighbors), an HNSW graph most of
+     * them
+     * @param trainingColumns The training data in columnar form
+     * @param index An index of the training columns, or null to scan them
+     * @param testValues The attribute values of the test point
+     * @param numNeighbors The number of neighbors to find
+     * @return The row indices of the closest training points, closest first
+     */
+    public static int[] nearestNeighbors(DataColumns trainingColumns, NeighborIndex index, double[] testValues,
+                                         int numNeighbors) {
+        int numRows = trainingColumns.numRows();
+        if(index == null || (numNeighbors >= numRows && !trainingColumns.isWeighted())) {
+            return nearestNeighbors(trainingColumns, testValues, numNeighbors);
+        }
+        return takeByWeight(trainingColumns, index.nearest(testValues, Math.min(numNeighbors, numRows)), numNeighbors);
+    }
+
+    /**
+     * Find every row of the training data within a distance of a test point
+     * @param trainingColumns The training data in columnar form
+     * @param index An index of the training columns, or null to scan them
+     * @param testValues The attribute values of the test point
+     * @param radius The largest distance of a row that is found
+     * @return The row indices of the training points within the radius, closest first
+     */
+    public static int[] neighborsWithinRadius(DataColumns trainingColumns, NeighborIndex index, double[] testValues,
+                                              double radius) {
+        if(index != null) {
+            return index.withinRadius(testValues, radius);
+        }
+        double[] distances = trainingColumns.distancesSquared(testValues, null);
+        NeighborList neighbors = NeighborList.withinRadius(radius);
+        for (int row = 0; row < trainingColumns.numRows(); row++) {
+            neighbors.offer(row, Math.sqrt(distances[row]));
+        }
+        return neighbors.rows();
     }
 
-    public static ArrayList<DataPoint> nearestNeighbors(ArrayList<DataPoint> trainingDataPoints, DataPoint testPoint, int numNeighbors) {
+    public static List<DataPoint> nearestNeighbors(List<DataPoint> trainingDataPoints, DataPoint testPoint, int numNeighbors) {
         if(numNeighbors >= trainingDataPoints.size())
             return trainingDataPoints;
         // start by finding the distances to each existing data point
@@ -100,14 +384,44 @@ public class KNN {
 
     }
 
-    public static int unweightedPrediction(ArrayList<DataPoint> closestPoints, int numClassifications) {
+    /**
+     * Let the nearest neighbors vote on a classification, each one vote unless the training data is weighted, when
+     * each votes its weight. The votes stop at numNeighbors, so the furthest neighbor may only get part of its weight
+     * @param trainingColumns The training data in columnar form
+     * @param closestRows The nearest neighbors, closest first
+     * @param numClassifications The number of possible classifications
+     * @param numNeighbors The number of votes in total
+     * @return The index of the classification with the most votes, ties go to the lowest index
+     */
+    public static int unweightedPrediction(DataColumns trainingColumns, int[] closestRows, int numClassifications,
+                                           int numNeighbors) {
+        double[] tallies = new double[numClassifications];
+        double votesLeft = numNeighbors;
+        // take a tally of the classifications
+        for(int row: closestRows) {
+            double votes = Math.min(trainingColumns.weight(row), votesLeft);
+            tallies[trainingColumns.classIndex(row)] += votes;
+            votesLeft -= votes;
+        }
+        return indexOfLargestWeight(tallies);
+    }
+
+    public static int unweightedPrediction(List<DataPoint> closestPoints, int numClassifications) {
         int[] tallies = new int[numClassifications];
         Arrays.fill(tallies, 0);
         // take a tally of the classifications
         for(DataPoint dataPoint: closestPoints) {
             tallies[dataPoint.classificationIndex] ++;
         }
-        // determine which classification is the most common
+        return indexOfLargestTally(tallies);
+    }
+
+    /**
+     * Determine which classification is the most common, ties go to the lowest index
+     * @param tallies The number of votes for each of the classifications
+     * @return The index of the classification with the most votes
+     */
+    private static int indexOfLargestTally(int[] tallies) {
         int maxTallyIndex = -1;
         int maxTallyCount = -1;
         for(int i = 0; i < tallies.length; i++) {
@@ -129,7 +443,26 @@ public class KNN {
         return 1 / (distance * distance);
     }
 
-    public static int weightedPrediction(ArrayList<DataPoint> dataPoints, DataPoint testPoint, int numClassifications) {
+    /**
+     * Let every training point vote on a classification, by the inverse of its squared distance from the test point
+     * (times its weight, if the training data is weighted)
+     * @param trainingColumns The training data in columnar form
+     * @param testValues The attribute values of the test point
+     * @param numClassifications The number of possible classifications
+     * @return The index of the classification with the most votes
+     */
+    public static int weightedPrediction(DataColumns trainingColumns, double[] testValues, int numClassifications) {
+        double[] weights = new double[numClassifications];
+        double[] distancesSquared = trainingColumns.distancesSquared(testValues, null);
+        for (int row = 0; row < trainingColumns.numRows(); row++) {
+            // for each point, increase the existing weight
+            weights[trainingColumns.classIndex(row)] += trainingColumns.weight(row)
+                    * convertDistanceToWeight(Math.sqrt(distancesSquared[row]));
+        }
+        return indexOfLargestWeight(weights);
+    }
+
+    public static int weightedPrediction(List<DataPoint> dataPoints, DataPoint testPoint, int numClassifications) {
         double[] weights = new double[numClassifications];
         Arrays.fill(weights, 0.0f);
         // create the array to hold the class counts
@@ -137,7 +470,15 @@ public class KNN {
             // for each point, increase the existing weight
             weights[dataPoint.classificationIndex] += convertDistanceToWeight(DataPoint.distance(dataPoint, testPoint));
         }
-        // determine which classification has the highest weight
+        return indexOfLargestWeight(weights);
+    }
+
+    /**
+     * Determine which classification has the highest weight
+     * @param weights The total weight of each of the classifications
+     * @return The index of the classification with the highest weight
+     */
+    private static int indexOfLargestWeight(double[] weights) {
         int maxWeightIndex = -1;
         double maxWeightValue = -1;
         for(int i = 0; i < weights.length; i++) {
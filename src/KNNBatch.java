@@ -0,0 +1,228 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds the nearest neighbors of a whole set of test points at once, on a ForkJoinPool. The test rows are split into
+ * one range per task, and each task works through its range a block of test rows at a time.
+ *
+ * Without an index, a block of test rows is compared with the training data one tile at a time. A tile is
+ * TRAINING_BLOCK_SIZE training rows against every test row of the block, added up an attribute at a time, so each
+ * piece of a training column is read once per block of test rows rather than once per test row, while it is still in
+ * cache. Each test row keeps its closest rows in its own bounded heap, and the heaps and tiles are scratch space that
+ * belongs to the task. Distances are added up in the same order as DataColumns.distanceSquared, so every test row gets
+ * exactly the neighbors KNN.nearestNeighbors finds, however many threads there are. With an index, or data the tiles
+ * can't be added up for the same as a scan (sparse or single precision), each test row is searched for on its own
+ */
+public class KNNBatch {
+    // the number of test rows compared with the training data together
+    static final int TEST_BLOCK_SIZE = 32;
+    // the number of training rows in a tile, small enough for a tile's distances to stay in cache
+    static final int TRAINING_BLOCK_SIZE = 256;
+    // the number of ranges of test rows per thread, so threads that finish early have more to take
+    static final int TASKS_PER_THREAD = 4;
+
+    final DataColumns trainingColumns;
+    int numNeighbors = 1;
+    NeighborIndex index = null;
+    int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param trainingColumns The normalized training data
+     */
+    public KNNBatch(DataColumns trainingColumns) {
+        this.trainingColumns = trainingColumns;
+    }
+
+    /**
+     * @param numNeighbors The number of neighbors of each test point, or 0 for predictions by weighted voting of every
+     *                     training point
+     * @return This batch
+     */
+    public KNNBatch numNeighbors(int numNeighbors) {
+        this.numNeighbors = numNeighbors;
+        return this;
+    }
+
+    /**
+     * @param index An index of the training data to search, or null to compare every test point with every training
+     *              point
+     * @return This batch
+     */
+    public KNNBatch index(NeighborIndex index) {
+        this.index = index;
+        return this;
+    }
+
+    /**
+     * @param parallelism The number of threads, 1 to find every test point's neighbors on the calling thread
+     * @return This batch
+     */
+    public KNNBatch parallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * @param testColumns The normalized test data
+     * @return The nearest neighbors of each test row, as KNN.nearestNeighbors gives them
+     */
+    public int[][] neighbors(DataColumns testColumns) {
+        if(numNeighbors <= 0) {
+            System.out.println("Error in KNNBatch: neighbors needs a number of neighbors, not " + numNeighbors);
+            System.exit(0);
+        }
+        int[][] neighbors = new int[testColumns.numRows()][];
+        run(testColumns, neighbors, null, 0);
+        return neighbors;
+    }
+
+    /**
+     * @param testColumns The normalized test data
+     * @param numClassifications The number of possible classifications
+     * @return The predicted classification index of each test row, by unweighted voting of its nearest neighbors, or
+     * with no number of neighbors, weighted voting of every training point
+     */
+    public int[] predictions(DataColumns testColumns, int numClassifications) {
+        int[] predictions = new int[testColumns.numRows()];
+        run(testColumns, null, predictions, numClassifications);
+        return predictions;
+    }
+
+    private void run(DataColumns testColumns, int[][] neighbors, int[] predictions, int numClassifications) {
+        int numTestRows = testColumns.numRows();
+        int numTasks = (int) Math.max(1, Math.min((long) parallelism * TASKS_PER_THREAD,
+                (numTestRows + TEST_BLOCK_SIZE - 1) / TEST_BLOCK_SIZE));
+        ArrayList<QueryTask> tasks = new ArrayList<>(numTasks);
+        for (int task = 0; task < numTasks; task++) {
+            tasks.add(new QueryTask(testColumns, (int) ((long) task * numTestRows / numTasks),
+                    (int) ((long) (task + 1) * numTestRows / numTasks), neighbors, predictions, numClassifications));
+        }
+        if(parallelism == 1) {
+            for(QueryTask task: tasks) {
+                task.compute();
+            }
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, numTasks));
+        try {
+            for(QueryTask task: tasks) {
+                pool.execute(task);
+            }
+            for(QueryTask task: tasks) {
+                task.join();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return True if tiles give the same distances as a scan of the training data
+     */
+    private boolean tiled() {
+        return index == null && !trainingColumns.isSparse() && !trainingColumns.isSinglePrecision()
+                && !(numNeighbors >= trainingColumns.numRows() && !trainingColumns.isWeighted());
+    }
+
+    /**
+     * Finds the neighbors of one range of test rows, writing each row's neighbors or prediction into the shared
+     * arrays, which no other task writes the same part of
+     */
+    private class QueryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final DataColumns testColumns;
+        final int fromRow;
+        final int toRow;
+        final int[][] neighbors;
+        final int[] predictions;
+        final int numClassifications;
+
+        QueryTask(DataColumns testColumns, int fromRow, int toRow, int[][] neighbors, int[] predictions,
+                  int numClassifications) {
+            this.testColumns = testColumns;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.neighbors = neighbors;
+            this.predictions = predictions;
+            this.numClassifications = numClassifications;
+        }
+
+        @Override
+        protected void compute() {
+            int numAttributes = trainingColumns.numAttributes();
+            boolean tiled = tiled();
+            // scratch space, reused for every block of this task's test rows
+            double[][] testValues = new double[TEST_BLOCK_SIZE][numAttributes];
+            double[][] tile = tiled ? new double[TEST_BLOCK_SIZE][TRAINING_BLOCK_SIZE] : null;
+            double[] trainingBlock = tiled ? new double[TRAINING_BLOCK_SIZE] : null;
+            NeighborList[] heaps = new NeighborList[TEST_BLOCK_SIZE];
+            for (int blockStart = fromRow; blockStart < toRow; blockStart += TEST_BLOCK_SIZE) {
+                int blockSize = Math.min(TEST_BLOCK_SIZE, toRow - blockStart);
+                for (int i = 0; i < blockSize; i++) {
+                    testValues[i] = testColumns.copyRow(blockStart + i, testValues[i]);
+                }
+                if(numNeighbors <= 0) {
+                    for (int i = 0; i < blockSize; i++) {
+                        predictions[blockStart + i] = KNN.weightedPrediction(trainingColumns, testValues[i],
+                                numClassifications);
+                    }
+                    continue;
+                }
+                if(tiled) {
+                    compareTiles(testValues, blockSize, tile, trainingBlock, heaps);
+                }
+                for (int i = 0; i < blockSize; i++) {
+                    int[] closestRows = tiled
+                            ? KNN.takeByWeight(trainingColumns, heaps[i].rows(), numNeighbors)
+                            : KNN.nearestNeighbors(trainingColumns, index, testValues[i], numNeighbors);
+                    if(neighbors != null) {
+                        neighbors[blockStart + i] = closestRows;
+                    }
+                    else {
+                        predictions[blockStart + i] = KNN.unweightedPrediction(trainingColumns, closestRows,
+                                numClassifications, numNeighbors);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Offer every training row to the heap of each test row of a block, a tile at a time
+         */
+        private void compareTiles(double[][] testValues, int blockSize, double[][] tile, double[] trainingBlock,
+                                  NeighborList[] heaps) {
+            int numTrainingRows = trainingColumns.numRows();
+            for (int i = 0; i < blockSize; i++) {
+                heaps[i] = NeighborList.nearestBySquaredDistance(Math.min(numNeighbors, numTrainingRows));
+            }
+            for (int tileStart = 0; tileStart < numTrainingRows; tileStart += TRAINING_BLOCK_SIZE) {
+                int tileEnd = Math.min(tileStart + TRAINING_BLOCK_SIZE, numTrainingRows);
+                int tileSize = tileEnd - tileStart;
+                for (int i = 0; i < blockSize; i++) {
+                    Arrays.fill(tile[i], 0, tileSize, 0);
+                }
+                for (int att = 0; att < trainingColumns.numAttributes(); att++) {
+                    // read through columnBlock, since subclasses may not keep their values in the shared arrays
+                    double[] column = trainingColumns.columnBlock(att, tileStart, tileEnd, trainingBlock);
+                    for (int i = 0; i < blockSize; i++) {
+                        VectorKernels.addSquaredDifferences(column, testValues[i][att], tile[i], tileSize);
+                    }
+                }
+                for (int i = 0; i < blockSize; i++) {
+                    NeighborList heap = heaps[i];
+                    double[] distances = tile[i];
+                    for (int row = 0; row < tileSize; row++) {
+                        heap.offer(tileStart + row, distances[row]);
+                    }
+                }
+            }
+        }
+    }
+
+    public String toString() {
+        return "KNNBatch - " + numNeighbors + " neighbors, " + trainingColumns.numRows() + " training rows, "
+                + (index == null ? "no index" : index.toString()) + ", " + parallelism + " threads";
+    }
+}
@@ -0,0 +1,78 @@
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the batch finds exactly the neighbors, and makes exactly the predictions, that KNN does one test point
+ * at a time, on one thread and on several
+ */
+public class KNNBatchTest {
+    public static final int NUM_CLASSIFICATIONS = 3;
+
+    private static void assertSameAsKNN(DataColumns training, NeighborIndex index, DataColumns test) {
+        int[] numNeighbors = {1, 5, 20};
+        int[] parallelisms = {1, 4};
+        for(int k: numNeighbors) {
+            for(int parallelism: parallelisms) {
+                KNNBatch batch = new KNNBatch(training).numNeighbors(k).index(index).parallelism(parallelism);
+                int[][] neighbors = batch.neighbors(test);
+                int[] predictions = batch.predictions(test, NUM_CLASSIFICATIONS);
+                assertEquals(test.numRows(), neighbors.length);
+                double[] values = null;
+                for (int row = 0; row < test.numRows(); row++) {
+                    values = test.copyRow(row, values);
+                    int[] expected = KNN.nearestNeighbors(training, index, values, k);
+                    assertArrayEquals(expected, neighbors[row]);
+                    assertEquals(KNN.unweightedPrediction(training, expected, NUM_CLASSIFICATIONS, k),
+                            predictions[row]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testScanMatchesKNN() throws Exception {
+        // enough rows for several blocks of test rows and tiles of training rows, neither a whole number of blocks
+        DataColumns training = TestColumns.gaussian(1000, 6, NUM_CLASSIFICATIONS, 1);
+        DataColumns test = TestColumns.gaussian(150, 6, NUM_CLASSIFICATIONS, 2);
+        assertSameAsKNN(training, null, test);
+    }
+
+    @Test
+    public void testTiesMatchKNN() throws Exception {
+        DataColumns training = TestColumns.grid(700, 3, 4, NUM_CLASSIFICATIONS, 3);
+        DataColumns test = TestColumns.grid(90, 3, 4, NUM_CLASSIFICATIONS, 4);
+        assertSameAsKNN(training, null, test);
+        // grid data is compressed when compacted, and scanned a block at a time
+        DataColumns compressed = DataColumns.compact(training);
+        assertTrue(compressed instanceof CompressedColumns);
+        assertSameAsKNN(compressed, null, test);
+    }
+
+    @Test
+    public void testWeightedAndIndexedMatchKNN() throws Exception {
+        DataColumns training = TestColumns.gaussian(600, 3, NUM_CLASSIFICATIONS, 5);
+        DataColumns test = TestColumns.gaussian(70, 3, NUM_CLASSIFICATIONS, 6);
+        double[] rowWeights = new double[training.numRows()];
+        for (int row = 0; row < rowWeights.length; row++) {
+            rowWeights[row] = 1 + row % 3;
+        }
+        assertSameAsKNN(training.weighted(new SampleWeights(rowWeights, null)), null, test);
+        assertSameAsKNN(training, new KDTree(training), test);
+    }
+
+    @Test
+    public void testWeightedVotingMatchesKNN() throws Exception {
+        DataColumns training = TestColumns.gaussian(500, 4, NUM_CLASSIFICATIONS, 7);
+        DataColumns test = TestColumns.gaussian(80, 4, NUM_CLASSIFICATIONS, 8);
+        int[] parallelisms = {1, 4};
+        for(int parallelism: parallelisms) {
+            int[] predictions = new KNNBatch(training).numNeighbors(0).parallelism(parallelism)
+                    .predictions(test, NUM_CLASSIFICATIONS);
+            for (int row = 0; row < test.numRows(); row++) {
+                assertEquals(KNN.weightedPrediction(training, test.copyRow(row, null), NUM_CLASSIFICATIONS),
+                        predictions[row]);
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * A distance between two points, for indexes such as VPTree that only need to measure distances. A metric must be
+ * symmetric and satisfy the triangle inequality, which is what lets an index skip rows
+ */
+interface Metric {
+    /**
+     * @param first The values of one point
+     * @param second The values of the other point
+     * @param length The number of values of each point
+     * @return The distance between the points
+     */
+    double distance(double[] first, double[] second, int length);
+
+    /**
+     * The square root of the sum of squared differences, added up attribute by attribute like
+     * DataColumns.distanceSquared
+     */
+    Metric EUCLIDEAN = new Metric() {
+        @Override
+        public double distance(double[] first, double[] second, int length) {
+            return Math.sqrt(VectorKernels.distanceSquared(first, second, length));
+        }
+
+        public String toString() {
+            return "euclidean";
+        }
+    };
+
+    /**
+     * The sum of absolute differences
+     */
+    Metric MANHATTAN = new Metric() {
+        @Override
+        public double distance(double[] first, double[] second, int length) {
+            double sum = 0;
+            for (int i = 0; i < length; i++) {
+                sum += Math.abs(first[i] - second[i]);
+            }
+            return sum;
+        }
+
+        public String toString() {
+            return "manhattan";
+        }
+    };
+}
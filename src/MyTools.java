@@ -84,6 +84,43 @@ public class MyTools {
         return Math.round(num * powerOfTen) / powerOfTen;
     }
 
+    /**
+     * Show a count that may be weighted - whole numbers without a decimal point, anything else rounded
+     * @param count The count or total weight
+     * @return A human readable string
+     */
+    public static String countToString(double count) {
+        if(count == Math.rint(count)) {
+            return "" + (long) count;
+        }
+        return "" + roundTo(count, 2);
+    }
+
+    // coefficients of the Lanczos approximation with g = 7
+    private static final double[] LANCZOS = {0.99999999999980993, 676.5203681218851, -1259.1392167224028,
+            771.32342877765313, -176.61502916214059, 12.507343278686905, -0.13857109526572012,
+            9.9843695780195716e-6, 1.5056327351493116e-7};
+
+    /**
+     * The natural log of the gamma function, which extends ln((num - 1)!) to numbers that aren't whole (such as
+     * weighted counts)
+     * @param num A positive number
+     * @return ln(gamma(num))
+     */
+    public static double logGamma(double num) {
+        if(num < 0.5) {
+            // reflection formula
+            return Math.log(Math.PI / Math.abs(Math.sin(Math.PI * num))) - logGamma(1 - num);
+        }
+        num -= 1;
+        double sum = LANCZOS[0];
+        for (int i = 1; i < LANCZOS.length; i++) {
+            sum += LANCZOS[i] / (num + i);
+        }
+        double t = num + LANCZOS.length - 1.5;
+        return 0.5 * Math.log(2 * Math.PI) + (num + 0.5) * Math.log(t) - t + Math.log(sum);
+    }
+
 
     /**
      * Create a string make the confusion matrix human readable
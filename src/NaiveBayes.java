@@ -1,5 +1,6 @@
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Naive Bayes implementation using Bins
@@ -8,6 +9,9 @@ public class NaiveBayes {
     public static void main(String[] args) {
         boolean verbose = false;
         boolean rescaleData = false;
+        boolean streamData = false;
+        boolean offHeap = false;
+        boolean collapseDuplicates = false;
         double mEstimator = 1000;
         int numBins = 10;
         final String helpString = "\nUsage: ./NaiveBayes.sh trainingData.csv testData.csv <optional arguments>\n\n" +
@@ -20,7 +24,13 @@ public class NaiveBayes {
                 "\t-m NUM\n" +
                 "\t\tspecify an m-Estimator (default 1000)\n" +
                 "\t-r\n" +
-                "\t\tRescale probabilities so more frequent observations aren't favored\n";
+                "\t\tRescale probabilities so more frequent observations aren't favored\n" +
+                "\t-stream\n" +
+                "\t\tRead the data files a row at a time instead of loading them into memory\n" +
+                "\t-offHeap\n" +
+                "\t\tKeep the training data outside the Java heap (binary data files are mapped rather than copied)\n" +
+                "\t-collapse\n" +
+                "\t\tMerge duplicate training rows into one row weighted by its number of copies\n";
         if (args.length < 2) {
             System.out.println(helpString);
             System.exit(1);
@@ -46,6 +56,15 @@ public class NaiveBayes {
                         System.out.println("Rescaling the data so that more frequent observations are not favored");
                         rescaleData = true;
                         break;
+                    case "-stream":
+                        streamData = true;
+                        break;
+                    case "-offHeap":
+                        offHeap = true;
+                        break;
+                    case "-collapse":
+                        collapseDuplicates = true;
+                        break;
                     case "-h":
                     case "-help":
                         System.out.println(helpString);
@@ -62,15 +81,24 @@ public class NaiveBayes {
         }
         System.out.println("Using " + numBins + " bins");
         System.out.println("Using an m-Estimator of " + mEstimator);
+        if(streamData) {
+            naiveBayesStreaming(args[0], args[1], numBins, verbose, rescaleData, mEstimator);
+            return;
+        }
         Data trainingData = new Data();
+        trainingData.setOffHeap(offHeap);
         FileIO.readFromFile(args[0], trainingData);
 
         Data testData = new Data(trainingData.attributeNames, trainingData.classifications);
         FileIO.readFromFile(args[1], testData);
 
         for (int i = 0; i < trainingData.classifications.size(); i++) {
-            System.out.println(trainingData.classifications.get(i) + ": " + trainingData.classificationCounts.get(i) +
-                    ", " + testData.classifications.get(i) + ": " + testData.classificationCounts.get(i));
+            System.out.println(trainingData.classifications.get(i) + ": " + trainingData.classificationCount(i) +
+                    ", " + testData.classifications.get(i) + ": " + testData.classificationCount(i));
+        }
+        if(collapseDuplicates) {
+            int numRemoved = trainingData.collapseDuplicates();
+            System.out.println("Collapsed " + numRemoved + " duplicate rows, leaving " + trainingData.numRows() + " unique rows");
         }
         naiveBayes(trainingData, testData, numBins, verbose, rescaleData, mEstimator);
     }
@@ -79,8 +107,8 @@ public class NaiveBayes {
 
         BinInfo binInfo = new BinInfo(trainingData.minValues, trainingData.maxValues, numBins);
 
-        // find the number of times each classification has an item in each bin
-        int[][][] binCounts = binInfo.findBinCounts(trainingData);
+        // find the number of times (or total weight) each classification has an item in each bin
+        double[][][] binCounts = binInfo.findBinCounts(trainingData);
 
         // output some information if verbose is on
         if(verbose) {
@@ -94,7 +122,7 @@ public class NaiveBayes {
                 for (int classIndex = 0; classIndex < trainingData.classifications.size(); classIndex++) {
                     System.out.print(MyTools.leftPad(trainingData.classifications.get(classIndex) + ": ", 9));
                     for (int binIndex = 0; binIndex < numBins; binIndex++) {
-                        System.out.print(MyTools.leftPad("" + binCounts[classIndex][attIndex][binIndex], 3) + " ");
+                        System.out.print(MyTools.leftPad(MyTools.countToString(binCounts[classIndex][attIndex][binIndex]), 3) + " ");
                     }
                     System.out.println();
                 }
@@ -107,9 +135,9 @@ public class NaiveBayes {
         int numPointsTested = 0;
         int numPredictionsCorrect = 0;
 
-        Integer[] proportionAdjustment = new Integer[trainingData.classifications.size()];
+        double[] proportionAdjustment = new double[trainingData.classifications.size()];
         if(rescaleData) {
-            proportionAdjustment = trainingData.classificationCounts.toArray(proportionAdjustment);
+            proportionAdjustment = trainingData.columns().classWeights(proportionAdjustment.length);
         }
         else {
             Arrays.fill(proportionAdjustment, 1);
@@ -136,7 +164,142 @@ public class NaiveBayes {
 
     }
 
-    public static int[][][] findBinCounts(ArrayList<DataPoint> dataPoints, int numClassifications, int numAttributes, int numBins) {
+    /**
+     * Naive Bayes on data that is read a row at a time, so neither file needs to fit in memory. The training file is
+     * read twice - once to find the extremes of each attribute, then again to fill the bins
+     */
+    public static void naiveBayesStreaming(String trainingFileName, String testFileName, int numBins, boolean verbose,
+                                           boolean rescaleData, double mEstimator) {
+        ArrayList<String> classifications = new ArrayList<>();
+
+        // first pass: extremes and class counts
+        CsvRowSource trainingRows = CsvRowSource.open(trainingFileName, classifications);
+        int numAttributes = trainingRows.attributeNames.length - 1;
+        ColumnStats stats = new ColumnStats(numAttributes);
+        for(CsvRowSource.Row row: trainingRows) {
+            stats.add(row.values, row.classificationIndex);
+        }
+        closeQuietly(trainingRows);
+        // the extremes start from MAX_VALUE and MIN_VALUE, as Data.determineExtremes does
+        Double[] minValues = new Double[numAttributes];
+        Double[] maxValues = new Double[numAttributes];
+        for (int i = 0; i < numAttributes; i++) {
+            minValues[i] = Math.min(Double.MAX_VALUE, stats.min(i));
+            maxValues[i] = Math.max(Double.MIN_VALUE, stats.max(i));
+        }
+
+        // second pass: fill the bins
+        BinInfo binInfo = new BinInfo(minValues, maxValues, numBins);
+        double[][][] binCounts = new double[classifications.size()][numAttributes][numBins];
+        trainingRows = CsvRowSource.open(trainingFileName, classifications);
+        for(CsvRowSource.Row row: trainingRows) {
+            binInfo.addToBinCounts(binCounts, row.values, row.classificationIndex);
+        }
+        closeQuietly(trainingRows);
+
+        double[] proportionAdjustment = new double[classifications.size()];
+        if(rescaleData) {
+            for (int i = 0; i < proportionAdjustment.length; i++) {
+                proportionAdjustment[i] = stats.classCount(i);
+            }
+        }
+        else {
+            Arrays.fill(proportionAdjustment, 1);
+        }
+
+        int numPointsTested = 0;
+        int numPredictionsCorrect = 0;
+        CsvRowSource testRows = CsvRowSource.open(testFileName, new ArrayList<>(classifications));
+        for(CsvRowSource.Row row: testRows) {
+            int predictedClassIndex = binInfo.predictedClass(row.values, binCounts, mEstimator, proportionAdjustment);
+            if(row.classificationIndex == predictedClassIndex) {
+                numPredictionsCorrect++;
+            }
+            else if(verbose) {
+                System.out.println("Item wrongly classified as " + classifications.get(predictedClassIndex)
+                        + " (" + row.toDataPoint().toString() + ": " + testRows.classifications.get(row.classificationIndex) + ")");
+            }
+            numPointsTested++;
+        }
+        closeQuietly(testRows);
+        System.out.println("Correct predictions: " + numPredictionsCorrect + " out of " + numPointsTested +
+                " for an accuracy of " + ((double)numPredictionsCorrect/numPointsTested*100) + "%");
+    }
+
+    private static void closeQuietly(CsvRowSource rows) {
+        try {
+            rows.close();
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Count the points of each class in each bin of data whose values are already bin indices. If the data is weighted,
+     * each point counts for its weight
+     * @param columns The binned data
+     * @param numClassifications The number of possible classifications
+     * @param numBins The number of bins of each attribute
+     * @return A 3d array indexed by class number, attribute number, then bin number
+     */
+    public static double[][][] findBinCounts(DataColumns columns, int numClassifications, int numBins) {
+        if(columns.isSparse()) {
+            return findSparseBinCounts(columns, numClassifications, numBins, null);
+        }
+        double[][][] binCounts = new double[numClassifications][columns.numAttributes()][numBins];
+        double[] block = null;
+        for (int attIndex = 0; attIndex < columns.numAttributes(); attIndex++) {
+            for (int fromRow = 0; fromRow < columns.numRows(); fromRow += DataColumns.BLOCK_SIZE) {
+                int toRow = Math.min(fromRow + DataColumns.BLOCK_SIZE, columns.numRows());
+                block = columns.columnBlock(attIndex, fromRow, toRow, block);
+                for (int row = fromRow; row < toRow; row++) {
+                    binCounts[columns.classIndex(row)][attIndex][(int) block[row - fromRow]] += columns.weight(row);
+                }
+            }
+        }
+        return binCounts;
+    }
+
+    /**
+     * Count the points of each class in each bin of sparse data without visiting its zeros. Every row starts out in
+     * the bin of zero for every attribute, then each non-zero value moves the row's weight from there to the value's
+     * own bin
+     * @param columns The sparse data
+     * @param numClassifications The number of possible classifications
+     * @param numBins The number of bins of each attribute
+     * @param binning The binning of the values, or null if the values already are bin indices
+     * @return A 3d array indexed by class number, attribute number, then bin number
+     */
+    static double[][][] findSparseBinCounts(DataColumns columns, int numClassifications, int numBins, FeaturePipeline binning) {
+        int numAttributes = columns.numAttributes();
+        double[][][] binCounts = new double[numClassifications][numAttributes][numBins];
+        int[] zeroBins = new int[numAttributes];
+        for (int attIndex = 0; attIndex < numAttributes; attIndex++) {
+            zeroBins[attIndex] = binning == null ? 0 : (int) binning.apply(attIndex, 0);
+        }
+        double[] classWeights = columns.classWeights(numClassifications);
+        for (int classIndex = 0; classIndex < numClassifications; classIndex++) {
+            for (int attIndex = 0; attIndex < numAttributes; attIndex++) {
+                binCounts[classIndex][attIndex][zeroBins[attIndex]] = classWeights[classIndex];
+            }
+        }
+        for (int row = 0; row < columns.numRows(); row++) {
+            SparseRow sparseRow = columns.sparseRow(row);
+            int classIndex = columns.classIndex(row);
+            double weight = columns.weight(row);
+            for (int i = 0; i < sparseRow.indices.length; i++) {
+                int attIndex = sparseRow.indices[i];
+                double value = sparseRow.values[i];
+                int binIndex = binning == null ? (int) value : (int) binning.apply(attIndex, value);
+                binCounts[classIndex][attIndex][zeroBins[attIndex]] -= weight;
+                binCounts[classIndex][attIndex][binIndex] += weight;
+            }
+        }
+        return binCounts;
+    }
+
+    public static int[][][] findBinCounts(List<DataPoint> dataPoints, int numClassifications, int numAttributes, int numBins) {
         int[][][] binCounts = new int[numClassifications][numAttributes][numBins];
 
         // fill the bins with zeros
@@ -164,6 +327,8 @@ public class NaiveBayes {
         public Double[] binSizes;
         public Integer numBins;
         final Integer numAttributes;
+        // the binning itself, so that training and test values are binned in exactly the same way
+        final FeaturePipeline binning;
 
         public BinInfo (Double[] minValues, Double[] maxValues, int numBins) {
             // ensuring nothing strange got passed in
@@ -186,6 +351,7 @@ public class NaiveBayes {
             for (int i = 0; i < numAttributes; i++) {
                 binSizes[i] = (maxValues[i] - minValues[i]) / numBins;
             }
+            binning = new FeaturePipeline(minValues, maxValues).bin(numBins);
         }
 
         /**
@@ -196,27 +362,29 @@ public class NaiveBayes {
         public Integer[] findBinIndices(DataPoint dataPoint) {
             Integer[] binIndices = new Integer[numAttributes];
             for (int i = 0; i < numAttributes; i++) {
-                // calculate which bin the datapoint should be in
-                int currentIndex = (int) ((dataPoint.attributes[i].minus(minValues[i])) / binSizes[i]);
-                // ensure the index is in the correct range
-                if(currentIndex < 0) {
-                    currentIndex = 0;
-                }
-                else if(currentIndex > numBins - 1) {
-                    currentIndex = numBins- 1;
-                }
-                binIndices[i] = currentIndex;
+                binIndices[i] = findBinIndex(i, dataPoint.attributes[i].getDouble());
             }
             return binIndices;
         }
 
         /**
-         * Determine the number of dataPoints of each class are in each bin
+         * Determine which bin a single value falls in
+         * @param attIndex The attribute the value belongs to
+         * @param value The value to be binned
+         * @return The index of the bin
+         */
+        public int findBinIndex(int attIndex, double value) {
+            return (int) binning.apply(attIndex, value);
+        }
+
+        /**
+         * Determine the number of dataPoints of each class are in each bin. If the data is weighted, each point counts
+         * for its weight
          * @param data The training data
-         * @return An 3d integer array indexed by class number, attribute number, then bin number
+         * @return An 3d array indexed by class number, attribute number, then bin number
          */
-        public int[][][] findBinCounts(Data data) {
-            int[][][] binCounts = new int[data.classifications.size()][numAttributes][numBins];
+        public double[][][] findBinCounts(Data data) {
+            double[][][] binCounts = new double[data.classifications.size()][numAttributes][numBins];
 
             // start by filling all of the bins with zeros
             for (int classIndex = 0; classIndex < data.classifications.size(); classIndex++) {
@@ -226,28 +394,52 @@ public class NaiveBayes {
                 }
             }
 
-            // for each dataPoint, determine which bin it goes into, then increment the count for that bin
-            for(DataPoint dataPoint: data.dataPoints) {
-                Integer[] binIndices = findBinIndices(dataPoint);
-                for (int attIndex = 0; attIndex < numAttributes; attIndex++) {
-                    // binIndices[i] contains the index of the bin for attribute i
-                    binCounts[dataPoint.classificationIndex][attIndex][binIndices[attIndex]]++;
+            if(data.columns().isSparse()) {
+                return findSparseBinCounts(data.columns(), data.classifications.size(), numBins, binning);
+            }
+
+            // working one attribute at a time, determine which bin each value goes into, then increment the count for that bin
+            // (the binning is applied as the columns are read)
+            DataColumns columns = binning.transform(data.columns());
+            double[] block = null;
+            for (int attIndex = 0; attIndex < numAttributes; attIndex++) {
+                for (int fromRow = 0; fromRow < columns.numRows(); fromRow += DataColumns.BLOCK_SIZE) {
+                    int toRow = Math.min(fromRow + DataColumns.BLOCK_SIZE, columns.numRows());
+                    block = columns.columnBlock(attIndex, fromRow, toRow, block);
+                    for (int row = fromRow; row < toRow; row++) {
+                        binCounts[columns.classIndex(row)][attIndex][(int) block[row - fromRow]] += columns.weight(row);
+                    }
                 }
             }
             return binCounts;
         }
 
 
+        /**
+         * Add a single point to the bin counts, used when the training data is read a row at a time
+         * @param binCounts The 3d array indexed by class, attribute, bin
+         * @param values The values of the point
+         * @param classIndex The classification of the point
+         */
+        public void addToBinCounts(double[][][] binCounts, double[] values, int classIndex) {
+            for (int attIndex = 0; attIndex < numAttributes; attIndex++) {
+                binCounts[classIndex][attIndex][findBinIndex(attIndex, values[attIndex])]++;
+            }
+        }
+
         /**
          * Predict the class of test point after training
          * @param testPoint The dataPoint to predict the class
-         * @param binCounts The 3d integer array indexed by class, attribute, bin formed when training
+         * @param binCounts The 3d array indexed by class, attribute, bin formed when training
          * @param mEstimator A value to use as an m-estimator
-         * @param dataPointsPerClass number of datapoints in each of the classes, used to adjust the weight the counts
+         * @param dataPointsPerClass number (or total weight) of datapoints in each of the classes, used to adjust the
+         *                           weight the counts
          * @return The index of the predicted class
          */
-        public int predictedClass(DataPoint testPoint, int[][][] binCounts, double mEstimator, Integer[] dataPointsPerClass) {
-            Integer[] binIndices = findBinIndices(testPoint);
+        public int predictedClass(DataPoint testPoint, double[][][] binCounts, double mEstimator, double[] dataPointsPerClass) {
+            return predictedClass(DataColumns.toPrimitive(testPoint.attributes), binCounts, mEstimator, dataPointsPerClass);
+        }
+        public int predictedClass(double[] testValues, double[][][] binCounts, double mEstimator, double[] dataPointsPerClass) {
             int numClasses = binCounts.length;
 
 
@@ -259,13 +451,13 @@ public class NaiveBayes {
             }
             int mTimesP = mEstimator == 0 ? 0: 1; // decide if we are adding 0 or 1 to the numerator
             for (int attIndex = 0; attIndex < numAttributes; attIndex++) {
-                int binIndex = binIndices[attIndex];
-                int totalInBin = 0;
+                int binIndex = findBinIndex(attIndex, testValues[attIndex]);
+                double totalInBin = 0;
                 for (int classIndex = 0; classIndex < numClasses; classIndex++) {
                     totalInBin += binCounts[classIndex][attIndex][binIndex];
                 }
                 for (int classIndex = 0; classIndex < numClasses; classIndex++) {
-                    double prob = ((double)binCounts[classIndex][attIndex][binIndex] + mTimesP) / (totalInBin + mEstimator);
+                    double prob = (binCounts[classIndex][attIndex][binIndex] + mTimesP) / (totalInBin + mEstimator);
                     probabilityProduct[classIndex] *= prob;
                 }
             }
@@ -0,0 +1,22 @@
+/**
+ * An index of training rows that finds the rows near a point without measuring the distance to every row. The trees
+ * give exactly the rows a scan of every distance would, and an approximate index such as HNSW may miss some of them.
+ * Either way the rows are ordered by distance and then by row index, and an index is never changed by a search, so any
+ * number of threads can search one at once
+ */
+interface NeighborIndex {
+    /**
+     * @param values The attribute values of the point
+     * @param numNeighbors The number of rows to find
+     * @return The row indices (in the columns the index was built from) of the closest rows, closest first. Fewer than
+     * numNeighbors if the index doesn't have that many rows at a finite distance
+     */
+    int[] nearest(double[] values, int numNeighbors);
+
+    /**
+     * @param values The attribute values of the point
+     * @param radius The largest distance of a row that is found
+     * @return The row indices of every row within the radius of the point, closest first
+     */
+    int[] withinRadius(double[] values, double radius);
+}
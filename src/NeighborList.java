@@ -0,0 +1,213 @@
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The rows found so far by a search for neighbors, either the closest numNeighbors rows or every row within a radius.
+ * Rows are ordered by distance and then by row index, which is the order a scan of the distances picks them in, so
+ * searches that can skip rows still give exactly the rows of a scan. Distances that aren't numbers (or are too large
+ * for a scan to pick) are never kept.
+ *
+ * The closest rows are kept in a max-heap with the furthest of them at the top, so a row that isn't closer than that
+ * is turned away with one comparison. A scan can offer squared distances instead, so it never takes a square root:
+ * squared distances are ordered as their square roots would be, which only differs from ordering the squares when two
+ * of them are a rounding error apart and have the same square root
+ */
+final class NeighborList {
+    // two squared distances further apart than this fraction of the larger of them have different square roots
+    private static final double SQUARE_ROOT_TIE = 1e-15;
+
+    // the most rows kept, or -1 when every row within the radius is kept
+    private final int capacity;
+    private final double radius;
+    // true if the distances offered are squared
+    private final boolean squared;
+    // a max-heap of the rows and their distances while there's a capacity, otherwise in the order they were offered
+    private int[] rows;
+    private double[] distances;
+    private int size = 0;
+
+    private NeighborList(int capacity, double radius, boolean squared) {
+        this.capacity = capacity;
+        this.radius = radius;
+        this.squared = squared;
+        int length = capacity >= 0 ? capacity : 16;
+        rows = new int[length];
+        distances = new double[length];
+    }
+
+    /**
+     * @param numNeighbors The number of rows to keep
+     * @return A list that keeps the closest numNeighbors rows offered to it
+     */
+    static NeighborList nearest(int numNeighbors) {
+        return new NeighborList(numNeighbors, Double.POSITIVE_INFINITY, false);
+    }
+
+    /**
+     * @param numNeighbors The number of rows to keep
+     * @return A list that keeps the closest numNeighbors rows offered to it, which are offered with their squared
+     * distances
+     */
+    static NeighborList nearestBySquaredDistance(int numNeighbors) {
+        return new NeighborList(numNeighbors, Double.POSITIVE_INFINITY, true);
+    }
+
+    /**
+     * @param radius The largest distance kept
+     * @return A list that keeps every row offered to it at no more than the radius
+     */
+    static NeighborList withinRadius(double radius) {
+        return new NeighborList(-1, radius, false);
+    }
+
+    /**
+     * @return The distance (squared, if distances are offered squared) beyond which a row can't be kept: the radius,
+     * or the distance of the furthest of the closest rows once there are numNeighbors of them
+     */
+    double bound() {
+        if(capacity >= 0 && size == capacity) {
+            return capacity == 0 ? Double.NEGATIVE_INFINITY : distances[0];
+        }
+        return radius;
+    }
+
+    /**
+     * @param lowerBound The smallest distance (squared, if distances are offered squared) any of a group of rows can
+     *                   have
+     * @return True if none of the rows could be kept. A row exactly as far as the furthest of the closest rows could
+     * still win its tie, so only groups strictly further away are skipped
+     */
+    boolean canSkip(double lowerBound) {
+        return lowerBound > limit();
+    }
+
+    /**
+     * @return A distance (squared, if distances are offered squared) that no row that could be kept is further than
+     */
+    double limit() {
+        double bound = bound();
+        return squared ? bound + 2 * SQUARE_ROOT_TIE * bound : bound;
+    }
+
+    /**
+     * @return A squared distance that no row that could be kept is further than the square root of, whether or not
+     * distances are offered squared. Searches can stop adding up a row's squared distance once it passes this
+     */
+    double squaredLimit() {
+        if(squared) return limit();
+        double bound = bound();
+        if(!(bound >= 0)) return bound;
+        // the margin covers the rounding of the square and of the square root of the row's distance
+        return bound * bound + 2 * SQUARE_ROOT_TIE * bound * bound;
+    }
+
+    /**
+     * @param lowerBound The smallest squared distance any of a group of rows can have
+     * @return True if none of the rows could be kept
+     */
+    boolean canSkipSquared(double lowerBound) {
+        return lowerBound > squaredLimit();
+    }
+
+    /**
+     * Keep a row if it is close enough
+     * @param row The row index
+     * @param distanceSquared The row's squared distance, which is only square rooted if distances aren't offered
+     *                        squared
+     */
+    void offerSquared(int row, double distanceSquared) {
+        offer(row, squared ? distanceSquared : Math.sqrt(distanceSquared));
+    }
+
+    /**
+     * Keep a row if it is close enough
+     * @param row The row index
+     * @param distance The row's distance, squared if distances are offered squared
+     */
+    void offer(int row, double distance) {
+        // NaN fails this too
+        if(!(distance < (squared ? Double.POSITIVE_INFINITY : Double.MAX_VALUE))) return;
+        if(capacity < 0) {
+            if(distance > radius) return;
+            if(size == rows.length) {
+                rows = Arrays.copyOf(rows, 2 * size);
+                distances = Arrays.copyOf(distances, 2 * size);
+            }
+            rows[size] = row;
+            distances[size++] = distance;
+            return;
+        }
+        if(size < capacity) {
+            // add to the bottom of the heap and move up past any closer rows
+            int position = size++;
+            while(position > 0) {
+                int parent = (position - 1) >>> 1;
+                if(!closer(distances[parent], rows[parent], distance, row)) break;
+                rows[position] = rows[parent];
+                distances[position] = distances[parent];
+                position = parent;
+            }
+            rows[position] = row;
+            distances[position] = distance;
+            return;
+        }
+        if(capacity == 0 || !closer(distance, row, distances[0], rows[0])) return;
+        // replace the furthest row and move down past any further rows
+        int position = 0;
+        while(true) {
+            int child = 2 * position + 1;
+            if(child >= size) break;
+            if(child + 1 < size && closer(distances[child], rows[child], distances[child + 1], rows[child + 1])) {
+                child++;
+            }
+            if(!closer(distance, row, distances[child], rows[child])) break;
+            rows[position] = rows[child];
+            distances[position] = distances[child];
+            position = child;
+        }
+        rows[position] = row;
+        distances[position] = distance;
+    }
+
+    /**
+     * @return True if the first row comes before the second, by distance and then by row index
+     */
+    private boolean closer(double distance, int row, double otherDistance, int otherRow) {
+        if(distance != otherDistance) {
+            if(!squared) return distance < otherDistance;
+            if(distance < otherDistance - SQUARE_ROOT_TIE * otherDistance) return true;
+            if(otherDistance < distance - SQUARE_ROOT_TIE * distance) return false;
+            // close enough that the square roots may be the same
+            double root = Math.sqrt(distance);
+            double otherRoot = Math.sqrt(otherDistance);
+            if(root != otherRoot) return root < otherRoot;
+        }
+        return row < otherRow;
+    }
+
+    /**
+     * @return The rows kept, closest first and ties in order of row index
+     */
+    int[] rows() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                if(first.equals(second)) return 0;
+                return closer(distances[first], rows[first], distances[second], rows[second]) ? -1 : 1;
+            }
+        });
+        int[] sortedRows = new int[size];
+        for (int i = 0; i < size; i++) {
+            sortedRows[i] = rows[order[i]];
+        }
+        return sortedRows;
+    }
+
+    int size() {
+        return size;
+    }
+}
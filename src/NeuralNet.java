@@ -20,13 +20,19 @@ public class NeuralNet implements Serializable {
                 "\t-t trainingData.ser\n" +
                 "\t\tCreate a new from specific training data\n" +
                 "\t-balance\n" +
-                "\t\tDuplicate existing data points so that all classifications are equally likely\n" +
+                "\t\tWeight the data points so that all classifications are equally likely\n" +
                 "\t-loadNet net.csv\n" +
                 "\t\tLoad a previously saved network\n\n" +
 
                 "--What to do with the Neural Network--\n" +
                 "\t-x NUM\n" +
                 "\t\tn-fold cross validation\n" +
+                "\t-stratify\n" +
+                "\t\tGive every fold of the cross validation the same share of each classification\n" +
+                "\t-repeat NUM\n" +
+                "\t\tRepeat the cross validation NUM times with different folds\n" +
+                "\t-threads NUM\n" +
+                "\t\tThe most folds to train at the same time (defaults to the number of processors)\n" +
                 "\t-T testData.ser\n" +
                 "\t\tSpecify a file to use as test data\n" +
                 "\t-saveNet net.csv\n" +
@@ -41,7 +47,15 @@ public class NeuralNet implements Serializable {
                 "\t-v\n" +
                 "\t\tVerbose - show information of each fold\n" +
                 "\t-showWeights\n" +
-                "\t\tShow all starting and ending neural node weights\n";
+                "\t\tShow all starting and ending neural node weights\n" +
+                "\t-float\n" +
+                "\t\tKeep the data and the network's weights in single precision, using half the memory\n" +
+                "\t-sample NUM\n" +
+                "\t\tTrain on a random sample of NUM rows of the training data, read in a single pass\n" +
+                "\t-stratifiedSample NUM\n" +
+                "\t\tLike -sample, but keeping the proportions of the classes\n" +
+                "\t-offHeap\n" +
+                "\t\tKeep the training data outside the Java heap (binary data files are mapped rather than copied)\n";
 
         System.out.println(helpString);
         System.exit(1);
@@ -54,6 +68,9 @@ public class NeuralNet implements Serializable {
         String trainingDataFile = null;
         String testDataFile = null;
         int crossFoldNumFolds = -1;
+        boolean stratifyFolds = false;
+        int numRepeats = 1;
+        int numThreads = Runtime.getRuntime().availableProcessors();
         boolean balanceClasses = false;
         int numEpochs = 1;
         ArrayList<Integer> layerStructure = new ArrayList<>();
@@ -64,6 +81,10 @@ public class NeuralNet implements Serializable {
         String saveNetFilename = null;
         String loadNetFilename = null;
         boolean showWeights = false;
+        boolean singlePrecision = false;
+        boolean offHeap = false;
+        int sampleSize = 0;
+        boolean stratifiedSample = false;
 
         // read in optional arguments
         try {
@@ -88,6 +109,15 @@ public class NeuralNet implements Serializable {
                     case "-x":
                         crossFoldNumFolds = Integer.parseInt(args[++argNum]);
                         break;
+                    case "-stratify":
+                        stratifyFolds = true;
+                        break;
+                    case "-repeat":
+                        numRepeats = Integer.parseInt(args[++argNum]);
+                        break;
+                    case "-threads":
+                        numThreads = Integer.parseInt(args[++argNum]);
+                        break;
                     case "-balance":
                         balanceClasses = true;
                         break;
@@ -119,6 +149,17 @@ public class NeuralNet implements Serializable {
                     case "-showWeights":
                         showWeights = true;
                         break;
+                    case "-float":
+                        singlePrecision = true;
+                        break;
+                    case "-offHeap":
+                        offHeap = true;
+                        break;
+                    case "-sample":
+                    case "-stratifiedSample":
+                        stratifiedSample = args[argNum].equals("-stratifiedSample");
+                        sampleSize = Integer.parseInt(args[++argNum]);
+                        break;
                     default:
                         System.out.println("Unknown argument encountered: " + args[argNum] + " - use -h for help");
                         System.exit(0);
@@ -149,10 +190,10 @@ public class NeuralNet implements Serializable {
             System.out.println("Loaded network: " + net.toString());
             Data testData = new Data();
             FileIO.readFromFile(testDataFile, testData);
-            int numClassifications = testData.classifications.size();
-            int[][] confusionMatrix = new int[numClassifications][numClassifications];
-            double accuracy = determineAccuracy(testData, net, confusionMatrix);
-            System.out.println("Confusion matrix: \n" + MyTools.confusionMatrixString(testData.classifications, confusionMatrix) + "\n");
+            testData.setSinglePrecision(singlePrecision);
+            ClassificationMetrics metrics = new ClassificationMetrics(testData.classifications.size());
+            double accuracy = determineAccuracy(testData, net, metrics);
+            System.out.println("Confusion matrix: \n" + metrics.toString(testData.classifications));
             System.out.println("Accuracy: " + accuracy);
             System.exit(0);
 
@@ -166,10 +207,19 @@ public class NeuralNet implements Serializable {
 
 
         Data data = new Data();
-        if(trainingDataFile != null && !FileIO.readFromFile(trainingDataFile, data)) {
+        data.setOffHeap(offHeap);
+        // separate streams for sampling, splitting the folds and each fold's starting net, so that none of them
+        // depends on how much of the others has been used
+        RandomStreams streams = seedSpecified ? new RandomStreams(seed) : RandomStreams.unseeded();
+        RandomStreams netStreams = streams.child(1);
+        if(trainingDataFile != null && sampleSize > 0) {
+            ReservoirSampler.readSample(trainingDataFile, data, sampleSize, stratifiedSample, streams.child(2).random());
+        }
+        else if(trainingDataFile != null && !FileIO.readFromFile(trainingDataFile, data)) {
             System.out.println("Error reading training data. Quitting");
             System.exit(1);
         }
+        data.setSinglePrecision(singlePrecision);
 
         int numInputs = data.numAttributes;
         int numOutputs = data.classifications.size();
@@ -180,47 +230,67 @@ public class NeuralNet implements Serializable {
                 + ", " + numInputs + " inputs and " + numOutputs + " outputs");
 
         if(balanceClasses) {
-            data.bootstrapToBalanceClasses();
-        }
-        Random generator;
-        if(seedSpecified) {
-            generator = new Random(seed);
+            data.balanceClasses();
         }
-        else {
-            generator = new Random();
-        }
-
         ArrayList<String[]> accuracyOutput = new ArrayList<>();
 
         int numClassifications = data.classifications.size();
 
         if(crossFoldNumFolds != -1) {
-            data.initializeDataForCrossFoldValidation(crossFoldNumFolds);
-            double overallAccuracy = 0;
-            for (int foldNumber = 0; foldNumber < crossFoldNumFolds; foldNumber++) {
-                NeuralNet net = createNeuralNet(layerStructure, generator);
-                System.out.println("Fold " + foldNumber);
-                if(showWeights) System.out.println("Beginning neural net structure:\n" + net.toString());
-                net.learningRate = learningRate;
-                Data trainingData = data.getCrossFoldTrainingData(foldNumber);
-                Data testData = data.getCrossFoldTestData(foldNumber);
-                double accuracy = trainAndTest(trainingData, testData, numEpochs, net, verbose, numEpochsPerUpdate,
-                        accuracyOutput, foldNumber);
-                overallAccuracy += accuracy;
-                System.out.println("Accuracy of fold " + foldNumber + ", " + accuracy);
+            // the starting nets are all created before any fold starts, each from its fold's own stream
+            final NeuralNet[] nets = new NeuralNet[crossFoldNumFolds * numRepeats];
+            String[] startingStructures = new String[nets.length];
+            // each fold collects its own graph output, and they are combined in fold order at the end
+            final ArrayList<ArrayList<String[]>> foldAccuracyOutputs = new ArrayList<>();
+            for (int foldNumber = 0; foldNumber < nets.length; foldNumber++) {
+                nets[foldNumber] = createNeuralNet(layerStructure, netStreams.child(foldNumber).random(),
+                        singlePrecision);
+                nets[foldNumber].learningRate = learningRate;
+                startingStructures[foldNumber] = showWeights ? nets[foldNumber].toString() : null;
+                foldAccuracyOutputs.add(new ArrayList<String[]>());
+            }
+            final int epochs = numEpochs;
+            final int epochsPerUpdate = numEpochsPerUpdate;
+            CrossValidation.Result<NeuralNet> result = new CrossValidation(crossFoldNumFolds)
+                    .stratified(stratifyFolds)
+                    .repeats(numRepeats)
+                    .parallelism(numThreads)
+                    .streams(streams.child(0))
+                    .run(data, new CrossValidation.Trainer<NeuralNet>() {
+                        @Override
+                        public NeuralNet train(Data trainingData, Data testData, int foldNumber) {
+                            NeuralNet net = nets[foldNumber];
+                            NeuralNet.train(trainingData, testData, epochs, net, epochsPerUpdate,
+                                    foldAccuracyOutputs.get(foldNumber), foldNumber);
+                            return net;
+                        }
+                    }, new CrossValidation.Predictor<NeuralNet>() {
+                        @Override
+                        public int predict(NeuralNet net, Data testData, int row) {
+                            return indexOfPrediction(net, testData.columns(), row);
+                        }
+                    });
+
+            for(CrossValidation.Fold<NeuralNet> fold: result.folds()) {
+                System.out.println("Fold " + fold.number);
+                if(showWeights) System.out.println("Beginning neural net structure:\n" + startingStructures[fold.number]);
+                System.out.println("Confusion matrix: \n" + fold.metrics().toString(data.classifications));
+                System.out.println("Accuracy of fold " + fold.number + ", " + fold.accuracy());
                 if(showWeights) {
-                    System.out.println("Fold " + foldNumber + ", Ending neural net structure:\n" + net.toString());
+                    System.out.println("Fold " + fold.number + ", Ending neural net structure:\n" + fold.model().toString());
                     System.out.println("----------------------------------------------------------------------\n");
                 }
-
+                accuracyOutput.addAll(foldAccuracyOutputs.get(fold.number));
             }
-            System.out.println("Overall accuracy of all folds: " + (overallAccuracy / crossFoldNumFolds));
+            System.out.println("Confusion matrix of all folds: \n" + result.metrics().toString(data.classifications));
+            System.out.println("Overall accuracy of all folds: " + result.averageAccuracy());
         }
         else if(testDataFile != null){
             Data testData = new Data();
             FileIO.readFromFile(testDataFile, testData);
+            testData.setSinglePrecision(singlePrecision);
 
-            NeuralNet net = createNeuralNet(layerStructure, generator);
+            NeuralNet net = createNeuralNet(layerStructure, netStreams.child(0).random(), singlePrecision);
             net.learningRate = learningRate;
             if(showWeights) System.out.println("Before: " + net.toString());
             trainAndTest(data, testData, numEpochs, net, verbose, numEpochsPerUpdate,
@@ -252,12 +322,31 @@ public class NeuralNet implements Serializable {
     public static double trainAndTest(Data trainingData, Data testData, int numEpochs, NeuralNet net, boolean verbose,
                                     int numEpochsPerUpdate, ArrayList<String[]> accuracyOutput,
                                       int outputLabel) {
+        train(trainingData, testData, numEpochs, net, numEpochsPerUpdate, accuracyOutput, outputLabel);
+        ClassificationMetrics metrics = new ClassificationMetrics(trainingData.classifications.size());
+        double accuracy = determineAccuracy(testData, net, metrics);
+        System.out.println("Confusion matrix: \n" + metrics.toString(trainingData.classifications));
+        return accuracy;
+    }
+
+    /**
+     * Train a neural net using back propagation, periodically checking it against the test data for the graph
+     * @param trainingData The data used to train the neural net
+     * @param testData The data checked against for the graph - it has no effect on the training
+     * @param numEpochs The number of complete passes through the training data
+     * @param net A starting neural net, which is trained in place
+     * @param numEpochsPerUpdate Frequency of testing the data for the various reports
+     * @param accuracyOutput A list that will be written to file which is later used to generate the graph
+     * @param outputLabel The current fold number - only used in generating the graph
+     */
+    public static void train(Data trainingData, Data testData, int numEpochs, NeuralNet net, int numEpochsPerUpdate,
+                             ArrayList<String[]> accuracyOutput, int outputLabel) {
         int numClassifications = trainingData.classifications.size();
         for (int epochNum = 0; epochNum < numEpochs; epochNum++) {
             if(epochNum % numEpochsPerUpdate == 0) {
 //                int[][] confusionMatrix = new int[numClassifications][numClassifications];
-                int[][] confusionMatrix = new int[numClassifications][numClassifications];
-                double accuracy = determineAccuracy(testData, net, confusionMatrix);
+                ClassificationMetrics metrics = new ClassificationMetrics(numClassifications);
+                double accuracy = determineAccuracy(testData, net, metrics);
 //                if(verbose) System.out.println("Epoch " + epochNum + ": accuracy " + accuracy);
                 if(graphType == GraphType.Accuracy)
                     accuracyOutput.add(new String[]{"" + outputLabel, "" + epochNum, "" + accuracy}); // show change in accuracy over time
@@ -282,37 +371,36 @@ public class NeuralNet implements Serializable {
                     accuracyOutput.add(new String[]{"" + outputLabel, "" + epochNum, "" + sum});
                 }
                 else if(graphType == GraphType.ErrorCount) {
-                    int totalErrors = 0;
-                    for (int row = 0; row < confusionMatrix.length; row++) {
-                        for (int col = 0; col < confusionMatrix[row].length; col++) {
-                            if(row != col) {
-                                totalErrors += confusionMatrix[row][col];
-                            }
-                        }
-                    }
+                    long totalErrors = metrics.numTested() - metrics.numCorrect();
                     accuracyOutput.add(new String[]{"" + outputLabel, "" + epochNum, "" + totalErrors});
                 }
             }
             runEpoch(trainingData, net);
         }
-        int[][] confusionMatrix = new int[numClassifications][numClassifications];
-        double accuracy = determineAccuracy(testData, net, confusionMatrix);
-        System.out.println("Confusion matrix: \n" + MyTools.confusionMatrixString(trainingData.classifications, confusionMatrix) + "\n");
-        return accuracy;
     }
 
     /**
-     * Uses each dataPoint exactly once to train the neural net via back propagation
+     * Uses each dataPoint exactly once to train the neural net via back propagation. If the data is weighted, each
+     * point's step is scaled by its weight, as if its error were counted that many times
      * @param trainingData The data being used for training
      * @param net The current neural net
      */
     public static void runEpoch(Data trainingData, NeuralNet net) {
-        for(DataPoint point: trainingData.dataPoints) {
-            net.feedForward(point);
-            double[] outputs = new double[trainingData.classifications.size()];
-            Arrays.fill(outputs, 0);
-            outputs[point.classificationIndex] = 1;
-            net.backPropagate(outputs);
+        DataColumns columns = trainingData.columns();
+        double[] inputs = null;
+        double[] outputs = new double[trainingData.classifications.size()];
+        for (int row = 0; row < columns.numRows(); row++) {
+            if(columns.isSparse()) {
+                net.feedForward(columns.sparseRow(row));
+            }
+            else {
+                inputs = columns.copyRow(row, inputs);
+                net.feedForward(inputs);
+            }
+            int classIndex = columns.classIndex(row);
+            outputs[classIndex] = 1;
+            net.backPropagate(outputs, columns.weight(row));
+            outputs[classIndex] = 0;
         }
     }
 
@@ -320,18 +408,19 @@ public class NeuralNet implements Serializable {
      * Determines the accuracy of the current neural net in predicting the test data
      * @param testData The data to test against
      * @param net The neural net being tested
-     * @param confusionMatrix An already initialized n by n matrix where n is the number of classifications. This will
-     *                        be indexed by [actualClassification][predictedClassification]
+     * @param metrics Metrics to record each prediction in
      * @return The accuracy: number correct divided by total number predicted
      */
-    public static double determineAccuracy(Data testData, NeuralNet net, int[][] confusionMatrix) {
+    public static double determineAccuracy(Data testData, NeuralNet net, ClassificationMetrics metrics) {
         int numCorrectPredictions = 0;
-        for(DataPoint point: testData.dataPoints) {
-            int bestPrediction = indexOfPrediction(net, point);
-            confusionMatrix[point.classificationIndex][bestPrediction]++;
-            if(point.classificationIndex == bestPrediction) numCorrectPredictions++;
+        DataColumns columns = testData.columns();
+        for (int row = 0; row < columns.numRows(); row++) {
+            int classIndex = columns.classIndex(row);
+            int bestPrediction = indexOfPrediction(net, columns, row);
+            metrics.record(classIndex, bestPrediction);
+            if(classIndex == bestPrediction) numCorrectPredictions++;
         }
-        return (double)numCorrectPredictions / testData.dataPoints.size();
+        return (double)numCorrectPredictions / columns.numRows();
     }
 
     /**
@@ -341,7 +430,28 @@ public class NeuralNet implements Serializable {
      * @return The the index of the most likely classification
      */
     public static int indexOfPrediction(NeuralNet net, DataPoint point) {
-        double[] predictiveValues = net.feedForward(point);
+        return indexOfPrediction(net, DataColumns.toPrimitive(point.attributes));
+    }
+    public static int indexOfPrediction(NeuralNet net, double[] inputs) {
+        return indexOfHighestOutput(net.feedForward(inputs));
+    }
+
+    /**
+     * Make a prediction about the classification of a row of data, reading only its non-zero values if the data is
+     * sparse
+     * @param net The neural net being used to make the prediction
+     * @param columns The data
+     * @param row The row whose classification is being predicted
+     * @return The the index of the most likely classification
+     */
+    public static int indexOfPrediction(NeuralNet net, DataColumns columns, int row) {
+        if(columns.isSparse()) {
+            return indexOfHighestOutput(net.feedForward(columns.sparseRow(row)));
+        }
+        return indexOfPrediction(net, columns.copyRow(row, null));
+    }
+
+    private static int indexOfHighestOutput(double[] predictiveValues) {
         double highestValue = 0;
         int bestPrediction = -1;
         for (int i = 0; i < predictiveValues.length; i++) {
@@ -357,9 +467,10 @@ public class NeuralNet implements Serializable {
      * Initializes a neural net with a specific structure using a specified seed for the random values
      * @param layerStructure Num inputs, num nodes in first layer, num nodes in first hidden layer, ..., num outputs
      * @param generator An random number generator, potentially initialized with a specified seed
+     * @param singlePrecision True to keep the weights in single precision
      * @return A neural net with the specified structure and random weights
      */
-    private static NeuralNet createNeuralNet(ArrayList<Integer> layerStructure, Random generator) {
+    private static NeuralNet createNeuralNet(ArrayList<Integer> layerStructure, Random generator, boolean singlePrecision) {
         double[][][] weights = new double[layerStructure.size() - 1][][];
         int numLayers = layerStructure.size() - 1;
         for (int layerIndex = 0; layerIndex < numLayers; layerIndex++) {
@@ -373,11 +484,14 @@ public class NeuralNet implements Serializable {
                 }
             }
         }
-        return new NeuralNet(weights);
+        return new NeuralNet(weights, singlePrecision);
     }
 
     //------------------------------------------------------------------------------------------------------------------
 
+    // fixed so that nets saved by earlier versions can still be read
+    private static final long serialVersionUID = 599980990901723720L;
+
     final int numLayers;
     final NeuralNode[][] nodes;
     double learningRate = .01;
@@ -392,13 +506,22 @@ public class NeuralNet implements Serializable {
      * @param inputWeights indexed by [layer][node][weightIndex]. The bias weight comes at the end
      */
     public NeuralNet(double[][][] inputWeights) {
+        this(inputWeights, false);
+    }
+
+    /**
+     * Create a neural net with specific weights, optionally kept in single precision
+     * @param inputWeights indexed by [layer][node][weightIndex]. The bias weight comes at the end
+     * @param singlePrecision True to round the weights to floats and keep them that way as the net learns
+     */
+    public NeuralNet(double[][][] inputWeights, boolean singlePrecision) {
         numLayers = inputWeights.length;
         nodes = new NeuralNode[numLayers][];
         for (int i = 0; i < numLayers; i++) {
             int numNodesInLayer = inputWeights[i].length;
             nodes[i] = new NeuralNode[numNodesInLayer];
             for (int j = 0; j < numNodesInLayer; j++) {
-                nodes[i][j] = new NeuralNode(inputWeights[i][j]);
+                nodes[i][j] = singlePrecision ? new FloatNeuralNode(inputWeights[i][j]) : new NeuralNode(inputWeights[i][j]);
             }
         }
     }
@@ -416,18 +539,35 @@ public class NeuralNet implements Serializable {
      * @return The values of each of the outputs
      */
     public double[] feedForward(DataPoint point) {
-        int numAttributes = point.attributes.length;
-        double[] inputs = new double[numAttributes];
-        for (int attIndex = 0; attIndex < numAttributes; attIndex++) {
-            inputs[attIndex] = point.attributes[attIndex].getDouble();
-        }
-        return feedForward(inputs);
+        return feedForward(DataColumns.toPrimitive(point.attributes));
     }
     public double[] feedForward(double[] inputValues) {
-        double[] currentInputs = Arrays.copyOf(inputValues, inputValues.length);
-        double[] outputs = null;
+        return feedForward(Arrays.copyOf(inputValues, inputValues.length), 0);
+    }
+
+    /**
+     * Evaluate the neural net for sparse inputs. Only the first layer sees the inputs, so only its nodes take
+     * advantage of the zeros
+     * @param inputValues The non-zero inputs
+     * @return The values of each of the outputs
+     */
+    public double[] feedForward(SparseRow inputValues) {
+        double[] firstOutputs = new double[nodes[0].length];
+        for (int i = 0; i < firstOutputs.length; i++) {
+            firstOutputs[i] = nodes[0][i].evaluate(inputValues);
+        }
+        return feedForward(firstOutputs, 1);
+    }
 
-        for (int layer = 0; layer < numLayers; layer++) {
+    /**
+     * Evaluate the layers of the net from a given layer onwards
+     * @param currentInputs The inputs to the first of the layers
+     * @param firstLayer The index of the first layer to evaluate
+     * @return The values of each of the outputs
+     */
+    private double[] feedForward(double[] currentInputs, int firstLayer) {
+        double[] outputs = currentInputs;
+        for (int layer = firstLayer; layer < numLayers; layer++) {
             int numNodesInLayer = nodes[layer].length;
             outputs = new double[numNodesInLayer];
             for (int i = 0; i < numNodesInLayer; i++) {
@@ -443,6 +583,16 @@ public class NeuralNet implements Serializable {
      * @param targets The desired outputs
      */
     public void backPropagate(double[] targets) {
+        backPropagate(targets, 1);
+    }
+
+    /**
+     * Train the network so that the last evaluated set of inputs gets closer to an expected set of output, taking a
+     * bigger or smaller step depending on how much the inputs count for
+     * @param targets The desired outputs
+     * @param weight The weight of the inputs, which scales the learning rate
+     */
+    public void backPropagate(double[] targets, double weight) {
         // first determine all of the error values, starting with the output layer
         int layerIndex = nodes.length-1;
         int numNodesInLayer = nodes[layerIndex].length;
@@ -461,7 +611,7 @@ public class NeuralNet implements Serializable {
         }
         for (layerIndex = 0; layerIndex < nodes.length; layerIndex++) {
             for (int nodeIndex = 0; nodeIndex < nodes[layerIndex].length; nodeIndex++) {
-                nodes[layerIndex][nodeIndex].updateWeights(learningRate);
+                nodes[layerIndex][nodeIndex].updateWeights(learningRate * weight);
             }
         }
     }
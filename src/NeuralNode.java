@@ -5,10 +5,15 @@ import java.util.Arrays;
  * Created by jeff on 4/16/16.
  */
 public class NeuralNode implements Serializable {
+    // fixed so that nets saved before the sparse methods were added can still be read
+    private static final long serialVersionUID = -6045600895876908686L;
+
     final int numInputs;
     final double[] inputWeights;
     double lastOutput;
     double[] lastInputs;
+    // set instead of lastInputs when the last inputs were sparse
+    transient SparseRow lastSparseInputs;
     double lastError;
 
     public NeuralNode(double[] inputWeights) {
@@ -16,6 +21,15 @@ public class NeuralNode implements Serializable {
         this.inputWeights = inputWeights;
     }
 
+    /**
+     * For subclasses that keep their weights some other way
+     * @param numInputs The number of inputs, not including the bias
+     */
+    protected NeuralNode(int numInputs) {
+        this.numInputs = numInputs;
+        this.inputWeights = null;
+    }
+
     /**
      * Given an input values, calculate the output of this node
      * @param inputValues The inputs
@@ -23,10 +37,22 @@ public class NeuralNode implements Serializable {
      */
     public double evaluate(double[] inputValues) {
         lastInputs = inputValues;
-        double sum = 0;
-        for (int i = 0; i < numInputs; i++) {
-            sum += inputWeights[i] * inputValues[i];
-        }
+        lastSparseInputs = null;
+        double sum = VectorKernels.dot(inputWeights, inputValues, numInputs);
+        sum += inputWeights[numInputs]; // the bias weight
+        lastOutput = sigmoid(sum);
+        return lastOutput;
+    }
+
+    /**
+     * Given sparse input values, calculate the output of this node. Only the non-zero inputs are visited
+     * @param inputValues The inputs
+     * @return The value of the output
+     */
+    public double evaluate(SparseRow inputValues) {
+        lastInputs = null;
+        lastSparseInputs = inputValues;
+        double sum = inputValues.dot(inputWeights);
         sum += inputWeights[numInputs]; // the bias weight
         lastOutput = sigmoid(sum);
         return lastOutput;
@@ -71,11 +97,9 @@ public class NeuralNode implements Serializable {
      * Uses the value of the current error to determine how much error is propagated to each of the node's inputs
      * @return The error from each of the input nodes, used to propagate the error values
      */
-    private double[] propagatedErrors() {
+    double[] propagatedErrors() {
         double[] propagatedErrors = new double[numInputs];
-        for (int i = 0; i < numInputs; i++) {
-            propagatedErrors[i] = inputWeights[i] * lastError;
-        }
+        VectorKernels.scale(lastError, inputWeights, propagatedErrors, numInputs);
         return propagatedErrors;
     }
 
@@ -85,8 +109,14 @@ public class NeuralNode implements Serializable {
      * @param learningRate
      */
     public void updateWeights(double learningRate) {
-        for (int i = 0; i < numInputs; i++) {
-            inputWeights[i] += learningRate * lastError * lastInputs[i];
+        if(lastSparseInputs != null) {
+            // a zero input leaves its weight unchanged
+            for (int i = 0; i < lastSparseInputs.indices.length; i++) {
+                inputWeights[lastSparseInputs.indices[i]] += learningRate * lastError * lastSparseInputs.values[i];
+            }
+        }
+        else {
+            VectorKernels.axpy(learningRate * lastError, lastInputs, inputWeights, numInputs);
         }
         // updating the bias also
         inputWeights[numInputs] += learningRate * lastError;
@@ -0,0 +1,134 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ * Columnar storage that keeps each attribute outside the Java heap, in a direct buffer or a buffer mapped straight
+ * from a binary data file. The garbage collector never has to look at or move the values, so the heap only needs to be
+ * big enough for the classifications and whatever the learners build, however big the data is. Only absolute reads
+ * are used, so any number of threads (such as folds being trained at the same time) can share the buffers
+ */
+class OffHeapColumns extends DataColumns {
+    // one buffer per attribute, indexed by row of the shared buffers
+    final DoubleBuffer[] buffers;
+
+    private OffHeapColumns(int numAttributes, int[] classIndices, FoldRows rows, SampleWeights weights,
+                           DoubleBuffer[] buffers) {
+        super(numAttributes, classIndices, rows, weights);
+        this.buffers = buffers;
+    }
+
+    /**
+     * Wrap buffers that have already been filled, such as blocks mapped from a file
+     * @param buffers The values of each attribute, one buffer per attribute
+     * @param classIndices The classification index of each row
+     */
+    OffHeapColumns(DoubleBuffer[] buffers, int[] classIndices) {
+        this(buffers.length, classIndices, null, null, buffers);
+    }
+
+    /**
+     * Copy columns into direct buffers, keeping their weights
+     * @param columns Columns that aren't a view
+     * @return The columns stored off the heap
+     */
+    static OffHeapColumns of(DataColumns columns) {
+        if(columns.rows != null) {
+            System.out.println("Error in OffHeapColumns: only whole columns can be moved off the heap, not a view of them");
+            System.exit(0);
+        }
+        DoubleBuffer[] buffers = new DoubleBuffer[columns.numAttributes];
+        for (int att = 0; att < columns.numAttributes; att++) {
+            buffers[att] = allocate(columns.numRows);
+            for (int row = 0; row < columns.numRows; row++) {
+                buffers[att].put(row, columns.value(row, att));
+            }
+        }
+        return new OffHeapColumns(columns.numAttributes, columns.classIndices, null, columns.weights, buffers);
+    }
+
+    /**
+     * @param numValues The number of doubles the buffer must hold
+     * @return A new buffer outside the heap, filled with zeros
+     */
+    static DoubleBuffer allocate(int numValues) {
+        return ByteBuffer.allocateDirect(8 * numValues).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+    }
+
+    @Override
+    public DataColumns view(FoldRows rows) {
+        return new OffHeapColumns(numAttributes, classIndices, rows, weights, buffers);
+    }
+
+    @Override
+    public DataColumns weighted(SampleWeights weights) {
+        return new OffHeapColumns(numAttributes, classIndices, rows, weights, buffers);
+    }
+
+    @Override
+    public boolean isOffHeap() {
+        return true;
+    }
+
+    @Override
+    public double value(int row, int att) {
+        return buffers[att].get(physicalRow(row));
+    }
+
+    @Override
+    public double[] column(int att) {
+        double[] column = new double[numRows];
+        for (int row = 0; row < numRows; row++) {
+            column[row] = buffers[att].get(physicalRow(row));
+        }
+        return column;
+    }
+
+    @Override
+    public double[] copyRow(int row, double[] buffer) {
+        if(buffer == null || buffer.length < numAttributes) {
+            buffer = new double[numAttributes];
+        }
+        int physicalRow = physicalRow(row);
+        for (int att = 0; att < numAttributes; att++) {
+            buffer[att] = buffers[att].get(physicalRow);
+        }
+        return buffer;
+    }
+
+    @Override
+    public double distanceSquared(int row, double[] values) {
+        int physicalRow = physicalRow(row);
+        double distanceSquared = 0;
+        for (int att = 0; att < numAttributes; att++) {
+            double difference = buffers[att].get(physicalRow) - values[att];
+            distanceSquared += difference * difference;
+        }
+        return distanceSquared;
+    }
+
+    @Override
+    public double[] distancesSquared(double[] values, double[] distances) {
+        if(distances == null || distances.length < numRows) {
+            distances = new double[numRows];
+        }
+        // one attribute at a time, so each buffer is read straight through (for a mapped file, one block after
+        // another). Each row still adds up its attributes in order, so the distances are the same as distanceSquared
+        for (int row = 0; row < numRows; row++) {
+            distances[row] = 0;
+        }
+        for (int att = 0; att < numAttributes; att++) {
+            DoubleBuffer buffer = buffers[att];
+            double value = values[att];
+            for (int row = 0; row < numRows; row++) {
+                double difference = buffer.get(physicalRow(row)) - value;
+                distances[row] += difference * difference;
+            }
+        }
+        return distances;
+    }
+
+    public String toString() {
+        return "OffHeapColumns - " + numRows + " rows, " + numAttributes + " attributes";
+    }
+}
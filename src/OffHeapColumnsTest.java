@@ -0,0 +1,57 @@
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that columns moved off the heap give back exactly the values and distances of the dense columns
+ */
+public class OffHeapColumnsTest {
+
+    private static void assertSameColumns(DataColumns dense, DataColumns offHeap) {
+        assertEquals(dense.numRows(), offHeap.numRows());
+        assertEquals(dense.numAttributes(), offHeap.numAttributes());
+        double[] denseRow = null, offHeapRow = null;
+        for (int row = 0; row < dense.numRows(); row++) {
+            assertEquals(dense.classIndex(row), offHeap.classIndex(row));
+            assertEquals(dense.weight(row), offHeap.weight(row), 0);
+            denseRow = dense.copyRow(row, denseRow);
+            offHeapRow = offHeap.copyRow(row, offHeapRow);
+            assertArrayEquals(denseRow, offHeapRow, 0);
+        }
+        for (int att = 0; att < dense.numAttributes(); att++) {
+            assertArrayEquals(dense.column(att), offHeap.column(att), 0);
+        }
+        double[] point = dense.copyRow(1, null);
+        point[0] += 1;
+        assertArrayEquals(dense.distancesSquared(point, null), offHeap.distancesSquared(point, null), 0);
+        for (int row = 0; row < dense.numRows(); row++) {
+            assertEquals(dense.distanceSquared(row, point), offHeap.distanceSquared(row, point), 0);
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        DataColumns dense = TestColumns.withMissing(TestColumns.gaussian(500, 4, 3, 1), 30, 1);
+        DataColumns offHeap = OffHeapColumns.of(dense);
+        assertTrue(offHeap.isOffHeap());
+        assertFalse(offHeap.isSinglePrecision());
+        assertSameColumns(dense, offHeap);
+    }
+
+    @Test
+    public void testViewsAndWeights() throws Exception {
+        DataColumns dense = TestColumns.withMissing(TestColumns.gaussian(200, 3, 3, 2), 30, 2);
+        DataColumns offHeap = OffHeapColumns.of(dense);
+        FoldRows rows = new FoldRows(TestColumns.shuffledOrder(dense.numRows(), 3), 20, 90, 150, 200);
+        DataColumns offHeapView = offHeap.view(rows);
+        assertTrue(offHeapView.isOffHeap());
+        assertSameColumns(dense.view(rows), offHeapView);
+
+        double[] rowWeights = new double[dense.numRows()];
+        for (int row = 0; row < rowWeights.length; row++) {
+            rowWeights[row] = 1 + row % 4;
+        }
+        SampleWeights weights = new SampleWeights(rowWeights, new double[]{1, 2, .5});
+        assertSameColumns(dense.view(rows).weighted(weights), offHeapView.weighted(weights));
+    }
+}
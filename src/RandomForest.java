@@ -1,4 +1,5 @@
 import java.util.ArrayList;
+import java.util.Random;
 
 /**
  * Created by MTLC on 5/12/2016.
@@ -8,8 +9,18 @@ public class RandomForest {
 
     ArrayList<DecisionTree.Node> rootNodes;
     public RandomForest(Data trainingData, int sizeOfForest, double sufficientEntropy) {
+        this(trainingData, sizeOfForest, sufficientEntropy, new Random());
+    }
+
+    /**
+     * @param trainingData The data to grow the trees from, each tree leaving out a different share of it
+     * @param sizeOfForest The number of trees
+     * @param sufficientEntropy The entropy at which a node stops splitting
+     * @param generator The source of randomness for dividing the data between the trees
+     */
+    public RandomForest(Data trainingData, int sizeOfForest, double sufficientEntropy, Random generator) {
         rootNodes = new ArrayList<>(sizeOfForest);
-        trainingData.initializeDataForCrossFoldValidation(sizeOfForest);
+        trainingData.initializeDataForCrossFoldValidation(sizeOfForest, generator);
 
         // create the trees
         for (int treeNum = 0; treeNum < sizeOfForest; treeNum++) {
@@ -44,23 +55,42 @@ public class RandomForest {
     public static void main(String[] args) {
         String fileName = "forestFireData.csv";
         int numFolds = 10;
-        int sizeOfForest = 10;
-        double sufficientEntropy = .2;
+        final int sizeOfForest = 10;
+        final double sufficientEntropy = .2;
+        RandomStreams streams = RandomStreams.unseeded();
+        for (int argNum = 0; argNum < args.length; argNum++) {
+            if(args[argNum].equals("-seed")) {
+                streams = new RandomStreams(Long.parseLong(args[++argNum]));
+            }
+        }
+        // one stream splits the folds, and each fold's forest divides its data with a stream of its own
+        final RandomStreams forestStreams = streams.child(1);
 
 
         Data fullData = new Data();
         FileIO.readFromFile(fileName, fullData);
-        fullData.bootstrapToBalanceClasses();
-        fullData.initializeDataForCrossFoldValidation(numFolds);
-
-        for (int foldNum = 0; foldNum < numFolds; foldNum++) {
-            Data trainingData = fullData.getCrossFoldTrainingData(foldNum);
-            Data testData = fullData.getCrossFoldTestData(foldNum);
-            RandomForest forest = new RandomForest(trainingData, sizeOfForest, sufficientEntropy);
+        fullData.balanceClasses();
+        CrossValidation.Result<RandomForest> result = new CrossValidation(numFolds)
+                .streams(streams.child(0))
+                .run(fullData, new CrossValidation.Trainer<RandomForest>() {
+                    @Override
+                    public RandomForest train(Data trainingData, Data testData, int foldNumber) {
+                        return new RandomForest(trainingData, sizeOfForest, sufficientEntropy,
+                                forestStreams.child(foldNumber).random());
+                    }
+                }, new CrossValidation.Predictor<RandomForest>() {
+                    @Override
+                    public int predict(RandomForest forest, Data testData, int row) {
+                        // a tie between classifications goes to the first of them
+                        return forest.predictClassification(testData.dataPoints.get(row), testData.classifications.size()).get(0);
+                    }
+                });
+        for(CrossValidation.Fold<RandomForest> fold: result.folds()) {
+            // a tie between classifications gets a share of the credit if the right classification is among them
             int numMultiplePredictions = 0;
             double numCorrectPredictions = 0;
-            for(DataPoint testPoint: testData.dataPoints) {
-                ArrayList<Integer> predictions = forest.predictClassification(testPoint, testData.classifications.size());
+            for(DataPoint testPoint: fold.testData.dataPoints) {
+                ArrayList<Integer> predictions = fold.model().predictClassification(testPoint, fold.testData.classifications.size());
                 if(predictions.contains(testPoint.classificationIndex)) {
                     numCorrectPredictions += 1d / predictions.size();
                 }
@@ -68,8 +98,10 @@ public class RandomForest {
                     numMultiplePredictions++;
                 }
             }
-            System.out.println("Fold number " + foldNum + ", accuracy: " + (numCorrectPredictions / trainingData.dataPoints.size()) + ", multiplePredictions: " + numMultiplePredictions);
+            System.out.println("Fold number " + fold.number + ", accuracy: " + (numCorrectPredictions / fold.testData.dataPoints.size()) + ", multiplePredictions: " + numMultiplePredictions);
         }
+        // the confusion matrix needs a single prediction for each point, so there a tie goes to the first classification
+        System.out.println("Confusion matrix of all folds: \n" + result.metrics().toString(fullData.classifications));
     }
 
 
@@ -0,0 +1,64 @@
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * A tree of independent streams of random numbers, all derived from one seed. Each part of a run that needs random
+ * numbers - a fold, a repeat, a tree, a worker thread - takes its own numbered child stream, rather than sharing one
+ * generator. A child only depends on its parent's seed and its own number, not on how many other streams have been
+ * used or in what order, so a run with the same seed gets exactly the same numbers however many threads it uses and
+ * whichever thread gets to each part first.
+ *
+ * Seeds are mixed with SplittableRandom, so the streams of neighbouring numbers (or seeds) are unrelated
+ */
+public class RandomStreams {
+    // the step SplittableRandom takes between values, which spreads the children's seeds out before they're mixed
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private final long seed;
+
+    /**
+     * @param seed The seed every stream is derived from
+     */
+    public RandomStreams(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @return Streams with a seed that is different every run, for when the run doesn't need to be repeated
+     */
+    public static RandomStreams unseeded() {
+        return new RandomStreams(new SplittableRandom().nextLong());
+    }
+
+    public long seed() {
+        return seed;
+    }
+
+    /**
+     * The streams of one numbered part of the work
+     * @param index The number of the part, such as a fold number
+     * @return The part's streams, the same every time for the same seed and index
+     */
+    public RandomStreams child(long index) {
+        return new RandomStreams(new SplittableRandom(seed + (index + 1) * GOLDEN_GAMMA).nextLong());
+    }
+
+    /**
+     * @return A new generator of this stream's numbers. Every call starts the stream from the beginning, so each part
+     * of the work should take its own child rather than call this more than once
+     */
+    public Random random() {
+        return new Random(new SplittableRandom(seed).nextLong());
+    }
+
+    /**
+     * @return A new SplittableRandom of this stream's numbers, for code that would rather split it further itself
+     */
+    public SplittableRandom splittable() {
+        return new SplittableRandom(seed);
+    }
+
+    public String toString() {
+        return "RandomStreams - seed " + seed;
+    }
+}
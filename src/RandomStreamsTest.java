@@ -0,0 +1,177 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a seeded run gets exactly the same random numbers, and so exactly the same results, however many
+ * threads it runs on
+ */
+public class RandomStreamsTest {
+    public static final int NUM_CLASSIFICATIONS = 3;
+    public static final int NUM_THREADS = 4;
+
+    /**
+     * @return The first numbers of a stream
+     */
+    private static long[] firstNumbers(RandomStreams streams) {
+        Random random = streams.random();
+        long[] numbers = new long[20];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = random.nextLong();
+        }
+        return numbers;
+    }
+
+    /**
+     * @return Overlapping gaussian clusters, one for each class, drawn from the given stream
+     */
+    private static Data createData(int numRows, RandomStreams streams) {
+        Data data = new Data(new String[]{"x", "y", "z", "Class"}, new ArrayList<String>());
+        Random random = streams.random();
+        for (int row = 0; row < numRows; row++) {
+            int classIndex = random.nextInt(NUM_CLASSIFICATIONS);
+            Object[] attributes = {random.nextGaussian() + classIndex, random.nextGaussian() * 2 - classIndex,
+                    random.nextGaussian()};
+            data.addDataPoint(new DataPoint(attributes), "c" + classIndex);
+        }
+        return data;
+    }
+
+    @Test
+    public void testChildrenDependOnlyOnSeedAndNumber() throws Exception {
+        final RandomStreams streams = new RandomStreams(1);
+        long[][] inOrder = new long[50][];
+        for (int i = 0; i < inOrder.length; i++) {
+            inOrder[i] = firstNumbers(streams.child(i));
+        }
+        // the same children taken in reverse, and from several threads at once
+        for (int i = inOrder.length - 1; i >= 0; i--) {
+            assertArrayEquals(inOrder[i], firstNumbers(new RandomStreams(1).child(i)));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS);
+        try {
+            ArrayList<Future<long[]>> futures = new ArrayList<>();
+            for (int i = 0; i < inOrder.length; i++) {
+                final int index = i;
+                futures.add(pool.submit(new Callable<long[]>() {
+                    @Override
+                    public long[] call() {
+                        return firstNumbers(streams.child(index));
+                    }
+                }));
+            }
+            for (int i = 0; i < inOrder.length; i++) {
+                assertArrayEquals(inOrder[i], futures.get(i).get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        // different children, different seeds and grandchildren all get different numbers
+        for (int i = 1; i < inOrder.length; i++) {
+            assertFalse(inOrder[i][0] == inOrder[i - 1][0]);
+        }
+        assertFalse(firstNumbers(new RandomStreams(2).child(0))[0] == inOrder[0][0]);
+        assertFalse(firstNumbers(streams.child(0).child(0))[0] == inOrder[0][0]);
+        assertFalse(firstNumbers(streams)[0] == inOrder[0][0]);
+    }
+
+    /**
+     * Cross validate a neural net whose starting weights come from each fold's own stream, as NeuralNet.main does
+     * @return The confusion matrix and the trained weights of every fold
+     */
+    private static ArrayList<String> crossValidateNeuralNet(Data data, RandomStreams streams, int parallelism) {
+        final RandomStreams netStreams = streams.child(1);
+        CrossValidation.Result<NeuralNet> result = new CrossValidation(5).stratified(true).repeats(2)
+                .parallelism(parallelism)
+                .streams(streams.child(0))
+                .run(data, new CrossValidation.Trainer<NeuralNet>() {
+                    @Override
+                    public NeuralNet train(Data trainingData, Data testData, int foldNumber) {
+                        Random random = netStreams.child(foldNumber).random();
+                        int[] layerStructure = {3, 4, NUM_CLASSIFICATIONS};
+                        double[][][] weights = new double[layerStructure.length - 1][][];
+                        for (int layer = 0; layer < weights.length; layer++) {
+                            weights[layer] = new double[layerStructure[layer + 1]][layerStructure[layer] + 1];
+                            for(double[] nodeWeights: weights[layer]) {
+                                for (int i = 0; i < nodeWeights.length; i++) {
+                                    nodeWeights[i] = .05 * random.nextDouble();
+                                }
+                            }
+                        }
+                        NeuralNet net = new NeuralNet(weights);
+                        NeuralNet.train(trainingData, testData, 15, net, 100, new ArrayList<String[]>(), foldNumber);
+                        return net;
+                    }
+                }, new CrossValidation.Predictor<NeuralNet>() {
+                    @Override
+                    public int predict(NeuralNet net, Data testData, int row) {
+                        return NeuralNet.indexOfPrediction(net, testData.columns(), row);
+                    }
+                });
+        ArrayList<String> outcome = new ArrayList<>();
+        for(CrossValidation.Fold<NeuralNet> fold: result.folds()) {
+            outcome.add(fold.metrics().toString() + fold.model().toString());
+        }
+        outcome.add(result.metrics().toString());
+        return outcome;
+    }
+
+    /**
+     * Cross validate nearest neighbor voting, with each fold's test rows classified by a batch on several threads
+     * @return The predictions and confusion matrix of every fold
+     */
+    private static ArrayList<String> crossValidateKNN(Data data, RandomStreams streams, int parallelism) {
+        final int batchParallelism = parallelism;
+        CrossValidation.Result<int[]> result = new CrossValidation(5).stratified(true).repeats(2)
+                .parallelism(parallelism)
+                .streams(streams.child(0))
+                .run(data, new CrossValidation.Trainer<int[]>() {
+                    @Override
+                    public int[] train(Data trainingData, Data testData, int foldNumber) {
+                        // the model is simply every prediction the batch makes for the fold
+                        return new KNNBatch(trainingData.columns()).numNeighbors(0).parallelism(batchParallelism)
+                                .predictions(testData.columns(), NUM_CLASSIFICATIONS);
+                    }
+                }, new CrossValidation.Predictor<int[]>() {
+                    @Override
+                    public int predict(int[] predictions, Data testData, int row) {
+                        return predictions[row];
+                    }
+                });
+        ArrayList<String> outcome = new ArrayList<>();
+        for(CrossValidation.Fold<int[]> fold: result.folds()) {
+            outcome.add(fold.metrics().toString() + Arrays.toString(fold.model()));
+        }
+        outcome.add(result.metrics().toString());
+        return outcome;
+    }
+
+    @Test
+    public void testSeededNeuralNetSameOnAnyThreads() throws Exception {
+        RandomStreams streams = new RandomStreams(3);
+        Data data = createData(300, streams.child(2));
+        ArrayList<String> sequential = crossValidateNeuralNet(data, streams, 1);
+        assertEquals(sequential, crossValidateNeuralNet(data, streams, NUM_THREADS));
+        assertEquals(sequential, crossValidateNeuralNet(data, new RandomStreams(3), 10));
+        // another seed gives another run
+        assertFalse(sequential.equals(crossValidateNeuralNet(data, new RandomStreams(4), NUM_THREADS)));
+    }
+
+    @Test
+    public void testSeededKNNSameOnAnyThreads() throws Exception {
+        RandomStreams streams = new RandomStreams(5);
+        Data data = createData(600, streams.child(2));
+        ArrayList<String> sequential = crossValidateKNN(data, streams, 1);
+        assertEquals(sequential, crossValidateKNN(data, streams, NUM_THREADS));
+        assertEquals(sequential, crossValidateKNN(data, new RandomStreams(5), 10));
+        assertFalse(sequential.equals(crossValidateKNN(data, new RandomStreams(6), NUM_THREADS)));
+    }
+}
@@ -0,0 +1,172 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Loads a fixed size random sample of a data file in a single pass (reservoir sampling), so that a file of any size
+ * can be prototyped on. Rows are streamed from the file and only the rows currently in the sample are kept, so memory
+ * is bounded by the sample size rather than the size of the file. Every row of the file has the same chance of ending
+ * up in the sample.
+ *
+ * A stratified sample keeps a separate reservoir for each class, then takes from each class in proportion to how
+ * often it appeared in the file, so the sample has the file's class balance (memory is then bounded by the sample
+ * size for each class)
+ */
+public class ReservoirSampler {
+
+    /**
+     * The rows of the file chosen so far, for one class or for the whole file
+     */
+    private static class Reservoir {
+        final DataPoint[] points;
+        // the position of each point in the file, so the sample can be put back in file order
+        final long[] rowNumbers;
+        int size = 0;
+        long numSeen = 0;
+
+        Reservoir(int capacity) {
+            points = new DataPoint[capacity];
+            rowNumbers = new long[capacity];
+        }
+
+        /**
+         * Consider a row for the reservoir. The nth row seen replaces a random point with probability capacity / n,
+         * which leaves every row seen so far equally likely to be in the reservoir
+         */
+        void offer(CsvRowSource.Row row, long rowNumber, Random generator) {
+            numSeen++;
+            if(size < points.length) {
+                points[size] = row.toDataPoint();
+                rowNumbers[size++] = rowNumber;
+                return;
+            }
+            long replaceIndex = numSeen <= Integer.MAX_VALUE ? generator.nextInt((int) numSeen)
+                    : (long) (generator.nextDouble() * numSeen);
+            if(replaceIndex < points.length) {
+                // the row is only parsed into a point if it's kept
+                points[(int) replaceIndex] = row.toDataPoint();
+                rowNumbers[(int) replaceIndex] = rowNumber;
+            }
+        }
+    }
+
+    /**
+     * Read a random sample of the rows of a csv file
+     * @param fileName The csv file, in the layout FileIO.readFromFile expects
+     * @param data The data to add the sample to. If it already has classifications, the file's classifications are
+     *             matched up with them
+     * @param sampleSize The number of rows to keep - if the file has fewer, every row is kept
+     * @param stratified True to keep the classes in the same proportions as the file
+     * @param generator The source of randomness
+     * @return True if the file was read successfully
+     */
+    public static boolean readSample(String fileName, Data data, int sampleSize, boolean stratified, Random generator) {
+        if(sampleSize < 1) {
+            System.out.println("Error in ReservoirSampler: the sample size can't be " + sampleSize);
+            System.exit(0);
+        }
+        if(fileName.endsWith(BinaryDataFile.EXTENSION)) {
+            System.out.println("Error in ReservoirSampler: only csv files can be sampled - " + fileName);
+            System.exit(0);
+        }
+        CsvRowSource rows = CsvRowSource.open(fileName, data.classifications);
+        ArrayList<Reservoir> reservoirs = new ArrayList<>();
+        long rowNumber = 0;
+        for(CsvRowSource.Row row: rows) {
+            int reservoirIndex = stratified ? row.classificationIndex : 0;
+            while(reservoirs.size() <= reservoirIndex) {
+                reservoirs.add(new Reservoir(sampleSize));
+            }
+            reservoirs.get(reservoirIndex).offer(row, rowNumber++, generator);
+        }
+        try {
+            rows.close();
+        }
+        catch (IOException e) {
+            System.out.println("Error reading file - " + fileName);
+            e.printStackTrace();
+            System.exit(0);
+        }
+        if(data.attributeNames == null) {
+            data.setAttributeNames(rows.attributeNames);
+        }
+
+        int[] numToTake = numToTake(reservoirs, sampleSize, rowNumber);
+        ArrayList<DataPoint> samplePoints = new ArrayList<>();
+        final ArrayList<Long> sampleRowNumbers = new ArrayList<>();
+        for (int i = 0; i < reservoirs.size(); i++) {
+            Reservoir reservoir = reservoirs.get(i);
+            // a random subset of a random sample is itself a random sample
+            for (int j = 0; j < numToTake[i]; j++) {
+                int chosen = j + generator.nextInt(reservoir.size - j);
+                swap(reservoir, j, chosen);
+                samplePoints.add(reservoir.points[j]);
+                sampleRowNumbers.add(reservoir.rowNumbers[j]);
+            }
+        }
+
+        // add the sample in file order, so it doesn't depend on which reservoir each point came from
+        Integer[] order = new Integer[samplePoints.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return Long.compare(sampleRowNumbers.get(first), sampleRowNumbers.get(second));
+            }
+        });
+        for(int index: order) {
+            data.addDataPoint(samplePoints.get(index));
+        }
+        System.out.println("Sampled " + order.length + " of " + rowNumber + " rows of " + fileName);
+        return true;
+    }
+
+    /**
+     * Decide how many points to take from each reservoir. A single reservoir is taken whole; reservoirs of each class
+     * share the sample size in proportion to the number of rows of the class, with the rounding going to the classes
+     * with the biggest remainders
+     * @param reservoirs The reservoir of each class, or a single reservoir for the whole file
+     * @param sampleSize The size of the sample
+     * @param numRows The number of rows in the file
+     * @return The number of points to take from each reservoir
+     */
+    private static int[] numToTake(ArrayList<Reservoir> reservoirs, int sampleSize, long numRows) {
+        int[] numToTake = new int[reservoirs.size()];
+        if(numRows <= sampleSize || reservoirs.size() == 1) {
+            for (int i = 0; i < numToTake.length; i++) {
+                numToTake[i] = reservoirs.get(i).size;
+            }
+            return numToTake;
+        }
+        double[] remainders = new double[numToTake.length];
+        int numTaken = 0;
+        for (int i = 0; i < numToTake.length; i++) {
+            double share = (double) sampleSize * reservoirs.get(i).numSeen / numRows;
+            numToTake[i] = (int) share;
+            remainders[i] = share - numToTake[i];
+            numTaken += numToTake[i];
+        }
+        for (; numTaken < sampleSize; numTaken++) {
+            int biggest = 0;
+            for (int i = 1; i < remainders.length; i++) {
+                if(remainders[i] > remainders[biggest]) biggest = i;
+            }
+            numToTake[biggest]++;
+            remainders[biggest] = -1;
+        }
+        return numToTake;
+    }
+
+    private static void swap(Reservoir reservoir, int first, int second) {
+        DataPoint point = reservoir.points[first];
+        reservoir.points[first] = reservoir.points[second];
+        reservoir.points[second] = point;
+        long rowNumber = reservoir.rowNumbers[first];
+        reservoir.rowNumbers[first] = reservoir.rowNumbers[second];
+        reservoir.rowNumbers[second] = rowNumber;
+    }
+}
@@ -0,0 +1,121 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the size, order and class balance of samples read from a generated csv file
+ */
+public class ReservoirSamplerTest {
+
+    /**
+     * @return The class of a row of the file - most rows are of class a, some of class b and a handful of class c
+     */
+    private static String classOf(int row, int numSmallClassRows) {
+        if(row % 11 == 5 && row / 11 < numSmallClassRows) return "c";
+        return row % 10 == 3 ? "b" : "a";
+    }
+
+    /**
+     * Write a csv file whose first column numbers the rows, so every sampled point can be traced back to its row
+     */
+    private static File createCsvFile(int numRows, int numSmallClassRows) throws Exception {
+        File file = File.createTempFile("ReservoirSamplerTest", ".csv");
+        file.deleteOnExit();
+        PrintWriter writer = new PrintWriter(file, "US-ASCII");
+        writer.println("Row,Value,Class");
+        for (int row = 0; row < numRows; row++) {
+            writer.println(row + "," + (row * .5 - 7) + "," + classOf(row, numSmallClassRows));
+        }
+        writer.close();
+        return file;
+    }
+
+    /**
+     * Check that each sampled point holds its row of the file, and that the points are in file order
+     * @return The number of sampled points of each class, in the order a, b, c
+     */
+    private static int[] assertRowsInFileOrder(Data sample, int numSmallClassRows) {
+        int[] classCounts = new int[3];
+        int previousRow = -1;
+        for(DataPoint point: sample.dataPoints) {
+            int row = (int) (double) (Double) point.attributes[0].getValue();
+            assertTrue(row > previousRow);
+            assertEquals(row * .5 - 7, (Double) point.attributes[1].getValue(), 0);
+            String classification = sample.classifications.get(point.classificationIndex);
+            assertEquals(classOf(row, numSmallClassRows), classification);
+            classCounts[classification.charAt(0) - 'a']++;
+            previousRow = row;
+        }
+        return classCounts;
+    }
+
+    private static Data readSample(File file, int sampleSize, boolean stratified, long seed) {
+        Data sample = new Data();
+        assertTrue(ReservoirSampler.readSample(file.getPath(), sample, sampleSize, stratified, new Random(seed)));
+        return sample;
+    }
+
+    @Test
+    public void testSampleSizeAndOrder() throws Exception {
+        File file = createCsvFile(1000, 6);
+        for(boolean stratified: new boolean[]{false, true}) {
+            Data sample = readSample(file, 100, stratified, 1);
+            assertEquals(100, sample.numRows());
+            assertRowsInFileOrder(sample, 6);
+            // the same seed gives the same sample
+            Data again = readSample(file, 100, stratified, 1);
+            for (int row = 0; row < sample.numRows(); row++) {
+                assertEquals(sample.dataPoints.get(row).attributes[0].getValue(),
+                        again.dataPoints.get(row).attributes[0].getValue());
+            }
+        }
+    }
+
+    @Test
+    public void testWholeFileWhenSmallerThanSample() throws Exception {
+        File file = createCsvFile(40, 2);
+        for(boolean stratified: new boolean[]{false, true}) {
+            Data sample = readSample(file, 100, stratified, 2);
+            assertEquals(40, sample.numRows());
+            assertRowsInFileOrder(sample, 2);
+            for (int row = 0; row < 40; row++) {
+                assertEquals(row, (Double) sample.dataPoints.get(row).attributes[0].getValue(), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testStratifiedRounding() throws Exception {
+        // 1000 rows: 894 of class a, 100 of class b and 6 of class c
+        File file = createCsvFile(1000, 6);
+        // shares of 89.4, 10 and .6 - the rounding gives the remaining point to class c, with the biggest remainder
+        assertArrayEquals(new int[]{89, 10, 1}, assertRowsInFileOrder(readSample(file, 100, true, 3), 6));
+        // shares of 44.7, 5 and .3 - class a has the biggest remainder, so class c gets nothing
+        assertArrayEquals(new int[]{45, 5, 0}, assertRowsInFileOrder(readSample(file, 50, true, 4), 6));
+        // shares of 8.94, 1 and .06
+        assertArrayEquals(new int[]{9, 1, 0}, assertRowsInFileOrder(readSample(file, 10, true, 5), 6));
+    }
+
+    @Test
+    public void testRowsEquallyLikely() throws Exception {
+        File file = createCsvFile(200, 0);
+        int[] timesSampled = new int[200];
+        Random seeds = new Random(6);
+        for (int run = 0; run < 300; run++) {
+            Data sample = readSample(file, 20, false, seeds.nextLong());
+            for(DataPoint point: sample.dataPoints) {
+                timesSampled[(int) (double) (Double) point.attributes[0].getValue()]++;
+            }
+        }
+        // each row is expected 30 times, so the first and last halves of the file are each expected 3000 times
+        int firstHalf = 0;
+        for (int row = 0; row < 100; row++) {
+            firstHalf += timesSampled[row];
+        }
+        assertEquals(3000, firstHalf, 200);
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ * How much each row of some data counts for when learning. A row's weight is its own weight times the weight of its
+ * class, so classes can be balanced with one weight per class rather than by duplicating rows. Rows are identified by
+ * their index in the original data, so the same weights serve every fold and view of the data
+ */
+class SampleWeights {
+    // indexed by row of the original data, null when every row weighs 1 (rows past the end also weigh 1)
+    final double[] rowWeights;
+    // indexed by classification, null when every class weighs 1
+    final double[] classWeights;
+
+    SampleWeights(double[] rowWeights, double[] classWeights) {
+        this.rowWeights = rowWeights;
+        this.classWeights = classWeights;
+    }
+
+    /**
+     * @param originalRow The index of the row in the original data
+     * @param classIndex The row's classification index
+     * @return The weight of the row
+     */
+    double weight(int originalRow, int classIndex) {
+        double weight = 1;
+        if(rowWeights != null && originalRow < rowWeights.length) {
+            weight = rowWeights[originalRow];
+        }
+        if(classWeights != null) {
+            weight *= classWeights[classIndex];
+        }
+        return weight;
+    }
+}
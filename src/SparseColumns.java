@@ -0,0 +1,150 @@
+import java.util.Arrays;
+
+/**
+ * Data stored as sparse rows - only the non-zero values of each row are kept, along with their attribute indices,
+ * one row after another in shared arrays. Used in place of dense columns when most of the values are zero, so reading
+ * a single value takes a binary search but scans over rows, distances and dot products only visit the non-zero values
+ */
+class SparseColumns extends DataColumns {
+    // the non-zero values of each row of the shared arrays are at positions rowStarts[row] to rowStarts[row + 1] of
+    // attIndices and values, in increasing order of attribute
+    final int[] rowStarts;
+    final int[] attIndices;
+    final double[] values;
+
+    private SparseColumns(int numAttributes, int[] classIndices, FoldRows rows, SampleWeights weights,
+                          int[] rowStarts, int[] attIndices, double[] values) {
+        super(numAttributes, classIndices, rows, weights);
+        this.rowStarts = rowStarts;
+        this.attIndices = attIndices;
+        this.values = values;
+    }
+
+    /**
+     * Gather the non-zero values of dense columns into sparse rows
+     * @param columns The values of each attribute, indexed by [attribute][row], all finite (a missing or infinite
+     *                value would be kept as a non-zero value and can make distances NaN where dense distances aren't)
+     * @param classIndices The classification index of each row
+     * @param numNonZero The number of non-zero values in the columns
+     * @return The sparse form of the columns
+     */
+    static SparseColumns of(double[][] columns, int[] classIndices, int numNonZero) {
+        int numRows = classIndices.length;
+        int[] rowStarts = new int[numRows + 1];
+        int[] attIndices = new int[numNonZero];
+        double[] values = new double[numNonZero];
+        int position = 0;
+        for (int row = 0; row < numRows; row++) {
+            rowStarts[row] = position;
+            for (int att = 0; att < columns.length; att++) {
+                double value = columns[att][row];
+                if(value != 0) {
+                    attIndices[position] = att;
+                    values[position++] = value;
+                }
+            }
+        }
+        rowStarts[numRows] = position;
+        return new SparseColumns(columns.length, classIndices, null, null, rowStarts, attIndices, values);
+    }
+
+    @Override
+    public DataColumns view(FoldRows rows) {
+        return new SparseColumns(numAttributes, classIndices, rows, weights, rowStarts, attIndices, values);
+    }
+
+    @Override
+    public DataColumns weighted(SampleWeights weights) {
+        return new SparseColumns(numAttributes, classIndices, rows, weights, rowStarts, attIndices, values);
+    }
+
+    @Override
+    public boolean isSparse() {
+        return true;
+    }
+
+    /**
+     * @return The number of non-zero values stored, over all of the rows of the shared arrays
+     */
+    public int numNonZero() {
+        return values.length;
+    }
+
+    @Override
+    public double value(int row, int att) {
+        int physicalRow = physicalRow(row);
+        int i = Arrays.binarySearch(attIndices, rowStarts[physicalRow], rowStarts[physicalRow + 1], att);
+        return i < 0 ? 0 : values[i];
+    }
+
+    @Override
+    public double[] column(int att) {
+        double[] column = new double[numRows];
+        for (int row = 0; row < numRows; row++) {
+            column[row] = value(row, att);
+        }
+        return column;
+    }
+
+    @Override
+    public double[] copyRow(int row, double[] buffer) {
+        if(buffer == null || buffer.length < numAttributes) {
+            buffer = new double[numAttributes];
+        }
+        Arrays.fill(buffer, 0, numAttributes, 0);
+        int physicalRow = physicalRow(row);
+        for (int i = rowStarts[physicalRow]; i < rowStarts[physicalRow + 1]; i++) {
+            buffer[attIndices[i]] = values[i];
+        }
+        return buffer;
+    }
+
+    @Override
+    public SparseRow sparseRow(int row) {
+        int physicalRow = physicalRow(row);
+        int from = rowStarts[physicalRow];
+        int to = rowStarts[physicalRow + 1];
+        return new SparseRow(numAttributes, Arrays.copyOfRange(attIndices, from, to), Arrays.copyOfRange(values, from, to));
+    }
+
+    @Override
+    public double distanceSquared(int row, double[] point) {
+        return distanceSquared(row, point, normSquared(point));
+    }
+
+    @Override
+    public double[] distancesSquared(double[] point, double[] distances) {
+        if(distances == null || distances.length < numRows) {
+            distances = new double[numRows];
+        }
+        // the point's own norm is only found once, after which each row only visits its non-zero values
+        double normSquared = normSquared(point);
+        for (int row = 0; row < numRows; row++) {
+            distances[row] = distanceSquared(row, point, normSquared);
+        }
+        return distances;
+    }
+
+    /**
+     * Squared distance between a row and a dense point, using |a - b|^2 = |b|^2 + sum of (a^2 - 2ab) over the
+     * non-zero values of a (as SparseRow does)
+     */
+    private double distanceSquared(int row, double[] point, double pointNormSquared) {
+        int physicalRow = physicalRow(row);
+        double distanceSquared = pointNormSquared;
+        for (int i = rowStarts[physicalRow]; i < rowStarts[physicalRow + 1]; i++) {
+            double value = values[i];
+            distanceSquared += value * (value - 2 * point[attIndices[i]]);
+        }
+        // rounding can leave a tiny negative number when the points are (nearly) the same
+        return distanceSquared < 0 ? 0 : distanceSquared;
+    }
+
+    private double normSquared(double[] point) {
+        return VectorKernels.dot(point, point, numAttributes);
+    }
+
+    public String toString() {
+        return "SparseColumns - " + numRows + " rows, " + numAttributes + " attributes, " + values.length + " non-zero values";
+    }
+}
@@ -0,0 +1,92 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that sparse rows hold the same values as the dense columns they came from, and give the same distances
+ */
+public class SparseColumnsTest {
+    // the expanded sparse distance rounds differently from the dense sum of squared differences
+    public static final double RELATIVE_EPSILON = Math.pow(10, -9);
+
+    /**
+     * @return Columns with about one value in ten non-zero, and a class for each row
+     */
+    private static DataColumns createMostlyZeroColumns(int numRows, int numAttributes, long seed) {
+        Random random = new Random(seed);
+        double[][] columns = new double[numAttributes][numRows];
+        int[] classIndices = new int[numRows];
+        for (int row = 0; row < numRows; row++) {
+            for (int att = 0; att < numAttributes; att++) {
+                if(random.nextInt(10) == 0) {
+                    columns[att][row] = random.nextGaussian();
+                }
+            }
+            classIndices[row] = random.nextInt(3);
+        }
+        return new DataColumns(columns, classIndices);
+    }
+
+    @Test
+    public void testCompactKeepsValues() throws Exception {
+        DataColumns dense = createMostlyZeroColumns(200, 30, 1);
+        DataColumns sparse = DataColumns.compact(dense);
+        assertTrue(sparse.isSparse());
+        double[] denseRow = null, sparseRow = null;
+        for (int row = 0; row < dense.numRows(); row++) {
+            assertEquals(dense.classIndex(row), sparse.classIndex(row));
+            denseRow = dense.copyRow(row, denseRow);
+            sparseRow = sparse.copyRow(row, sparseRow);
+            assertArrayEquals(denseRow, sparseRow, 0);
+            assertArrayEquals(denseRow, sparse.sparseRow(row).toDense(null), 0);
+            for (int att = 0; att < dense.numAttributes(); att++) {
+                assertEquals(dense.value(row, att), sparse.value(row, att), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testDistancesMatchDense() throws Exception {
+        DataColumns dense = createMostlyZeroColumns(300, 40, 2);
+        DataColumns sparse = DataColumns.compact(dense);
+        assertTrue(sparse.isSparse());
+        Random random = new Random(3);
+        for (int test = 0; test < 20; test++) {
+            // half of the points are rows of the data, half are dense random points
+            double[] point = test % 2 == 0 ? dense.copyRow(random.nextInt(dense.numRows()), null) : new double[40];
+            if(test % 2 == 1) {
+                for (int att = 0; att < point.length; att++) {
+                    point[att] = random.nextGaussian();
+                }
+            }
+            double[] denseDistances = dense.distancesSquared(point, null);
+            double[] sparseDistances = sparse.distancesSquared(point, null);
+            SparseRow sparsePoint = SparseRow.of(point, point.length);
+            for (int row = 0; row < dense.numRows(); row++) {
+                double expected = denseDistances[row];
+                double tolerance = RELATIVE_EPSILON * (1 + expected);
+                assertEquals(expected, dense.distanceSquared(row, point), 0);
+                assertEquals(expected, sparseDistances[row], tolerance);
+                assertEquals(expected, sparse.distanceSquared(row, point), tolerance);
+                assertEquals(expected, sparse.sparseRow(row).distanceSquared(sparsePoint), tolerance);
+                assertEquals(expected, sparse.sparseRow(row).distanceSquared(point, VectorKernels.dot(point, point,
+                        point.length)), tolerance);
+            }
+        }
+    }
+
+    @Test
+    public void testMissingValuesStayDense() throws Exception {
+        DataColumns withMissing = createMostlyZeroColumns(100, 20, 4);
+        withMissing.columns[5][17] = Double.NaN;
+        DataColumns compacted = DataColumns.compact(withMissing);
+        assertFalse(compacted.isSparse());
+        // only the row with the missing value is too far to be a neighbor
+        double[] distances = compacted.distancesSquared(new double[20], null);
+        for (int row = 0; row < compacted.numRows(); row++) {
+            assertEquals(row == 17, Double.isNaN(distances[row]));
+        }
+    }
+}
@@ -0,0 +1,154 @@
+import java.util.Arrays;
+
+/**
+ * A row of data that only stores its non-zero values, along with the index of the attribute each belongs to. Data with
+ * thousands of mostly zero attributes (bag of words counts, one-hot categories) takes far less memory this way, and
+ * dot products and distances only need to visit the non-zero values. Missing values (NaN) count as non-zero
+ */
+class SparseRow {
+    final int numAttributes;
+    // the attributes with non-zero values, in increasing order
+    final int[] indices;
+    final double[] values;
+
+    /**
+     * @param numAttributes The number of attributes, including those that are zero
+     * @param indices The attributes with non-zero values, in increasing order
+     * @param values The value of each of those attributes
+     */
+    SparseRow(int numAttributes, int[] indices, double[] values) {
+        this.numAttributes = numAttributes;
+        this.indices = indices;
+        this.values = values;
+    }
+
+    /**
+     * Keep only the non-zero values of a dense row
+     * @param dense The value of every attribute
+     * @param numAttributes The number of attributes, which may be less than the length of the array
+     * @return The sparse form of the row
+     */
+    static SparseRow of(double[] dense, int numAttributes) {
+        int numNonZero = 0;
+        for (int att = 0; att < numAttributes; att++) {
+            if(dense[att] != 0) numNonZero++;
+        }
+        int[] indices = new int[numNonZero];
+        double[] values = new double[numNonZero];
+        int i = 0;
+        for (int att = 0; att < numAttributes; att++) {
+            if(dense[att] != 0) {
+                indices[i] = att;
+                values[i++] = dense[att];
+            }
+        }
+        return new SparseRow(numAttributes, indices, values);
+    }
+
+    int numNonZero() {
+        return indices.length;
+    }
+
+    /**
+     * @param att The index of an attribute
+     * @return The value of the attribute, found by binary search
+     */
+    double value(int att) {
+        int i = Arrays.binarySearch(indices, att);
+        return i < 0 ? 0 : values[i];
+    }
+
+    /**
+     * Copy the row into a dense array, allowing the caller to reuse the array between rows
+     * @param buffer An array of at least numAttributes length, or null to allocate a new one
+     * @return The buffer holding the value of every attribute
+     */
+    double[] toDense(double[] buffer) {
+        if(buffer == null || buffer.length < numAttributes) {
+            buffer = new double[numAttributes];
+        }
+        Arrays.fill(buffer, 0, numAttributes, 0);
+        for (int i = 0; i < indices.length; i++) {
+            buffer[indices[i]] = values[i];
+        }
+        return buffer;
+    }
+
+    /**
+     * @param weights A weight for each attribute (any entries past the attributes are ignored)
+     * @return The sum of each value times its weight, which only visits the non-zero values
+     */
+    double dot(double[] weights) {
+        double sum = 0;
+        for (int i = 0; i < indices.length; i++) {
+            sum += weights[indices[i]] * values[i];
+        }
+        return sum;
+    }
+
+    /**
+     * @return The sum of the squares of the values
+     */
+    double normSquared() {
+        double sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            sum += values[i] * values[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Squared euclidean distance to another sparse row, walking the non-zero values of both rows together
+     * @param other A row with the same attributes
+     * @return The squared distance
+     */
+    double distanceSquared(SparseRow other) {
+        double distanceSquared = 0;
+        int i = 0, j = 0;
+        while(i < indices.length && j < other.indices.length) {
+            double difference;
+            if(indices[i] == other.indices[j]) {
+                difference = values[i++] - other.values[j++];
+            }
+            else if(indices[i] < other.indices[j]) {
+                difference = values[i++];
+            }
+            else {
+                difference = other.values[j++];
+            }
+            distanceSquared += difference * difference;
+        }
+        for (; i < indices.length; i++) {
+            distanceSquared += values[i] * values[i];
+        }
+        for (; j < other.indices.length; j++) {
+            distanceSquared += other.values[j] * other.values[j];
+        }
+        return distanceSquared;
+    }
+
+    /**
+     * Squared euclidean distance to a dense point, using |a - b|^2 = |b|^2 + sum of (a^2 - 2ab) over the non-zero
+     * values of a, so that only the non-zero values are visited
+     * @param dense The value of every attribute of the other point
+     * @param denseNormSquared The sum of the squares of the other point's values
+     * @return The squared distance
+     */
+    double distanceSquared(double[] dense, double denseNormSquared) {
+        double distanceSquared = denseNormSquared;
+        for (int i = 0; i < indices.length; i++) {
+            double value = values[i];
+            distanceSquared += value * (value - 2 * dense[indices[i]]);
+        }
+        // rounding can leave a tiny negative number when the points are (nearly) the same
+        return distanceSquared < 0 ? 0 : distanceSquared;
+    }
+
+    public String toString() {
+        String output = "SparseRow - " + indices.length + " of " + numAttributes + " non-zero:";
+        for (int i = 0; i < indices.length; i++) {
+            output += " " + indices[i] + ":" + values[i];
+        }
+        return output;
+    }
+}
@@ -0,0 +1,123 @@
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Random columns, row orderings and queries shared by the tests of the column storage, the indexes and the batch
+ */
+class TestColumns {
+
+    /**
+     * @param numRows The number of rows
+     * @param numAttributes The number of attributes
+     * @param numClassifications The number of classes the rows are spread over at random
+     * @param seed The seed of the values
+     * @return Columns of gaussian values, each attribute on a larger scale than the one before
+     */
+    static DataColumns gaussian(int numRows, int numAttributes, int numClassifications, long seed) {
+        Random random = new Random(seed);
+        double[][] columns = new double[numAttributes][numRows];
+        int[] classIndices = new int[numRows];
+        for (int row = 0; row < numRows; row++) {
+            for (int att = 0; att < numAttributes; att++) {
+                columns[att][row] = random.nextGaussian() * (att + 1);
+            }
+            classIndices[row] = random.nextInt(numClassifications);
+        }
+        return new DataColumns(columns, classIndices);
+    }
+
+    /**
+     * @param numRows The number of rows
+     * @param numAttributes The number of attributes
+     * @param numValues The number of whole numbers, from 0, each value is picked from
+     * @param numClassifications The number of classes the rows are spread over at random
+     * @param seed The seed of the values
+     * @return Columns of values on a small grid, so there are many ties and duplicate rows
+     */
+    static DataColumns grid(int numRows, int numAttributes, int numValues, int numClassifications, long seed) {
+        Random random = new Random(seed);
+        double[][] columns = new double[numAttributes][numRows];
+        int[] classIndices = new int[numRows];
+        for (int row = 0; row < numRows; row++) {
+            for (int att = 0; att < numAttributes; att++) {
+                columns[att][row] = random.nextInt(numValues);
+            }
+            classIndices[row] = random.nextInt(numClassifications);
+        }
+        return new DataColumns(columns, classIndices);
+    }
+
+    /**
+     * Make some of the values of dense columns missing
+     * @param columns Dense columns that aren't a view, which are changed
+     * @param oneIn About one value in this many becomes NaN
+     * @param seed The seed of the values picked
+     * @return The columns
+     */
+    static DataColumns withMissing(DataColumns columns, int oneIn, long seed) {
+        Random random = new Random(seed);
+        for(double[] column: columns.columns) {
+            for (int row = 0; row < column.length; row++) {
+                if(random.nextInt(oneIn) == 0) {
+                    column[row] = Double.NaN;
+                }
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * @param numRows The number of rows
+     * @param seed The seed of the shuffle
+     * @return The row indices from 0 to numRows in a random order
+     */
+    static int[] shuffledOrder(int numRows, long seed) {
+        int[] order = new int[numRows];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Data.shuffle(order, new Random(seed));
+        return order;
+    }
+
+    /**
+     * @param columns The columns the queries are made for
+     * @param numQueries The number of queries
+     * @param seed The seed of the queries
+     * @return A third each of rows of the columns, points near them and points far outside them
+     */
+    static double[][] queries(DataColumns columns, int numQueries, long seed) {
+        Random random = new Random(seed);
+        double[][] queries = new double[numQueries][];
+        for (int i = 0; i < numQueries; i++) {
+            queries[i] = columns.copyRow(random.nextInt(columns.numRows()), null);
+            if(i % 3 == 0) continue;
+            for (int att = 0; att < queries[i].length; att++) {
+                queries[i][att] += random.nextGaussian() * (i % 3 == 1 ? .5 : 50);
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * Check that an index finds exactly the rows a scan of the columns finds, in the same order
+     * @param columns The columns the index was built from
+     * @param index The index
+     * @param queries The points to search for
+     */
+    static void assertSameAsScan(DataColumns columns, NeighborIndex index, double[][] queries) {
+        int[] numNeighbors = {1, 3, 10, 50};
+        double[] radii = {0, .5, 2};
+        for(double[] query: queries) {
+            for(int k: numNeighbors) {
+                assertArrayEquals(KNN.nearestNeighbors(columns, null, query, k),
+                        KNN.nearestNeighbors(columns, index, query, k));
+            }
+            for(double radius: radii) {
+                assertArrayEquals(KNN.neighborsWithinRadius(columns, null, query, radius),
+                        KNN.neighborsWithinRadius(columns, index, query, radius));
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+import java.util.Arrays;
+
+/**
+ * A vantage point tree over the rows of training data, for finding neighbors when there are too many attributes for a
+ * k-d tree to skip much. Each node picks one of its rows as the vantage point and splits the rest at the median of
+ * their distance from it, into an inner ball and an outer shell. By the triangle inequality, a point at distance d
+ * from the vantage point is at least d - (radius of the ball) from every row inside the ball, and at least (inner
+ * radius of the shell) - d from every row in the shell, so a search skips whichever side can't hold a closer row.
+ *
+ * Only the metric's distances are used, never the attributes themselves, so the tree works with any metric. With
+ * Metric.EUCLIDEAN the rows found are exactly those of a scan of DataColumns distances. Because the triangle
+ * inequality only holds for the rounded distances to within a few units in the last place, a side is only skipped
+ * when it is further than the furthest neighbor by more than SLACK of the distances involved
+ */
+class VPTree implements NeighborIndex {
+    // the most rows a node holds without being split
+    static final int LEAF_SIZE = 8;
+    // the relative margin by which a side must be too far before it is skipped
+    static final double SLACK = 1e-9;
+    // below this many rows a scan is quick enough that the tree isn't worth building
+    static final int MIN_ROWS = 1024;
+
+    private final Metric metric;
+    private final int numAttributes;
+    // the row index in the original columns, and the values, of the row at each position. The vantage point of a node
+    // is at its first position
+    private final int[] rowOf;
+    private final double[][] points;
+    // nodes are numbered as a binary heap (children of node n are 2n + 1 and 2n + 2). A node with more than LEAF_SIZE
+    // rows has its vantage point at its first position, the ball from the next position to the middle and the shell
+    // from the middle on
+    private double[] ballRadii = new double[0];
+    private double[] shellRadii = new double[0];
+
+    /**
+     * @param columns The training data. The tree holds a copy, so it is unaffected by later changes to the columns
+     * @param metric The distance between points
+     */
+    VPTree(DataColumns columns, Metric metric) {
+        this.metric = metric;
+        numAttributes = columns.numAttributes();
+        int[] rows = new int[columns.numRows()];
+        double[][] rowValues = new double[columns.numRows()][];
+        int numRows = 0;
+        for (int row = 0; row < columns.numRows(); row++) {
+            double[] values = columns.copyRow(row, null);
+            if(allFinite(values)) {
+                rows[numRows] = row;
+                rowValues[numRows++] = values;
+            }
+        }
+        rowOf = Arrays.copyOf(rows, numRows);
+        points = Arrays.copyOf(rowValues, numRows);
+        if(numRows > 0) {
+            build(0, 0, numRows, points[0], new double[numRows]);
+        }
+    }
+
+    /**
+     * A vantage point tree pays off when the rows lie close to a space of fewer dimensions than the number of
+     * attributes, which is typical of real data but can't be told from the number of attributes, so this only checks
+     * there are enough rows. On random data with 30 attributes, searches are slower than a scan
+     * @param columns Training data
+     * @return True if there are enough rows for a tree to be worth trying
+     */
+    static boolean worthBuilding(DataColumns columns) {
+        return columns.numRows() >= MIN_ROWS;
+    }
+
+    private boolean allFinite(double[] values) {
+        for (int att = 0; att < numAttributes; att++) {
+            if(!Double.isFinite(values[att])) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of rows in the tree
+     */
+    int numRows() {
+        return rowOf.length;
+    }
+
+    /**
+     * @return The position of the middle of a node, where its shell starts
+     */
+    private static int middle(int from, int to) {
+        return from + 1 + (to - from - 1) / 2;
+    }
+
+    /**
+     * Pick a node's vantage point and split the rest of its rows into a ball and a shell around it, and then split
+     * each of those
+     * @param node The number of the node
+     * @param from The node's first position (inclusive)
+     * @param to The node's last position (exclusive)
+     * @param parentVantage The values of the parent's vantage point. The row furthest from it becomes this node's
+     *                      vantage point, so vantage points are spread out over the edges of the data
+     * @param distances Somewhere to keep the distance of each position from the vantage point
+     */
+    private void build(int node, int from, int to, double[] parentVantage, double[] distances) {
+        if(to - from <= LEAF_SIZE) return;
+        if(node >= ballRadii.length) {
+            int length = Math.max(2 * node + 1, 16);
+            ballRadii = Arrays.copyOf(ballRadii, length);
+            shellRadii = Arrays.copyOf(shellRadii, length);
+        }
+        int vantage = from;
+        double furthest = -1;
+        for (int position = from; position < to; position++) {
+            double distance = metric.distance(points[position], parentVantage, numAttributes);
+            if(distance > furthest) {
+                furthest = distance;
+                vantage = position;
+            }
+        }
+        swap(from, vantage, distances);
+        double[] vantageValues = points[from];
+        for (int position = from + 1; position < to; position++) {
+            distances[position] = metric.distance(points[position], vantageValues, numAttributes);
+        }
+        int middle = middle(from, to);
+        select(from + 1, to, middle, distances);
+        double ballRadius = 0;
+        for (int position = from + 1; position < middle; position++) {
+            ballRadius = Math.max(ballRadius, distances[position]);
+        }
+        ballRadii[node] = ballRadius;
+        shellRadii[node] = distances[middle];
+        build(2 * node + 1, from + 1, middle, vantageValues, distances);
+        build(2 * node + 2, middle, to, vantageValues, distances);
+    }
+
+    /**
+     * Reorder positions so that the one at target has the distance it would have if they were sorted by distance,
+     * with distances no larger before it and no smaller after it (quickselect)
+     */
+    private void select(int from, int to, int target, double[] distances) {
+        int low = from;
+        int high = to - 1;
+        while(low < high) {
+            double pivot = distances[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while(i <= j) {
+                while(distances[i] < pivot) i++;
+                while(distances[j] > pivot) j--;
+                if(i <= j) {
+                    swap(i++, j--, distances);
+                }
+            }
+            if(target <= j) {
+                high = j;
+            }
+            else if(target >= i) {
+                low = i;
+            }
+            else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int first, int second, double[] distances) {
+        int row = rowOf[first];
+        rowOf[first] = rowOf[second];
+        rowOf[second] = row;
+        double[] values = points[first];
+        points[first] = points[second];
+        points[second] = values;
+        double distance = distances[first];
+        distances[first] = distances[second];
+        distances[second] = distance;
+    }
+
+    @Override
+    public int[] nearest(double[] values, int numNeighbors) {
+        NeighborList neighbors = NeighborList.nearest(Math.min(numNeighbors, rowOf.length));
+        visit(0, 0, rowOf.length, values, neighbors);
+        return neighbors.rows();
+    }
+
+    @Override
+    public int[] withinRadius(double[] values, double radius) {
+        NeighborList neighbors = NeighborList.withinRadius(radius);
+        visit(0, 0, rowOf.length, values, neighbors);
+        return neighbors.rows();
+    }
+
+    /**
+     * Offer the rows of a node to the neighbors, the side of the split the point is on first
+     * @param node The number of the node
+     * @param from The node's first position (inclusive)
+     * @param to The node's last position (exclusive)
+     * @param values The attribute values of the point being searched for
+     * @param neighbors The rows found so far
+     */
+    private void visit(int node, int from, int to, double[] values, NeighborList neighbors) {
+        if(to - from <= LEAF_SIZE) {
+            for (int position = from; position < to; position++) {
+                neighbors.offer(rowOf[position], metric.distance(points[position], values, numAttributes));
+            }
+            return;
+        }
+        double distance = metric.distance(points[from], values, numAttributes);
+        neighbors.offer(rowOf[from], distance);
+        int middle = middle(from, to);
+        double ballRadius = ballRadii[node];
+        double shellRadius = shellRadii[node];
+        if(distance < shellRadius) {
+            visit(2 * node + 1, from + 1, middle, values, neighbors);
+            if(!canSkip(shellRadius - distance, shellRadius + distance, neighbors)) {
+                visit(2 * node + 2, middle, to, values, neighbors);
+            }
+        }
+        else {
+            visit(2 * node + 2, middle, to, values, neighbors);
+            if(!canSkip(distance - ballRadius, ballRadius + distance, neighbors)) {
+                visit(2 * node + 1, from + 1, middle, values, neighbors);
+            }
+        }
+    }
+
+    /**
+     * @param lowerBound The smallest distance any row of a side can be from the point, by the triangle inequality
+     * @param scale The sum of the distances the bound came from, which sets how far it can be off by rounding
+     * @param neighbors The rows found so far
+     * @return True if no row of the side could be kept
+     */
+    private static boolean canSkip(double lowerBound, double scale, NeighborList neighbors) {
+        return neighbors.canSkip(lowerBound - SLACK * scale);
+    }
+
+    public String toString() {
+        return "VPTree - " + rowOf.length + " rows, " + numAttributes + " attributes, " + metric + " metric";
+    }
+}
@@ -0,0 +1,54 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that searches of a vantage point tree find exactly the rows a scan of the columns finds, in the same order
+ */
+public class VPTreeTest {
+
+    /**
+     * @return Rows lying near a plane in many attributes, the kind of data the tree is meant for
+     */
+    private static DataColumns createPlaneColumns(int numRows, int numAttributes, long seed) {
+        Random random = new Random(seed);
+        double[][] columns = new double[numAttributes][numRows];
+        int[] classIndices = new int[numRows];
+        for (int row = 0; row < numRows; row++) {
+            double x = random.nextGaussian(), y = random.nextGaussian();
+            for (int att = 0; att < numAttributes; att++) {
+                columns[att][row] = x * (att % 3) + y * (att % 4) + random.nextGaussian() * .01;
+            }
+            classIndices[row] = random.nextInt(2);
+        }
+        return new DataColumns(columns, classIndices);
+    }
+
+    @Test
+    public void testNearestMatchesScan() throws Exception {
+        DataColumns columns = createPlaneColumns(3000, 12, 1);
+        VPTree tree = new VPTree(columns, Metric.EUCLIDEAN);
+        assertEquals(columns.numRows(), tree.numRows());
+        TestColumns.assertSameAsScan(columns, tree, TestColumns.queries(columns, 80, 2));
+    }
+
+    @Test
+    public void testTiesMatchScan() throws Exception {
+        // rows on a grid are at equal distances, which must be broken by row index as the scan does
+        DataColumns columns = TestColumns.grid(2000, 4, 3, 2, 3);
+        TestColumns.assertSameAsScan(columns, new VPTree(columns, Metric.EUCLIDEAN),
+                TestColumns.queries(columns, 80, 4));
+    }
+
+    @Test
+    public void testSmallTrees() throws Exception {
+        for (int numRows = 1; numRows <= 20; numRows++) {
+            DataColumns columns = numRows % 2 == 0 ? TestColumns.grid(numRows, 3, 3, 2, numRows)
+                    : createPlaneColumns(numRows, 3, numRows);
+            TestColumns.assertSameAsScan(columns, new VPTree(columns, Metric.EUCLIDEAN),
+                    TestColumns.queries(columns, 6, numRows));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * The inner loops of the learners - dot products, squared distances and scaled additions over primitive arrays -
+ * kept in one place. Only the loops that work element by element (axpy, scale and the column at a time distance
+ * update) are turned into SIMD instructions by the JIT compiler, which is why many distances are best found a column
+ * at a time rather than a row at a time. The reductions (dot and distanceSquared) stay plain scalar loops: the JIT
+ * won't reorder a floating point sum, and adding up in lanes would give results that differ in the last bits.
+ *
+ * Sums are added up in order, so every result is exactly what a plain loop gives, and a distance found a column at
+ * a time matches the same distance found a row at a time. The scans, the indexes and the batch all break ties
+ * between equal distances by row, so they rely on this. For the same reason these are plain Java rather than the
+ * incubating Vector API, whose reductions add up lane by lane, and which would need the incubator module added to
+ * compile and run
+ */
+final class VectorKernels {
+    private VectorKernels() {
+    }
+
+    /**
+     * A scalar loop, adding up the products in order
+     * @param first An array of at least length values
+     * @param second An array of at least length values
+     * @param length The number of values to use from the start of each array
+     * @return The sum of first[i] * second[i]
+     */
+    static double dot(double[] first, double[] second, int length) {
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += first[i] * second[i];
+        }
+        return sum;
+    }
+
+    /**
+     * A scalar loop, adding up the squared differences in order. Many distances to the same point are found faster a
+     * column at a time with addSquaredDifferences, which gives the same sums
+     * @param first An array of at least length values
+     * @param second An array of at least length values
+     * @param length The number of values to use from the start of each array
+     * @return The squared euclidean distance between the two arrays
+     */
+    static double distanceSquared(double[] first, double[] second, int length) {
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            double difference = first[i] - second[i];
+            sum += difference * difference;
+        }
+        return sum;
+    }
+
+    /**
+     * y += alpha * x, element by element
+     * @param alpha The scale of x
+     * @param x An array of at least length values
+     * @param y The array to add to
+     * @param length The number of values to update
+     */
+    static void axpy(double alpha, double[] x, double[] y, int length) {
+        for (int i = 0; i < length; i++) {
+            y[i] += alpha * x[i];
+        }
+    }
+
+    /**
+     * result = alpha * x, element by element
+     * @param alpha The scale
+     * @param x An array of at least length values
+     * @param result The array to fill
+     * @param length The number of values to fill
+     */
+    static void scale(double alpha, double[] x, double[] result, int length) {
+        for (int i = 0; i < length; i++) {
+            result[i] = alpha * x[i];
+        }
+    }
+
+    /**
+     * Add one attribute's contribution to the squared distances between many rows and a point:
+     * sums[row] += (column[row] - value)^2. Working a column at a time keeps each row's additions in attribute order,
+     * so the distances come out exactly as a row at a time loop gives, while every step is vectorized
+     * @param column The attribute's value for each row
+     * @param value The point's value of the attribute
+     * @param sums The running squared distance of each row
+     * @param numRows The number of rows to update
+     */
+    static void addSquaredDifferences(double[] column, double value, double[] sums, int numRows) {
+        for (int row = 0; row < numRows; row++) {
+            double difference = column[row] - value;
+            sums[row] += difference * difference;
+        }
+    }
+
+    /**
+     * The single precision version of addSquaredDifferences
+     */
+    static void addSquaredDifferences(float[] column, float value, float[] sums, int numRows) {
+        for (int row = 0; row < numRows; row++) {
+            float difference = column[row] - value;
+            sums[row] += difference * difference;
+        }
+    }
+}